@@ -288,12 +288,24 @@ def get_accounting_data(cursor, dbname, all_dbnames, result):
 # -----
 
 def parse_raw_logs(raw_logs):
-    """Convert a list of raw logs into a list of dictionaries"""
+    """Convert a list of raw logs into a list of dictionaries.
+
+    Logs are CSV documents with a header line and one record line as sent by current
+    clients, optionally followed by an empty line and the resource samples of the run.
+    Logs of older clients consist of the raw getdelays data set lines. Logs without
+    accounting data are skipped.
+    """
 
     ACC_DATASET_PATTERN = '\\(((\\w+: \\d+;)+)\\)'
     ACC_DATAPOINT_PATTERN = '(\\w+): (\\d+);'
 
     def parse(rlog):
+        if not rlog.startswith('('):
+            acc = rlog.split('\n\n')[0]
+            row = next(csv.DictReader(io.StringIO(acc)), None)
+            if row is None:
+                return None
+            return dict((k, int(v)) for k, v in row.items() if k != 'pid' and v)
         final_data = dict()
         for lin in rlog.split('\n'):
             data = re.match(ACC_DATASET_PATTERN, lin).group(1)
@@ -302,7 +314,7 @@ def parse_raw_logs(raw_logs):
         return final_data
     # --
 
-    return [parse(l) for l in raw_logs]
+    return [d for d in (parse(l) for l in raw_logs) if d is not None]
 # -----
 
 def get_raw_log_data(cursor, dbname, all_dbnames, result):
@@ -0,0 +1,63 @@
+package de.grinder.android_fi.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.grinder.android_fi.AccountingParser;
+import de.grinder.android_fi.AccountingRecord;
+
+/**
+ * Benchmark for the collection of the getdelays accounting data, which replaced
+ * {@code Emulator.collectAccountingStats()}: all console lines pass the parser, the last
+ * lines carry the accounting data of the emulator.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccountingParserBenchmark {
+
+    private List<String> lines;
+
+    private AccountingParser parser;
+
+    private int pid;
+
+    @Setup
+    public void setup() throws IOException {
+        lines = ConsoleLogs.load();
+        parser = new AccountingParser("bench");
+        for (final String line : lines) {
+            if (line.startsWith("TGID\t")) {
+                pid = Integer.parseInt(line.substring(5).trim());
+            }
+        }
+        if (pid == 0) {
+            throw new IOException("Console log contains no accounting data");
+        }
+    }
+
+    @Benchmark
+    public String parseAndFormat() {
+        parser.reset();
+        for (final String line : lines) {
+            parser.onLine(line);
+        }
+        final AccountingRecord r = parser.getRecord(pid);
+        return r.toCsv();
+    }
+}
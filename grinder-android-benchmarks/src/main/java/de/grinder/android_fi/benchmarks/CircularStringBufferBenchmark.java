@@ -0,0 +1,75 @@
+package de.grinder.android_fi.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.grinder.android_fi.experimentResultDetection.CircularStringBuffer;
+
+/**
+ * Benchmarks for the console ring buffer, which receives every console line of every
+ * emulator and is searched by the detectors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CircularStringBufferBenchmark {
+
+    /** Size of the console buffer of the emulator output capturer. */
+    private static final int BUFFER_SIZE = 10 * 1024;
+
+    private CircularStringBuffer buffer;
+
+    private int next = 0;
+
+    private String[] lines;
+
+    @Setup
+    public void setup() throws IOException {
+        final List<String> log = ConsoleLogs.load();
+        lines = new String[log.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = log.get(i) + "\n";
+        }
+        // a full buffer that wrapped around, as during an experiment
+        buffer = new CircularStringBuffer(BUFFER_SIZE);
+        for (final String line : ConsoleLogs.repeat(log, 4 * log.size())) {
+            buffer.put(line + "\n");
+        }
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return buffer.contains("Kernel command line:");
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return buffer.contains("Kernel panic");
+    }
+
+    @Benchmark
+    public void put() {
+        buffer.put(lines[next]);
+        next = (next + 1) % lines.length;
+    }
+
+    @Benchmark
+    public String toStringFull() {
+        return buffer.toString();
+    }
+}
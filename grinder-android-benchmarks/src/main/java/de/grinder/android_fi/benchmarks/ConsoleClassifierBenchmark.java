@@ -0,0 +1,54 @@
+package de.grinder.android_fi.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier;
+
+/**
+ * Benchmark for the console classification of the external detector, which replaced the
+ * periodic buffer scans of the former mutation stimulated detector. Every console line is
+ * classified exactly once on the capturing thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsoleClassifierBenchmark {
+
+    private ConsoleClassifier classifier;
+
+    private List<String> lines;
+
+    @Setup
+    public void setup() throws IOException {
+        lines = ConsoleLogs.load();
+        classifier = new ConsoleClassifier("bench");
+    }
+
+    /**
+     * Classifies all lines of one console log.
+     */
+    @Benchmark
+    public void classifyLog(final Blackhole bh) {
+        classifier.reset();
+        for (final String line : lines) {
+            bh.consume(classifier.onLine(line));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package de.grinder.android_fi.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Console logs that feed the benchmarks.
+ * <p>
+ * By default, the bundled {@code emulator-console.log} is used, which contains the console
+ * output of one experiment run: the getdelays and emulator start-up lines, the kernel boot
+ * log, fault injection lines of an instrumented module and the accounting data sets that
+ * getdelays prints when the emulator terminates. A recorded log of another run can be used
+ * instead by passing its path in the system property {@value #LOG_PROPERTY}, e.g.,
+ * {@code java -Dafi.bench.console.log=run-42.log -jar target/benchmarks.jar}. Note that
+ * JMH forks benchmark JVMs, so the property has to be passed with {@code -jvmArgs} as
+ * well.
+ */
+public final class ConsoleLogs {
+
+    /** System property with the path of a recorded console log. */
+    public static final String LOG_PROPERTY = "afi.bench.console.log";
+
+    private static final String BUNDLED_LOG = "/emulator-console.log";
+
+    private ConsoleLogs() {
+    }
+
+    /**
+     * Loads the console log.
+     *
+     * @return The lines without line terminators.
+     * @throws IOException
+     *           If the log cannot be read.
+     */
+    public static List<String> load() throws IOException {
+        final String path = System.getProperty(LOG_PROPERTY);
+        final InputStream in = path != null ? new FileInputStream(path) : ConsoleLogs.class
+                               .getResourceAsStream(BUNDLED_LOG);
+        if (in == null) {
+            throw new IOException("Bundled console log not found: " + BUNDLED_LOG);
+        }
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in,
+                    StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Concatenates the lines of the console log until the given number of lines is reached,
+     * e.g., for simulating long-running experiments.
+     *
+     * @param lines
+     *          The console log lines.
+     * @param count
+     *          The number of lines to return.
+     * @return The repeated lines.
+     */
+    public static List<String> repeat(final List<String> lines, final int count) {
+        final List<String> result = new ArrayList<>(count);
+        while (result.size() < count) {
+            result.addAll(lines.subList(0, Math.min(lines.size(), count - result.size())));
+        }
+        return result;
+    }
+
+    /**
+     * Joins lines as they are printed to the console.
+     *
+     * @return The lines, each terminated by a line feed.
+     */
+    public static String join(final List<String> lines) {
+        final StringBuilder sb = new StringBuilder();
+        for (final String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
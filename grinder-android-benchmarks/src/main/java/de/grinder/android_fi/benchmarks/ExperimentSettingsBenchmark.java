@@ -0,0 +1,92 @@
+package de.grinder.android_fi.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.grinder.android_fi.ExperimentSettings;
+import de.grinder.android_fi.ExperimentSettings.SettingsException;
+
+/**
+ * Benchmark for loading the experiment settings, which every target does on construction.
+ * The bundled {@code grinder-afi.properties} is loaded with an environment that provides
+ * all remaining settings, like the {@code env.sh} of a host.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExperimentSettingsBenchmark {
+
+    private final Map<String, String> env = new HashMap<>();
+
+    private File properties;
+
+    @Setup
+    public void setup() throws IOException {
+        properties = File.createTempFile("grinder-afi", ".properties");
+        try (InputStream in = ExperimentSettingsBenchmark.class.getResourceAsStream(
+                                  "/grinder-afi.properties")) {
+            Files.copy(in, properties.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // append settings of a typical multi-emulator host
+        try (FileOutputStream out = new FileOutputStream(properties, true)) {
+            out.write(("\nimage_prestaging=true\nadb_wire_protocol=true\n"
+                       + "parallelism_control=true\nresource_sample_period=1000\n").getBytes("UTF-8"));
+        }
+        final String home = "/opt/afi";
+        env.put("AFI_HOME", home);
+        env.put("AFI_SCRIPT_DIR", home + "/scripts");
+        env.put("ANDROID_PLATFORM_TOOLS", home + "/sdk/platform-tools");
+        env.put("ANDROID_SDK_TOOLS", home + "/sdk/tools");
+        env.put("ARCH", "arm");
+        env.put("AFI_EXE_GETDELAYS", home + "/getdelays/getdelays");
+        env.put("AFI_KERNEL_BIMAGE", home + "/images/zImage");
+        env.put("AFI_SYSIMG", home + "/images/system.img");
+        env.put("AFI_VSYSIMG", home + "/images/system-vanilla.img");
+        env.put("AFI_DATIMG", home + "/images/userdata.img");
+        env.put("AFI_VDATIMG", home + "/images/userdata-vanilla.img");
+        env.put("AFI_SDIMG", home + "/images/sdcard.img");
+        env.put("AFI_VSDIMG", home + "/images/sdcard-vanilla.img");
+        env.put("AFI_WL_PATH", home + "/workload/bin/Workload.apk");
+        env.put("AFI_WL_PACK", "de.grinder.android_fi");
+        env.put("AFI_WL_CLASS", "de.grinder.android_fi.Workload");
+        env.put("AFI_AVDSYS_BIN_DIR", "/data/afi/bin");
+        env.put("AFI_AVDSYS_MOD_DIR", "/data/afi/modules");
+        env.put("AFI_AVD_NAME", "afi");
+        env.put("AFI_GRINDER_LKM_NAME", "grinder");
+        env.put("AFI_CANDE_LIGHT_NAME", "cande_light");
+        env.put("AFI_CANDE_HEAVY_NAME", "cande_heavy");
+        env.put("AFI_WL_FLAGFILE", "/data/afi/workload.flag");
+    }
+
+    @TearDown
+    public void tearDown() {
+        properties.delete();
+    }
+
+    @Benchmark
+    public ExperimentSettings load() throws SettingsException {
+        return new ExperimentSettings(properties.getPath(), env);
+    }
+}
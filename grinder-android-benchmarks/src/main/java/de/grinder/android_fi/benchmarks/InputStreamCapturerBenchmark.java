@@ -0,0 +1,89 @@
+package de.grinder.android_fi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.grinder.android_fi.AccountingParser;
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier;
+import de.grinder.android_fi.experimentResultDetection.InputStreamCapturer;
+import de.grinder.android_fi.experimentResultDetection.LineListener;
+
+/**
+ * Benchmark for the line ingestion of the emulator output capturer: reading, buffering and
+ * dispatching the console lines to the line listeners that are registered during an
+ * experiment, i.e., the console classifier and the accounting parser. The measured time
+ * covers the ingestion of the whole console log. Since stopping the capturer waits for
+ * late output, each iteration ingests the log once (single shot).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+@State(Scope.Thread)
+public class InputStreamCapturerBenchmark {
+
+    /** Number of ingested console lines. */
+    @Param({ "1000", "10000" })
+    public int lines;
+
+    private InputStreamCapturer capturer;
+
+    private byte[] data;
+
+    private CountDownLatch done;
+
+    @Setup
+    public void setup() throws IOException {
+        data = ConsoleLogs.join(ConsoleLogs.repeat(ConsoleLogs.load(), lines)).getBytes(
+                   StandardCharsets.UTF_8);
+        capturer = new InputStreamCapturer("bench");
+        capturer.addLineListener(new ConsoleClassifier("bench"));
+        capturer.addLineListener(new AccountingParser("bench"));
+        capturer.addLineListener(new LineListener() {
+            private int count = 0;
+
+            @Override
+            public boolean onLine(final String line) {
+                if (++count % lines == 0) {
+                    done.countDown();
+                }
+                return true;
+            }
+        });
+    }
+
+    @Setup(Level.Iteration)
+    public void arm() {
+        done = new CountDownLatch(1);
+    }
+
+    @Benchmark
+    public void ingest() throws InterruptedException {
+        capturer.startCapturing(new ByteArrayInputStream(data));
+        done.await();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws IOException {
+        capturer.stopCapturing();
+    }
+}
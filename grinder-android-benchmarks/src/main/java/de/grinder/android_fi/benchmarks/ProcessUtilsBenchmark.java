@@ -0,0 +1,62 @@
+package de.grinder.android_fi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.grinder.android_fi.ProcessUtils;
+import de.grinder.android_fi.ProcessUtils.ProcUtilException;
+
+/**
+ * Benchmark for the liveness check of the emulator process, which every detector period
+ * performs for every emulator. A {@code sleep} process stands in for the emulator.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessUtilsBenchmark {
+
+    private int pid;
+
+    private Process process;
+
+    private long startTime;
+
+    @Setup
+    public void setup() throws ProcUtilException {
+        process = ProcessUtils.startProcessPipe("sleep", "3600");
+        pid = ProcessUtils.getPid(process);
+        startTime = ProcessUtils.getStartTime(pid);
+    }
+
+    @TearDown
+    public void tearDown() {
+        process.destroy();
+    }
+
+    @Benchmark
+    public boolean isRunning() throws ProcUtilException {
+        return ProcessUtils.isRunning(pid);
+    }
+
+    /**
+     * Liveness check with PID reuse detection, as used by the emulator.
+     */
+    @Benchmark
+    public boolean isRunningStartTime() throws ProcUtilException {
+        return ProcessUtils.isRunning(pid, startTime);
+    }
+}
@@ -0,0 +1,105 @@
+package de.grinder.android_fi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.grinder.android_fi.experimentResultDetection.LineListener;
+
+/**
+ * Line listener that parses the accounting output of {@code getdelays} while it is printed.
+ * <p>
+ * When a process terminates, getdelays prints a line {@code TGID\t<pid>} (or
+ * {@code PID\t<pid>}), followed by one data set line per enabled statistics group. Each
+ * data set line is parsed right when it arrives and added to the {@link AccountingRecord}
+ * of the PID, i.e., the accounting data is not lost if the console output buffer of the
+ * capturer wraps around. The record ends with the first line that is not a data set.
+ * <p>
+ * The parser stays registered across emulator restarts and must be {@link #reset()} on
+ * start.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class AccountingParser implements LineListener {
+
+    private final Logger LOGGER;
+
+    /** Record that currently receives data sets or {@code null} outside of a record. */
+    private AccountingRecord current = null;
+
+    private final Map<Integer, AccountingRecord> records = new HashMap<>();
+
+    /**
+     * Creates a parser.
+     *
+     * @param logId
+     *          The log ID of the emulator whose output is parsed.
+     */
+    public AccountingParser(final String logId) {
+        LOGGER = LoggerFactory.getLogger(String.format("%s<%s>", AccountingParser.class
+                                         .getName(), logId));
+    }
+
+    /**
+     * Retrieves the accounting record of the given process.
+     *
+     * @param pid
+     *          The PID of the process.
+     * @return The record or {@code null} if no data sets were reported for the process.
+     */
+    public synchronized AccountingRecord getRecord(final int pid) {
+        final AccountingRecord r = records.get(pid);
+        return r != null && !r.isEmpty() ? r : null;
+    }
+
+    @Override
+    public synchronized boolean onLine(final String line) {
+        final int pid = parsePidLine(line);
+        if (pid > 0) {
+            current = new AccountingRecord(pid);
+            records.put(pid, current);
+        } else if (current != null) {
+            if (current.addDataSet(line)) {
+                LOGGER.debug(String.format("Parsed accounting data set: %s", line));
+            } else {
+                if (current.isEmpty()) {
+                    LOGGER.warn(String.format("Saw invalid accounting data line: %s", line));
+                }
+                current = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a getdelays PID line.
+     *
+     * @return The PID or {@code 0} if the line is not a PID line.
+     */
+    private static int parsePidLine(final String line) {
+        final String rest;
+        if (line.startsWith("TGID\t")) {
+            rest = line.substring(5);
+        } else if (line.startsWith("PID\t")) {
+            rest = line.substring(4);
+        } else {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(rest.trim());
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Discards all records, e.g., when the emulator is restarted.
+     */
+    public synchronized void reset() {
+        current = null;
+        records.clear();
+    }
+}
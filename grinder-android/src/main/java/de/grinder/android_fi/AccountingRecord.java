@@ -0,0 +1,206 @@
+package de.grinder.android_fi;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accounting data of one process as reported by {@code getdelays} when the process
+ * terminates.
+ * <p>
+ * {@code getdelays} prints the PID of the terminated process followed by one data set line
+ * per enabled statistics group, e.g., {@code (cpu_count: 12;cpu_delay_total: 3400;)}. The
+ * values of all data sets are collected in one record by the {@link AccountingParser}.
+ * Well-known values are available through typed getters, all values through
+ * {@link #get(String)}.
+ * <p>
+ * Records are transferred as CSV with the fixed columns {@link #CSV_COLUMNS}, see
+ * {@link #toCsv()}, so that the values can be stored as numeric columns without parsing
+ * the getdelays output again.
+ */
+public class AccountingRecord {
+
+    /**
+     * The CSV columns in output order. Besides the PID, these are the values of the basic,
+     * delay, I/O and context switch statistics that are enabled for the emulator.
+     */
+    public static final String[] CSV_COLUMNS = { "pid",
+        "ac_etime", "ac_utime", "ac_stime", "ac_minflt", "ac_majflt",
+        "cpu_count", "cpu_run_real_total", "cpu_run_virtual_total", "cpu_delay_total",
+        "blkio_count", "blkio_delay_total", "swapin_count", "swapin_delay_total",
+        "freepages_count", "freepages_delay_total", "coremem", "virtmem", "hiwater_rss",
+        "hiwater_vm", "read_bytes", "write_bytes", "cancelled_write_bytes",
+        "voluntary_context_switches", "involuntary_context_switches"
+    };
+
+    private final int pid;
+
+    private final Map<String, Long> values = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty record.
+     *
+     * @param pid
+     *          The PID of the process the record belongs to.
+     */
+    public AccountingRecord(final int pid) {
+        this.pid = pid;
+    }
+
+    /**
+     * Parses a getdelays data set line and adds its values to this record.
+     *
+     * @param line
+     *          The data set line, e.g., {@code (read_bytes: 4096;write_bytes: 0;)}.
+     * @return {@code True} if the line is a valid data set, {@code false} otherwise. The
+     *         record is not modified for invalid lines.
+     */
+    boolean addDataSet(final String line) {
+        if (line.length() < 3 || line.charAt(0) != '(' || !line.endsWith(";)")) {
+            return false;
+        }
+        final Map<String, Long> parsed = new LinkedHashMap<>();
+        for (final String entry : line.substring(1, line.length() - 2).split(";")) {
+            final int sep = entry.indexOf(": ");
+            if (sep <= 0) {
+                return false;
+            }
+            final String name = entry.substring(0, sep);
+            for (int i = 0; i < name.length(); i++) {
+                final char c = name.charAt(i);
+                if (!(Character.isLetterOrDigit(c) || c == '_')) {
+                    return false;
+                }
+            }
+            try {
+                parsed.put(name, Long.parseLong(entry.substring(sep + 2)));
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+        }
+        values.putAll(parsed);
+        return true;
+    }
+
+    /**
+     * Retrieves a value by its getdelays name.
+     *
+     * @param name
+     *          The value name, e.g., {@code cpu_delay_total}.
+     * @return The value or {@code -1} if the value was not reported.
+     */
+    public long get(final String name) {
+        final Long value = values.get(name);
+        return value != null ? value : -1;
+    }
+
+    /**
+     * @return Time spent waiting for block I/O in nanoseconds.
+     */
+    public long getBlkioDelayTotal() {
+        return get("blkio_delay_total");
+    }
+
+    /**
+     * @return Time spent waiting for a CPU in nanoseconds.
+     */
+    public long getCpuDelayTotal() {
+        return get("cpu_delay_total");
+    }
+
+    /**
+     * @return Time spent running on a CPU in nanoseconds.
+     */
+    public long getCpuRunRealTotal() {
+        return get("cpu_run_real_total");
+    }
+
+    public long getInvoluntaryContextSwitches() {
+        return get("involuntary_context_switches");
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public long getReadBytes() {
+        return get("read_bytes");
+    }
+
+    /**
+     * @return Time spent waiting for swap-in of pages in nanoseconds.
+     */
+    public long getSwapinDelayTotal() {
+        return get("swapin_delay_total");
+    }
+
+    /**
+     * @return All values in the order reported by getdelays.
+     */
+    public Map<String, Long> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    public long getVoluntaryContextSwitches() {
+        return get("voluntary_context_switches");
+    }
+
+    public long getWriteBytes() {
+        return get("write_bytes");
+    }
+
+    /**
+     * @return {@code True} if no data set was added to this record.
+     */
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * Formats this record as CSV line with the columns {@link #CSV_COLUMNS}. Values that
+     * were not reported are left empty.
+     *
+     * @return The CSV line without line terminator.
+     */
+    public String toCsvLine() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(pid);
+        for (int i = 1; i < CSV_COLUMNS.length; i++) {
+            sb.append(',');
+            final Long value = values.get(CSV_COLUMNS[i]);
+            if (value != null) {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats this record as CSV document consisting of the header line and
+     * {@link #toCsvLine()}.
+     *
+     * @return The CSV document without trailing line terminator.
+     */
+    public String toCsv() {
+        return getCsvHeader() + "\n" + toCsvLine();
+    }
+
+    /**
+     * @return The CSV header line without line terminator.
+     */
+    public static String getCsvHeader() {
+        final StringBuilder sb = new StringBuilder();
+        for (final String c : CSV_COLUMNS) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AccountingRecord[pid %d, %s]", pid, values);
+    }
+}
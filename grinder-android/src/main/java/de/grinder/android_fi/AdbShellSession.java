@@ -0,0 +1,207 @@
+package de.grinder.android_fi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.grinder.android_fi.ProcessUtils.ProcUtilException;
+
+/**
+ * Long-lived shell on a device that executes commands without forking a process per
+ * command.
+ * <p>
+ * The session runs a single interactive shell process, e.g., {@code adb -s <device>
+ * shell}, and writes the commands to its standard input. Each command is executed in a
+ * subshell with standard input redirected from {@code /dev/null}, enclosed by an
+ * {@code echo} of a unique start marker and an {@code echo} of a unique end marker and the
+ * exit code of the subshell. The output between the markers is the command output. A
+ * device terminal echoes the prompt and the input line, which are dropped with everything
+ * else before the start marker. The markers are written with split quotes so that the
+ * echoed input line never matches them. Carriage returns of the device terminal are
+ * removed from the output.
+ * <p>
+ * Commands are executed one after another. {@link #tryExec(String)} does not wait for
+ * commands of other threads, which allows callers to fall back to another execution path
+ * instead of waiting. If the shell process terminates, e.g., because the device went
+ * offline or the process was destroyed, the session is closed and all further commands
+ * fail.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class AdbShellSession {
+
+    /** Prefix of the markers that are printed before and after each command. */
+    private static final String MARKER_PREFIX = "__AFI";
+
+    private volatile boolean closed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Logger LOGGER;
+
+    private final Process process;
+
+    private final BufferedReader reader;
+
+    private long sequence = 0;
+
+    private final Writer writer;
+
+    /**
+     * Starts the shell process.
+     *
+     * @param shellCommand
+     *          The command that starts an interactive shell, e.g.,
+     *          {@code [adb, -s, emulator-5554, shell]}.
+     * @param logId
+     *          The log ID of the owner.
+     * @throws ProcUtilException
+     *           If the shell process could not be started.
+     */
+    public AdbShellSession(final String[] shellCommand, final String logId)
+    throws ProcUtilException {
+        LOGGER = LoggerFactory.getLogger(String.format("%s<%s>",
+                                         AdbShellSession.class.getName(), logId));
+        LOGGER.debug(String.format("Starting shell session: %s", Arrays.toString(shellCommand)));
+        process = ProcessUtils.startProcessPipe(shellCommand);
+        reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                                    StandardCharsets.UTF_8));
+        writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the session and destroys the shell process. Commands that are currently
+     * executed fail.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            process.destroy();
+            LOGGER.debug("Shell session closed");
+        }
+    }
+
+    /**
+     * Executes the given command and waits for its completion.
+     *
+     * @param cmd
+     *          The shell command.
+     * @return The exit code and output of the command.
+     * @throws IOException
+     *           If the session is closed or broke while executing the command.
+     */
+    public ShellResult exec(final String cmd) throws IOException {
+        lock.lock();
+        try {
+            return execLocked(cmd);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ShellResult execLocked(final String cmd) throws IOException {
+        if (closed) {
+            throw new IOException("Shell session is closed");
+        }
+        final String startMarker = String.format("%s_S%d_", MARKER_PREFIX, ++sequence);
+        final String marker = String.format("%s_%d_", MARKER_PREFIX, sequence);
+        try {
+            // split quotes: the echoed input line must not contain the markers
+            writer.write(String.format("echo \"%s\"\"_S%d_\"; (%s) </dev/null; "
+                                       + "echo \"%s\"\"_%d_\"$?\n", MARKER_PREFIX,
+                                       sequence, cmd, MARKER_PREFIX, sequence));
+            writer.flush();
+
+            // drop the prompt and the echoed input line
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.contains(startMarker));
+            if (line == null) {
+                throw new IOException("Shell session terminated");
+            }
+
+            final StringBuilder out = new StringBuilder();
+            while ((line = reader.readLine()) != null) {
+                line = line.replace("\r", "");
+                final int idx = line.indexOf(marker);
+                if (idx < 0) {
+                    out.append(line).append('\n');
+                    continue;
+                }
+                // command output without trailing newline ends right before the marker
+                out.append(line, 0, idx);
+                try {
+                    final int ret = Integer.parseInt(line.substring(idx + marker.length())
+                                                     .trim());
+                    return new ShellResult(ret, out.toString());
+                } catch (final NumberFormatException e) {
+                    throw new IOException(String.format("Invalid exit code line: [%s]", line), e);
+                }
+            }
+            throw new IOException("Shell session terminated");
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public Process getProcess() {
+        return process;
+    }
+
+    public boolean isClosed() {
+        return closed || !ProcessUtils.isRunning(process);
+    }
+
+    /**
+     * Executes the given command if no other command is currently executed.
+     *
+     * @param cmd
+     *          The shell command.
+     * @return The exit code and output of the command or {@code null} if the session is
+     *         busy.
+     * @throws IOException
+     *           If the session is closed or broke while executing the command.
+     */
+    public ShellResult tryExec(final String cmd) throws IOException {
+        if (!lock.tryLock()) {
+            return null;
+        }
+        try {
+            return execLocked(cmd);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Exit code and output of a shell command.
+     */
+    public static class ShellResult {
+        private final int exitCode;
+        private final String output;
+
+        ShellResult(final int exitCode, final String output) {
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+    }
+}
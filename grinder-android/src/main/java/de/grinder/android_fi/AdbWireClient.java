@@ -0,0 +1,448 @@
+package de.grinder.android_fi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Client for the host protocol of the local ADB server, as an alternative to forking the
+ * {@code adb} command line tool.
+ * <p>
+ * Each request opens a new connection to the ADB server (by default
+ * {@code localhost:5037}). A request is sent as four hex digits of payload length followed
+ * by the payload, e.g., {@code 000Chost:version}. The server answers with {@code OKAY} or
+ * with {@code FAIL}, followed by four hex digits of message length and the message.
+ * Device services are requested after switching the connection to a device with
+ * {@code host:transport:<serial>}. The following services are used:
+ * <ul>
+ * <li>{@code host-serial:<serial>:get-state} -- device state</li>
+ * <li>{@code shell:<command>} -- command output stream until the connection is closed;
+ * the exit code is retrieved by appending an {@code echo} of an end marker</li>
+ * <li>{@code sync:} -- file transfer protocol with {@code STAT}, {@code RECV} and
+ * {@code SEND} requests, each consisting of a four byte ID and a little-endian length</li>
+ * </ul>
+ * Failures reported by the server or device, e.g., an unknown device or a missing file,
+ * are signaled as {@link AdbFailException}. All other {@link IOException}s indicate a
+ * communication failure, e.g., because the ADB server is not running.
+ * <p>
+ * The client uses blocking socket channels, so that calls can be canceled by
+ * interrupting the calling thread. This class is stateless and thread safe.
+ */
+public class AdbWireClient {
+
+    /** Default port of the ADB server. */
+    public static final int DEFAULT_PORT = 5037;
+
+    /** Maximum payload size of a sync {@code DATA} chunk. */
+    private static final int SYNC_DATA_MAX = 64 * 1024;
+
+    /** Prefix of the end marker that is printed after shell commands. */
+    private static final String SHELL_MARKER = "__AFI_RC_";
+
+    private final InetSocketAddress server;
+
+    public AdbWireClient() {
+        this(DEFAULT_PORT);
+    }
+
+    public AdbWireClient(final int port) {
+        server = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    private static int readIntLe(final InputStream in) throws IOException {
+        final byte[] b = readFully(in, 4);
+        return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    private static byte[] readFully(final InputStream in, final int len) throws IOException {
+        final byte[] buf = new byte[len];
+        int off = 0;
+        while (off < len) {
+            final int n = in.read(buf, off, len - off);
+            if (n < 0) {
+                throw new EOFException("ADB connection closed");
+            }
+            off += n;
+        }
+        return buf;
+    }
+
+    private static String readId(final InputStream in) throws IOException {
+        return new String(readFully(in, 4), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads a hex length prefixed string.
+     */
+    private static String readHexString(final InputStream in) throws IOException {
+        final String hex = new String(readFully(in, 4), StandardCharsets.US_ASCII);
+        try {
+            return new String(readFully(in, Integer.parseInt(hex, 16)), StandardCharsets.UTF_8);
+        } catch (final NumberFormatException e) {
+            throw new IOException(String.format("Invalid ADB length prefix [%s]", hex), e);
+        }
+    }
+
+    /**
+     * Reads the status of a request and throws if the server reported a failure.
+     */
+    private static void readStatus(final InputStream in, final String request)
+    throws IOException {
+        final String status = readId(in);
+        if (status.equals("FAIL")) {
+            throw new AdbFailException(String.format("ADB request [%s] failed: %s", request,
+                                       readHexString(in)));
+        } else if (!status.equals("OKAY")) {
+            throw new IOException(String.format("Unexpected ADB response [%s] for [%s]",
+                                                status, request));
+        }
+    }
+
+    private static void writeRequest(final OutputStream out, final String request)
+    throws IOException {
+        final byte[] payload = request.getBytes(StandardCharsets.UTF_8);
+        out.write(String.format("%04x", payload.length).getBytes(StandardCharsets.US_ASCII));
+        out.write(payload);
+        out.flush();
+    }
+
+    private static void writeSyncRequest(final OutputStream out, final String id,
+                                         final byte[] payload) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(id.getBytes(StandardCharsets.US_ASCII));
+        header.putInt(payload.length);
+        out.write(header.array());
+        out.write(payload);
+    }
+
+    /**
+     * Opens a connection to the ADB server and sends the given host request.
+     */
+    private Connection connect(final String request) throws IOException {
+        final Connection c = new Connection(SocketChannel.open(server));
+        try {
+            c.request(request);
+            return c;
+        } catch (final IOException e) {
+            c.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a connection to the given device.
+     */
+    private Connection connectDevice(final String serial) throws IOException {
+        return connect("host:transport:" + serial);
+    }
+
+    /**
+     * Executes the given shell command on the device and waits for its completion.
+     *
+     * @param serial
+     *          The device serial, e.g., {@code emulator-5554}.
+     * @param cmd
+     *          The shell command.
+     * @return The exit code and output of the command.
+     * @throws IOException
+     *           If the command could not be executed.
+     */
+    public AdbShellSession.ShellResult execShell(final String serial, final String cmd)
+    throws IOException {
+        try (Connection c = connectDevice(serial)) {
+            c.request(String.format("shell:%s; echo %s$?", cmd, SHELL_MARKER));
+            final String out = new String(c.readAll(), StandardCharsets.UTF_8).replace("\r",
+                               "");
+            final int idx = out.lastIndexOf(SHELL_MARKER);
+            if (idx < 0) {
+                throw new IOException(String.format("Missing exit code for [%s]", cmd));
+            }
+            try {
+                final int ret = Integer.parseInt(out.substring(idx + SHELL_MARKER.length())
+                                                 .trim());
+                return new AdbShellSession.ShellResult(ret, out.substring(0, idx));
+            } catch (final NumberFormatException e) {
+                throw new IOException(String.format("Invalid exit code for [%s]", cmd), e);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the state of the given device.
+     *
+     * @param serial
+     *          The device serial.
+     * @return The state, e.g., {@code "device"} or {@code "offline"}.
+     * @throws IOException
+     *           If the state could not be retrieved. An unknown device is signaled as
+     *           {@link AdbFailException}.
+     */
+    public String getState(final String serial) throws IOException {
+        try (Connection c = connect(String.format("host-serial:%s:get-state", serial))) {
+            return c.readHexString();
+        }
+    }
+
+    /**
+     * Starts the given shell command on the device and returns its output stream, e.g.,
+     * for {@code logcat}. The command runs until the stream is closed.
+     *
+     * @param serial
+     *          The device serial.
+     * @param cmd
+     *          The shell command.
+     * @return The output stream of the command. Closing it terminates the command.
+     * @throws IOException
+     *           If the command could not be started.
+     */
+    public InputStream openShellStream(final String serial, final String cmd)
+    throws IOException {
+        final Connection c = connectDevice(serial);
+        try {
+            c.request("shell:" + cmd);
+            return c.in;
+        } catch (final IOException e) {
+            c.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the given file from the device to the given local file.
+     *
+     * @param serial
+     *          The device serial.
+     * @param remote
+     *          The file path on the device.
+     * @param local
+     *          The local file, which is replaced.
+     * @throws IOException
+     *           If the file could not be copied. A missing remote file is signaled as
+     *           {@link AdbFailException}.
+     */
+    public void pull(final String serial, final String remote, final Path local)
+    throws IOException {
+        final byte[] data = pull(serial, remote);
+        final Path tmp = Files.createTempFile(local.toAbsolutePath().getParent(), ".pull",
+                                              null);
+        try {
+            Files.write(tmp, data);
+            Files.move(tmp, local, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Reads the given file from the device into memory.
+     *
+     * @param serial
+     *          The device serial.
+     * @param remote
+     *          The file path on the device.
+     * @return The file content.
+     * @throws IOException
+     *           If the file could not be read. A missing remote file is signaled as
+     *           {@link AdbFailException}.
+     */
+    public byte[] pull(final String serial, final String remote) throws IOException {
+        try (Connection c = connectDevice(serial)) {
+            c.request("sync:");
+            writeSyncRequest(c.out, "RECV", remote.getBytes(StandardCharsets.UTF_8));
+            c.out.flush();
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            while (true) {
+                final String id = readId(c.in);
+                final int len = readIntLe(c.in);
+                if (id.equals("DATA")) {
+                    data.write(readFully(c.in, len));
+                } else if (id.equals("DONE")) {
+                    return data.toByteArray();
+                } else if (id.equals("FAIL")) {
+                    throw new AdbFailException(String.format("Pull of [%s] failed: %s", remote,
+                                               new String(readFully(c.in, len), StandardCharsets.UTF_8)));
+                } else {
+                    throw new IOException(String.format("Unexpected sync response [%s]", id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the given local file to the device.
+     *
+     * @param serial
+     *          The device serial.
+     * @param local
+     *          The local file.
+     * @param remote
+     *          The target file path on the device.
+     * @param mode
+     *          The file mode of the target file, e.g., {@code 0644}.
+     * @throws IOException
+     *           If the file could not be copied.
+     */
+    public void push(final String serial, final Path local, final String remote,
+                     final int mode) throws IOException {
+        try (Connection c = connectDevice(serial); InputStream in = Files.newInputStream(local)) {
+            c.request("sync:");
+            writeSyncRequest(c.out, "SEND", String.format("%s,%d", remote, mode)
+                             .getBytes(StandardCharsets.UTF_8));
+            final byte[] chunk = new byte[SYNC_DATA_MAX];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                final byte[] payload = n == chunk.length ? chunk : Arrays.copyOf(chunk, n);
+                writeSyncRequest(c.out, "DATA", payload);
+            }
+            final ByteBuffer done = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            done.put("DONE".getBytes(StandardCharsets.US_ASCII));
+            done.putInt((int) (Files.getLastModifiedTime(local).toMillis() / 1000));
+            c.out.write(done.array());
+            c.out.flush();
+            final String id = readId(c.in);
+            final int len = readIntLe(c.in);
+            if (id.equals("FAIL")) {
+                throw new AdbFailException(String.format("Push to [%s] failed: %s", remote,
+                                           new String(readFully(c.in, len), StandardCharsets.UTF_8)));
+            } else if (!id.equals("OKAY")) {
+                throw new IOException(String.format("Unexpected sync response [%s]", id));
+            }
+        }
+    }
+
+    /**
+     * Retrieves the mode, size and modification time of the given file on the device.
+     *
+     * @param serial
+     *          The device serial.
+     * @param remote
+     *          The file path on the device.
+     * @return The file status. The mode is {@code 0} if the file does not exist.
+     * @throws IOException
+     *           If the status could not be retrieved.
+     */
+    public FileStat stat(final String serial, final String remote) throws IOException {
+        try (Connection c = connectDevice(serial)) {
+            c.request("sync:");
+            writeSyncRequest(c.out, "STAT", remote.getBytes(StandardCharsets.UTF_8));
+            c.out.flush();
+            final String id = readId(c.in);
+            if (!id.equals("STAT")) {
+                throw new IOException(String.format("Unexpected sync response [%s]", id));
+            }
+            final int fileMode = readIntLe(c.in);
+            final int size = readIntLe(c.in);
+            final int mtime = readIntLe(c.in);
+            return new FileStat(fileMode, size & 0xffffffffL, mtime & 0xffffffffL);
+        }
+    }
+
+    /**
+     * Signals a failure that was reported by the ADB server or device, as opposed to a
+     * communication failure.
+     */
+    public static class AdbFailException extends IOException {
+
+        private static final long serialVersionUID = 2460512738916735148L;
+
+        public AdbFailException() {
+            super();
+        }
+
+        public AdbFailException(final String message) {
+            super(message);
+        }
+
+        public AdbFailException(final String message, final Throwable cause) {
+            super(message, cause);
+        }
+
+        public AdbFailException(final Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Connection to the ADB server.
+     */
+    private static class Connection implements AutoCloseable {
+        private final SocketChannel channel;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+            in = Channels.newInputStream(channel);
+            out = Channels.newOutputStream(channel);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        byte[] readAll() throws IOException {
+            final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            final byte[] chunk = new byte[4096];
+            int n;
+            while ((n = in.read(chunk)) >= 0) {
+                buf.write(chunk, 0, n);
+            }
+            return buf.toByteArray();
+        }
+
+        String readHexString() throws IOException {
+            return AdbWireClient.readHexString(in);
+        }
+
+        void request(final String request) throws IOException {
+            writeRequest(out, request);
+            readStatus(in, request);
+        }
+    }
+
+    /**
+     * Status of a file on the device as reported by the sync {@code STAT} request.
+     */
+    public static class FileStat {
+        private final int mode;
+        private final long mtime;
+        private final long size;
+
+        FileStat(final int mode, final long size, final long mtime) {
+            this.mode = mode;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        public boolean exists() {
+            return mode != 0;
+        }
+
+        public int getMode() {
+            return mode;
+        }
+
+        /** @return The modification time in seconds since the epoch. */
+        public long getMtime() {
+            return mtime;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -1,26 +1,52 @@
 package de.grinder.android_fi;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Scanner;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import de.grinder.android_fi.Emulator.EmulatorException;
 import de.grinder.android_fi.ProcessUtils.ProcUtilException;
 
 /**
  * ADB wrapper.
+ * <p>
+ * Blocking shell commands are executed in a persistent {@link AdbShellSession} per device
+ * if enabled (see {@link ExperimentSettings#ADB_SHELL_SESSION}). If the session cannot be
+ * started or is busy with a command of another thread, the command is executed with the
+ * {@code adbsh.sh} wrapper script instead.
+ * <p>
+ * If the ADB wire protocol is enabled (see {@link ExperimentSettings#ADB_WIRE_PROTOCOL}),
+ * device state queries, blocking shell commands, file transfers and logcat streams are
+ * handled by an {@link AdbWireClient} that talks to the local ADB server directly instead
+ * of forking the {@code adb} command line tool. If the ADB server cannot be reached, the
+ * command line tool is used as fallback, which also starts the ADB server if needed.
+ * <p>
+ * Readiness conditions of the device, i.e., the device being online, the completed boot,
+ * logcat events and available services, are also provided as {@link EventFuture}s that are
+ * driven by the shared {@link ReadinessLoop} instead of a thread per wait. They can be
+ * combined with each other and with the termination of the emulator (see
+ * {@link Emulator#getTermination()}), limited with deadlines, and awaited with
+ * {@link #await(EventFuture, String)}.
  *
  * TODO: full documentation
  *
@@ -31,15 +57,42 @@ public class AndroidDebuggingBridge {
 
     static final int ADBSHELL_OUTERR = 43;
 
+    /** Delay in milliseconds between device state polls via the ADB server. */
+    private static final long WIRE_POLL_DELAY = 250;
+
+    /** Delay in milliseconds between checks of the response test command. */
+    private static final long RESPONSE_POLL_DELAY = 100;
+
     private final String connectedDeviceName;
 
     private final Set<Process> createdProcesses;
 
+    /** Open ADB server connections that are closed by {@link #cancelCreatedProcesses()}. */
+    private final Set<Closeable> createdStreams = new HashSet<>();
+
     /** Instance level logger */
     private final Logger LOGGER;
 
     private final ExperimentSettings settings;
 
+    /** Log ID of the owner. */
+    private final String logId;
+
+    /** Persistent shell session or {@code null} if no session was started yet. */
+    private AdbShellSession shellSession;
+
+    /** Lock for creating and closing the shell session. */
+    private final Object shellSessionLock = new Object();
+
+    /** Last read content of small device files, keyed by device path. */
+    private final Map<String, CachedFile> fileCache = new HashMap<>();
+
+    /** ADB server client or {@code null} if the wire protocol is disabled. */
+    private final AdbWireClient wire;
+
+    /** Shared logcat streams for awaiting logcat events. */
+    private final LogcatHub logcatHub;
+
     private static String[] mergeCommands(final String[]... cmdArr) {
         int mergedLen = 0;
         for (final String[] cmds : cmdArr) {
@@ -75,7 +128,167 @@ public class AndroidDebuggingBridge {
                                          AndroidDebuggingBridge.class.getName(), logId));
         this.settings = settings;
         this.connectedDeviceName = deviceName;
+        this.logId = logId;
         createdProcesses = new HashSet<>(31);
+        wire = settings.ADB_WIRE_PROTOCOL ? new AdbWireClient((int) settings.ADB_SERVER_PORT)
+               : null;
+        logcatHub = new LogcatHub(new LogcatHub.StreamOpener() {
+            @Override
+            public InputStream open(final String buffer) throws AdbException {
+                final ShellStream logcat = openLogcat("-v", "brief", "-b", buffer);
+                return new FilterInputStream(logcat.in) {
+                    @Override
+                    public void close() {
+                        logcat.close();
+                    }
+                };
+            }
+        }, logId);
+    }
+
+    /**
+     * Waits for the given event, e.g., a readiness condition of the device.
+     *
+     * @param event
+     *          The event, see {@link #logcatEvent(String, String, String...)},
+     *          {@link #deviceOnline()}, {@link #bootCompleted(long)} or
+     *          {@link #serviceAvailable(String, long)}.
+     * @param what
+     *          Description of the event for error messages.
+     * @return The value of the event.
+     * @throws AdbException
+     *           If the event failed or the thread was interrupted. An interruption
+     *           cancels the event.
+     */
+    public <V> V await(final EventFuture<V> event, final String what) throws AdbException {
+        try {
+            return event.get();
+        } catch (final InterruptedException e) {
+            event.cancel(false);
+            final String msg = lm("Failed to wait for %s: interrupted", what);
+            LOGGER.error(msg);
+            throw new AdbException(msg, e);
+        } catch (final ExecutionException e) {
+            final String msg = lm("Failed to wait for %s: %s", what, e.getCause().getMessage());
+            LOGGER.error(msg);
+            throw new AdbException(msg, e.getCause());
+        }
+    }
+
+    /**
+     * Logs a communication failure with the ADB server before falling back to the command
+     * line tool.
+     */
+    private void wireFallback(final String what, final IOException e) {
+        LOGGER.warn(lm("ADB server communication failed for %s, using adb tool: %s", what,
+                       e.getMessage()));
+    }
+
+    /**
+     * Opens a logcat output stream with the given arguments. The stream is closed by
+     * {@link #cancelCreatedProcesses()}.
+     */
+    private ShellStream openLogcat(final String... args) throws AdbException {
+        final StringBuilder cmd = new StringBuilder("logcat");
+        for (final String arg : args) {
+            cmd.append(' ').append(arg);
+        }
+        return openStream("logcat", cmd.toString(), mergeCommands(varToArr("logcat"), args));
+    }
+
+    /**
+     * Opens the output of a long running device command. The command is started via the
+     * ADB server if the wire protocol is enabled, otherwise with the adb tool.
+     *
+     * @param what
+     *          Description of the command for messages.
+     * @param shellCmd
+     *          The command for the shell service of the ADB server.
+     * @param toolCmd
+     *          The adb tool arguments for the same command.
+     * @return The output of the command. Closing it terminates the command.
+     * @throws AdbException
+     *           If the command cannot be started.
+     */
+    private ShellStream openStream(final String what, final String shellCmd,
+                                   final String... toolCmd) throws AdbException {
+        if (wire != null) {
+            try {
+                final InputStream in = wire.openShellStream(connectedDeviceName, shellCmd);
+                synchronized (createdProcesses) {
+                    createdStreams.add(in);
+                }
+                return new ShellStream(in, null);
+            } catch (final AdbWireClient.AdbFailException e) {
+                throw new AdbException(lm("Failed to start %s: %s", what, e.getMessage()), e);
+            } catch (final IOException e) {
+                wireFallback(what, e);
+            }
+        }
+        final Process p = startAdbProcess(true, toolCmd);
+        return new ShellStream(p.getInputStream(), p);
+    }
+
+    /**
+     * Closes the shell session, if any.
+     */
+    private void closeShellSession() {
+        synchronized (shellSessionLock) {
+            if (shellSession != null) {
+                shellSession.close();
+                shellSession = null;
+            }
+        }
+    }
+
+    /**
+     * Executes the given shell command in the persistent shell session.
+     *
+     * @return The exit code of the command or {@code null} if the session is not available
+     *         or busy.
+     */
+    private AdbShellSession.ShellResult execShellSession(final String cmd)
+    throws AdbException {
+        final AdbShellSession session = getShellSession();
+        if (session == null) {
+            return null;
+        }
+        try {
+            final AdbShellSession.ShellResult result = session.tryExec(cmd);
+            if (result == null) {
+                LOGGER.debug(lm("Shell session busy, using shell script for [%s]", cmd));
+                return null;
+            }
+            LOGGER.debug(lm("Shell command [%s] returned %d: %s", cmd, result.getExitCode(),
+                            result.getOutput()));
+            return result;
+        } catch (final IOException e) {
+            final String msg = lm("Failed to execute ADB shell command [%s]. ADB error: %s",
+                                  cmd, e.getMessage());
+            LOGGER.error(msg);
+            throw new AdbException(msg, e);
+        }
+    }
+
+    /**
+     * Retrieves the shell session and starts a new one if there is none or the previous
+     * session was closed.
+     *
+     * @return The shell session or {@code null} if it could not be started.
+     */
+    private AdbShellSession getShellSession() {
+        synchronized (shellSessionLock) {
+            if (shellSession == null || shellSession.isClosed()) {
+                try {
+                    final String[] cmd = {settings.ADB, "-s", connectedDeviceName, "shell"};
+                    shellSession = new AdbShellSession(cmd, logId);
+                } catch (final ProcUtilException e) {
+                    LOGGER.warn(lm("Failed to start shell session: %s", e.getMessage()));
+                    shellSession = null;
+                }
+            }
+            return shellSession;
+        }
     }
 
     private boolean addProcess(final Process p) {
@@ -125,13 +338,26 @@ public class AndroidDebuggingBridge {
     }
 
     public void cancelCreatedProcesses() {
+        logcatHub.reset();
         synchronized (createdProcesses) {
             LOGGER.debug(lm("Cancelling %d created processes", createdProcesses.size()));
             for (final Process p : createdProcesses) {
                 p.destroy();
             }
             createdProcesses.clear();
+            for (final Closeable c : createdStreams) {
+                try {
+                    c.close();
+                } catch (final IOException e) {
+                    // ignore, closing is best effort
+                }
+            }
+            createdStreams.clear();
+        }
+        synchronized (fileCache) {
+            fileCache.clear();
         }
+        closeShellSession();
     }
 
     /**
@@ -155,6 +381,59 @@ public class AndroidDebuggingBridge {
         return result != 0;
     }
 
+    /**
+     * Creates a future that completes once the device reports a completed boot, i.e., the
+     * system property {@code sys.boot_completed} is set. The device must be online, see
+     * {@link #deviceOnline()}.
+     *
+     * @param pollMillis
+     *          Milliseconds between property checks.
+     * @return The future of the completed boot. It fails if the shell command fails, e.g.,
+     *         because the device went offline. Cancelling it stops the polling.
+     */
+    public EventFuture<Void> bootCompleted(final long pollMillis) {
+        return ReadinessLoop.poll(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws AdbException {
+                return execShell("[ \"$(getprop sys.boot_completed)\" = 1 ]") == 0;
+            }
+        }, pollMillis);
+    }
+
+    /**
+     * Creates a future that completes once the device is online, see
+     * {@link DeviceOnlineProbe}. The future never completes if the emulator is not running,
+     * combine it with {@link Emulator#getTermination()} for waiting on a running emulator.
+     *
+     * @return The future of the online device. Cancelling it stops the waiting.
+     */
+    public EventFuture<Void> deviceOnline() {
+        final DeviceOnlineProbe probe = new DeviceOnlineProbe();
+        final EventFuture<Void> online = ReadinessLoop.poll(probe, WIRE_POLL_DELAY);
+        online.addListener(probe);
+        return online;
+    }
+
+    /**
+     * Creates a future that completes once the specified service is running, see
+     * {@link #checkService(String)}.
+     *
+     * @param serviceName
+     *          The service name to check.
+     * @param pollMillis
+     *          Milliseconds between service checks.
+     * @return The future of the running service. Cancelling it stops the polling.
+     */
+    public EventFuture<Void> serviceAvailable(final String serviceName,
+            final long pollMillis) {
+        return ReadinessLoop.poll(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws AdbException {
+                return checkService(serviceName);
+            }
+        }, pollMillis);
+    }
+
     public int execAdbCommand(final boolean waitTerm, final String... cmd)
     throws AdbException {
         LOGGER.debug(lm("Executing ADB command (%s): %s", waitTerm ? "blocking"
@@ -179,6 +458,29 @@ public class AndroidDebuggingBridge {
         LOGGER.debug(lm("Executing shell command (%s): %s", waitTerm ? "blocking"
                         : "non-blocking", cmd));
 
+        if (waitTerm && wire != null) {
+            try {
+                final AdbShellSession.ShellResult result = wire.execShell(connectedDeviceName,
+                        cmd);
+                LOGGER.debug(lm("Shell command [%s] returned %d: %s", cmd, result.getExitCode(),
+                                result.getOutput()));
+                return result.getExitCode();
+            } catch (final AdbWireClient.AdbFailException e) {
+                final String msg = lm("Failed to execute ADB shell command [%s]. ADB error: %s",
+                                      cmd, e.getMessage());
+                LOGGER.error(msg);
+                throw new AdbException(msg, e);
+            } catch (final IOException e) {
+                wireFallback("shell command", e);
+            }
+        }
+        if (waitTerm && settings.ADB_SHELL_SESSION) {
+            final AdbShellSession.ShellResult result = execShellSession(cmd);
+            if (result != null) {
+                return result.getExitCode();
+            }
+        }
+
         final Process p = startProcess(false, settings.ADBSHELL, connectedDeviceName, cmd);
         addProcess(p);
         if (waitTerm) {
@@ -209,6 +511,19 @@ public class AndroidDebuggingBridge {
 
     public String getState() throws AdbException {
         LOGGER.info(lm("Getting device state"));
+        if (wire != null) {
+            try {
+                final String state = wire.getState(connectedDeviceName);
+                LOGGER.debug(lm("Device state is: %s", state));
+                return state;
+            } catch (final AdbWireClient.AdbFailException e) {
+                // same as the adb tool, which prints 'unknown' for unknown devices
+                LOGGER.debug(lm("Device state is unknown: %s", e.getMessage()));
+                return "unknown";
+            } catch (final IOException e) {
+                wireFallback("get-state", e);
+            }
+        }
         // TODO make this nicer, esp. error handling
 
         final Process p = startAdbProcess(true, "get-state");
@@ -242,6 +557,20 @@ public class AndroidDebuggingBridge {
         final String localPath = String.format("%s/%s-%s",
                                                System.getProperty("java.io.tmpdir", "/tmp"), (new File(path)).getName(),
                                                UUID.randomUUID());
+        if (wire != null) {
+            try {
+                wire.pull(connectedDeviceName, path, Paths.get(localPath));
+                LOGGER.debug(lm("Successfully pulled [%s] to [%s]", path, localPath));
+                return new File(localPath);
+            } catch (final AdbWireClient.AdbFailException e) {
+                final String msg = lm("Failed to pull [%s] to [%s]: %s", path, localPath,
+                                      e.getMessage());
+                LOGGER.error(msg);
+                throw new AdbException(msg, e);
+            } catch (final IOException e) {
+                wireFallback("pull", e);
+            }
+        }
         final int ret = execAdbCommand("pull", path, localPath);
         if (ret != 0) {
             final String msg = lm("Failed to pull [%s] to [%s]: %d", path, localPath, ret);
@@ -253,6 +582,79 @@ public class AndroidDebuggingBridge {
         return new File(localPath);
     }
 
+    /**
+     * Reads the content of a small file on the device into memory.
+     * <p>
+     * If the ADB wire protocol is enabled, the file is only transferred if its modification
+     * time or size changed since the last read, otherwise the cached content is returned.
+     * If the shell session is enabled, the file is read with {@code cat} in the session,
+     * which strips the prompt and the input line echoed by the device terminal. Otherwise,
+     * the file is pulled to a temporary file that is deleted after reading.
+     *
+     * @param path
+     *          The file path on the device.
+     * @return The file content or {@code null} if the file does not exist.
+     * @throws AdbException
+     *           If the file could not be read.
+     */
+    public String readFile(final String path) throws AdbException {
+        LOGGER.debug(lm("Reading file [%s]", path));
+        if (wire != null) {
+            try {
+                return readFileWire(path);
+            } catch (final IOException e) {
+                wireFallback("read file", e);
+            }
+        }
+        if (settings.ADB_SHELL_SESSION) {
+            final AdbShellSession.ShellResult result = execShellSession(String.format(
+                        "cat %s 2>/dev/null", path));
+            if (result != null) {
+                return result.getExitCode() == 0 ? result.getOutput() : null;
+            }
+        }
+
+        final File file;
+        try {
+            file = pullFile(path);
+        } catch (final AdbException | IOException e) {
+            // the adb tool does not distinguish missing files from other errors
+            LOGGER.debug(lm("Failed to pull [%s]: %s", path, e.getMessage()));
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            throw new AdbException(lm("Failed to read pulled file [%s]: %s", file,
+                                      e.getMessage()), e);
+        } finally {
+            if (!file.delete()) {
+                LOGGER.warn(lm("Pulled file was not deleted: %s", file));
+            }
+        }
+    }
+
+    private String readFileWire(final String path) throws IOException {
+        final AdbWireClient.FileStat stat = wire.stat(connectedDeviceName, path);
+        synchronized (fileCache) {
+            if (!stat.exists()) {
+                fileCache.remove(path);
+                return null;
+            }
+            final CachedFile cached = fileCache.get(path);
+            if (cached != null && cached.mtime == stat.getMtime()
+                    && cached.size == stat.getSize()) {
+                return cached.content;
+            }
+        }
+        final String content = new String(wire.pull(connectedDeviceName, path),
+                                           StandardCharsets.UTF_8);
+        synchronized (fileCache) {
+            fileCache.put(path, new CachedFile(stat.getMtime(), stat.getSize(), content));
+        }
+        return content;
+    }
+
     /**
      * Loads a kernel object to the running android.
      *
@@ -265,10 +667,23 @@ public class AndroidDebuggingBridge {
      * @throws AdbException
      */
     public void pushLoadModule(final File module) throws IOException, AdbException {
-        LOGGER.info(lm("Pushing and loading kernel module [%s]", module.getName()));
+        pushModule(module);
+        loadModule(settings.AVD_MODULE_DIR + "/" + module.getName());
+    }
+
+    /**
+     * Copies a kernel module to the module directory of the device, replacing a module with
+     * the same name.
+     *
+     * @param module
+     *          The file containing the kernel object
+     * @throws AdbException
+     *           If the module could not be pushed.
+     */
+    public void pushModule(final File module) throws AdbException {
+        LOGGER.info(lm("Pushing kernel module [%s]", module.getName()));
 
-        final int ret = execAdbCommand("push", module.getAbsolutePath(),
-                                       settings.AVD_MODULE_DIR);
+        final int ret = pushFile(module, settings.AVD_MODULE_DIR + "/" + module.getName());
         if (ret != 0) {
             final String msg = lm("Failed to push module [%s]", module.getName());
             LOGGER.error(msg);
@@ -276,7 +691,33 @@ public class AndroidDebuggingBridge {
         } else {
             LOGGER.debug(lm("Successfully pushed module [%s]", module.getName()));
         }
-        loadModule(settings.AVD_MODULE_DIR + "/" + module.getName());
+    }
+
+    /**
+     * Copies the given local file to the device.
+     *
+     * @param file
+     *          The local file.
+     * @param remotePath
+     *          The full target path on the device.
+     * @return {@code 0} on success, the non-zero exit code of the adb tool otherwise.
+     * @throws AdbException
+     *           If the file transfer failed in the ADB server.
+     */
+    private int pushFile(final File file, final String remotePath) throws AdbException {
+        if (wire != null) {
+            try {
+                wire.push(connectedDeviceName, file.toPath(), remotePath, 0644);
+                return 0;
+            } catch (final AdbWireClient.AdbFailException e) {
+                final String msg = lm("Failed to push [%s]: %s", file, e.getMessage());
+                LOGGER.error(msg);
+                throw new AdbException(msg, e);
+            } catch (final IOException e) {
+                wireFallback("push", e);
+            }
+        }
+        return execAdbCommand("push", file.getAbsolutePath(), remotePath);
     }
 
     /**
@@ -320,6 +761,81 @@ public class AndroidDebuggingBridge {
         }
     }
 
+    /**
+     * Runs the steps of a device setup script in one shell invocation and waits until all
+     * steps are done, see {@link DeviceSetupScript}. Commands that the script started in
+     * the background keep running; their output is logged and they are terminated by
+     * {@link #cancelCreatedProcesses()}.
+     *
+     * @param script
+     *          The script to run.
+     * @return The results of the executed steps in execution order. Steps that were skipped
+     *         after a failed checked step have no result.
+     * @throws AdbException
+     *           If the script cannot be run or its output ends prematurely, e.g., because
+     *           the emulator terminated.
+     */
+    public List<DeviceSetupScript.StepResult> runSetupScript(final DeviceSetupScript script)
+    throws AdbException {
+        LOGGER.info(lm("Running device setup script: %s", script));
+        final String cmd = script.toShell();
+        final ShellStream shell = openStream("setup script", cmd, "shell", cmd);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(shell.in,
+                StandardCharsets.UTF_8));
+        final List<DeviceSetupScript.StepResult> results = new ArrayList<>(script
+                .getStepCount());
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().equals(DeviceSetupScript.END_MARKER)) {
+                    LOGGER.debug(lm("Device setup script finished: %s", results));
+                    drainSetupOutput(shell, reader);
+                    return results;
+                }
+                final DeviceSetupScript.StepResult result = script.parseResult(line);
+                if (result != null) {
+                    results.add(result);
+                } else {
+                    LOGGER.debug(lm("Device output: %s", line));
+                }
+            }
+        } catch (final IOException e) {
+            shell.close();
+            final String msg = lm("Failed to read output of device setup script: %s", e
+                                  .getMessage());
+            LOGGER.error(msg);
+            throw new AdbException(msg, e);
+        }
+        shell.close();
+        final String msg = lm("Device setup script ended prematurely after %s", results);
+        LOGGER.error(msg);
+        throw new AdbException(msg);
+    }
+
+    /**
+     * Logs the remaining output of a setup script, i.e., of its background commands, on a
+     * daemon thread until the script terminates.
+     */
+    private void drainSetupOutput(final ShellStream shell, final BufferedReader reader) {
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        LOGGER.debug(lm("Device output: %s", line));
+                    }
+                } catch (final IOException e) {
+                    // the script was terminated
+                } finally {
+                    shell.close();
+                }
+            }
+        }, String.format("setup-output-%s", logId));
+        t.setDaemon(true);
+        t.start();
+    }
+
     /**
      * Starts the given Android application.
      *
@@ -347,31 +863,32 @@ public class AndroidDebuggingBridge {
         }
     }
 
+    /**
+     * Tests whether the device responds to a shell command within the given time.
+     *
+     * @param timeOut
+     *          Milliseconds to wait for the response.
+     * @return True if the command terminated in time, false otherwise.
+     * @throws AdbException
+     *           If the command cannot be started or the thread was interrupted.
+     */
     public boolean testResponse(final long timeOut) throws AdbException {
-        int runTime = 0;
-        final int sleepTime = 1000;
         final Process test = startAdbProcess(false, "shell", "ls");
-
-        while (runTime < timeOut) {
-
-            try {
-                test.exitValue();
-                return true;
-            } catch (final IllegalThreadStateException e) {
-                // if test is still running -> probably hang
-            }
-
-            try {
-                Thread.sleep(sleepTime);
-                runTime += sleepTime;
-            } catch (final InterruptedException e) {
-                e.printStackTrace();
-            }
+        final EventFuture<Integer> exit = ReadinessLoop.deadline(ReadinessLoop.processExit(
+                                              test, RESPONSE_POLL_DELAY), timeOut, TimeUnit.MILLISECONDS, "ADB response");
+        try {
+            exit.get();
+            return true;
+        } catch (final ExecutionException e) {
+            // if test is still running -> probably hang
+            return false;
+        } catch (final InterruptedException e) {
+            exit.cancel(false);
+            throw new AdbException("Interrupted while testing ADB response", e);
+        } finally {
+            test.destroy();
+            removeProcess(test);
         }
-
-        test.destroy();
-        removeProcess(test);
-        return false;
     }
 
     /**
@@ -381,24 +898,9 @@ public class AndroidDebuggingBridge {
      */
     public void waitForActivityManager() throws AdbException {
         LOGGER.info(lm("Waiting for Activity Manager to become available"));
-
-        final Process p = startAdbProcess(true, "logcat", "-b", "events",
-                                          "boot_progress_ams_ready:I", "*:S");
-        final Scanner pout = new Scanner(p.getInputStream());
-
-        if (!pout.hasNext()) {
-            // logcat was terminated
-            // just to be on the safe side
-            p.destroy();
-            removeProcess(p);
-            pout.close();
-            throw new AdbException("logcat terminated unexceptedly");
-        }
-
+        await(logcatHub.subscribe("events", "", "boot_progress_ams_ready:I"),
+              "logcat event [boot_progress_ams_ready]");
         LOGGER.debug(lm("Activity Manager is now available"));
-        p.destroy();
-        removeProcess(p);
-        pout.close();
     }
 
     /**
@@ -414,90 +916,50 @@ public class AndroidDebuggingBridge {
      */
     public void waitForDevice() throws AdbException {
         LOGGER.info(lm("Waiting for device"));
-        final int ret = execAdbCommand("wait-for-device");
-        if (ret != 0) {
-            final String msg = lm("Failed to wait for device: %d", ret);
-            LOGGER.error(msg);
-            throw new AdbException(msg);
-        } else {
-            LOGGER.debug(lm("Waiting for device finished"));
-        }
+        await(deviceOnline(), "device");
+        LOGGER.debug(lm("Waiting for device finished"));
     }
 
+    /**
+     * Waits until the device is ready or the specified emulator instance terminates,
+     * whichever happens first.
+     *
+     * @param emu
+     *          Emulator instance to check for.
+     * @return True if the device is online, false if the emulator terminated or the
+     *         waiting failed.
+     * @throws AdbException
+     *           If the thread was interrupted.
+     */
     public boolean waitForDeviceChecked(final Emulator emu) throws AdbException {
-        class WaitThread extends Thread {
-            protected Thread other;
-
-            protected void killOther() {
-                other.interrupt();
-            }
-
-            public void setOther(final Thread other) {
-                this.other = other;
-            }
-        }
-        class WaitEmuThread extends WaitThread {
-            @Override
-            public void run() {
-                try {
-                    emu.awaitEmuTerminationSilent();
-                    LOGGER.debug("WaitEmuThread: emulator terminated");
-                } catch (final EmulatorException e) {
-                    LOGGER.debug(String.format("WaitEmuThread: %s", e.getMessage()));
-                } finally {
-                    killOther();
-                }
-            }
-        }
-        class WaitDevThread extends WaitThread {
-            private boolean success = false;
-
-            @Override
-            public void run() {
-                try {
-                    waitForDevice();
-                    success = true;
-                } catch (final AdbException e) {
-                    LOGGER.debug(String.format("WaitDevThread: %s", e.getMessage()));
-                } finally {
-                    killOther();
-                }
-            }
-
-            public boolean success() {
-                return success;
-            }
-        }
-
-        final WaitDevThread devWaitThread = new WaitDevThread();
-        final WaitEmuThread emuWaitThread = new WaitEmuThread();
-        devWaitThread.setOther(emuWaitThread);
-        emuWaitThread.setOther(devWaitThread);
-        devWaitThread.start();
-        emuWaitThread.start();
-
+        LOGGER.info(lm("Waiting for device"));
+        final EventFuture<Void> online = deviceOnline();
         try {
-            devWaitThread.join();
-            emuWaitThread.join();
-            return devWaitThread.success();
+            EventFuture.anyOf(online, emu.getTermination()).get();
         } catch (final InterruptedException e) {
-            final String msg = String.format("Failed to wait for device. Interrupted. %s",
-                                             e.getMessage());
+            final String msg = lm("Failed to wait for device. Interrupted. %s", e.getMessage());
             LOGGER.error(msg, e);
-            devWaitThread.interrupt();
-            emuWaitThread.interrupt();
             throw new AdbException(msg, e);
+        } catch (final ExecutionException e) {
+            LOGGER.debug(lm("Failed to wait for device: %s", e.getCause().getMessage()));
+        } finally {
+            online.cancel(false);
         }
+        final boolean ready = !online.isCancelled() && online.getFailure() == null;
+        LOGGER.debug(lm("Waiting for device finished: %s", ready ? "online"
+                        : "emulator terminated"));
+        return ready;
     }
 
     /**
-     * Wait until the specified message is observed in the logcat output.
+     * Subscribes to the specified message in the logcat output.
      *
      * The considered logcat output is limited to the specified buffer and filtered
      * according to the given filter expressions. The remaining logcat output is searched
      * for the specified search string, which is interpreted as Java regular expression.
-     * This method blocks until the specified search string is observed for the first time.
-     * This method waits forever if the search string is never observed.
+     * The output is read from one logcat stream per buffer that is shared by all
+     * subscriptions (see {@link LogcatHub}) and includes the output since the stream was
+     * opened, as a freshly started logcat command would.
      * <p>
      * Logcat filters have the following format: {@code <componentName>:<logLevel>}, where
      * {@code <componentName>} is either {@code '*'} or the name of a given component, and
@@ -513,8 +975,6 @@ public class AndroidDebuggingBridge {
      * For example, the following only displays messages from the 'GSM' component that are
      * at least at the informative level: {@code *:s GSM:i}. Note that the silent level
      * should not be specified here since it is on by default to silence unwanted messages.
-     * <p>
-     * Note that this method is <b>interruptible</b> and reacts to logcat stream close.
      *
      * @param buffer
      *          The logcat buffer to observe. Possible values are {@code "main"},
@@ -524,68 +984,89 @@ public class AndroidDebuggingBridge {
      *          interpreted as Java regular expression.
      * @param filters
      *          One or more logcat filter specifications.
+     * @return The future of the first matching line. It fails with an {@link AdbException}
+     *         if the logcat stream ends, e.g., because the emulator got killed.
      * @throws AdbException
-     *           If something went wrong, e.g., the emulator got killed or the thread was
-     *           interrupted.
+     *           If the logcat stream cannot be opened.
      */
-    public void waitForLogcatEvent(final String buffer, final String searchStr,
-                                   final String... filters) throws AdbException {
+    public EventFuture<String> logcatEvent(final String buffer, final String searchStr,
+                                           final String... filters) throws AdbException {
         LOGGER.info(lm("Waiting for logcat event: %s", searchStr));
-        final Process p = startAdbProcess(true,
-                                          mergeCommands(varToArr("logcat", "-s", "-b", buffer), filters));
-        final InputStream procIn = p.getInputStream();
+        return logcatHub.subscribe(buffer, searchStr, filters);
+    }
 
-        try (final InputStreamReader isr = new InputStreamReader(procIn);
-                    final BufferedReader reader = new BufferedReader(isr)) {
-            String line;
-            final Pattern regex = Pattern.compile(searchStr);
-
-            while (true) {
-                // wait for complete line
-                while (!reader.ready()) {
-                    // ensure that we get an exception if process stream has been closed
-                    procIn.available();
-                    Thread.sleep(200);
-                }
-                line = reader.readLine();
-                if (line != null) {
-                    final Matcher mtch = regex.matcher(line);
-                    if (mtch.find()) {
-                        return; // saw expected message
-                    }
-                } else {
-                    break;
+    /**
+     * Version of {@link #logcatEvent(String, String, String...)} that also fails as soon
+     * as the specified emulator instance terminates.
+     *
+     * Usually, the logcat stream ends as soon as the associated emulator dies. However,
+     * with bad timing, it can happen that the logcat command is issued right after the
+     * emulator died, which leads to a wait-forever situation. The returned future
+     * recognizes this particular situation as well as general emulator death situations
+     * independent of the actual logcat command.
+     *
+     * @param emu
+     *          Emulator instance to check for.
+     * @param buffer
+     *          The logcat buffer to observe.
+     * @param searchStr
+     *          The string for which to search in the logcat output message.
+     * @param filters
+     *          One or more logcat filter specifications.
+     * @return The future of the first matching line.
+     * @throws AdbException
+     *           If the emulator is not running or the logcat stream cannot be opened.
+     */
+    public EventFuture<String> logcatEventChecked(final Emulator emu, final String buffer,
+            final String searchStr, final String... filters) throws AdbException {
+        final EventFuture<Void> termination = emu.getTermination();
+        if (termination.isDone()) {
+            throw new AdbException(lm("Cannot wait for logcat event [%s]: emulator is not "
+                                      + "running", searchStr));
+        }
+        final EventFuture<String> event = logcatEvent(buffer, searchStr, filters);
+        termination.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (event.fail(new AdbException(lm(
+                        "Emulator terminated while waiting for logcat event [%s]", searchStr)))) {
+                    LOGGER.debug(lm("Emulator terminated while waiting for logcat event [%s]",
+                                    searchStr));
                 }
             }
-        } catch (final IOException | InterruptedException e) {
-            // reader error, should be due to logcat termination: logcat error or timeout
-            final String msg = lm("Failed to wait for logcat event [%s] with filters %s: %s",
-                                  searchStr, Arrays.toString(filters), e.getMessage());
-            LOGGER.error(msg, e);
-            throw new AdbException(msg, e);
-        } finally {
-            p.destroy();
-            removeProcess(p);
-        }
+        });
+        return event;
+    }
 
-        // we should never reach this point since this means we reached the end of the stream
-        // without seeing the expected message
-        final String msg = lm(
-                               "Failed to wait for logcat event [%s] with filters %s. End of stream.",
-                               searchStr, Arrays.toString(filters));
-        LOGGER.error(msg);
-        throw new AdbException(msg);
+    /**
+     * Waits until the specified message is observed in the logcat output, see
+     * {@link #logcatEvent(String, String, String...)}. This method waits forever if the
+     * search string is never observed.
+     * <p>
+     * Note that this method is <b>interruptible</b> and reacts to logcat stream end.
+     *
+     * @param buffer
+     *          The logcat buffer to observe. Possible values are {@code "main"},
+     *          {@code "system"} or {@code "events"}.
+     * @param searchStr
+     *          The string for which to search in the logcat output message. This is
+     *          interpreted as Java regular expression.
+     * @param filters
+     *          One or more logcat filter specifications.
+     * @throws AdbException
+     *           If something went wrong, e.g., the emulator got killed or the thread was
+     *           interrupted.
+     */
+    public void waitForLogcatEvent(final String buffer, final String searchStr,
+                                   final String... filters) throws AdbException {
+        await(logcatEvent(buffer, searchStr, filters), lm("logcat event [%s] with filters %s",
+                searchStr, Arrays.toString(filters)));
     }
 
     /**
      * More robust version of {@link #waitForLogcatEvent(String, String, String...)} that
-     * explicitly checks whether the specified emulator instance is alive.
-     *
-     * Usually, the logcat command should terminate as soon as the associated emulator dies.
-     * However, with bad timing, it can happen that the logcat command is issued right after
-     * the emulator died, which leads to a wait-forever situation. This method recognizes
-     * this particular situation as well as general emulator death situations independent of
-     * the actual logcat command.
+     * explicitly checks whether the specified emulator instance is alive, see
+     * {@link #logcatEventChecked(Emulator, String, String, String...)}.
      *
      * @param emu
      *          Emulator instance to check for.
@@ -603,71 +1084,8 @@ public class AndroidDebuggingBridge {
      */
     public void waitForLogcatEventChecked(final Emulator emu, final String buffer,
                                           final String searchStr, final String... filters) throws AdbException {
-        class WaitThread extends Thread {
-            protected Thread other;
-
-            protected void killOther() {
-                other.interrupt();
-            }
-
-            public void setOther(final Thread other) {
-                this.other = other;
-            }
-        }
-        class WaitEmuThread extends WaitThread {
-            @Override
-            public void run() {
-                try {
-                    emu.awaitEmuTerminationSilent();
-                    LOGGER.debug("WaitEmuThread: emulator terminated");
-                } catch (final EmulatorException e) {
-                    LOGGER.debug(String.format("WaitEmuThread: %s", e.getMessage()));
-                } finally {
-                    killOther();
-                }
-            }
-        }
-        class WaitLogcatThread extends WaitThread {
-            private AdbException except = null;
-
-            @Override
-            public void run() {
-                try {
-                    waitForLogcatEvent(buffer, searchStr, filters);
-                } catch (final AdbException e) {
-                    LOGGER.debug(String.format("WaitLogcatThread: %s", e.getMessage()));
-                    except = e;
-                } finally {
-                    killOther();
-                }
-            }
-
-            public AdbException except() {
-                return except;
-            }
-        }
-
-        final WaitLogcatThread lcWaitThread = new WaitLogcatThread();
-        final WaitEmuThread emuWaitThread = new WaitEmuThread();
-        lcWaitThread.setOther(emuWaitThread);
-        emuWaitThread.setOther(lcWaitThread);
-        lcWaitThread.start();
-        emuWaitThread.start();
-
-        try {
-            lcWaitThread.join();
-            emuWaitThread.join();
-            if (lcWaitThread.except() != null) {
-                throw lcWaitThread.except();
-            }
-        } catch (final InterruptedException e) {
-            final String msg = String.format("Failed to wait for device. Interrupted. %s",
-                                             e.getMessage());
-            LOGGER.error(msg, e);
-            lcWaitThread.interrupt();
-            emuWaitThread.interrupt();
-            throw new AdbException(msg, e);
-        }
+        await(logcatEventChecked(emu, buffer, searchStr, filters), lm(
+                  "logcat event [%s] with filters %s", searchStr, Arrays.toString(filters)));
     }
 
     /**
@@ -686,18 +1104,109 @@ public class AndroidDebuggingBridge {
     throws AdbException {
         LOGGER.info(lm("Waiting for service '%s' to become available, polling every %d ms.",
                        serviceName, pollIntervall));
+        await(serviceAvailable(serviceName, pollIntervall), lm("service '%s'", serviceName));
+        LOGGER.debug(lm("Service '%s' is available now.", serviceName));
+    }
 
-        while (!checkService(serviceName)) {
-            LOGGER.debug(lm("Service '%s' not yet available, going to sleep.", serviceName));
+    /**
+     * Content of a device file together with the file status it was read at.
+     */
+    private static class CachedFile {
+        private final String content;
+        private final long mtime;
+        private final long size;
+
+        CachedFile(final long mtime, final long size, final String content) {
+            this.mtime = mtime;
+            this.size = size;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Probe of the device state for {@link #deviceOnline()}. It polls the state via the ADB
+     * server if the wire protocol is enabled. Otherwise, or after the communication with the
+     * server failed, it starts one {@code adb wait-for-device} command and checks it for
+     * termination. Running the probe as listener ends the command.
+     */
+    private class DeviceOnlineProbe implements Callable<Boolean>, Runnable {
+        private boolean closed = false;
+        private boolean useWire = wire != null;
+        private Process waitProcess = null;
+
+        @Override
+        public synchronized Boolean call() throws AdbException {
+            if (closed) {
+                return false;
+            }
+            if (useWire) {
+                try {
+                    return wire.getState(connectedDeviceName).equals("device");
+                } catch (final AdbWireClient.AdbFailException e) {
+                    // device not yet known to the ADB server
+                    return false;
+                } catch (final IOException e) {
+                    wireFallback("wait-for-device", e);
+                    useWire = false;
+                }
+            }
+            if (waitProcess == null) {
+                waitProcess = startAdbProcess(false, "wait-for-device");
+            }
+            final int ret;
             try {
-                Thread.sleep(pollIntervall);
-            } catch (final InterruptedException e) {
-                final String msg = lm("Failed to wait for service '%s'. Interrupted", serviceName);
+                ret = waitProcess.exitValue();
+            } catch (final IllegalThreadStateException e) {
+                return false;
+            }
+            removeProcess(waitProcess);
+            if (ret != 0) {
+                final String msg = lm("Failed to wait for device: %d", ret);
                 LOGGER.error(msg);
                 throw new AdbException(msg);
             }
+            return true;
+        }
+
+        @Override
+        public synchronized void run() {
+            closed = true;
+            if (waitProcess != null) {
+                waitProcess.destroy();
+                removeProcess(waitProcess);
+            }
+        }
+    }
+
+    /**
+     * Output of a long running device command, e.g., logcat.
+     */
+    private class ShellStream implements Closeable {
+        private final InputStream in;
+        /** The adb tool process or {@code null} for ADB server connections. */
+        private final Process process;
+
+        ShellStream(final InputStream in, final Process process) {
+            this.in = in;
+            this.process = process;
+        }
+
+        @Override
+        public void close() {
+            if (process != null) {
+                process.destroy();
+                removeProcess(process);
+            } else {
+                synchronized (createdProcesses) {
+                    createdStreams.remove(in);
+                }
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    // ignore, closing is best effort
+                }
+            }
         }
-        LOGGER.debug(lm("Service '%s' is available now.", serviceName));
     }
 
     /**
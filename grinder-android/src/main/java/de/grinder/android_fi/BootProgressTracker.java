@@ -0,0 +1,236 @@
+package de.grinder.android_fi;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.grinder.android_fi.AndroidDebuggingBridge.AdbException;
+
+/**
+ * Follows the boot of the Android system of an emulator through the
+ * {@code boot_progress_*} events of the events log buffer.
+ * <p>
+ * When started, the tracker subscribes to all {@link Milestone}s at once, so that setup
+ * steps can wait for exactly the milestone they depend on (see {@link #milestone(Milestone)})
+ * instead of a later, coarser event. The boot timeline consists of the device uptimes that
+ * the system logs with the events, i.e., it does not depend on when the host observes the
+ * events. When the tracker is stopped, the timeline is logged and the reached milestones
+ * are recorded in the {@link PhaseMetrics}.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class BootProgressTracker {
+
+    /**
+     * Boot milestones in the order in which the Android system reaches them.
+     */
+    public enum Milestone {
+        START("start"),
+        PRELOAD_START("preload_start"),
+        PRELOAD_END("preload_end"),
+        SYSTEM_RUN("system_run"),
+        PMS_START("pms_start"),
+        PMS_SYSTEM_SCAN_START("pms_system_scan_start"),
+        PMS_DATA_SCAN_START("pms_data_scan_start"),
+        PMS_SCAN_END("pms_scan_end"),
+        PMS_READY("pms_ready"),
+        AMS_READY("ams_ready"),
+        ENABLE_SCREEN("enable_screen");
+
+        private final String name;
+
+        private Milestone(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return The tag of the event of this milestone in the events log buffer.
+         */
+        public String getEvent() {
+            return "boot_progress_" + name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final Logger LOGGER;
+
+    private final PhaseMetrics metrics;
+
+    /** Milestone subscriptions of the current boot, empty if the tracker is stopped. */
+    private final Map<Milestone, EventFuture<String>> milestones = new EnumMap<>(
+        Milestone.class);
+
+    private final EventSource source;
+
+    /**
+     * Creates a stopped tracker.
+     *
+     * @param adb
+     *          The ADB of the emulator's device.
+     * @param emulator
+     *          The emulator to track.
+     * @param metrics
+     *          The metrics registry for the reached milestones.
+     */
+    public BootProgressTracker(final AndroidDebuggingBridge adb, final Emulator emulator,
+                               final PhaseMetrics metrics) {
+        this(new EventSource() {
+            @Override
+            public EventFuture<String> subscribe(final Milestone milestone)
+            throws AdbException {
+                return adb.logcatEventChecked(emulator, "events", milestone.getEvent(),
+                                              milestone.getEvent() + ":I");
+            }
+        }, metrics, emulator.getConfig().getLogId());
+    }
+
+    /**
+     * Creates a stopped tracker.
+     *
+     * @param source
+     *          The source of the milestone events.
+     * @param metrics
+     *          The metrics registry for the reached milestones.
+     * @param logId
+     *          The log ID of the emulator.
+     */
+    BootProgressTracker(final EventSource source, final PhaseMetrics metrics,
+                        final String logId) {
+        LOGGER = LoggerFactory.getLogger(String.format("%s<%s>", BootProgressTracker.class
+                                         .getName(), logId));
+        this.source = source;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Parses the device uptime from a boot progress event line in brief format, e.g.,
+     * {@code I/boot_progress_ams_ready(   61): 10433}.
+     *
+     * @return The uptime in milliseconds or {@code -1} if the line has no uptime.
+     */
+    static long parseUptime(final String line) {
+        final int sep = line.lastIndexOf("): ");
+        if (sep < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(line.substring(sep + 3).trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Retrieves the future of a milestone of the current boot.
+     *
+     * @param milestone
+     *          The milestone.
+     * @return The future of the event line of the milestone. It fails if the emulator
+     *         terminates before, and is cancelled if the tracker stops before the milestone
+     *         is reached.
+     * @throws IllegalStateException
+     *           If the tracker is not started.
+     */
+    public synchronized EventFuture<String> milestone(final Milestone milestone) {
+        final EventFuture<String> f = milestones.get(milestone);
+        if (f == null) {
+            throw new IllegalStateException("Boot progress tracker is not started");
+        }
+        return f;
+    }
+
+    /**
+     * Starts tracking the current boot of the emulator. The device must be online. Stops a
+     * previous tracking first.
+     *
+     * @throws AdbException
+     *           If the emulator is not running or the events buffer cannot be read.
+     */
+    public void start() throws AdbException {
+        stop();
+        final Map<Milestone, EventFuture<String>> subscribed = new EnumMap<>(Milestone.class);
+        try {
+            for (final Milestone m : Milestone.values()) {
+                subscribed.put(m, source.subscribe(m));
+            }
+        } catch (final AdbException e) {
+            for (final EventFuture<String> f : subscribed.values()) {
+                f.cancel(false);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            milestones.putAll(subscribed);
+        }
+    }
+
+    /**
+     * Stops tracking the current boot, if any. Logs the boot timeline and records the
+     * reached milestones in the metrics. Subscriptions of milestones that are not reached
+     * yet are cancelled.
+     */
+    public void stop() {
+        final Map<Milestone, EventFuture<String>> subscribed;
+        synchronized (this) {
+            if (milestones.isEmpty()) {
+                return;
+            }
+            subscribed = new EnumMap<>(milestones);
+            milestones.clear();
+        }
+        final StringBuilder timeline = new StringBuilder();
+        final List<String> pending = new ArrayList<>();
+        for (final Map.Entry<Milestone, EventFuture<String>> e : subscribed.entrySet()) {
+            final long uptime = e.getValue().cancel(false) ? -1 : uptime(e.getValue());
+            if (uptime < 0) {
+                pending.add(e.getKey().getName());
+                continue;
+            }
+            metrics.recordMilestone(e.getKey(), uptime);
+            if (timeline.length() > 0) {
+                timeline.append(", ");
+            }
+            timeline.append(String.format("%s %d ms", e.getKey().getName(), uptime));
+        }
+        LOGGER.info(String.format("Boot timeline: %s; not reached: %s", timeline, pending));
+    }
+
+    /**
+     * @return The uptime of a done milestone or {@code -1} if it failed or has no uptime.
+     */
+    private static long uptime(final EventFuture<String> milestone) {
+        try {
+            return parseUptime(milestone.get());
+        } catch (final InterruptedException | ExecutionException | CancellationException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Subscribes to the events of the tracked boot.
+     */
+    interface EventSource {
+
+        /**
+         * Subscribes to the event of the given milestone, see
+         * {@link AndroidDebuggingBridge#logcatEventChecked(Emulator, String, String, String...)}.
+         *
+         * @param milestone
+         *          The milestone.
+         * @return The future of the event line of the milestone.
+         * @throws AdbException
+         *           If the emulator is not running or the events buffer cannot be read.
+         */
+        EventFuture<String> subscribe(Milestone milestone) throws AdbException;
+    }
+}
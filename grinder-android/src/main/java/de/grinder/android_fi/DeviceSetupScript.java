@@ -0,0 +1,200 @@
+package de.grinder.android_fi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sequence of device-side setup steps that is executed as one shell invocation, see
+ * {@link AndroidDebuggingBridge#runSetupScript(DeviceSetupScript)}.
+ * <p>
+ * Each step is a shell command. The compiled script runs the steps in the order in which
+ * they were added and prints one result line per step with its exit code and its start
+ * and end time in device uptime (see {@link StepResult}). A failing checked step skips all
+ * remaining steps, as a failing ADB command would have done; unchecked steps only report
+ * their exit code. After the last step, the script prints an end marker and waits for the
+ * commands that were started in the background, e.g., a detector daemon, so that their
+ * lifetime stays bound to the shell invocation.
+ * <p>
+ * This class is not thread safe.
+ */
+public class DeviceSetupScript {
+
+    /** Line that ends the step results. */
+    static final String END_MARKER = "AFI_SETUP_END";
+
+    /** Prefix of step result lines. */
+    static final String STEP_MARKER = "AFI_SETUP_STEP";
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Retrieves the first failed checked step.
+     *
+     * @param results
+     *          The step results of a script run.
+     * @return The failed step or {@code null} if all checked steps succeeded.
+     */
+    public static StepResult getFailure(final List<StepResult> results) {
+        for (final StepResult r : results) {
+            if (r.isFailed()) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a checked step, whose failure skips the remaining steps.
+     *
+     * @param name
+     *          The name of the step.
+     * @param command
+     *          The shell command of the step.
+     * @return This script.
+     */
+    public DeviceSetupScript add(final String name, final String command) {
+        steps.add(new Step(name, command, true));
+        return this;
+    }
+
+    /**
+     * Adds an unchecked step, whose exit code is only reported.
+     *
+     * @param name
+     *          The name of the step.
+     * @param command
+     *          The shell command of the step.
+     * @return This script.
+     */
+    public DeviceSetupScript addUnchecked(final String name, final String command) {
+        steps.add(new Step(name, command, false));
+        return this;
+    }
+
+    /**
+     * @return The number of steps.
+     */
+    public int getStepCount() {
+        return steps.size();
+    }
+
+    /**
+     * Parses a line of the script output.
+     *
+     * @param line
+     *          The output line.
+     * @return The step result or {@code null} if the line is no step result, e.g., output
+     *         of a step command.
+     */
+    StepResult parseResult(final String line) {
+        final String[] fields = line.trim().split("\\s+");
+        if (fields.length < 3 || !fields[0].equals(STEP_MARKER)) {
+            return null;
+        }
+        try {
+            final Step step = steps.get(Integer.parseInt(fields[1]));
+            final int exitCode = Integer.parseInt(fields[2]);
+            long nanos = -1;
+            if (fields.length >= 5) {
+                nanos = Math.max(0, parseUptimeNanos(fields[4]) - parseUptimeNanos(fields[3]));
+            }
+            return new StepResult(step.name, exitCode, nanos, step.checked);
+        } catch (final NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an uptime in seconds as read from {@code /proc/uptime}, e.g., {@code 103.52}.
+     */
+    private static long parseUptimeNanos(final String uptime) {
+        return Math.round(Double.parseDouble(uptime) * 1e9);
+    }
+
+    /**
+     * Compiles the steps into a single line of shell commands.
+     *
+     * @return The shell command line.
+     */
+    public String toShell() {
+        final StringBuilder sb = new StringBuilder("R=0");
+        for (int i = 0; i < steps.size(); i++) {
+            final Step s = steps.get(i);
+            sb.append(String.format("; if [ $R -eq 0 ]; then read T0 X < /proc/uptime; %s; "
+                                    + "S=$?; read T1 X < /proc/uptime; echo \"%s %d $S $T0 $T1\";%s fi",
+                                    s.command, STEP_MARKER, i, s.checked ? " R=$S;" : ""));
+        }
+        sb.append(String.format("; echo %s; wait", END_MARKER));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Step s : steps) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(s.name);
+        }
+        return sb.toString();
+    }
+
+    private static class Step {
+        private final boolean checked;
+        private final String command;
+        private final String name;
+
+        Step(final String name, final String command, final boolean checked) {
+            this.name = name;
+            this.command = command;
+            this.checked = checked;
+        }
+    }
+
+    /**
+     * Result of an executed step.
+     */
+    public static class StepResult {
+        private final boolean checked;
+        private final int exitCode;
+        private final String name;
+        private final long nanos;
+
+        StepResult(final String name, final int exitCode, final long nanos,
+                   final boolean checked) {
+            this.name = name;
+            this.exitCode = exitCode;
+            this.nanos = nanos;
+            this.checked = checked;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The duration of the step on the device in nanoseconds, with the 10 ms
+         *         resolution of the device uptime, or {@code -1} if unknown.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return True if the step is checked and failed.
+         */
+        public boolean isFailed() {
+            return checked && exitCode != 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d (%d ms)", name, exitCode, nanos / 1000000);
+        }
+    }
+}
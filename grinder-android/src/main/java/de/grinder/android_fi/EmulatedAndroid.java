@@ -1,7 +1,9 @@
 package de.grinder.android_fi;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -9,8 +11,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.grinder.android_fi.AndroidDebuggingBridge.AdbException;
+import de.grinder.android_fi.BootProgressTracker.Milestone;
+import de.grinder.android_fi.DeviceSetupScript.StepResult;
 import de.grinder.android_fi.Emulator.EmulatorException;
 import de.grinder.android_fi.ExperimentSettings.SettingsException;
+import de.grinder.android_fi.PhaseMetrics.Phase;
+import de.grinder.android_fi.PhaseMetrics.RunTimer;
 import de.grinder.android_fi.experimentResultDetection.CandeInterface;
 import de.grinder.android_fi.experimentResultDetection.ExternalDetector;
 import de.grinder.util.cue.CUEAbstraction;
@@ -33,6 +39,9 @@ public class EmulatedAndroid implements CUEAbstraction {
 
     private final AndroidDebuggingBridge adb;
 
+    /** Boot milestones of the current run. */
+    private final BootProgressTracker bootProgress;
+
     private final CandeInterface cande;
 
     private final Emulator emulator;
@@ -43,6 +52,14 @@ public class EmulatedAndroid implements CUEAbstraction {
     /** Instance level logger */
     private final Logger LOGGER;
 
+    private final ModuleCache moduleCache;
+
+    /** Host wide admission control for concurrently running emulators. */
+    private final ParallelismController parallelism;
+
+    /** Host wide registry for the phase durations of the experiment runs. */
+    private final PhaseMetrics phaseMetrics;
+
     private final ExternalDetector resultDetector;
 
     /**
@@ -54,16 +71,11 @@ public class EmulatedAndroid implements CUEAbstraction {
     /** Settings properties for system dependent tools and paths. */
     private final ExperimentSettings settings;
 
-    private static String joinStr(final String sep, final List<String> lst) {
-        final StringBuilder sb = new StringBuilder();
-        for (final String s : lst) {
-            if (sb.length() > 0) {
-                sb.append(sep);
-            }
-            sb.append(s);
-        }
-        return sb.toString();
-    }
+    /** Phase timer of the current or last run, {@code null} before the first run. */
+    private volatile RunTimer runTimer = null;
+
+    /** Start time of the workload of the current run, {@code 0} if not started. */
+    private volatile long workloadStartNanos = 0;
 
     /**
      * Constructs an adapter for an Android system running in an emulator
@@ -77,7 +89,13 @@ public class EmulatedAndroid implements CUEAbstraction {
                 "Failed to load experiment settings: {}", e.getMessage());
             throw new RuntimeException("Experiment settings load failure", e);
         }
-        emulator = EmulatorFactory.getInstance().getNewEmu(settings);
+        try {
+            emulator = EmulatorFactory.getInstance().getNewEmu(settings);
+        } catch (final EmulatorException e) {
+            LoggerFactory.getLogger(EmulatedAndroid.class).error(
+                "Failed to lease emulator slot: {}", e.getMessage());
+            throw new RuntimeException("Emulator slot lease failure", e);
+        }
         adb = emulator.getAdb();
         LOGGER = LoggerFactory.getLogger(String.format("%s<%s>",
                                          EmulatedAndroid.class.getName(), emulator.getConfig().getLogId()));
@@ -88,12 +106,54 @@ public class EmulatedAndroid implements CUEAbstraction {
         // experiment runs for the targets must be started in the order of their ports to
         // ensure that the emulator instances are created in the correct order; failing to do
         // this will mess up the server connections and the EmulatedAndroid instance will
-        // communicate with the wrong GRINDER server!!
+        // communicate with the wrong GRINDER server!! The emulator factory always leases the
+        // lowest free slot ID, independent of emulator ports that are bound by foreign
+        // emulators, and slots are kept from construction until stop(), so restarted
+        // targets get their previous IDs again.
         grinder = new AndroidGrinderProxy(settings.GRINDER_HOST, settings.GRINDER_PORT
                                           + emulator.getConfig().getId());
         resultDetector = new ExternalDetector(emulator, settings, grinder,
                                               emulator.getEmulatorOutputCapturer(), emulator.getConfig().getLogId());
         cande = new CandeInterface(adb, settings);
+        parallelism = ParallelismController.forSettings(settings);
+        phaseMetrics = PhaseMetrics.forSettings(settings);
+        bootProgress = new BootProgressTracker(adb, emulator, phaseMetrics);
+        moduleCache = ModuleCache.forSettings(settings);
+    }
+
+    /**
+     * Ensures that the emulator resumes from the shared snapshot if snapshot mode is
+     * enabled. The snapshot is captured on first use, which takes one emulator boot.
+     *
+     * @throws ExperimentFailure
+     *           If the snapshot could not be captured.
+     */
+    private void prepareSnapshot() throws ExperimentFailure {
+        if (!settings.SNAPSHOT_MODE || emulator.getConfig().usesSnapshot()) {
+            return;
+        }
+        final EmulatorSnapshot snapshot = EmulatorSnapshot.forSettings(settings);
+        try {
+            snapshot.ensureCaptured(emulator);
+        } catch (final EmulatorException e) {
+            throw new ExperimentFailure(lm("Failed to capture emulator snapshot: %s",
+                                           e.getMessage()), e);
+        }
+        emulator.setSnapshot(snapshot);
+    }
+
+    /**
+     * Releases the parallelism admission of this target and reports the workload duration
+     * of the finished run, if any.
+     */
+    private void releaseAdmission() {
+        final long start = workloadStartNanos;
+        workloadStartNanos = 0;
+        if (start != 0) {
+            parallelism.reportWorkloadDuration(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                                               - start));
+        }
+        parallelism.release(this);
     }
 
     private void delayedsignalExperimentFail() {
@@ -120,17 +180,35 @@ public class EmulatedAndroid implements CUEAbstraction {
     @Override
     public void reset() {
         LOGGER.info(lm("Resetting emulated Android"));
+        final RunTimer timer = runTimer;
+        if (timer != null) {
+            timer.end();
+            LOGGER.info(lm("Phase durations: %s", timer));
+        }
         resultDetector.stopAllDetectors();
+        resultDetector.close();
         adb.cancelCreatedProcesses();
         try {
             emulator.kill();
         } catch (final EmulatorException e) {
             LOGGER.error(lm("Failed to stop experiment: %s", e.getMessage()), e);
             throw new RuntimeException("Failed to stop experiment", e);
+        } finally {
+            releaseAdmission();
         }
 
         try {
-            grinder.sendLog(joinStr("\n", emulator.getAccountingStats()));
+            final AccountingRecord accounting = emulator.getAccountingStats();
+            final ResourceSampler sampler = emulator.getResourceSampler();
+            String log = accounting != null ? accounting.toCsv() : "";
+            if (!sampler.getSamples().isEmpty()) {
+                // further sections follow the accounting data after an empty line
+                log = log + "\n\n" + sampler.toCsv();
+            }
+            if (timer != null) {
+                log = log + "\n\n" + timer.toCsv();
+            }
+            grinder.sendLog(log);
             Thread.sleep(800); // Wait longer than the servers reset finish poll
             // interval to get a higher probability that the log
             // message arrives safe and sound at the server before the
@@ -157,58 +235,125 @@ public class EmulatedAndroid implements CUEAbstraction {
     public void runExperiment() {
         synchronized (runLock) {
             LOGGER.info(lm("Starting experiment run"));
+            final RunTimer timer = phaseMetrics.newRun(emulator.getConfig().getLogId());
+            runTimer = timer;
 
             try {
+                timer.begin(Phase.ADMISSION);
+                if (parallelism.isEnabled()) {
+                    LOGGER.info(lm("Waiting for parallelism admission"));
+                }
+                try {
+                    parallelism.acquire(this);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ExperimentFailure("Interrupted while waiting for admission", e);
+                }
+
                 resultDetector.rearm();
+                timer.begin(Phase.SNAPSHOT);
+                prepareSnapshot();
                 resultDetector.startSysinitDetector();
 
+                final long sysinitStart = System.nanoTime();
+                timer.begin(Phase.EMULATOR_START);
                 try {
                     emulator.start();
                 } catch (final EmulatorException e) {
                     throw new ExperimentFailure(lm("Failed to start emulator: %s", e.getMessage()),
                                                 e);
                 }
+                timer.record(Phase.IMAGE_RESET, emulator.getImagePreparationNanos());
 
                 LOGGER.info(lm("Waiting for emulator boot-up"));
+                timer.begin(Phase.DEVICE_WAIT);
                 if (!adb.waitForDeviceChecked(emulator)) {
                     LOGGER.error("Emulator died while waiting for its boot-up.");
                     throw new ExperimentFailure("Emulator died prematurely.");
                 }
-                LOGGER.info(lm("Removing external detector flag file"));
-                adb.removeFile(settings.AVD_WORKLOAD_FLAGFILE, true);
-
-                // start detector at this point since only loading the modules can
-                // lead to a kernel panic (etc.) caused by the module_init method
-                LOGGER.info(lm("Starting error detection engine"));
-                cande.startCande();
-                resultDetector.startSystemDetectors();
-
-                // Load modules
-                // note that grinder is already part of the system image
-                LOGGER.info(lm("Loading kernel modules"));
+                // the setup steps below only need adbd, i.e., the online device, while the
+                // tracker follows the remaining boot of the system for the run's timeline
+                bootProgress.start();
+                // subscribe before the setup steps, so that the workload start is observed
+                // while they run; emulator death or reset fails the subscription
+                final EventFuture<String> workloadStarted = adb.logcatEventChecked(emulator,
+                        "main", "workload_started", "Workload:D");
+                final File moduleFile;
                 try {
-                    adb.loadModule(String.format("%s/%s", settings.AVD_MODULE_DIR, grinder
-                                                 .getInstrumentedKernelModule().getName()));
+                    moduleFile = grinder.getInstrumentedKernelModule();
                 } catch (final IOException e) {
                     throw new ExperimentFailure(lm("Communication failure with GRINDER server: %s",
                                                    e.getMessage()), e);
                 }
+                final String module = moduleFile.getName();
+
+                // the vanilla userdata image contains a batch of mutants, only push the
+                // mutant if it is not baked into the image with the same content
+                final boolean baked;
+                try {
+                    baked = moduleCache.isBaked(moduleFile);
+                } catch (final IOException e) {
+                    throw new ExperimentFailure(lm("Failed to check mutant [%s]: %s", module,
+                                                   e.getMessage()), e);
+                }
+                if (!baked) {
+                    timer.begin(Phase.MODULE_PUSH);
+                    adb.pushModule(moduleFile);
+                }
+
+                // start detector at this point since only loading the modules can
+                // lead to a kernel panic (etc.) caused by the module_init method
+                LOGGER.info(lm("Starting error detection engine"));
+                resultDetector.startSystemDetectors();
 
+                // remove the external detector flag file, start CANDE and load the modules
+                // in one device-side script; note that grinder is already part of the
+                // system image
+                timer.begin(Phase.DEVICE_SETUP);
+                final DeviceSetupScript setup = new DeviceSetupScript();
+                setup.add(Phase.FLAG_REMOVAL.getName(), String.format("rm -f %s",
+                          settings.AVD_WORKLOAD_FLAGFILE));
+                setup.add(Phase.CANDE_START.getName(), cande.getStartCommand());
+                setup.add(Phase.MODULE_LOAD.getName(), String.format("insmod %s/%s",
+                          settings.AVD_MODULE_DIR, module));
                 // check if the loaded mutant is an io scheduler
                 // if so, configure the kernel to use it
-                Pattern ioschedPattern = Pattern.compile(ioschedTestcase);
-                Matcher ioschedMatcher = ioschedPattern.matcher(grinder.getInstrumentedKernelModule().getName());
+                final Matcher ioschedMatcher = Pattern.compile(ioschedTestcase).matcher(module);
                 if (ioschedMatcher.matches()) {
-                    adb.execShell(String.format("echo %s > %s", ioschedMatcher.group("schedName"),ioschedulerSpecFile));
-                    LOGGER.debug(lm("IOSched experiment detected: configured %s to use %s",
-                                    ioschedulerSpecFile,ioschedMatcher.group("schedName")));
+                    LOGGER.debug(lm("IOSched experiment detected: configuring %s to use %s",
+                                    ioschedulerSpecFile, ioschedMatcher.group("schedName")));
+                    setup.addUnchecked(Phase.IOSCHED_SWITCH.getName(), String.format(
+                                           "echo %s > %s", ioschedMatcher.group("schedName"), ioschedulerSpecFile));
+                }
+                final List<StepResult> steps = adb.runSetupScript(setup);
+                for (final StepResult step : steps) {
+                    if (step.getNanos() >= 0) {
+                        timer.record(Phase.fromName(step.getName()), step.getNanos());
+                    }
+                }
+                timer.end();
+                final StepResult failed = DeviceSetupScript.getFailure(steps);
+                if (failed != null) {
+                    throw new ExperimentFailure(lm("Device setup step [%s] failed: error %d",
+                                                   failed.getName(), failed.getExitCode()));
                 }
 
                 // Workload autostarts, but we have to wait for it
                 LOGGER.info(lm("Waiting for workload start"));
-                adb.waitForLogcatEventChecked(emulator, "main", "workload_started", "Workload:D");
+                timer.begin(Phase.WORKLOAD_START_WAIT);
+                // the workload is started on BOOT_COMPLETED, which the activity manager
+                // broadcasts after it is ready; waiting for the milestone first tells a
+                // stalled boot from a stalled workload and ensures that the milestones up
+                // to it are recorded when the tracker stops
+                adb.await(bootProgress.milestone(Milestone.AMS_READY), String.format(
+                              "boot milestone [%s]", Milestone.AMS_READY.getName()));
+                adb.await(workloadStarted, "logcat event [workload_started]");
                 resultDetector.stopSysinitDetector();
+                workloadStartNanos = System.nanoTime();
+                parallelism.reportSysinitDuration(TimeUnit.NANOSECONDS.toMillis(workloadStartNanos
+                                                  - sysinitStart));
                 LOGGER.info(lm("Signaling Detector"));
+                timer.begin(Phase.RESULT_DETECTION);
                 resultDetector.startApplicationDetectors();
                 // NOTE
                 // the result detector may signal the finish before the actual app
@@ -218,13 +363,18 @@ public class EmulatedAndroid implements CUEAbstraction {
 
             } catch (final AdbException e) {
                 LOGGER.error(lm("ADB failure in experiment logic: %s", e.getMessage()), e);
+                timer.end();
                 delayedsignalExperimentFail();
             } catch (final ExperimentFailure e) {
                 LOGGER.error(lm("Experiment logic signaled failure: %s", e.getMessage()), e);
+                timer.end();
                 delayedsignalExperimentFail();
             } catch (final Throwable t) {
                 LOGGER.error(lm("Unexpected error in experiment logic: %s", t.getMessage()), t);
+                timer.end();
                 delayedsignalExperimentFail();
+            } finally {
+                bootProgress.stop();
             }
         }
     }
@@ -235,6 +385,12 @@ public class EmulatedAndroid implements CUEAbstraction {
     @Override
     public void start() {
         LOGGER.info(lm("Starting emulated Android"));
+        try {
+            EmulatorFactory.getInstance().reacquire(emulator);
+        } catch (final EmulatorException e) {
+            LOGGER.error(lm("Failed to start %s: %s", this, e.getMessage()), e);
+            throw new RuntimeException("Emulator slot unavailable", e);
+        }
         try {
             grinder.connect();
         } catch (final IOException e) {
@@ -261,7 +417,10 @@ public class EmulatedAndroid implements CUEAbstraction {
         } catch (final EmulatorException e) {
             LOGGER.error(lm("Failed to stop experiment: %s", e.getMessage(), e));
             throw new RuntimeException("Failed to stop experiment", e);
+        } finally {
+            releaseAdmission();
         }
+        EmulatorFactory.getInstance().release(emulator);
     }
 
     /**
@@ -292,17 +292,35 @@ public class EmulatedAndroidCalib implements CUEAbstraction {
      *
      * @param maxEmus
      *          The maximum number of emulators to prepare for.
+     * @throws CalibrationException
+     *           If there are not enough free emulator slots.
      */
-    private void prepareEmulators(final int maxEmus) {
+    private void prepareEmulators(final int maxEmus) throws CalibrationException {
         LOG.info(String.format("Preparing %d emulator instances for calibration", maxEmus));
 
         final EmulatorFactory factory = EmulatorFactory.getInstance();
         for (int i = 0; i < maxEmus; ++i) {
-            emus.add(factory.getNewEmu(settings));
+            try {
+                emus.add(factory.getNewEmu(settings));
+            } catch (final EmulatorException e) {
+                releaseEmulators();
+                throw new CalibrationException("Failed to lease emulator slots.", e);
+            }
         }
         executor = Executors.newFixedThreadPool(maxEmus);
     }
 
+    /**
+     * Returns the slots of all prepared emulator instances to the {@link EmulatorFactory}.
+     */
+    private void releaseEmulators() {
+        final EmulatorFactory factory = EmulatorFactory.getInstance();
+        for (final Emulator emu : emus) {
+            factory.release(emu);
+        }
+        emus.clear();
+    }
+
     /**
      * Signal experiment failure to GRINDER.
      */
@@ -401,6 +419,7 @@ public class EmulatedAndroidCalib implements CUEAbstraction {
                 LOG.error("Failed to shutdown executor service. Interrupted.", e);
             }
         }
+        releaseEmulators();
 
         try {
             resultOutput.close();
@@ -4,22 +4,25 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.grinder.android_fi.ProcessUtils.ProcUtilException;
 import de.grinder.android_fi.experimentResultDetection.InputStreamCapturer;
+import de.grinder.android_fi.experimentResultDetection.LineListener;
+import de.grinder.android_fi.experimentResultDetection.WorkloadEventServer;
 
 /**
  * Controls one instance of the Android emulator.
@@ -50,7 +53,8 @@ import de.grinder.android_fi.experimentResultDetection.InputStreamCapturer;
  * wrapper.
  * <p>
  * Before the emulator process is started, all individual image files are overwritten with
- * their vanilla versions (see {@link #resetImages()}). This includes the userdata and the
+ * their vanilla versions (see {@link #prepareImages()} and {@link #resetImages(int)}),
+ * possibly in the background during the previous run. This includes the userdata and the
  * SD card image, but not the system image, which is copied by the emulator itself. Note
  * that the {@code -wipe-data} option is not used to perform a userdata image reset as
  * this is done explicitly before starting the emulator. In future versions this may also
@@ -58,12 +62,23 @@ import de.grinder.android_fi.experimentResultDetection.InputStreamCapturer;
  * per emulator run. This temporary system image map file is created with a random name
  * somewhere in {@code /tmp}. In order to prevent file system trashing over multiple
  * emulator runs, the map file is identified by searching the emulator process output (see
- * {@link #startInitScanner()}) and deleted during the emulator shutdown process (see
+ * {@link InitDataListener}) and deleted during the emulator shutdown process (see
  * {@link #cleanup()}).
  * <p>
+ * If image pre-staging is enabled (see {@link ExperimentSettings#IMAGE_PRESTAGING}),
+ * each emulator owns two sets of userdata and SD card images. While an emulator run uses
+ * one set, the other set is reset to the vanilla versions in the background. The sets are
+ * swapped on the next start, which removes the image reset from the start-up path.
+ * <p>
+ * In snapshot mode (see {@link ExperimentSettings#SNAPSHOT_MODE}), the images are reset
+ * to the base images of an {@link EmulatorSnapshot} instead of the vanilla images and the
+ * emulator resumes from the snapshot instead of cold booting (see
+ * {@link #setSnapshot(EmulatorSnapshot)}).
+ * <p>
  * Generally, {@link Emulator} instances should only be constructed by the
  * {@link EmulatorFactory}. This ensures unique and consistent emulator ID and port
- * assignment.
+ * assignment. The emulator ID and ports are leased from the factory and must be returned
+ * with {@link EmulatorFactory#release(Emulator)} when the instance is no longer used.
  * <p>
  * When starting multiple emulator processes off the same Android Virtual Device (AVD),
  * the emulator detects this and may write configuration changes to temporary files, which
@@ -80,29 +95,42 @@ public class Emulator {
 
     /**
      * Starting of accounting system output line that states the PID of the started emulator
-     * process. This constant is used by the init data scanner (see
-     * {@link Emulator#initDataScanner}) in order to identify the current emulator PID.
+     * process. This constant is used by the init data listener (see
+     * {@link InitDataListener}) in order to identify the current emulator PID.
      * */
     private static final String EMULATOR_PID_LINE = "Child pid: ";
 
-    /** The period in milliseconds for executing the init data scanner. */
-    private static final long INIT_SCANNER_PERIOD = 250l;
+    /**
+     * Emulator output line start that is printed after the PID and map file lines. If the
+     * init data listener sees this line without having found all data, it gives up.
+     */
+    private static final String INIT_DATA_MISSED_MARKER_LINE = "Kernel command line:";
 
     /**
      * Starting of emulator output line that states the used temporary system image map
-     * file. This constant is used by the init data scanner (see
-     * {@link Emulator#initDataScanner}) in order to identify the current map file.
+     * file. This constant is used by the init data listener (see
+     * {@link InitDataListener}) in order to identify the current map file.
      */
     private static final String SYSTEM_IMAGE_MAP_LINE = "emulator: mapping 'system' NAND image to ";
 
-    /** Regex pattern that matches a valid accounting data set as produced by getdelays. */
-    private static final String VALID_ACC_DATASET_PATTERN = "\\((\\w+: \\d+;)+\\)";
+    /**
+     * Accounting data of the last terminated emulator process or {@code null} if not
+     * available.
+     */
+    private AccountingRecord accountingData = null;
 
-    private List<String> accountingData = null;
+    /** Parser for the accounting output of the emulator processes. */
+    private final AccountingParser accountingParser;
+
+    /** Sampler for the resource usage of the emulator process while it is running. */
+    private final ResourceSampler resourceSampler;
 
     /** Process object for running accounting or {@code null} if accounting is not running. */
     private Process accProcess = null;
 
+    /** PID of the accounting process or {@code 0} if unknown or not running. */
+    private int accPid = 0;
+
     /**
      * The ADB wrapper instance that is attached to this emulator or {@code null} if the ADB
      * wrapper was never queried by {@link #getAdb()}. Note that the ADB wrapper can exist
@@ -116,22 +144,32 @@ public class Emulator {
     /** Emulator settings and configuration. */
     private final EmulatorConfiguration emuConfig;
 
-    /** PID of the emulator process or {@code 0} if no emulator is running. */
-    private int emuPid = 0;
     /**
-     * Current initial data scanner while it is running or {@code null} if no scanner is
-     * running.
+     * Executor for resetting the inactive image sets of all emulators in the background if
+     * image pre-staging is enabled, see {@link #getImageStager(ExperimentSettings)}.
      */
-    private ScheduledFuture<?> initDataScanner;
+    private static ExecutorService imageStager = null;
 
-    /** Instance level logger */
-    private final Logger LOGGER;
+    /** PID of the emulator process or {@code 0} if no emulator is running. */
+    private volatile int emuPid = 0;
+    /** Duration of the image preparation of the last start in nanoseconds. */
+    private volatile long imagePreparationNanos = 0;
+    /** Start time of the emulator process for detecting PID reuse, {@code -1} if unknown. */
+    private volatile long emuStartTime = -1;
+    /**
+     * Current init data listener while it is registered or {@code null} if no listener is
+     * registered.
+     */
+    private volatile InitDataListener initDataListener;
 
     /**
-     * Executor for the init data scanner. Using a executor here may be a little overdone,
-     * but is is so much nicer than using a raw thread.
+     * Background reset of the inactive image set or {@code null} if no reset was started.
+     * The inactive image set is ready for use once this future is done.
      */
-    private final ScheduledExecutorService scheduler;
+    private Future<?> stagedImages;
+
+    /** Instance level logger */
+    private final Logger LOGGER;
 
     private boolean shutdownComplete = true;
 
@@ -141,7 +179,13 @@ public class Emulator {
      * Path of the current temporary system image map file or {@code null} if there is no
      * current map file or it is unknown.
      */
-    private String sysImageMapFile;
+    private volatile String sysImageMapFile;
+
+    /**
+     * Completed when the current emulator process terminated, i.e., its output ended, or was
+     * killed. Already completed while no emulator process is running.
+     */
+    private volatile EventFuture<Void> termination = EventFuture.completed(null);
 
     /**
      * Constructs an {@link Emulator} object from the specified arguments.
@@ -156,7 +200,39 @@ public class Emulator {
                                          logId));
         emuConfig = settings;
         emuCapturer = new InputStreamCapturer(logId);
-        scheduler = Executors.newSingleThreadScheduledExecutor();
+        accountingParser = new AccountingParser(logId);
+        emuCapturer.addLineListener(accountingParser);
+        resourceSampler = new ResourceSampler(logId);
+        emuCapturer.addEndListener(new Runnable() {
+            @Override
+            public void run() {
+                if (termination.complete(null)) {
+                    LOGGER.debug("Emulator output ended");
+                }
+            }
+        });
+    }
+
+    /**
+     * Retrieves the image staging executor that is shared by all emulators and creates it
+     * on first use. Its daemon threads are never shut down.
+     */
+    private static synchronized ExecutorService getImageStager(final ExperimentSettings settings) {
+        if (imageStager == null) {
+            imageStager = Executors.newFixedThreadPool((int) Math.max(1,
+                          settings.IMAGE_STAGING_THREADS), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, String.format("image-stager-%d",
+                                                count.incrementAndGet()));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return imageStager;
     }
 
     /**
@@ -169,11 +245,12 @@ public class Emulator {
      */
     private void cleanup() {
         LOGGER.debug("Performing emulator cleanup");
-        if (initDataScanner != null && !initDataScanner.isDone()) {
-            final boolean ret = initDataScanner.cancel(true);
-            initDataScanner = null;
-            LOGGER.warn(lm("System image map file scanner was not done on cleanup. "
-                           + "Canceled now explicitly: %b", ret));
+        final InitDataListener listener = initDataListener;
+        if (listener != null) {
+            final boolean ret = emuCapturer.removeLineListener(listener);
+            initDataListener = null;
+            LOGGER.warn(lm("Init data listener was not done on cleanup. "
+                           + "Removed now explicitly: %b", ret));
         }
         if (sysImageMapFile != null) {
             try {
@@ -191,30 +268,12 @@ public class Emulator {
     }
 
     private void collectAccountingStats() {
-        final String rawOutput = emuCapturer.getOutput();
-        final Matcher startMatcher = Pattern.compile(String.format("PID\\s+%d\n", emuPid))
-                                     .matcher(rawOutput);
-        if (startMatcher.find()) {
-            final String[] accLines = rawOutput.substring(startMatcher.end()).split("\n");
-            final List<String> accDataSets = new ArrayList<>();
-            for (final String line : accLines) {
-                if (line.matches(VALID_ACC_DATASET_PATTERN)) {
-                    accDataSets.add(line);
-                    LOGGER.debug(lm("Found valid acc data set: %s", line));
-                } else {
-                    LOGGER.warn(lm("Saw invalid acc data line: %s", line));
-                }
-            }
-            if (accDataSets.isEmpty()) {
-                final String msg = lm("Failed to find valid accounting data in emulator output");
-                LOGGER.error(msg);
-            } else {
-                accountingData = accDataSets;
-                LOGGER.debug(lm("Found %d accounting data sets", accDataSets.size()));
-            }
+        accountingData = accountingParser.getRecord(emuPid);
+        if (accountingData != null) {
+            LOGGER.debug(lm("Found accounting data: %s", accountingData));
         } else {
-            final String msg = lm("Failed to find accounting stats start in emulator output");
-            LOGGER.error(msg);
+            LOGGER.error(lm("Failed to find accounting data for emulator PID %d in emulator "
+                            + "output", emuPid));
         }
     }
 
@@ -233,16 +292,71 @@ public class Emulator {
     }
 
     /**
-     * Reset the SD card and userdata images to their vanilla versions.
+     * Prepares the images for the next emulator run.
+     *
+     * Without image pre-staging, the images of the active image set are reset
+     * synchronously. With image pre-staging, the previously staged inactive image set is
+     * activated and the image set of the last run is reset in the background. The
+     * synchronous reset is only performed for the very first run or if the background reset
+     * failed.
+     *
+     * @throws IOException
+     *           If one or more vanilla images could not be reset.
+     */
+    private void prepareImages() throws IOException {
+        if (!emuConfig.getSettings().IMAGE_PRESTAGING) {
+            resetImages(emuConfig.getActiveImageSet());
+            return;
+        }
+
+        boolean staged = false;
+        if (stagedImages != null) {
+            try {
+                stagedImages.get();
+                staged = true;
+            } catch (final ExecutionException e) {
+                LOGGER.warn(lm("Background image reset failed, resetting now: %s", e.getCause()
+                               .getMessage()));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for staged images", e);
+            } finally {
+                stagedImages = null;
+            }
+        }
+        if (staged) {
+            emuConfig.switchImageSet();
+            LOGGER.debug(lm("Using pre-staged image set %d", emuConfig.getActiveImageSet()));
+        } else {
+            resetImages(emuConfig.getActiveImageSet());
+        }
+
+        final int nextSet = emuConfig.getInactiveImageSet();
+        stagedImages = getImageStager(emuConfig.getSettings()).submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                resetImages(nextSet);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Reset the SD card and userdata images of the given image set to their vanilla
+     * versions.
      *
-     * The reset is performed by copying the vanilla images over the image files that are
-     * used by this emulator.
+     * The reset is performed by the {@link ImageResetStrategy} that is configured in the
+     * experiment settings, e.g., by copying or cloning the vanilla images over the image
+     * files that are used by this emulator.
      *
+     * @param imageSet
+     *          The image set to reset.
      * @throws IOException
-     *           If one or more vanilla images could not be copied.
+     *           If one or more vanilla images could not be reset.
      */
-    private void resetImages() throws IOException {
-        LOGGER.debug("Resetting system, userdata and SD card images");
+    private void resetImages(final int imageSet) throws IOException {
+        LOGGER.debug(lm("Resetting system, userdata and SD card images of set %d", imageSet));
+        final ImageResetStrategy strategy = emuConfig.getSettings().IMAGE_RESET_STRATEGY;
 
         // manual system image reset in future work as it requires changes to the Android
         // emulator
@@ -251,15 +365,19 @@ public class Emulator {
         // Files.copy(Paths.get(emuSettings.getSystemVanillaImage()),
         // Paths.get(emuSettings.getSystemImage()), StandardCopyOption.REPLACE_EXISTING);
 
-        LOGGER.debug(lm("Copying [%s] to [%s]", emuConfig.getUserdataVanillaImage(),
-                        emuConfig.getUserdataImage()));
-        Files.copy(Paths.get(emuConfig.getUserdataVanillaImage()),
-                   Paths.get(emuConfig.getUserdataImage()), StandardCopyOption.REPLACE_EXISTING);
+        resetImage(strategy, emuConfig.getUserdataResetSource(),
+                   emuConfig.getUserdataImage(imageSet));
+        resetImage(strategy, emuConfig.getSdCardResetSource(), emuConfig.getSdCardImage(imageSet));
+        final String storageSource = emuConfig.getSnapshotStorageResetSource();
+        if (storageSource != null) {
+            resetImage(strategy, storageSource, emuConfig.getSnapshotStorageImage(imageSet));
+        }
+    }
 
-        LOGGER.debug(lm("Copying [%s] to [%s]", emuConfig.getSdCardVanillaImage(),
-                        emuConfig.getSdCardImage()));
-        Files.copy(Paths.get(emuConfig.getSdCardVanillaImage()),
-                   Paths.get(emuConfig.getSdCardImage()), StandardCopyOption.REPLACE_EXISTING);
+    private void resetImage(final ImageResetStrategy strategy, final String source,
+                            final String target) throws IOException {
+        LOGGER.debug(lm("Resetting (%s) [%s] to [%s]", strategy.getName(), source, target));
+        strategy.reset(Paths.get(source), Paths.get(target));
     }
 
     private void resetShutdownState() {
@@ -276,98 +394,14 @@ public class Emulator {
     }
 
     /**
-     * Starts the data scanner for identifying needed data in the startup output of the
-     * emulator and accounting system.
-     *
-     * The scanner identifies the temporary mapping file for the system image and emulator
-     * PID. The scanner uses a separate thread to periodically search the accounting and
-     * emulator process output. The scanner is terminated as soon as it has identified what
-     * it is looking for or it executed too often/long.
-     */
-    private void startInitScanner() {
-        LOGGER.debug("Starting init data scanner");
-        initDataScanner = scheduler.scheduleWithFixedDelay(new Runnable() {
-
-//      private int count = 0;
-
-            private boolean foundEmuPid = false;
-            private boolean foundSysImg = false;
-            // scan at max for three minutes after PID was seen
-//      private final int MAX_COUNT = (int) ((180l * 1000l) / INIT_SCANNER_PERIOD);
-            private final String MISSED_MARKER_LINE = "Kernel command line:";
-
-//      {
-//        LOGGER.debug(String.format("Init data scanner max: %d", MAX_COUNT));
-//      }
-
-            private void cancelScanner() {
-                if (initDataScanner != null) {
-                    initDataScanner.cancel(false);
-                    initDataScanner = null;
-                }
-            }
-
-            private String getRestOfLine(final String buf, final String lineStart) {
-                final int startIdx = buf.indexOf(lineStart);
-                if (startIdx >= 0) {
-                    final int endIdx = buf.indexOf("\n", startIdx);
-                    if (endIdx > startIdx) {
-                        final String line = buf.substring(startIdx, endIdx);
-                        final String rest = line.substring(lineStart.length());
-                        return rest;
-                    } else {
-                        LOGGER.warn(lm("Init data scanner found line start but not end for [%s]",
-                                       lineStart));
-                    }
-                }
-                return null;
-            }
-
-            @Override
-            public void run() {
-                // using simple string operations here over regex in hope for better performance
-                final String buf = emuCapturer.getOutput();
-                if (!foundEmuPid) {
-                    final String dat = getRestOfLine(buf, EMULATOR_PID_LINE);
-                    if (dat != null) {
-                        emuPid = Integer.parseInt(dat);
-                        foundEmuPid = true;
-                        LOGGER.debug(lm("Init data scanner found emulator PID: %d", emuPid));
-                    }
-                }
-                if (!foundSysImg) {
-                    final String dat = getRestOfLine(buf, SYSTEM_IMAGE_MAP_LINE);
-                    if (dat != null) {
-                        sysImageMapFile = dat;
-                        foundSysImg = true;
-                        LOGGER.debug(lm("Init data scanner found system image map file: %s",
-                                        sysImageMapFile));
-                    }
-                }
-                if (foundEmuPid && foundSysImg) {
-                    cancelScanner();
-                } else if (buf.contains(MISSED_MARKER_LINE)) {
-                    LOGGER.error("Canceling init data scanner without complete data after "
-                                 + "reaching marker line.");
-                    cancelScanner();
-                }
-//        else if ((foundEmuPid || foundSysImg) && ++count >= MAX_COUNT) {
-//          // idea is that after one is found the other should also be seen soon.
-//          // if not, assume we missed it and stop after some time
-//          // it turns out that this is a bad idea for high stress experiments because
-//          // the emulator is just soooo slow
-//          LOGGER.warn(String.format(
-//              "Canceling init data scanner without complete data after %d scans.", count));
-//          cancelScanner();
-//        }
-
-                // this should not happen due to the order of outputs
-                if (!foundEmuPid && foundSysImg) {
-                    LOGGER
-                    .warn("Init data scanner found sys image, but not emulator PID. Strange!");
-                }
-            }
-        }, 0, INIT_SCANNER_PERIOD, TimeUnit.MILLISECONDS);
+     * Registers the init data listener for identifying needed data in the startup output
+     * of the emulator and accounting system (see {@link InitDataListener}). The listener
+     * must be registered before capturing is started in order not to miss any line.
+     */
+    private void startInitDataListener() {
+        LOGGER.debug("Registering init data listener");
+        initDataListener = new InitDataListener();
+        emuCapturer.addLineListener(initDataListener);
     }
 
     /**
@@ -423,10 +457,47 @@ public class Emulator {
         }
     }
 
-    public List<String> getAccountingStats() {
+    /**
+     * Retrieves the accounting data that was reported for the last emulator process when
+     * it was killed.
+     *
+     * @return The accounting data or {@code null} if no data was reported.
+     */
+    public AccountingRecord getAccountingStats() {
         return accountingData;
     }
 
+    /**
+     * Retrieves the time that the last {@link #start()} spent for resetting or waiting for
+     * pre-staged images.
+     *
+     * @return The duration in nanoseconds.
+     */
+    public long getImagePreparationNanos() {
+        return imagePreparationNanos;
+    }
+
+    /**
+     * Retrieves a future that completes as soon as the current emulator process terminates,
+     * e.g., for failing waits on the emulator. A new future is created by each
+     * {@link #start()}, the future is completed while no emulator is running.
+     *
+     * @return The termination future of the current emulator process.
+     */
+    public EventFuture<Void> getTermination() {
+        return termination;
+    }
+
+    /**
+     * Retrieves the resource sampler of this emulator. The samples of the last emulator
+     * process are kept until the next emulator start.
+     *
+     * @return The resource sampler.
+     */
+    public ResourceSampler getResourceSampler() {
+        return resourceSampler;
+    }
+
     /**
      * Retrieves the ADB wrapper instance for this emulator.
      *
@@ -488,9 +559,9 @@ public class Emulator {
     }
 
     public synchronized boolean isEmuRunning() {
-        if (emuPid != 0) {
+        if (resolveEmuPid() != 0) {
             try {
-                return ProcessUtils.isRunning(emuPid);
+                return ProcessUtils.isRunning(emuPid, emuStartTime);
             } catch (final ProcUtilException e) {
                 // stay silent, consider as not running
             }
@@ -498,25 +569,58 @@ public class Emulator {
         return false;
     }
 
+    /**
+     * Retrieves the emulator PID. If the PID was not found in the emulator output (yet), it
+     * is derived from the process tree, since the emulator is the only child of the
+     * accounting process.
+     *
+     * @return The emulator PID or {@code 0} if unknown.
+     */
+    private int resolveEmuPid() {
+        if (emuPid == 0 && accPid != 0 && ProcessTree.isSupported()) {
+            try {
+                final List<Integer> children = ProcessTree.snapshot().getChildren(accPid);
+                if (!children.isEmpty()) {
+                    emuStartTime = ProcessUtils.getStartTime(children.get(0));
+                    emuPid = children.get(0);
+                    LOGGER.debug(lm("Found emulator PID %d in process tree", emuPid));
+                }
+            } catch (final ProcUtilException e) {
+                LOGGER.warn(lm("Failed to read process tree: %s", e.getMessage()));
+            }
+        }
+        return emuPid;
+    }
+
     /**
      * Kills the process of this Android emulator.
      *
      * The running emulator process that is controlled by this instance is forcibly killed
-     * using {@code SIG_KILL}. Moreover, the output capturing is stopped and a cleanup is
-     * performed. Note that this method is more or less un-interruptible.
+     * using {@code SIG_KILL}, together with all processes that were started by the
+     * emulator if the process tree is available (see {@link ProcessTree}). Moreover, the
+     * output capturing is stopped and a cleanup is performed. Note that this method is
+     * more or less un-interruptible.
      *
      * @throws EmulatorException
      *           If the associated emulator process was probably not killed.
      */
     public synchronized void kill() throws EmulatorException {
         LOGGER.info("Killing emulator");
-        if (accProcess != null && emuPid != 0) {
+        resourceSampler.stop();
+        if (accProcess != null && resolveEmuPid() != 0) {
             // NOTE: accounting process must be destroyed prior to stopping the stream capturing
             // in order to prevent deadlock (Reader.readline block issue) and to capture
             // accounting stats.
             try {
-                // kill hard to be on the safe side
-                ProcessUtils.kill(emuPid, ProcessUtils.SIG_KILL);
+                // kill hard to be on the safe side; getdelays is kept alive, it terminates
+                // after reporting the accounting data of the killed emulator
+                if (accPid != 0 && ProcessTree.isSupported()) {
+                    final int killed = ProcessTree.killDescendants(accPid,
+                                       ProcessUtils.SIG_KILL);
+                    LOGGER.debug(lm("Killed %d emulator processes", killed));
+                } else {
+                    ProcessUtils.kill(emuPid, ProcessUtils.SIG_KILL);
+                }
                 while (true) {
                     try {
                         accProcess.waitFor();
@@ -526,10 +630,13 @@ public class Emulator {
                     }
                 }
                 accProcess = null;
+                accPid = 0;
+                termination.complete(null);
                 LOGGER.debug("Emulator (and accounting) killed successfully");
                 stopEmuCapture();
                 collectAccountingStats();
                 emuPid = 0;
+                emuStartTime = -1;
                 cleanup();
             } catch (final ProcUtilException e) {
                 final String msg = lm("Failed to kill emulator: %s", e.getMessage());
@@ -548,6 +655,45 @@ public class Emulator {
         }
     }
 
+    /**
+     * Switches this emulator to snapshot boot using the given snapshot, which must have been
+     * captured. Images that were pre-staged from other base images are discarded. Must not
+     * be invoked while the emulator is running.
+     *
+     * @param snapshot
+     *          The snapshot to resume from in subsequent runs.
+     */
+    public synchronized void setSnapshot(final EmulatorSnapshot snapshot) {
+        if (stagedImages != null) {
+            try {
+                stagedImages.get();
+            } catch (final ExecutionException e) {
+                // ignore, images are reset again anyways
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stagedImages = null;
+        }
+        emuConfig.setSnapshot(snapshot);
+        LOGGER.info(lm("Using snapshot [%s] for subsequent runs", snapshot.getName()));
+    }
+
+    /**
+     * Starts a new emulator process that cold boots with an empty snapshot storage attached
+     * in order to capture a snapshot via the emulator console. See {@link #start()}.
+     *
+     * @throws EmulatorException
+     *           If the emulator process was not started.
+     */
+    public synchronized void startSnapshotCapture() throws EmulatorException {
+        emuConfig.setSnapshotCapture(true);
+        try {
+            start();
+        } finally {
+            emuConfig.setSnapshotCapture(false);
+        }
+    }
+
     /**
      * Starts a new emulator process.
      *
@@ -573,23 +719,104 @@ public class Emulator {
 
         try {
             resetShutdownState();
-            resetImages();
+            final long prepStart = System.nanoTime();
+            prepareImages();
+            imagePreparationNanos = System.nanoTime() - prepStart;
             accountingData = null;
+            accountingParser.reset();
+            resourceSampler.reset();
             LOGGER.info(Arrays.toString(emuConfig.getAccountingCommand()));
+            termination = new EventFuture<>();
             accProcess = ProcessUtils.startProcessPipe(emuConfig.getAccountingCommand());
+            try {
+                accPid = ProcessUtils.getPid(accProcess);
+            } catch (final ProcUtilException e) {
+                // the emulator PID is still found in the emulator output
+                LOGGER.warn(lm("Failed to retrieve accounting PID: %s", e.getMessage()));
+                accPid = 0;
+            }
+            startInitDataListener();
             emuCapturer.startCapturing(accProcess.getInputStream());
-            startInitScanner();
             LOGGER.info("Emulator is booting");
         } catch (IOException | ProcUtilException e) {
             LOGGER.error(lm("Failed to start Android Emulator: %s", e.getMessage()));
             if (accProcess != null) {
                 accProcess.destroy();
                 accProcess = null;
+                accPid = 0;
             }
+            termination.complete(null);
             throw new EmulatorException("Android emulator start failed: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Line listener for identifying the emulator PID and the temporary system image map
+     * file in the startup output of the emulator and accounting system. Both are identified
+     * when the respective line arrives. The listener unregisters itself as soon as it has
+     * identified what it is looking for or the emulator output reached the marker line
+     * that is printed after both lines.
+     */
+    private class InitDataListener implements LineListener {
+
+        private boolean foundEmuPid = false;
+        private boolean foundSysImg = false;
+
+        private boolean done() {
+            if (initDataListener == this) {
+                initDataListener = null;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the rest of the line after the given line start or {@code null} if the
+         * line does not contain the line start.
+         */
+        private String getRestOfLine(final String line, final String lineStart) {
+            final int idx = line.indexOf(lineStart);
+            return idx >= 0 ? line.substring(idx + lineStart.length()) : null;
+        }
+
+        @Override
+        public boolean onLine(final String line) {
+            // using simple string operations here over regex in hope for better performance
+            if (!foundEmuPid) {
+                final String dat = getRestOfLine(line, EMULATOR_PID_LINE);
+                if (dat != null) {
+                    emuPid = Integer.parseInt(dat.trim());
+                    emuStartTime = ProcessUtils.getStartTime(emuPid);
+                    foundEmuPid = true;
+                    LOGGER.debug(lm("Init data listener found emulator PID: %d", emuPid));
+                    final long samplePeriod = emuConfig.getSettings().RESOURCE_SAMPLE_PERIOD;
+                    if (samplePeriod > 0) {
+                        resourceSampler.start(emuPid, samplePeriod);
+                    }
+                }
+            }
+            if (!foundSysImg) {
+                final String dat = getRestOfLine(line, SYSTEM_IMAGE_MAP_LINE);
+                if (dat != null) {
+                    sysImageMapFile = dat;
+                    foundSysImg = true;
+                    LOGGER.debug(lm("Init data listener found system image map file: %s",
+                                    sysImageMapFile));
+                    // this should not happen due to the order of outputs
+                    if (!foundEmuPid) {
+                        LOGGER.warn("Init data listener found sys image, but not emulator PID. "
+                                    + "Strange!");
+                    }
+                }
+            }
+            if (!(foundEmuPid && foundSysImg) && line.contains(INIT_DATA_MISSED_MARKER_LINE)) {
+                LOGGER.error("Removing init data listener without complete data after "
+                             + "reaching marker line.");
+                return done();
+            }
+            return foundEmuPid && foundSysImg ? done() : true;
+        }
+    }
+
     /**
      * This class encapsulates {@link Emulator} specific settings and configuration
      * parameters.
@@ -601,11 +828,8 @@ public class Emulator {
      */
     public static class EmulatorConfiguration {
 
-        /**
-         * Getdelays command used for collecting emulator account data. This is the complete
-         * command including the emulator command.
-         */
-        private final String[] accCommand;
+        /** Number of image sets, see {@link #switchImageSet()}. */
+        private static final int NUM_IMAGE_SETS = 2;
 
         /** Emulator name in ADB. Format is {@code "emulator-<controlPort>"}. */
         private final String adbName;
@@ -618,8 +842,11 @@ public class Emulator {
         /** Emulator control port. Can be freely chosen. */
         private final int controlPort;
 
-        /** Emulator command including executable name and all required arguments. */
-        private final String[] emuCommand;
+        /**
+         * Index of the image set that is used by the next or current emulator run. Only set
+         * {@code 0} is used if image pre-staging is disabled.
+         */
+        private volatile int activeImageSet = 0;
 
         /**
          * Unique emulator ID which identifies every {@link Emulator} instance that exists in
@@ -630,14 +857,34 @@ public class Emulator {
         /** Central experiment settings used as basis of emulator settings. */
         private final ExperimentSettings expSettings;
 
-        /** Path to the SD card image, individual for every {@link Emulator} instance. */
-        private final String sdCardImage;
+        /**
+         * Paths to the SD card images per image set, individual for every {@link Emulator}
+         * instance.
+         */
+        private final String[] sdCardImages;
+
+        /**
+         * Snapshot to resume from or {@code null} if the emulator cold boots.
+         */
+        private volatile EmulatorSnapshot snapshot = null;
+
+        /** {@code True} while the emulator is started for capturing a snapshot. */
+        private volatile boolean snapshotCapture = false;
+
+        /**
+         * Paths to the snapshot storage images per image set, individual for every
+         * {@link Emulator} instance.
+         */
+        private final String[] snapshotStorageImages;
 
         /** Path to the system image, individual for every {@link Emulator} instance. */
         private final String systemImage;
 
-        /** Path to the SD card image, individual for every {@link Emulator} instance. */
-        private final String userdataImage;
+        /**
+         * Paths to the userdata images per image set, individual for every {@link Emulator}
+         * instance.
+         */
+        private final String[] userdataImages;
 
         private static String[] mergeCommands(final String[]... cmdArr) {
             int mergedLen = 0;
@@ -673,50 +920,49 @@ public class Emulator {
             adbPort = controlPort + 1;
             adbName = String.format("emulator-%d", controlPort);
             avdName = String.format("%s-%d", expSettings.AVD_NAME, emuId);
-            systemImage = prefixFilePath(expSettings.SYSTEM_IMAGE);
-            sdCardImage = prefixFilePath(expSettings.SDCARD_IMAGE);
-            userdataImage = prefixFilePath(expSettings.USERDATA_IMAGE);
-
-            // @formatter:off
-            emuCommand = new String[] { expSettings.EMULATOR,
-                                        "-avd", getAvdName(),
-                                        "-kernel", expSettings.KERNEL_BIMAGE,
-                                        "-system", getSystemVanillaImage(),
-                                        "-sdcard", getSdCardImage(),
-                                        "-data", getUserdataImage(),
-                                        "-initdata", getUserdataVanillaImage(),
-                                        "-ports", String.format("%d,%d", controlPort, adbPort),
-                                        "-show-kernel", "-verbose",
-                                        "-no-snapshot-save", "-no-boot-anim", "-no-window", "-no-audio", "-no-cache",
-
-                                        // the following parameters allow to write to the system image, but the NAND
-                                        // mapping file is still created, so we don't use this option for now.
-                                        // "-qemu", "-nand",
-                                        // String.format("system,size=0x%s,file=%s,pagesize=512,extrasize=0",
-                                        //   fileSizeAsHex(getSystemVanillaImage()), getSystemImage()),
-                                      };
-            // @formatter:on
-
-            accCommand = mergeCommands(new String[] { expSettings.GETDELAYS, "-qdibec" },
-                                       emuCommand);
+            systemImage = prefixFilePath(expSettings.SYSTEM_IMAGE, 0);
+            sdCardImages = new String[NUM_IMAGE_SETS];
+            userdataImages = new String[NUM_IMAGE_SETS];
+            snapshotStorageImages = new String[NUM_IMAGE_SETS];
+            final String storageImage = new File(new File(expSettings.USERDATA_IMAGE)
+                                                 .getParentFile(), "snapshots.img").getPath();
+            for (int i = 0; i < NUM_IMAGE_SETS; i++) {
+                sdCardImages[i] = prefixFilePath(expSettings.SDCARD_IMAGE, i);
+                userdataImages[i] = prefixFilePath(expSettings.USERDATA_IMAGE, i);
+                snapshotStorageImages[i] = prefixFilePath(storageImage, i);
+            }
         }
 
 //    private String fileSizeAsHex(String path) {
 //      return Long.toString((new File(path)).length(), 16);
 //    }
 
-        private String prefixFilePath(final String path) {
+        /**
+         * Computes the image file path for this emulator and the given image set. Image set
+         * {@code 0} uses the prefix {@code emu-<id>-}, the other sets add the set letter,
+         * e.g., {@code emu-<id>-b-}.
+         */
+        private String prefixFilePath(final String path, final int imageSet) {
             final File f = new File(path);
             final String fileName = f.getName();
             String parentPath = f.getParent();
             if (!parentPath.isEmpty()) {
                 parentPath = parentPath + "/";
             }
-            return String.format("%semu-%d-%s", parentPath, emuId, fileName);
+            final String setPrefix = imageSet == 0 ? "" : String.format("%c-",
+                                     (char) ('a' + imageSet));
+            return String.format("%semu-%d-%s%s", parentPath, emuId, setPrefix, fileName);
         }
 
+        /**
+         * Builds the getdelays command used for collecting emulator account data. This is
+         * the complete command including the emulator command for the active image set.
+         *
+         * @return The accounting command.
+         */
         public String[] getAccountingCommand() {
-            return accCommand;
+            return mergeCommands(new String[] { expSettings.GETDELAYS, "-qdibec" },
+                                 getEmuCommand());
         }
 
         public String getAdbName() {
@@ -735,8 +981,65 @@ public class Emulator {
             return controlPort;
         }
 
+        /**
+         * Builds the emulator command including executable name and all required arguments
+         * for the active image set.
+         *
+         * @return The emulator command.
+         */
         public String[] getEmuCommand() {
-            return emuCommand;
+            // @formatter:off
+            final List<String> cmd = new ArrayList<>(Arrays.asList(expSettings.EMULATOR,
+                    "-avd", getAvdName(),
+                    "-kernel", expSettings.KERNEL_BIMAGE,
+                    "-system", getSystemVanillaImage(),
+                    "-sdcard", getSdCardImage(),
+                    "-data", getUserdataImage(),
+                    "-initdata", getUserdataVanillaImage(),
+                    "-ports", String.format("%d,%d", controlPort, adbPort),
+                    "-show-kernel", "-verbose",
+                    "-no-snapshot-save", "-no-boot-anim", "-no-window", "-no-audio", "-no-cache"));
+
+                    // the following parameters allow to write to the system image, but the NAND
+                    // mapping file is still created, so we don't use this option for now.
+                    // "-qemu", "-nand",
+                    // String.format("system,size=0x%s,file=%s,pagesize=512,extrasize=0",
+                    //   fileSizeAsHex(getSystemVanillaImage()), getSystemImage()),
+            // @formatter:on
+            if (expSettings.WORKLOAD_NOTIFY_PORT > 0) {
+                // note that resumed snapshots keep the properties of the captured boot
+                cmd.addAll(Arrays.asList("-prop", String.format("%s=%d",
+                                         WorkloadEventServer.PORT_PROPERTY,
+                                         expSettings.WORKLOAD_NOTIFY_PORT + getId())));
+            }
+            if (snapshotCapture) {
+                cmd.addAll(Arrays.asList("-snapstorage", getSnapshotStorageImage(),
+                                         "-no-snapshot-load"));
+            } else if (snapshot != null) {
+                cmd.addAll(Arrays.asList("-snapstorage", getSnapshotStorageImage(),
+                                         "-snapshot", snapshot.getName()));
+            }
+            return cmd.toArray(new String[cmd.size()]);
+        }
+
+        /**
+         * Retrieves the index of the image set that is used by the next or current emulator
+         * run.
+         *
+         * @return The active image set.
+         */
+        public int getActiveImageSet() {
+            return activeImageSet;
+        }
+
+        /**
+         * Retrieves the index of the image set that is not used by the next or current
+         * emulator run.
+         *
+         * @return The inactive image set.
+         */
+        public int getInactiveImageSet() {
+            return (activeImageSet + 1) % NUM_IMAGE_SETS;
         }
 
         public int getId() {
@@ -748,17 +1051,52 @@ public class Emulator {
         }
 
         public String getSdCardImage() {
-            return sdCardImage;
+            return getSdCardImage(activeImageSet);
+        }
+
+        public String getSdCardImage(final int imageSet) {
+            return sdCardImages[imageSet];
         }
 
         public String getSdCardVanillaImage() {
             return expSettings.SDCARD_VIMAGE;
         }
 
+        /**
+         * Retrieves the image to reset the SD card image from, i.e., the vanilla image or the
+         * snapshot base image in snapshot mode.
+         *
+         * @return Path of the image to reset the SD card image from.
+         */
+        public String getSdCardResetSource() {
+            return snapshot != null ? snapshot.getSdCardImage() : getSdCardVanillaImage();
+        }
+
         public ExperimentSettings getSettings() {
             return expSettings;
         }
 
+        public String getSnapshotStorageImage() {
+            return getSnapshotStorageImage(activeImageSet);
+        }
+
+        public String getSnapshotStorageImage(final int imageSet) {
+            return snapshotStorageImages[imageSet];
+        }
+
+        /**
+         * Retrieves the image to reset the snapshot storage image from.
+         *
+         * @return Path of the image to reset the snapshot storage image from or {@code null}
+         *         if no snapshot storage is used.
+         */
+        public String getSnapshotStorageResetSource() {
+            if (snapshotCapture) {
+                return expSettings.SNAPSHOT_TEMPLATE_IMAGE;
+            }
+            return snapshot != null ? snapshot.getStorageImage() : null;
+        }
+
         public String getSystemImage() {
             return systemImage;
         }
@@ -768,13 +1106,52 @@ public class Emulator {
         }
 
         public String getUserdataImage() {
-            return userdataImage;
+            return getUserdataImage(activeImageSet);
+        }
+
+        public String getUserdataImage(final int imageSet) {
+            return userdataImages[imageSet];
+        }
+
+        /**
+         * Retrieves the image to reset the userdata image from, i.e., the vanilla image or
+         * the snapshot base image in snapshot mode.
+         *
+         * @return Path of the image to reset the userdata image from.
+         */
+        public String getUserdataResetSource() {
+            return snapshot != null ? snapshot.getUserdataImage() : getUserdataVanillaImage();
         }
 
         public String getUserdataVanillaImage() {
             return expSettings.USERDATA_VIMAGE;
         }
 
+        public void setSnapshot(final EmulatorSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public void setSnapshotCapture(final boolean snapshotCapture) {
+            this.snapshotCapture = snapshotCapture;
+        }
+
+        /**
+         * Checks whether the emulator resumes from a snapshot instead of cold booting.
+         *
+         * @return {@code True} if a snapshot is used, {@code false} otherwise.
+         */
+        public boolean usesSnapshot() {
+            return snapshot != null;
+        }
+
+        /**
+         * Makes the inactive image set the active one. Must only be invoked while no emulator
+         * process is running for this configuration.
+         */
+        public void switchImageSet() {
+            activeImageSet = getInactiveImageSet();
+        }
+
     }
 
     /**
@@ -0,0 +1,93 @@
+package de.grinder.android_fi;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client for the text based control console of a running Android emulator.
+ * <p>
+ * The console listens on the emulator control port on the loopback interface. Each
+ * command is answered with zero or more output lines, followed by either {@code OK} or
+ * {@code KO: <message>}. Note that the console of the used emulator version does not
+ * require authentication.
+ * <p>
+ * This class is not thread safe.
+ */
+public class EmulatorConsole implements Closeable {
+
+    /** Socket read timeout in milliseconds. Snapshot saving can take a while. */
+    private static final int READ_TIMEOUT = 300 * 1000;
+
+    private final BufferedReader reader;
+
+    private final Socket socket;
+
+    private final Writer writer;
+
+    /**
+     * Connects to the console of the emulator with the given control port and consumes the
+     * console banner.
+     *
+     * @param controlPort
+     *          The emulator control port.
+     * @throws IOException
+     *           If the connection failed.
+     */
+    public EmulatorConsole(final int controlPort) throws IOException {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), controlPort),
+                       5000);
+        socket.setSoTimeout(READ_TIMEOUT);
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                    StandardCharsets.US_ASCII));
+        writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+        readResponse("<banner>");
+    }
+
+    private List<String> readResponse(final String cmd) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.equals("OK")) {
+                return lines;
+            } else if (line.startsWith("KO")) {
+                throw new IOException(String.format("Console command [%s] failed: %s", cmd,
+                                                    line));
+            }
+            lines.add(line);
+        }
+        throw new IOException(String.format("Console closed while executing [%s]", cmd));
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Executes the given console command and waits for its completion.
+     *
+     * @param cmd
+     *          The command to execute, e.g., {@code "avd stop"}.
+     * @return The output lines of the command, excluding the final {@code OK} line.
+     * @throws IOException
+     *           If the communication failed or the console reported an error.
+     */
+    public List<String> execute(final String cmd) throws IOException {
+        writer.write(cmd);
+        writer.write("\r\n");
+        writer.flush();
+        return readResponse(cmd);
+    }
+}
@@ -1,55 +1,82 @@
 package de.grinder.android_fi;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import de.grinder.android_fi.Emulator.EmulatorConfiguration;
+import de.grinder.android_fi.Emulator.EmulatorException;
 
 /**
- * Factory for {@link Emulator} instances. Each constructed {@link Emulator} instance gets
- * its own unique ID and control port according to the needs of the {@link Emulator}
- * class. Note that the factory does not keep track of the objects it creates. It merely
- * ensures that no two {@link Emulator} objects with conflicting IDs or ports are
- * constructed. This class is implemented as a singleton since there must not be multiple
- * instances of this factory to ensure unique IDs and ports. Note that all
- * {@link Emulator} objects must be created with this factory in order to guarantee unique
- * IDs and ports.
+ * Factory and slot manager for {@link Emulator} instances. Each constructed
+ * {@link Emulator} instance leases an emulator slot, which consists of a unique ID and a
+ * control port according to the needs of the {@link Emulator} class. The image set and
+ * AVD name of an emulator are derived from its ID (see {@link EmulatorConfiguration}).
+ * Slots are returned with {@link #release(Emulator)} and recycled by subsequently
+ * constructed {@link Emulator} instances. This class is implemented as a singleton since
+ * there must not be multiple instances of this factory to ensure unique IDs and ports.
+ * Note that all {@link Emulator} objects must be created with this factory in order to
+ * guarantee unique IDs and ports.
  * <p>
- * Emulator IDs start at {@code 0} and control ports are assigned starting at {@code 5554}
- * , which is the usual default port for Android SDK setups. This class does not detect
- * port conflicts. A large enough range of free ports starting from {@code 5554} must be
- * ensured externally.
+ * Emulator IDs start at {@code 0} and the lowest free ID is always leased first. IDs are
+ * independent of ports. Control ports are the even ports of a configurable range (see
+ * {@link ExperimentSettings#EMULATOR_FIRST_PORT}), which defaults to the range that is
+ * scanned by ADB for emulators, i.e., {@code 5554} to {@code 5584}. This range limits the
+ * number of concurrent emulators to 16. Before a port pair (control port and ADB port) is
+ * leased, the factory checks that both ports are not bound by other processes, e.g., by
+ * emulators that are not controlled by this program. Such port pairs are skipped.
  * <p>
  * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
  * threads.
  */
 public class EmulatorFactory {
 
+    /** Default first emulator control port. */
+    static final int DEFAULT_FIRST_PORT = 5554;
+
+    /** Default last emulator control port. */
+    static final int DEFAULT_LAST_PORT = 5584;
+
     /** The singleton instance of this factory. */
     private static EmulatorFactory instance = new EmulatorFactory();
 
-    /** Next emulator ID to use. */
-    private int nextId = 0;
+    /** Class level logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmulatorFactory.class);
 
-    /** NExt emulator control port to use. */
-    private int nextControlPort = 5554;
+    /** Slots of all emulators that were created by this factory and not yet released. */
+    private final Map<Emulator, EmulatorSlot> emulatorSlots = new HashMap<>();
 
-    /**
-     * Compute the next unique emulator ID.
-     *
-     * @return The next emulator ID to use.
-     */
-    private int nextId() {
-        return nextId++;
-    }
+    /** Currently leased emulator IDs. */
+    private final Set<Integer> leasedIds = new HashSet<>();
+
+    /** Currently leased control ports. */
+    private final Set<Integer> leasedPorts = new HashSet<>();
 
     /**
-     * Compute the next free emulator control port to use. Note that external port conflicts
-     * are not detected.
+     * Checks whether the given local port can be bound, i.e., whether it is not used by
+     * another process. Connections of stopped emulators that are still in the TIME_WAIT
+     * state do not block the port.
      *
-     * @return The next control port to use.
+     * @param port
+     *          The port to check.
+     * @return {@code True} if the port is free, {@code false} otherwise.
      */
-    private int nextControlPort() {
-        final int tmp = nextControlPort;
-        nextControlPort += 2;
-        return tmp;
+    private static boolean isPortFree(final int port) {
+        try (ServerSocket s = new ServerSocket()) {
+            s.setReuseAddress(true);
+            s.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
     }
 
     /**
@@ -73,12 +100,152 @@ public class EmulatorFactory {
      * @param expSettings
      *          Global experiment settings to use for the emulator.
      * @return A new {@link Emulator} instance.
+     * @throws EmulatorException
+     *           If there is no free emulator slot.
      */
-    public synchronized Emulator getNewEmu(final ExperimentSettings expSettings) {
-        final EmulatorConfiguration es = new EmulatorConfiguration(nextId(),
-                nextControlPort(), expSettings);
+    public synchronized Emulator getNewEmu(final ExperimentSettings expSettings)
+    throws EmulatorException {
+        final EmulatorSlot slot = leaseSlot(expSettings.EMULATOR_FIRST_PORT,
+                                            expSettings.EMULATOR_LAST_PORT);
+        final EmulatorConfiguration es = new EmulatorConfiguration(slot.getId(),
+                slot.getControlPort(), expSettings);
         final Emulator emu = new Emulator(es);
+        emulatorSlots.put(emu, slot);
         return emu;
     }
 
+    /**
+     * Retrieves the number of currently leased emulator slots.
+     *
+     * @return The number of leased slots.
+     */
+    public synchronized int getLeasedSlots() {
+        return leasedIds.size();
+    }
+
+    /**
+     * Leases a free emulator slot from the default port range.
+     *
+     * @return The leased slot.
+     * @throws EmulatorException
+     *           If there is no free port pair.
+     */
+    synchronized EmulatorSlot leaseSlot() throws EmulatorException {
+        return leaseSlot(DEFAULT_FIRST_PORT, DEFAULT_LAST_PORT);
+    }
+
+    /**
+     * Leases a free emulator slot, i.e., the lowest free ID and the first port pair in the
+     * given range that is neither leased nor bound by another process.
+     *
+     * @param firstPort
+     *          The first control port of the range, must be even.
+     * @param lastPort
+     *          The last control port of the range.
+     * @return The leased slot.
+     * @throws EmulatorException
+     *           If there is no free port pair.
+     */
+    synchronized EmulatorSlot leaseSlot(final int firstPort, final int lastPort)
+    throws EmulatorException {
+        int id = 0;
+        while (leasedIds.contains(id)) {
+            id++;
+        }
+        for (int port = firstPort; port <= lastPort; port += 2) {
+            if (leasedPorts.contains(port)) {
+                continue;
+            }
+            if (!isPortFree(port) || !isPortFree(port + 1)) {
+                LOGGER.warn(String.format("Skipping emulator ports %d/%d: bound by other process",
+                                          port, port + 1));
+                continue;
+            }
+            leasedIds.add(id);
+            leasedPorts.add(port);
+            LOGGER.debug(String.format("Leased emulator slot %d/%d", id, port));
+            return new EmulatorSlot(id, port);
+        }
+        final String msg = String.format("No free emulator slot: all emulator ports from %d "
+                                         + "to %d are in use", firstPort, lastPort);
+        LOGGER.error(msg);
+        throw new EmulatorException(msg);
+    }
+
+    /**
+     * Leases the slot of an {@link Emulator} again that has been returned by
+     * {@link #release(Emulator)}. The {@link Emulator} keeps its ID and ports.
+     *
+     * @param emu
+     *          The emulator to reacquire the slot for.
+     * @throws EmulatorException
+     *           If the slot is in use by another emulator or process.
+     */
+    public synchronized void reacquire(final Emulator emu) throws EmulatorException {
+        if (emulatorSlots.containsKey(emu)) {
+            return;
+        }
+        final EmulatorSlot slot = new EmulatorSlot(emu.getConfig().getId(), emu.getConfig()
+                .getControlPort());
+        if (leasedIds.contains(slot.getId()) || leasedPorts.contains(slot.getControlPort())
+                || !isPortFree(slot.getControlPort()) || !isPortFree(slot.getControlPort() + 1)) {
+            throw new EmulatorException(String.format("Emulator slot %d/%d is not available",
+                                        slot.getId(), slot.getControlPort()));
+        }
+        leasedIds.add(slot.getId());
+        leasedPorts.add(slot.getControlPort());
+        emulatorSlots.put(emu, slot);
+    }
+
+    /**
+     * Returns the slot of the given {@link Emulator} for reuse. The emulator must not be
+     * running and must not be started again unless its slot is reacquired with
+     * {@link #reacquire(Emulator)}.
+     *
+     * @param emu
+     *          The emulator whose slot to release.
+     */
+    public synchronized void release(final Emulator emu) {
+        final EmulatorSlot slot = emulatorSlots.remove(emu);
+        if (slot != null) {
+            releaseSlot(slot);
+        }
+    }
+
+    /**
+     * Returns the given slot for reuse.
+     *
+     * @param slot
+     *          The slot to release.
+     */
+    synchronized void releaseSlot(final EmulatorSlot slot) {
+        leasedIds.remove(slot.getId());
+        leasedPorts.remove(slot.getControlPort());
+        LOGGER.debug(String.format("Released emulator slot %d/%d", slot.getId(),
+                                   slot.getControlPort()));
+    }
+
+    /**
+     * An emulator slot, i.e., an emulator ID and the associated control port. The ADB port
+     * is always the control port plus one.
+     */
+    static class EmulatorSlot {
+
+        private final int controlPort;
+
+        private final int id;
+
+        EmulatorSlot(final int id, final int controlPort) {
+            this.id = id;
+            this.controlPort = controlPort;
+        }
+
+        public int getControlPort() {
+            return controlPort;
+        }
+
+        public int getId() {
+            return id;
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package de.grinder.android_fi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.grinder.android_fi.AndroidDebuggingBridge.AdbException;
+import de.grinder.android_fi.Emulator.EmulatorConfiguration;
+import de.grinder.android_fi.Emulator.EmulatorException;
+
+/**
+ * Emulator snapshot of a clean, booted Android system that is used as starting point for
+ * experiment runs in snapshot mode (see {@link ExperimentSettings#SNAPSHOT_MODE}).
+ * <p>
+ * The snapshot is captured once per AVD. For capturing, an emulator is cold booted until
+ * the activity manager is ready, i.e., before {@code BOOT_COMPLETED} is broadcast and
+ * thereby before the workload is auto-started and before any experiment module is loaded.
+ * The emulator is then paused, the snapshot is saved through the emulator console and the
+ * emulator is killed. The userdata, SD card and snapshot storage images of the capture run
+ * are kept as base images, since a snapshot can only be restored on top of the disk
+ * images it was taken with. Subsequent runs reset their images from these base images
+ * instead of the vanilla images and restore the snapshot, i.e., they resume right before
+ * the end of the boot process.
+ * <p>
+ * A marker file is written after all base images have been saved. It records the path,
+ * modification time and size of the kernel and the vanilla images that the snapshot was
+ * captured from. Snapshots without marker file, e.g., due to an aborted capture, and
+ * snapshots whose source images changed since, e.g., because mutants were baked into the
+ * vanilla userdata image, are captured again.
+ * <p>
+ * Instances are shared per AVD (see {@link #forSettings(ExperimentSettings)}). This class
+ * is thread safe, i.e., it should be safe to invoke its methods from multiple threads.
+ */
+public class EmulatorSnapshot {
+
+    /** Class level logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmulatorSnapshot.class);
+
+    /** Name of the snapshot inside the snapshot storage image. */
+    private static final String SNAPSHOT_NAME = "afi-clean";
+
+    /** Shared snapshot instances by AVD name. */
+    private static final Map<String, EmulatorSnapshot> snapshots = new HashMap<>();
+
+    private final Path completeMarker;
+
+    private final ExperimentSettings settings;
+
+    private final Path sdCardImage;
+
+    private final Path storageImage;
+
+    private final Path userdataImage;
+
+    /**
+     * Retrieves the shared snapshot instance for the AVD that is configured in the given
+     * settings.
+     *
+     * @param settings
+     *          The experiment settings.
+     * @return The snapshot instance. The snapshot may not be captured yet.
+     */
+    public static synchronized EmulatorSnapshot forSettings(final ExperimentSettings settings) {
+        EmulatorSnapshot snapshot = snapshots.get(settings.AVD_NAME);
+        if (snapshot == null) {
+            snapshot = new EmulatorSnapshot(settings);
+            snapshots.put(settings.AVD_NAME, snapshot);
+        }
+        return snapshot;
+    }
+
+    private EmulatorSnapshot(final ExperimentSettings settings) {
+        this.settings = settings;
+        final String prefix = String.format("%s-snapshot-", settings.AVD_NAME);
+        userdataImage = Paths.get(settings.SNAPSHOT_DIR, prefix
+                                  + new File(settings.USERDATA_IMAGE).getName());
+        sdCardImage = Paths.get(settings.SNAPSHOT_DIR, prefix
+                                + new File(settings.SDCARD_IMAGE).getName());
+        storageImage = Paths.get(settings.SNAPSHOT_DIR, prefix + "snapshots.img");
+        completeMarker = Paths.get(settings.SNAPSHOT_DIR, prefix + "complete");
+    }
+
+    /**
+     * Boots the given emulator, saves the snapshot and keeps the matching images.
+     */
+    private void capture(final Emulator emu) throws EmulatorException, IOException {
+        final EmulatorConfiguration config = emu.getConfig();
+        final AndroidDebuggingBridge adb = emu.getAdb();
+        Files.createDirectories(Paths.get(settings.SNAPSHOT_DIR));
+        Files.deleteIfExists(completeMarker);
+        // images that change during the capture invalidate the snapshot right away
+        final String sources = describeSourceImages();
+
+        emu.startSnapshotCapture();
+        try {
+            if (!adb.waitForDeviceChecked(emu)) {
+                throw new EmulatorException("Emulator died while booting for snapshot capture");
+            }
+            adb.waitForActivityManager();
+            try (EmulatorConsole console = new EmulatorConsole(config.getControlPort())) {
+                console.execute("avd stop");
+                console.execute("avd snapshot save " + SNAPSHOT_NAME);
+            }
+        } catch (final AdbException e) {
+            throw new EmulatorException("ADB failure during snapshot capture", e);
+        } finally {
+            emu.getAdb().cancelCreatedProcesses();
+            emu.kill();
+        }
+
+        ImageResetStrategy.COPY.reset(Paths.get(config.getUserdataImage()), userdataImage);
+        ImageResetStrategy.COPY.reset(Paths.get(config.getSdCardImage()), sdCardImage);
+        ImageResetStrategy.COPY.reset(Paths.get(config.getSnapshotStorageImage()),
+                                      storageImage);
+        Files.write(completeMarker, sources.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Describes the images that the snapshot is captured from, i.e., the kernel and the
+     * vanilla images, by their path, modification time and size.
+     */
+    private String describeSourceImages() {
+        final String[] images = {settings.KERNEL_BIMAGE, settings.SYSTEM_VIMAGE,
+                                 settings.USERDATA_VIMAGE, settings.SDCARD_VIMAGE};
+        final StringBuilder sb = new StringBuilder();
+        for (final String image : images) {
+            final File file = new File(image).getAbsoluteFile();
+            sb.append(String.format("%s %d %d%n", file, file.lastModified(), file.length()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Ensures that the snapshot exists and matches the current source images. Otherwise, it
+     * is captured using the given emulator, which must not be running. Concurrent callers
+     * block until the capture has finished.
+     *
+     * @param emu
+     *          The emulator to use for capturing.
+     * @throws EmulatorException
+     *           If the snapshot could not be captured.
+     */
+    public synchronized void ensureCaptured(final Emulator emu) throws EmulatorException {
+        if (isCaptured()) {
+            return;
+        }
+        LOGGER.info(String.format("Capturing snapshot for AVD [%s] into [%s]",
+                                  settings.AVD_NAME, settings.SNAPSHOT_DIR));
+        try {
+            capture(emu);
+        } catch (final IOException e) {
+            throw new EmulatorException("Failed to capture snapshot: " + e.getMessage(), e);
+        }
+        LOGGER.info(String.format("Captured snapshot for AVD [%s]", settings.AVD_NAME));
+    }
+
+    public String getName() {
+        return SNAPSHOT_NAME;
+    }
+
+    public String getSdCardImage() {
+        return sdCardImage.toString();
+    }
+
+    public String getStorageImage() {
+        return storageImage.toString();
+    }
+
+    public String getUserdataImage() {
+        return userdataImage.toString();
+    }
+
+    /**
+     * Checks whether the snapshot was captured from the current source images.
+     *
+     * @return True if the snapshot can be restored, false if it has to be captured.
+     */
+    public boolean isCaptured() {
+        final String captured;
+        try {
+            captured = new String(Files.readAllBytes(completeMarker), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            return false;
+        }
+        if (!captured.equals(describeSourceImages())) {
+            LOGGER.info(String.format("Snapshot for AVD [%s] is outdated: source images changed",
+                                      settings.AVD_NAME));
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,272 @@
+package de.grinder.android_fi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Future that is completed explicitly by the party that observes the awaited event, e.g.,
+ * the reader of a logcat stream, instead of by a task running on a dedicated thread.
+ * <p>
+ * A future is completed once, either with a value ({@link #complete(Object)}), with a
+ * failure ({@link #fail(Throwable)}) or by cancellation ({@link #cancel(boolean)}). Later
+ * attempts have no effect. Listeners that are registered via {@link #addListener(Runnable)}
+ * run on the completing thread, i.e., they must be fast and must not block. Futures are
+ * combined with {@link #anyOf(EventFuture...)} and {@link #allOf(EventFuture...)}, and
+ * limited in time with {@link ReadinessLoop#deadline(EventFuture, long, TimeUnit, String)}.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ *
+ * @param <V>
+ *          The type of the value.
+ */
+public class EventFuture<V> implements Future<V> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventFuture.class);
+
+    private boolean cancelled = false;
+
+    private boolean done = false;
+
+    private Throwable failure = null;
+
+    /** Listeners to run on completion, {@code null} after completion. */
+    private List<Runnable> listeners = new ArrayList<>(2);
+
+    private V value = null;
+
+    /**
+     * Creates a future that completes as soon as all of the given futures completed with a
+     * value, and fails or is cancelled as soon as one of them fails or is cancelled.
+     * Cancelling the returned future does not cancel the given ones.
+     *
+     * @param futures
+     *          The futures to combine.
+     * @return The combined future.
+     */
+    public static EventFuture<Void> allOf(final EventFuture<?>... futures) {
+        final EventFuture<Void> all = new EventFuture<>();
+        final AtomicInteger pending = new AtomicInteger(futures.length);
+        for (final EventFuture<?> f : futures) {
+            f.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (!f.forward(all) && pending.decrementAndGet() == 0) {
+                        all.complete(null);
+                    }
+                }
+            });
+        }
+        if (futures.length == 0) {
+            all.complete(null);
+        }
+        return all;
+    }
+
+    /**
+     * Creates a future that is done as soon as one of the given futures is done, with the
+     * same value, failure or cancellation. Cancelling the returned future does not cancel
+     * the given ones, since they are usually shared, e.g., the termination of an emulator.
+     *
+     * @param futures
+     *          The futures to combine.
+     * @return The combined future.
+     */
+    public static EventFuture<Object> anyOf(final EventFuture<?>... futures) {
+        final EventFuture<Object> any = new EventFuture<>();
+        for (final EventFuture<?> f : futures) {
+            f.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (!f.forward(any)) {
+                        any.complete(f.getValue());
+                    }
+                }
+            });
+        }
+        return any;
+    }
+
+    /**
+     * Creates a future that is already completed.
+     *
+     * @param value
+     *          The value of the future.
+     * @return The completed future.
+     */
+    public static <V> EventFuture<V> completed(final V value) {
+        final EventFuture<V> f = new EventFuture<>();
+        f.complete(value);
+        return f;
+    }
+
+    /**
+     * Registers a listener that runs once this future is done. The listener runs
+     * immediately on the calling thread if the future is already done.
+     *
+     * @param listener
+     *          The listener to run.
+     */
+    public void addListener(final Runnable listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        runListener(listener);
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return finish(null, null, true);
+    }
+
+    /**
+     * Completes this future with the given value.
+     *
+     * @param value
+     *          The value of the future.
+     * @return {@code True} if this call completed the future, {@code false} if it was
+     *         already done.
+     */
+    public boolean complete(final V value) {
+        return finish(value, null, false);
+    }
+
+    /**
+     * Completes this future with the given failure, which is thrown by {@link #get()}
+     * wrapped in an {@link ExecutionException}.
+     *
+     * @param cause
+     *          The cause of the failure.
+     * @return {@code True} if this call completed the future, {@code false} if it was
+     *         already done.
+     */
+    public boolean fail(final Throwable cause) {
+        return finish(null, cause, false);
+    }
+
+    private boolean finish(final V value, final Throwable cause, final boolean cancel) {
+        final List<Runnable> toRun;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.value = value;
+            failure = cause;
+            cancelled = cancel;
+            done = true;
+            toRun = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (final Runnable l : toRun) {
+            runListener(l);
+        }
+        return true;
+    }
+
+    /**
+     * Passes a failure or cancellation of this future on to the given future.
+     *
+     * @return {@code True} if this future failed or was cancelled.
+     */
+    private boolean forward(final EventFuture<?> target) {
+        final boolean isCancelled;
+        final Throwable cause;
+        synchronized (this) {
+            isCancelled = cancelled;
+            cause = failure;
+        }
+        // complete the target outside of the lock, its listeners run on this thread
+        if (isCancelled) {
+            target.cancel(false);
+        } else if (cause != null) {
+            target.fail(cause);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized V get(final long timeout, final TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+
+    /**
+     * @return The failure of this future or {@code null} if it is not done, completed with
+     *         a value or cancelled.
+     */
+    public synchronized Throwable getFailure() {
+        return failure;
+    }
+
+    private synchronized V getValue() {
+        return value;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    private V report() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return value;
+    }
+
+    private void runListener(final Runnable listener) {
+        try {
+            listener.run();
+        } catch (final RuntimeException e) {
+            LOGGER.error(String.format("Future listener failed: %s", e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (!done) {
+            return "pending";
+        }
+        return cancelled ? "cancelled" : failure != null ? "failed: " + failure.getMessage()
+               : "completed: " + value;
+    }
+}
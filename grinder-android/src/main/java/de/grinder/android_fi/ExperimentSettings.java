@@ -1,5 +1,6 @@
 package de.grinder.android_fi;
 
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Map;
@@ -33,10 +34,44 @@ public class ExperimentSettings {
     // misc numbers
     public int GRINDER_PORT;
 
+    // emulator control port range, see EmulatorFactory
+    public final int EMULATOR_FIRST_PORT, EMULATOR_LAST_PORT;
+
     // detector constants
     public final long DETECTION_PERIOD, SYSINIT_HANG_ASSUMPTION_DELAY,
            APP_HANG_ASSUMPTION_DELAY, APP_INSTALL_FAIL_DELAY, SYSTEM_HANG_ASSUMPTION_DELAY,
            SYSTEM_HANG_ASSUMPTION_PERIOD, ADB_TIMEOUT_DELAY;
+    public final int WORKLOAD_NOTIFY_PORT;
+
+    // shared detection scheduler
+    public final long DETECTION_THREADS, DETECTION_GROUP_LIMIT;
+
+    // image handling
+    public final ImageResetStrategy IMAGE_RESET_STRATEGY;
+    public final boolean IMAGE_PRESTAGING;
+    public final long IMAGE_STAGING_THREADS;
+    public final String MODULE_MANIFEST;
+
+    // snapshot boot
+    public final boolean SNAPSHOT_MODE;
+    public final String SNAPSHOT_DIR, SNAPSHOT_TEMPLATE_IMAGE;
+    public final long SNAPSHOT_SYSINIT_HANG_ASSUMPTION_DELAY;
+
+    // ADB
+    public final boolean ADB_SHELL_SESSION, ADB_WIRE_PROTOCOL;
+    public final long ADB_SERVER_PORT;
+
+    // adaptive parallelism control
+    public final boolean PARALLELISM_CONTROL;
+    public final long PARALLELISM_MIN, PARALLELISM_MAX, PARALLELISM_PERIOD,
+           PARALLELISM_MAX_STEAL, PARALLELISM_MAX_IOWAIT, PARALLELISM_MAX_LOAD,
+           PARALLELISM_SYSINIT_ENVELOPE, PARALLELISM_WORKLOAD_ENVELOPE;
+
+    // emulator resource sampling
+    public final long RESOURCE_SAMPLE_PERIOD;
+
+    // phase metrics
+    public final long METRICS_HTTP_PORT;
 
     private static String getSetting(final Map<String, String> prop,
                                      final Map<String, String> env, final String propertyName,
@@ -59,6 +94,22 @@ public class ExperimentSettings {
         return tmp;
     }
 
+    private static String getOptional(final Map<String, String> m, final String key,
+                                      final String defaultValue) {
+        final String tmp = m.get(key);
+        return tmp != null ? tmp.trim() : defaultValue;
+    }
+
+    private static boolean getBooleanOptional(final Map<String, String> m,
+            final String key, final boolean defaultValue) {
+        return Boolean.parseBoolean(getOptional(m, key, String.valueOf(defaultValue)));
+    }
+
+    private static long getLongOptional(final Map<String, String> m, final String key,
+                                        final long defaultValue) throws SettingsException {
+        return m.containsKey(key) ? getLongOrThrow(m, key) : defaultValue;
+    }
+
     private static long getLongOrThrow(final Map<String, String> m, final String key)
     throws SettingsException {
         final String tmp = getOrThrow(m, key);
@@ -167,6 +218,17 @@ public class ExperimentSettings {
         GRINDER_HOST = getOrThrow(prop, "grinder_host");
         GRINDER_PORT = (int) getLongOrThrow(prop, "grinder_port");
 
+        EMULATOR_FIRST_PORT = (int) getLongOptional(prop, "emulator_first_port",
+                              EmulatorFactory.DEFAULT_FIRST_PORT);
+        EMULATOR_LAST_PORT = (int) getLongOptional(prop, "emulator_last_port",
+                             EmulatorFactory.DEFAULT_LAST_PORT);
+        if (EMULATOR_FIRST_PORT % 2 != 0 || EMULATOR_FIRST_PORT <= 0
+                || EMULATOR_LAST_PORT < EMULATOR_FIRST_PORT || EMULATOR_LAST_PORT >= 65535) {
+            throw new SettingsException(String.format(
+                    "Invalid emulator port range: emulator_first_port=%d, "
+                    + "emulator_last_port=%d", EMULATOR_FIRST_PORT, EMULATOR_LAST_PORT));
+        }
+
         DETECTION_PERIOD = getLongOrThrow(prop, "detection_period");
         SYSINIT_HANG_ASSUMPTION_DELAY = getLongOrThrow(prop, "sysinit_hang_assumer_delay");
         APP_HANG_ASSUMPTION_DELAY = getLongOrThrow(prop, "app_hang_assumption_delay");
@@ -174,6 +236,63 @@ public class ExperimentSettings {
         SYSTEM_HANG_ASSUMPTION_DELAY = getLongOrThrow(prop, "system_hang_assumption_delay");
         SYSTEM_HANG_ASSUMPTION_PERIOD = getLongOrThrow(prop, "system_hang_assumption_period");
         ADB_TIMEOUT_DELAY = getLongOrThrow(prop, "adb_timeout_delay");
+        WORKLOAD_NOTIFY_PORT = (int) getLongOptional(prop, "workload_notify_port", 0);
+        DETECTION_THREADS = getLongOptional(prop, "detection_threads", 0);
+        DETECTION_GROUP_LIMIT = getLongOptional(prop, "detection_group_limit", 3);
+        if (DETECTION_THREADS < 0 || DETECTION_GROUP_LIMIT < 1) {
+            throw new SettingsException(String.format(
+                    "Invalid detection scheduler bounds: detection_threads=%d, "
+                    + "detection_group_limit=%d", DETECTION_THREADS, DETECTION_GROUP_LIMIT));
+        }
+
+        tmp = getOptional(prop, "image_reset_strategy", ImageResetStrategy.COPY.getName());
+        IMAGE_RESET_STRATEGY = ImageResetStrategy.fromName(tmp);
+        if (IMAGE_RESET_STRATEGY == null) {
+            throw new SettingsException(String.format("Unknown image reset strategy: %s", tmp));
+        }
+        IMAGE_PRESTAGING = getBooleanOptional(prop, "image_prestaging", false);
+        IMAGE_STAGING_THREADS = getLongOptional(prop, "image_staging_threads", 2);
+        MODULE_MANIFEST = getOptional(prop, "module_manifest", USERDATA_VIMAGE + ".modules");
+
+        SNAPSHOT_MODE = getBooleanOptional(prop, "snapshot_mode", false);
+        SNAPSHOT_DIR = getOptional(prop, "snapshot_dir",
+                                   new File(USERDATA_VIMAGE).getAbsoluteFile().getParent());
+        tmp = prop.get("snapshot_template_image");
+        if (tmp != null || !SNAPSHOT_MODE) {
+            SNAPSHOT_TEMPLATE_IMAGE = tmp;
+        } else {
+            SNAPSHOT_TEMPLATE_IMAGE = getOrThrow(env, "ANDROID_SDK_TOOLS")
+                                      + "/lib/emulator/snapshots.img";
+        }
+        SNAPSHOT_SYSINIT_HANG_ASSUMPTION_DELAY = getLongOptional(prop,
+                "snapshot_sysinit_hang_assumer_delay", SYSINIT_HANG_ASSUMPTION_DELAY);
+
+        ADB_SHELL_SESSION = getBooleanOptional(prop, "adb_shell_session", true);
+        ADB_WIRE_PROTOCOL = getBooleanOptional(prop, "adb_wire_protocol", false);
+        ADB_SERVER_PORT = getLongOptional(prop, "adb_server_port", AdbWireClient.DEFAULT_PORT);
+
+        PARALLELISM_CONTROL = getBooleanOptional(prop, "parallelism_control", false);
+        PARALLELISM_MIN = getLongOptional(prop, "parallelism_min", 1);
+        PARALLELISM_MAX = getLongOptional(prop, "parallelism_max", 7);
+        if (PARALLELISM_MIN < 1 || PARALLELISM_MAX < PARALLELISM_MIN) {
+            throw new SettingsException(String.format(
+                                            "Invalid parallelism bounds: min %d, max %d", PARALLELISM_MIN, PARALLELISM_MAX));
+        }
+        PARALLELISM_PERIOD = getLongOptional(prop, "parallelism_period", 15);
+        PARALLELISM_MAX_STEAL = getLongOptional(prop, "parallelism_max_steal", 5);
+        PARALLELISM_MAX_IOWAIT = getLongOptional(prop, "parallelism_max_iowait", 20);
+        PARALLELISM_MAX_LOAD = getLongOptional(prop, "parallelism_max_load", 100);
+        PARALLELISM_SYSINIT_ENVELOPE = getLongOptional(prop, "parallelism_sysinit_envelope", 0);
+        PARALLELISM_WORKLOAD_ENVELOPE = getLongOptional(prop, "parallelism_workload_envelope",
+                                        0);
+
+        RESOURCE_SAMPLE_PERIOD = getLongOptional(prop, "resource_sample_period", 0);
+        if (RESOURCE_SAMPLE_PERIOD < 0) {
+            throw new SettingsException(String.format("Invalid resource sample period: %d",
+                                        RESOURCE_SAMPLE_PERIOD));
+        }
+
+        METRICS_HTTP_PORT = getLongOptional(prop, "metrics_http_port", 0);
     }
 
     public ExperimentSettings() throws SettingsException {
@@ -0,0 +1,169 @@
+package de.grinder.android_fi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.grinder.android_fi.ProcessUtils.ProcUtilException;
+
+/**
+ * Strategies for resetting an emulator image file to its vanilla version.
+ * <p>
+ * The strategy to use is selected by the {@code image_reset_strategy} setting (see
+ * {@link ExperimentSettings#IMAGE_RESET_STRATEGY}). The following strategies are
+ * available:
+ * <ul>
+ * <li>{@link #COPY} -- full copy of the vanilla image (default, previous behavior)</li>
+ * <li>{@link #REFLINK} -- copy-on-write clone of the vanilla image via
+ * {@code cp --reflink=always}, i.e., the {@code FICLONE} ioctl. Only works on file
+ * systems that support reflinks, e.g., Btrfs or XFS. Falls back to {@link #SPARSE} if the
+ * clone fails.</li>
+ * <li>{@link #SPARSE} -- sparse-aware copy that does not write blocks that are all zero.
+ * The skipped blocks become holes in the target file.</li>
+ * </ul>
+ * Note that qcow2-style overlay files are not offered since the used Android emulator
+ * does not accept overlay images for the userdata and SD card partitions.
+ * <p>
+ * All strategies are stateless and thread safe.
+ */
+public enum ImageResetStrategy {
+
+    COPY("copy") {
+        @Override
+        public void reset(final Path vanilla, final Path target) throws IOException {
+            Files.copy(vanilla, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    },
+
+    REFLINK("reflink") {
+        @Override
+        public void reset(final Path vanilla, final Path target) throws IOException {
+            // Unix command: cp --reflink=always <vanilla> <target>
+            int ret = -1;
+            try {
+                final Process p = ProcessUtils.startProcessPipe("cp", "--reflink=always",
+                                  vanilla.toString(), target.toString());
+                ProcessUtils.getProcessOutput(p);
+                ret = p.waitFor();
+            } catch (final ProcUtilException e) {
+                LOGGER.warn(String.format("Failed to start reflink copy: %s", e.getMessage()));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while cloning image", e);
+            }
+            if (ret != 0) {
+                LOGGER.warn(String.format("Reflink clone of [%s] failed (%d), "
+                                          + "falling back to sparse copy", vanilla, ret));
+                SPARSE.reset(vanilla, target);
+            }
+        }
+    },
+
+    SPARSE("sparse") {
+        @Override
+        public void reset(final Path vanilla, final Path target) throws IOException {
+            try (InputStream in = Files.newInputStream(vanilla);
+                        FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final byte[] block = new byte[SPARSE_BLOCK_SIZE];
+                long pos = 0;
+                int len;
+                while ((len = readBlock(in, block)) > 0) {
+                    if (!isZero(block, len)) {
+                        final ByteBuffer buf = ByteBuffer.wrap(block, 0, len);
+                        while (buf.hasRemaining()) {
+                            out.write(buf, pos + buf.position());
+                        }
+                    }
+                    pos += len;
+                }
+                // trailing holes are not created by skipped writes, extend explicitly
+                if (out.size() < pos) {
+                    try (RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw")) {
+                        raf.setLength(pos);
+                    }
+                }
+            }
+        }
+    };
+
+    /** Class level logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageResetStrategy.class);
+
+    /** Block size in bytes used for zero block detection by {@link #SPARSE}. */
+    private static final int SPARSE_BLOCK_SIZE = 64 * 1024;
+
+    /** Name of the strategy as used in the settings file. */
+    private final String name;
+
+    private ImageResetStrategy(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Looks up the strategy with the given settings name.
+     *
+     * @param name
+     *          The strategy name as used in the settings file, e.g., {@code "reflink"}.
+     * @return The matching strategy or {@code null} if there is no such strategy.
+     */
+    public static ImageResetStrategy fromName(final String name) {
+        for (final ImageResetStrategy s : values()) {
+            if (s.name.equalsIgnoreCase(name.trim())) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isZero(final byte[] block, final int len) {
+        for (int i = 0; i < len; i++) {
+            if (block[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a complete block from the given stream. Only the last block of a stream may be
+     * shorter than the buffer.
+     */
+    private static int readBlock(final InputStream in, final byte[] block) throws IOException {
+        int len = 0;
+        while (len < block.length) {
+            final int n = in.read(block, len, block.length - len);
+            if (n < 0) {
+                break;
+            }
+            len += n;
+        }
+        return len;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Resets the target image file to the content of the vanilla image file. The target
+     * file is created if it does not exist and replaced otherwise.
+     *
+     * @param vanilla
+     *          Path of the vanilla image file.
+     * @param target
+     *          Path of the image file to reset.
+     * @throws IOException
+     *           If the image could not be reset.
+     */
+    public abstract void reset(Path vanilla, Path target) throws IOException;
+}
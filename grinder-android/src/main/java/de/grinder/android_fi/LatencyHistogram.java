@@ -0,0 +1,118 @@
+package de.grinder.android_fi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with fixed, roughly logarithmic bucket bounds from 10 ms to one
+ * hour ({@link #BOUNDS}). Durations above the last bound are counted in an overflow bucket.
+ * Percentiles are estimated by the upper bound of the bucket that contains them, which is
+ * precise enough for telling which experiment phase dominates the run time.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class LatencyHistogram {
+
+    /** Upper bucket bounds in milliseconds. */
+    static final long[] BOUNDS = { 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000,
+        20000, 50000, 100000, 200000, 500000, 1000000, 2000000, 3600000
+    };
+
+    /** Bucket counts, the last bucket counts durations above the last bound. */
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * Adds a duration. A duration is counted in the first bucket whose bound is greater
+     * than or equal to it, compared at nanosecond precision.
+     *
+     * @param nanos
+     *          The duration in nanoseconds, negative durations count as {@code 0}.
+     */
+    public void record(final long nanos) {
+        final long n = Math.max(nanos, 0);
+        int b = 0;
+        while (b < BOUNDS.length && n > BOUNDS[b] * 1000000L) {
+            b++;
+        }
+        buckets.incrementAndGet(b);
+        count.incrementAndGet();
+        sumNanos.addAndGet(n);
+        long max;
+        while ((max = maxNanos.get()) < n && !maxNanos.compareAndSet(max, n)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return The number of recorded durations per bucket, see {@link #BOUNDS}.
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /** @return The longest recorded duration in milliseconds. */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /** @return The mean duration in milliseconds or {@code 0} if empty. */
+    public double getMeanMillis() {
+        final long c = count.get();
+        return c > 0 ? sumNanos.get() / 1e6 / c : 0;
+    }
+
+    /**
+     * Estimates a percentile.
+     *
+     * @param p
+     *          The percentile in {@code (0, 100]}.
+     * @return The upper bound of the bucket containing the percentile in milliseconds, the
+     *         maximum duration for the overflow bucket, or {@code 0} if empty.
+     */
+    public double getPercentileMillis(final double p) {
+        final long[] counts = getBucketCounts();
+        long total = 0;
+        for (final long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(p / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /** @return The sum of all recorded durations in milliseconds. */
+    public double getSumMillis() {
+        return sumNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.0f ms, p50 %.0f ms, p90 %.0f ms, max %.0f ms",
+                             getCount(), getMeanMillis(), getPercentileMillis(50),
+                             getPercentileMillis(90), getMaxMillis());
+    }
+}
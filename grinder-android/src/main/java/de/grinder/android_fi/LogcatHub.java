@@ -0,0 +1,330 @@
+package de.grinder.android_fi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.grinder.android_fi.AndroidDebuggingBridge.AdbException;
+
+/**
+ * Multiplexes the logcat output of one device to any number of event subscriptions.
+ * <p>
+ * Instead of one logcat process per awaited event, the hub keeps one long-lived logcat
+ * stream per buffer (in brief format, without filters) that is read by a single daemon
+ * thread. Subscriptions consist of a buffer, a search pattern and logcat filters (see
+ * {@link Filter}), and are represented by an {@link EventFuture} that completes with the
+ * first matching line. As with a freshly started logcat command, lines that were read
+ * before the subscription, i.e., since the stream was opened, are considered as well (at
+ * most {@link #MAX_BACKLOG} lines per buffer).
+ * <p>
+ * Streams are opened on the first subscription to their buffer. If a stream ends, e.g.,
+ * because the emulator terminated, the pending subscriptions of the buffer fail with an
+ * {@link AdbException} and the next subscription opens a new stream. {@link #reset()}
+ * closes all streams, e.g., before the emulator is restarted.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class LogcatHub {
+
+    /** Maximum number of kept lines per buffer. */
+    static final int MAX_BACKLOG = 4096;
+
+    private final Logger LOGGER;
+
+    private final String logId;
+
+    private final StreamOpener opener;
+
+    /** Open streams by buffer name. */
+    private final Map<String, BufferStream> streams = new HashMap<>();
+
+    /**
+     * Creates a hub.
+     *
+     * @param opener
+     *          Opens the logcat streams.
+     * @param logId
+     *          The log ID of the device owner.
+     */
+    public LogcatHub(final StreamOpener opener, final String logId) {
+        LOGGER = LoggerFactory.getLogger(String.format("%s<%s>", LogcatHub.class.getName(),
+                                         logId));
+        this.opener = opener;
+        this.logId = logId;
+    }
+
+    /**
+     * Closes all streams and discards their lines. Pending subscriptions fail.
+     */
+    public void reset() {
+        final List<BufferStream> closed;
+        synchronized (this) {
+            closed = new ArrayList<>(streams.values());
+            streams.clear();
+        }
+        for (final BufferStream s : closed) {
+            s.close();
+        }
+    }
+
+    /**
+     * Subscribes to the first logcat line of the given buffer that passes the filters and
+     * contains a match of the search pattern.
+     *
+     * @param buffer
+     *          The logcat buffer to observe, e.g., {@code "main"}, {@code "system"} or
+     *          {@code "events"}.
+     * @param searchStr
+     *          The Java regular expression to search for in the line.
+     * @param filters
+     *          Logcat filter specifications, see {@link Filter}.
+     * @return The future of the matching line. Cancelling it ends the subscription.
+     * @throws AdbException
+     *           If the logcat stream cannot be opened.
+     */
+    public EventFuture<String> subscribe(final String buffer, final String searchStr,
+                                         final String... filters) throws AdbException {
+        final Subscription sub = new Subscription(Pattern.compile(searchStr), Filter.parse(
+                                     filters));
+        final BufferStream stream;
+        synchronized (this) {
+            BufferStream s = streams.get(buffer);
+            if (s == null) {
+                LOGGER.debug(String.format("Opening logcat stream of buffer %s", buffer));
+                s = new BufferStream(buffer, opener.open(buffer));
+                streams.put(buffer, s);
+                s.start();
+            }
+            stream = s;
+        }
+        final String line = stream.add(sub);
+        if (line != null) {
+            sub.future.complete(line);
+        } else {
+            sub.future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    stream.remove(sub);
+                }
+            });
+        }
+        return sub.future;
+    }
+
+    /**
+     * Removes the given stream after its end, unless it was replaced already.
+     */
+    private synchronized void streamEnded(final BufferStream stream) {
+        if (streams.get(stream.buffer) == stream) {
+            streams.remove(stream.buffer);
+        }
+    }
+
+    /**
+     * Opens logcat streams.
+     */
+    public interface StreamOpener {
+
+        /**
+         * Opens a logcat stream of the given buffer in brief format. Closing the returned
+         * stream must terminate the logcat command.
+         *
+         * @param buffer
+         *          The logcat buffer.
+         * @return The logcat output.
+         * @throws AdbException
+         *           If the stream cannot be opened.
+         */
+        InputStream open(String buffer) throws AdbException;
+    }
+
+    /**
+     * Logcat filter, built from specifications of the form {@code <tag>:<priority>}, where
+     * {@code <tag>} is either {@code '*'} or a log tag, and {@code <priority>} is one of
+     * {@code V}, {@code D}, {@code I}, {@code W}, {@code E}, {@code F} or {@code S}
+     * (silent), case insensitive. A line passes if its priority is at least the priority
+     * specified for its tag. As with {@code logcat -s}, tags without specification are
+     * silent unless {@code '*'} is specified. Without specifications, all lines pass.
+     */
+    static class Filter {
+
+        private static final String PRIORITIES = "VDIWEFS";
+
+        /** Minimum priority index per tag. */
+        private final Map<String, Integer> tags = new HashMap<>();
+
+        /** Minimum priority index of other tags. */
+        private int defaultPriority = PRIORITIES.indexOf('S');
+
+        static Filter parse(final String... specs) {
+            final Filter f = new Filter();
+            if (specs.length == 0) {
+                f.defaultPriority = 0;
+            }
+            for (final String spec : specs) {
+                final int sep = spec.lastIndexOf(':');
+                final String tag = sep >= 0 ? spec.substring(0, sep) : spec;
+                final int prio = sep >= 0 ? priority(spec.charAt(sep + 1)) : 0;
+                if (prio < 0) {
+                    throw new IllegalArgumentException(String.format(
+                                                           "Invalid logcat filter: %s", spec));
+                }
+                if (tag.equals("*")) {
+                    f.defaultPriority = prio;
+                } else {
+                    f.tags.put(tag, prio);
+                }
+            }
+            return f;
+        }
+
+        private static int priority(final char c) {
+            return PRIORITIES.indexOf(Character.toUpperCase(c));
+        }
+
+        /**
+         * Checks whether a line in brief format, e.g., {@code D/Workload( 1234): message},
+         * passes the filter. Lines in other formats only pass if all lines pass.
+         */
+        boolean accepts(final String line) {
+            final int paren = line.indexOf('(');
+            final int prio = line.length() > 2 && line.charAt(1) == '/' ? priority(line
+                             .charAt(0)) : -1;
+            if (paren < 2 || prio < 0) {
+                return defaultPriority == 0 && tags.isEmpty();
+            }
+            final Integer min = tags.get(line.substring(2, paren).trim());
+            final int minPrio = min != null ? min : defaultPriority;
+            return minPrio < PRIORITIES.indexOf('S') && prio >= minPrio;
+        }
+    }
+
+    private static class Subscription {
+        private final Filter filter;
+        private final EventFuture<String> future = new EventFuture<>();
+        private final Pattern pattern;
+
+        Subscription(final Pattern pattern, final Filter filter) {
+            this.pattern = pattern;
+            this.filter = filter;
+        }
+
+        boolean matches(final String line) {
+            return filter.accepts(line) && pattern.matcher(line).find();
+        }
+    }
+
+    /**
+     * Logcat stream of one buffer together with its reader thread, recent lines and
+     * subscriptions.
+     */
+    private class BufferStream implements Runnable {
+        private final Deque<String> backlog = new ArrayDeque<>();
+        private final String buffer;
+        private boolean ended = false;
+        private final InputStream in;
+        private final List<Subscription> subscriptions = new ArrayList<>();
+
+        BufferStream(final String buffer, final InputStream in) {
+            this.buffer = buffer;
+            this.in = in;
+        }
+
+        /**
+         * Adds a subscription unless a kept line matches.
+         *
+         * @return The matching line or {@code null} if the subscription was added.
+         * @throws AdbException
+         *           If the stream ended.
+         */
+        synchronized String add(final Subscription sub) throws AdbException {
+            for (final String line : backlog) {
+                if (sub.matches(line)) {
+                    return line;
+                }
+            }
+            if (ended) {
+                throw new AdbException(String.format("Logcat stream of buffer %s ended",
+                                                     buffer));
+            }
+            subscriptions.add(sub);
+            return null;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (final IOException e) {
+                // ignore, closing is best effort
+            }
+        }
+
+        synchronized void remove(final Subscription sub) {
+            subscriptions.remove(sub);
+        }
+
+        @Override
+        public void run() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final List<Subscription> matched = new ArrayList<>(1);
+                    synchronized (this) {
+                        if (backlog.size() >= MAX_BACKLOG) {
+                            backlog.removeFirst();
+                        }
+                        backlog.addLast(line);
+                        final Iterator<Subscription> it = subscriptions.iterator();
+                        while (it.hasNext()) {
+                            final Subscription sub = it.next();
+                            if (sub.matches(line)) {
+                                matched.add(sub);
+                                it.remove();
+                            }
+                        }
+                    }
+                    // complete outside of the lock, listeners run on this thread
+                    for (final Subscription sub : matched) {
+                        sub.future.complete(line);
+                    }
+                }
+            } catch (final IOException e) {
+                // the stream was closed or the logcat command failed
+                LOGGER.debug(String.format("Logcat stream of buffer %s failed: %s", buffer,
+                                           e.getMessage()));
+            }
+            final List<Subscription> pending;
+            synchronized (this) {
+                ended = true;
+                pending = new ArrayList<>(subscriptions);
+                subscriptions.clear();
+            }
+            streamEnded(this);
+            LOGGER.debug(String.format("Logcat stream of buffer %s ended, failing %d waits",
+                                       buffer, pending.size()));
+            for (final Subscription sub : pending) {
+                sub.future.fail(new AdbException(String.format(
+                                                     "Logcat stream of buffer %s ended", buffer)));
+            }
+        }
+
+        void start() {
+            final Thread t = new Thread(this, String.format("logcat-%s-%s", logId, buffer));
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+}
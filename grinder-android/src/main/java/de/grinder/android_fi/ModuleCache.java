@@ -0,0 +1,203 @@
+package de.grinder.android_fi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Host-side cache of the content hashes of mutant kernel modules that decides whether a
+ * mutant has to be pushed to the device before it is loaded.
+ * <p>
+ * The vanilla userdata image contains a batch of mutants in
+ * {@link ExperimentSettings#AVD_MODULE_DIR}, which are baked in by
+ * {@code gen-userdata-image.sh} or, without rebuilding the image, by
+ * {@code bake-mutants.sh}. Both record the SHA-256 hashes of the baked mutants in a
+ * manifest (see {@link ExperimentSettings#MODULE_MANIFEST}) with lines in the format of
+ * {@code sha256sum}, i.e., {@code <hash>  <file name>}. A mutant reported by GRINDER is a
+ * hit if the manifest lists its file name with the same content hash. Otherwise, it is a
+ * miss and has to be pushed. Since the userdata image is reset for each run, a missed
+ * mutant is pushed by each of its runs until it is baked.
+ * <p>
+ * The hashes of host files are cached by path, modification time and size, and the
+ * manifest is reloaded when it changes. Without a manifest, and for mutants that are not
+ * available on this host, the mutants are assumed to be baked, as before.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class ModuleCache {
+
+    /** Shared caches by manifest path. */
+    private static final Map<String, ModuleCache> instances = new HashMap<>();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModuleCache.class);
+
+    /** Hashes of the baked mutants by file name, {@code null} without manifest. */
+    private Map<String, String> baked = null;
+
+    /** Cached hashes of host files by path. */
+    private final Map<String, CachedHash> hashes = new HashMap<>();
+
+    private final File manifest;
+
+    /** Modification time and size of the loaded manifest, {@code -1} if none is loaded. */
+    private long manifestMtime = -1, manifestSize = -1;
+
+    /**
+     * Creates a cache.
+     *
+     * @param manifest
+     *          The manifest of the baked mutants.
+     */
+    ModuleCache(final File manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Retrieves the cache that is shared by all emulators with the manifest of the given
+     * settings.
+     *
+     * @param settings
+     *          The experiment settings.
+     * @return The shared cache.
+     */
+    public static ModuleCache forSettings(final ExperimentSettings settings) {
+        synchronized (instances) {
+            ModuleCache cache = instances.get(settings.MODULE_MANIFEST);
+            if (cache == null) {
+                cache = new ModuleCache(new File(settings.MODULE_MANIFEST));
+                instances.put(settings.MODULE_MANIFEST, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file.
+     *
+     * @return The hash as lower case hex string.
+     */
+    static String sha256(final File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not supported", e);
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            final byte[] buffer = new byte[65536];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, len);
+            }
+        }
+        final StringBuilder sb = new StringBuilder(64);
+        for (final byte b : digest.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Retrieves the hash of a host file, which is only computed if the file changed since
+     * the last call.
+     */
+    private String hash(final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final long mtime = file.lastModified();
+        final long size = file.length();
+        final CachedHash cached = hashes.get(path);
+        if (cached != null && cached.mtime == mtime && cached.size == size) {
+            return cached.hash;
+        }
+        final String hash = sha256(file);
+        hashes.put(path, new CachedHash(hash, mtime, size));
+        return hash;
+    }
+
+    /**
+     * Checks whether the given mutant is baked into the vanilla userdata image.
+     *
+     * @param module
+     *          The mutant as reported by GRINDER.
+     * @return True if the image contains the mutant or nothing is known about it, false if
+     *         the mutant has to be pushed.
+     * @throws IOException
+     *           If the mutant or the manifest cannot be read.
+     */
+    public synchronized boolean isBaked(final File module) throws IOException {
+        loadManifest();
+        if (baked == null) {
+            return true;
+        }
+        if (!module.isFile()) {
+            LOGGER.debug(String.format("Mutant [%s] is not available on this host, assuming "
+                                       + "that it is baked", module));
+            return true;
+        }
+        final String hash = hash(module);
+        final boolean hit = hash.equals(baked.get(module.getName()));
+        LOGGER.debug(String.format("Mutant [%s] with hash %s: %s", module.getName(), hash,
+                                   hit ? "baked" : "not baked"));
+        return hit;
+    }
+
+    /**
+     * Loads the manifest unless the loaded version is still current.
+     */
+    private void loadManifest() throws IOException {
+        if (!manifest.isFile()) {
+            if (baked != null) {
+                LOGGER.warn(String.format("Module manifest [%s] disappeared, assuming that all "
+                                          + "mutants are baked", manifest));
+            }
+            baked = null;
+            manifestMtime = -1;
+            manifestSize = -1;
+            return;
+        }
+        if (manifest.lastModified() == manifestMtime && manifest.length() == manifestSize) {
+            return;
+        }
+        final long mtime = manifest.lastModified();
+        final long size = manifest.length();
+        final Map<String, String> entries = new HashMap<>();
+        try (BufferedReader r = Files.newBufferedReader(manifest.toPath(),
+                                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                final String[] fields = line.trim().split("\\s+\\*?", 2);
+                if (fields.length == 2 && !fields[0].startsWith("#")) {
+                    entries.put(new File(fields[1]).getName(), fields[0].toLowerCase());
+                }
+            }
+        }
+        baked = entries;
+        manifestMtime = mtime;
+        manifestSize = size;
+        LOGGER.info(String.format("Loaded module manifest [%s]: %d baked mutants", manifest,
+                                  entries.size()));
+    }
+
+    private static class CachedHash {
+        private final String hash;
+        private final long mtime;
+        private final long size;
+
+        CachedHash(final String hash, final long mtime, final long size) {
+            this.hash = hash;
+            this.mtime = mtime;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package de.grinder.android_fi;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Host wide controller for the number of concurrently running emulators.
+ * <p>
+ * Experiment runs acquire an admission before their emulator is started and release it
+ * when the emulator is killed (see {@link #acquire(Object)} and {@link #release(Object)}).
+ * At most {@link #getLimit()} emulators are admitted concurrently. If parallelism control
+ * is disabled (see {@link ExperimentSettings#PARALLELISM_CONTROL}), admissions are always
+ * granted and only counted.
+ * <p>
+ * If enabled, the host load is sampled periodically from {@code /proc/stat} (CPU steal
+ * and I/O wait time) and {@code /proc/loadavg}. In addition, experiment runs report their
+ * system initialization and workload durations. The limit is adjusted following an
+ * additive increase, multiplicative decrease scheme:
+ * <ul>
+ * <li>If any load limit is exceeded or the 90th percentile of the recent durations exceeds
+ * the calibrated envelope, the limit is decreased by a quarter (at least by one). Duration
+ * samples are discarded afterwards, since they reflect the load before the decrease, and
+ * the limit is not increased for {@value #COOLDOWN_PERIODS} periods.</li>
+ * <li>Otherwise, if all admissions are in use and further runs are waiting, the limit is
+ * increased by one.</li>
+ * </ul>
+ * The limit stays within the configured bounds. All decisions are logged and exposed
+ * through JMX (see {@link ParallelismControllerMBean}).
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class ParallelismController implements ParallelismControllerMBean {
+
+    /** Number of periods without increase after a decrease. */
+    static final int COOLDOWN_PERIODS = 3;
+
+    /** Number of recent duration samples considered per duration type. */
+    static final int DURATION_WINDOW = 20;
+
+    /** Minimum number of duration samples before the envelope is checked. */
+    static final int MIN_DURATION_SAMPLES = 3;
+
+    /** The shared controller instance. */
+    private static ParallelismController instance;
+
+    /** Class level logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelismController.class);
+
+    private final Set<Object> admitted = new HashSet<>();
+
+    private int cooldown = 0;
+
+    private long decreases = 0;
+
+    private final boolean enabled;
+
+    private long increases = 0;
+
+    private double ioWait = 0;
+
+    private String lastDecision = "initial";
+
+    private int limit;
+
+    private double load = 0;
+
+    private final int max;
+
+    private final long maxIoWait;
+
+    private final long maxLoad;
+
+    private final long maxSteal;
+
+    private final int min;
+
+    /** Last /proc/stat CPU counters, {@code null} before the first sample. */
+    private long[] prevCpuTimes = null;
+
+    private double steal = 0;
+
+    private final Deque<Double> sysinitDurations = new ArrayDeque<>();
+
+    private final long sysinitEnvelope;
+
+    private int waiting = 0;
+
+    private final Deque<Double> workloadDurations = new ArrayDeque<>();
+
+    private final long workloadEnvelope;
+
+    /**
+     * Retrieves the shared controller instance. The instance is created and, if enabled,
+     * started with the given settings on first use.
+     *
+     * @param settings
+     *          The experiment settings.
+     * @return The shared controller instance.
+     */
+    public static synchronized ParallelismController forSettings(final ExperimentSettings settings) {
+        if (instance == null) {
+            instance = new ParallelismController(settings.PARALLELISM_CONTROL,
+                    (int) settings.PARALLELISM_MIN, (int) settings.PARALLELISM_MAX,
+                    settings.PARALLELISM_MAX_STEAL, settings.PARALLELISM_MAX_IOWAIT,
+                    settings.PARALLELISM_MAX_LOAD, settings.PARALLELISM_SYSINIT_ENVELOPE,
+                    settings.PARALLELISM_WORKLOAD_ENVELOPE);
+            if (instance.enabled) {
+                instance.startSampling(settings.PARALLELISM_PERIOD);
+                instance.registerMBean();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Computes the 90th percentile of the given samples.
+     */
+    static double percentile90(final Deque<Double> samples) {
+        if (samples.isEmpty()) {
+            return 0;
+        }
+        final List<Double> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        final int idx = (int) Math.ceil(0.9 * sorted.size()) - 1;
+        return sorted.get(Math.max(idx, 0));
+    }
+
+    /**
+     * Reads the aggregated CPU time counters from {@code /proc/stat}: user, nice, system,
+     * idle, iowait, irq, softirq, steal.
+     */
+    private static long[] readCpuTimes() throws IOException {
+        for (final String line : Files.readAllLines(Paths.get("/proc/stat"),
+                StandardCharsets.US_ASCII)) {
+            if (line.startsWith("cpu ")) {
+                final String[] fields = line.trim().split("\\s+");
+                final long[] times = new long[8];
+                for (int i = 0; i < times.length && i + 1 < fields.length; i++) {
+                    times[i] = Long.parseLong(fields[i + 1]);
+                }
+                return times;
+            }
+        }
+        throw new IOException("No aggregated CPU line in /proc/stat");
+    }
+
+    /**
+     * Reads the 1 minute load average from {@code /proc/loadavg}.
+     */
+    private static double readLoadAverage() throws IOException {
+        final List<String> lines = Files.readAllLines(Paths.get("/proc/loadavg"),
+                                   StandardCharsets.US_ASCII);
+        return Double.parseDouble(lines.get(0).trim().split("\\s+")[0]);
+    }
+
+    private static void record(final Deque<Double> samples, final double value) {
+        samples.addLast(value);
+        if (samples.size() > DURATION_WINDOW) {
+            samples.removeFirst();
+        }
+    }
+
+    ParallelismController(final boolean enabled, final int min, final int max,
+                          final long maxSteal, final long maxIoWait, final long maxLoad,
+                          final long sysinitEnvelope, final long workloadEnvelope) {
+        this.enabled = enabled;
+        this.min = min;
+        this.max = max;
+        this.maxSteal = maxSteal;
+        this.maxIoWait = maxIoWait;
+        this.maxLoad = maxLoad;
+        this.sysinitEnvelope = sysinitEnvelope;
+        this.workloadEnvelope = workloadEnvelope;
+        limit = min;
+    }
+
+    /**
+     * Acquires an admission for the given owner. Blocks until the number of admitted
+     * owners is below the limit. Acquiring an admission that is already held returns
+     * immediately.
+     *
+     * @param owner
+     *          The owner of the admission, e.g., an experiment target.
+     * @throws InterruptedException
+     *           If the calling thread was interrupted while waiting.
+     */
+    public synchronized void acquire(final Object owner) throws InterruptedException {
+        if (admitted.contains(owner)) {
+            return;
+        }
+        waiting++;
+        try {
+            while (enabled && admitted.size() >= limit) {
+                wait();
+            }
+        } finally {
+            waiting--;
+        }
+        admitted.add(owner);
+    }
+
+    /**
+     * Adjusts the limit to the given host load sample and the recorded durations.
+     *
+     * @param stealPct
+     *          CPU steal time in percent.
+     * @param ioWaitPct
+     *          CPU I/O wait time in percent.
+     * @param loadPct
+     *          1 minute load average in percent of the number of CPUs.
+     * @return The new limit.
+     */
+    synchronized int adjust(final double stealPct, final double ioWaitPct,
+                            final double loadPct) {
+        steal = stealPct;
+        ioWait = ioWaitPct;
+        load = loadPct;
+
+        // the durations are discarded on a decrease, so keep their percentiles for the log
+        final double sysinitP90 = getSysinitP90();
+        final double workloadP90 = getWorkloadP90();
+        final List<String> reasons = new ArrayList<>();
+        if (stealPct > maxSteal) {
+            reasons.add(String.format("steal %.1f%% > %d%%", stealPct, maxSteal));
+        }
+        if (ioWaitPct > maxIoWait) {
+            reasons.add(String.format("iowait %.1f%% > %d%%", ioWaitPct, maxIoWait));
+        }
+        if (loadPct > maxLoad) {
+            reasons.add(String.format("load %.0f%% > %d%%", loadPct, maxLoad));
+        }
+        if (exceedsEnvelope(sysinitDurations, sysinitEnvelope)) {
+            reasons.add(String.format("sysinit p90 %.0fs > %ds", sysinitP90,
+                                      sysinitEnvelope));
+        }
+        if (exceedsEnvelope(workloadDurations, workloadEnvelope)) {
+            reasons.add(String.format("workload p90 %.0fs > %ds", workloadP90,
+                                      workloadEnvelope));
+        }
+
+        final int old = limit;
+        if (!reasons.isEmpty()) {
+            cooldown = COOLDOWN_PERIODS;
+            sysinitDurations.clear();
+            workloadDurations.clear();
+            limit = Math.max(min, limit - Math.max(1, limit / 4));
+            if (limit != old) {
+                decreases++;
+                lastDecision = String.format("decrease %d -> %d: %s", old, limit, reasons);
+            }
+        } else if (cooldown > 0) {
+            cooldown--;
+        } else if (admitted.size() >= limit && waiting > 0 && limit < max) {
+            limit++;
+            increases++;
+            lastDecision = String.format("increase %d -> %d: %d waiting", old, limit, waiting);
+        }
+
+        final String stats = String.format("limit %d, active %d, waiting %d, steal %.1f%%, "
+                                           + "iowait %.1f%%, load %.0f%%, sysinit p90 %.0fs, workload p90 %.0fs",
+                                           limit, admitted.size(), waiting, stealPct, ioWaitPct, loadPct,
+                                           sysinitP90, workloadP90);
+        if (limit != old) {
+            LOGGER.info(String.format("Parallelism %s (%s)", lastDecision, stats));
+            notifyAll();
+        } else {
+            LOGGER.debug(String.format("Parallelism unchanged (%s)", stats));
+        }
+        return limit;
+    }
+
+    private boolean exceedsEnvelope(final Deque<Double> samples, final long envelope) {
+        return envelope > 0 && samples.size() >= MIN_DURATION_SAMPLES
+               && percentile90(samples) > envelope;
+    }
+
+    @Override
+    public synchronized int getActive() {
+        return admitted.size();
+    }
+
+    @Override
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    @Override
+    public synchronized long getIncreases() {
+        return increases;
+    }
+
+    @Override
+    public synchronized double getIoWait() {
+        return ioWait;
+    }
+
+    @Override
+    public synchronized String getLastDecision() {
+        return lastDecision;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized double getLoad() {
+        return load;
+    }
+
+    @Override
+    public synchronized double getSteal() {
+        return steal;
+    }
+
+    @Override
+    public synchronized double getSysinitP90() {
+        return percentile90(sysinitDurations);
+    }
+
+    @Override
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    @Override
+    public synchronized double getWorkloadP90() {
+        return percentile90(workloadDurations);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("de.grinder.android_fi:type=ParallelismController"));
+        } catch (final JMException e) {
+            LOGGER.warn(String.format("Failed to register parallelism MBean: %s",
+                                      e.getMessage()));
+        }
+    }
+
+    /**
+     * Releases the admission of the given owner. Releasing an admission that is not held
+     * has no effect.
+     *
+     * @param owner
+     *          The owner of the admission.
+     */
+    public synchronized void release(final Object owner) {
+        if (admitted.remove(owner)) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Records the duration of a system initialization, i.e., from emulator start until
+     * the workload started.
+     *
+     * @param millis
+     *          The duration in milliseconds.
+     */
+    public synchronized void reportSysinitDuration(final long millis) {
+        record(sysinitDurations, millis / 1000.0);
+    }
+
+    /**
+     * Records the duration of a workload execution.
+     *
+     * @param millis
+     *          The duration in milliseconds.
+     */
+    public synchronized void reportWorkloadDuration(final long millis) {
+        record(workloadDurations, millis / 1000.0);
+    }
+
+    /**
+     * Samples the host load and adjusts the limit.
+     */
+    private void sample() {
+        final long[] cur;
+        final double loadAvg;
+        try {
+            cur = readCpuTimes();
+            loadAvg = readLoadAverage();
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn(String.format("Failed to sample host load: %s", e.getMessage()));
+            return;
+        }
+        final long[] prev = prevCpuTimes;
+        prevCpuTimes = cur;
+        if (prev == null) {
+            return;
+        }
+        long total = 0;
+        for (int i = 0; i < cur.length; i++) {
+            total += cur[i] - prev[i];
+        }
+        if (total <= 0) {
+            return;
+        }
+        final double stealPct = 100.0 * (cur[7] - prev[7]) / total;
+        final double ioWaitPct = 100.0 * (cur[4] - prev[4]) / total;
+        final double loadPct = 100.0 * loadAvg / Runtime.getRuntime().availableProcessors();
+        adjust(stealPct, ioWaitPct, loadPct);
+    }
+
+    private void startSampling(final long periodSeconds) {
+        LOGGER.info(String.format("Starting parallelism control: limit %d (min %d, max %d), "
+                                  + "period %ds", limit, min, max, periodSeconds));
+        final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "parallelism-controller");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,40 @@
+package de.grinder.android_fi;
+
+/**
+ * JMX management interface of the {@link ParallelismController}.
+ */
+public interface ParallelismControllerMBean {
+
+    /** @return The number of emulators that currently hold an admission. */
+    int getActive();
+
+    /** @return The number of limit decreases since start-up. */
+    long getDecreases();
+
+    /** @return The number of limit increases since start-up. */
+    long getIncreases();
+
+    /** @return CPU I/O wait time in percent of the last sampling period. */
+    double getIoWait();
+
+    /** @return The reason for the last limit change. */
+    String getLastDecision();
+
+    /** @return The current limit for concurrently running emulators. */
+    int getLimit();
+
+    /** @return The 1 minute load average in percent of the number of CPUs. */
+    double getLoad();
+
+    /** @return CPU steal time in percent of the last sampling period. */
+    double getSteal();
+
+    /** @return The 90th percentile of recent system initialization durations in seconds. */
+    double getSysinitP90();
+
+    /** @return The number of experiment runs waiting for admission. */
+    int getWaiting();
+
+    /** @return The 90th percentile of recent workload durations in seconds. */
+    double getWorkloadP90();
+}
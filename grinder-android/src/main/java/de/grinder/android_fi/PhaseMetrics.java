@@ -0,0 +1,435 @@
+package de.grinder.android_fi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.grinder.android_fi.BootProgressTracker.Milestone;
+
+/**
+ * Host wide registry for the durations of the experiment run phases.
+ * <p>
+ * Each experiment run times its phases with a {@link RunTimer} using the monotonic
+ * {@link System#nanoTime()} clock. Durations are recorded in one {@link LatencyHistogram}
+ * per phase for the host and per phase and emulator. The histograms are exposed through
+ * JMX (see {@link PhaseMetricsMBean}) and, if a port is configured (see
+ * {@link ExperimentSettings#METRICS_HTTP_PORT}), as text in the Prometheus exposition
+ * format by an HTTP server that only listens on the loopback interface (see
+ * {@link #toText()}). Moreover, the phase durations of each run are sent to GRINDER
+ * along with the accounting data of the run.
+ * <p>
+ * In addition, the device uptimes at which the Android system reached its boot
+ * milestones (see {@link BootProgressTracker}) are recorded in one host-wide histogram per
+ * milestone.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class PhaseMetrics implements PhaseMetricsMBean {
+
+    /**
+     * Phases of an experiment run in execution order. Note that {@link #IMAGE_RESET} is
+     * part of {@link #EMULATOR_START}, and that the device-side steps from
+     * {@link #FLAG_REMOVAL} to {@link #IOSCHED_SWITCH} are part of {@link #DEVICE_SETUP}.
+     */
+    public enum Phase {
+        ADMISSION("admission"),
+        SNAPSHOT("snapshot"),
+        EMULATOR_START("emulator_start"),
+        IMAGE_RESET("image_reset"),
+        DEVICE_WAIT("device_wait"),
+        MODULE_PUSH("module_push"),
+        DEVICE_SETUP("device_setup"),
+        FLAG_REMOVAL("flag_removal"),
+        CANDE_START("cande_start"),
+        MODULE_LOAD("module_load"),
+        IOSCHED_SWITCH("iosched_switch"),
+        WORKLOAD_START_WAIT("workload_start_wait"),
+        RESULT_DETECTION("result_detection");
+
+        private final String name;
+
+        private Phase(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Retrieves the phase with the given name.
+         *
+         * @return The phase or {@code null} if there is no phase with the given name.
+         */
+        public static Phase fromName(final String name) {
+            for (final Phase p : values()) {
+                if (p.name.equals(name)) {
+                    return p;
+                }
+            }
+            return null;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /** The shared registry instance. */
+    private static PhaseMetrics instance;
+
+    /** Class level logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PhaseMetrics.class);
+
+    /** Histograms per emulator log ID, sorted for stable output. */
+    private final Map<String, Map<Phase, LatencyHistogram>> emulators = new TreeMap<>();
+
+    private final Map<Phase, LatencyHistogram> host = newHistograms();
+
+    /** Device uptimes at the boot milestones. */
+    private final Map<Milestone, LatencyHistogram> milestones = new EnumMap<>(Milestone.class);
+
+    /**
+     * Creates an unregistered registry.
+     */
+    PhaseMetrics() {
+        for (final Milestone m : Milestone.values()) {
+            milestones.put(m, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Retrieves the shared registry. The registry is created, registered with JMX, and, if
+     * configured, exposed through HTTP on first use.
+     *
+     * @param settings
+     *          The experiment settings.
+     * @return The shared registry.
+     */
+    public static synchronized PhaseMetrics forSettings(final ExperimentSettings settings) {
+        if (instance == null) {
+            instance = new PhaseMetrics();
+            instance.registerMBean();
+            if (settings.METRICS_HTTP_PORT > 0) {
+                instance.startHttpServer((int) settings.METRICS_HTTP_PORT);
+            }
+        }
+        return instance;
+    }
+
+    private static Map<Phase, LatencyHistogram> newHistograms() {
+        final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+        for (final Phase p : Phase.values()) {
+            histograms.put(p, new LatencyHistogram());
+        }
+        return histograms;
+    }
+
+    private static void appendHistogram(final StringBuilder sb, final String metric,
+                                        final String labels, final LatencyHistogram h) {
+        final long[] counts = h.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            final String le = i < LatencyHistogram.BOUNDS.length ? String.valueOf(
+                                  LatencyHistogram.BOUNDS[i] / 1000.0) : "+Inf";
+            sb.append(String.format("%s_bucket{%s,le=\"%s\"} %d\n", metric, labels, le,
+                                    cumulative));
+        }
+        sb.append(String.format(Locale.ROOT, "%s_sum{%s} %.3f\n", metric, labels,
+                                h.getSumMillis() / 1000));
+        sb.append(String.format("%s_count{%s} %d\n", metric, labels, h.getCount()));
+    }
+
+    private static LatencyHistogram getByName(final Map<Phase, LatencyHistogram> histograms,
+            final String phase) {
+        final Phase p = Phase.fromName(phase);
+        if (p == null) {
+            throw new IllegalArgumentException(String.format("Unknown phase: %s", phase));
+        }
+        return histograms.get(p);
+    }
+
+    @Override
+    public long getCount(final String phase) {
+        return getByName(host, phase).getCount();
+    }
+
+    @Override
+    public synchronized String[] getEmulators() {
+        return emulators.keySet().toArray(new String[emulators.size()]);
+    }
+
+    /**
+     * Retrieves the host-wide histogram of a phase.
+     */
+    public LatencyHistogram getHistogram(final Phase phase) {
+        return host.get(phase);
+    }
+
+    /**
+     * Retrieves the histogram of a phase for one emulator.
+     *
+     * @return The histogram or {@code null} if nothing was recorded for the emulator.
+     */
+    public synchronized LatencyHistogram getHistogram(final String emulator, final Phase phase) {
+        final Map<Phase, LatencyHistogram> histograms = emulators.get(emulator);
+        return histograms != null ? histograms.get(phase) : null;
+    }
+
+    /**
+     * Retrieves the histogram of the device uptimes at a boot milestone.
+     */
+    public LatencyHistogram getHistogram(final Milestone milestone) {
+        return milestones.get(milestone);
+    }
+
+    @Override
+    public double getMeanMillis(final String phase) {
+        return getByName(host, phase).getMeanMillis();
+    }
+
+    @Override
+    public double getP90Millis(final String phase) {
+        return getByName(host, phase).getPercentileMillis(90);
+    }
+
+    @Override
+    public String getReport() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Phase p : Phase.values()) {
+            sb.append(String.format("%s: %s\n", p.getName(), host.get(p)));
+        }
+        for (final Milestone m : Milestone.values()) {
+            sb.append(String.format("boot %s: %s\n", m.getName(), milestones.get(m)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Starts timing a new experiment run.
+     *
+     * @param emulator
+     *          The log ID of the emulator that executes the run.
+     * @return The timer of the run.
+     */
+    public RunTimer newRun(final String emulator) {
+        return new RunTimer(emulator);
+    }
+
+    /**
+     * Records a phase duration.
+     *
+     * @param emulator
+     *          The log ID of the emulator.
+     * @param phase
+     *          The phase.
+     * @param nanos
+     *          The duration in nanoseconds.
+     */
+    public void record(final String emulator, final Phase phase, final long nanos) {
+        host.get(phase).record(nanos);
+        Map<Phase, LatencyHistogram> histograms;
+        synchronized (this) {
+            histograms = emulators.get(emulator);
+            if (histograms == null) {
+                histograms = newHistograms();
+                emulators.put(emulator, histograms);
+            }
+        }
+        histograms.get(phase).record(nanos);
+    }
+
+    /**
+     * Records the device uptime at which a boot milestone was reached.
+     *
+     * @param milestone
+     *          The milestone.
+     * @param uptimeMillis
+     *          The uptime in milliseconds.
+     */
+    public void recordMilestone(final Milestone milestone, final long uptimeMillis) {
+        milestones.get(milestone).record(TimeUnit.MILLISECONDS.toNanos(uptimeMillis));
+    }
+
+    private void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("de.grinder.android_fi:type=PhaseMetrics"));
+        } catch (final JMException e) {
+            LOGGER.warn(String.format("Failed to register phase metrics MBean: %s",
+                                      e.getMessage()));
+        }
+    }
+
+    /**
+     * Starts the HTTP server that serves {@link #toText()} on the loopback interface.
+     */
+    private void startHttpServer(final int port) {
+        try {
+            final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress
+                                      .getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", new HttpHandler() {
+                @Override
+                public void handle(final HttpExchange exchange) throws IOException {
+                    final byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type",
+                                                      "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "phase-metrics-http");
+                    t.setDaemon(true);
+                    return t;
+                }
+            }));
+            server.start();
+            LOGGER.info(String.format("Serving phase metrics on http://localhost:%d/metrics",
+                                      server.getAddress().getPort()));
+        } catch (final IOException e) {
+            LOGGER.warn(String.format("Failed to start phase metrics HTTP server on port %d: %s",
+                                      port, e.getMessage()));
+        }
+    }
+
+    /**
+     * Formats all histograms in the Prometheus text exposition format: the host-wide
+     * histograms as {@code grinder_phase_duration_seconds}, the per emulator histograms as
+     * {@code grinder_emulator_phase_duration_seconds}, and the uptimes at the boot
+     * milestones as {@code grinder_boot_milestone_uptime_seconds}.
+     *
+     * @return The formatted histograms.
+     */
+    public synchronized String toText() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE grinder_phase_duration_seconds histogram\n");
+        for (final Phase p : Phase.values()) {
+            appendHistogram(sb, "grinder_phase_duration_seconds", String.format(
+                                "phase=\"%s\"", p.getName()), host.get(p));
+        }
+        sb.append("# TYPE grinder_emulator_phase_duration_seconds histogram\n");
+        for (final Map.Entry<String, Map<Phase, LatencyHistogram>> e : emulators.entrySet()) {
+            for (final Phase p : Phase.values()) {
+                appendHistogram(sb, "grinder_emulator_phase_duration_seconds", String.format(
+                                    "emulator=\"%s\",phase=\"%s\"", e.getKey(), p.getName()), e
+                                .getValue().get(p));
+            }
+        }
+        sb.append("# TYPE grinder_boot_milestone_uptime_seconds histogram\n");
+        for (final Milestone m : Milestone.values()) {
+            appendHistogram(sb, "grinder_boot_milestone_uptime_seconds", String.format(
+                                "milestone=\"%s\"", m.getName()), milestones.get(m));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Times the phases of one experiment run. A phase lasts from {@link #begin(Phase)} until
+     * the next phase begins or {@link #end()} is invoked. Durations are recorded in the
+     * registry when the phase ends.
+     */
+    public class RunTimer {
+        private Phase current = null;
+        private long currentStart;
+        private final List<Phase> phases = new ArrayList<>();
+        private final List<Long> durations = new ArrayList<>();
+        private final String emulator;
+
+        private RunTimer(final String emulator) {
+            this.emulator = emulator;
+        }
+
+        /**
+         * Ends the current phase, if any, and begins the given phase.
+         */
+        public synchronized void begin(final Phase phase) {
+            end();
+            current = phase;
+            currentStart = System.nanoTime();
+        }
+
+        /**
+         * Ends the current phase. Does nothing if no phase is running.
+         */
+        public synchronized void end() {
+            if (current != null) {
+                record(current, System.nanoTime() - currentStart);
+                current = null;
+            }
+        }
+
+        /**
+         * @return The currently running phase or {@code null}.
+         */
+        public synchronized Phase getCurrent() {
+            return current;
+        }
+
+        /**
+         * Records a phase that was timed elsewhere, e.g., a part of the current phase.
+         *
+         * @param phase
+         *          The phase.
+         * @param nanos
+         *          The duration in nanoseconds.
+         */
+        public synchronized void record(final Phase phase, final long nanos) {
+            phases.add(phase);
+            durations.add(nanos);
+            PhaseMetrics.this.record(emulator, phase, nanos);
+        }
+
+        /**
+         * Formats the ended phases as CSV document with the columns {@code phase} and
+         * {@code duration_ms} in the order in which they ended.
+         *
+         * @return The CSV document without trailing line terminator.
+         */
+        public synchronized String toCsv() {
+            final StringBuilder sb = new StringBuilder("phase,duration_ms");
+            for (int i = 0; i < phases.size(); i++) {
+                sb.append(String.format(Locale.ROOT, "\n%s,%.3f", phases.get(i).getName(),
+                                        durations.get(i) / 1e6));
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public synchronized String toString() {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < phases.size(); i++) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(String.format("%s %d ms", phases.get(i).getName(),
+                                        durations.get(i) / 1000000));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package de.grinder.android_fi;
+
+/**
+ * JMX management interface of the {@link PhaseMetrics}.
+ */
+public interface PhaseMetricsMBean {
+
+    /**
+     * @param phase
+     *          The phase name, see {@link PhaseMetrics.Phase#getName()}.
+     * @return The number of host-wide recorded durations of the phase.
+     */
+    long getCount(String phase);
+
+    /** @return The log IDs of all emulators with recorded durations. */
+    String[] getEmulators();
+
+    /**
+     * @param phase
+     *          The phase name, see {@link PhaseMetrics.Phase#getName()}.
+     * @return The host-wide mean duration of the phase in milliseconds.
+     */
+    double getMeanMillis(String phase);
+
+    /**
+     * @param phase
+     *          The phase name, see {@link PhaseMetrics.Phase#getName()}.
+     * @return The estimated host-wide 90th percentile of the phase in milliseconds.
+     */
+    double getP90Millis(String phase);
+
+    /** @return One line per phase summarizing its host-wide durations. */
+    String getReport();
+}
@@ -0,0 +1,194 @@
+package de.grinder.android_fi;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.grinder.android_fi.ProcessUtils.ProcStat;
+import de.grinder.android_fi.ProcessUtils.ProcUtilException;
+
+/**
+ * Snapshot of the parent/child relations of all processes, read from {@code /proc}.
+ * <p>
+ * The emulator runs as child of the {@code getdelays} accounting process and may start
+ * further processes itself, e.g., the actual QEMU binary that is started by the emulator
+ * launcher. The process tree allows to find these processes without parsing their output
+ * and to kill all of them while keeping the accounting process alive, which has to report
+ * the accounting data of its terminated child (see {@link #killDescendants(int, int)}).
+ * <p>
+ * Snapshots are immutable and may be outdated as soon as they are taken. Processes that
+ * terminated while the snapshot was taken are not part of it.
+ */
+public class ProcessTree {
+
+    /** Maximum number of kill rounds for catching processes that were forked meanwhile. */
+    private static final int MAX_KILL_ROUNDS = 5;
+
+    /** Maximum time in milliseconds to wait for killed processes to terminate. */
+    private static final long KILL_WAIT = 2000;
+
+    private final Map<Integer, List<Integer>> children = new HashMap<>();
+
+    private final Map<Integer, ProcStat> stats = new HashMap<>();
+
+    private ProcessTree() {
+    }
+
+    /**
+     * Checks whether process trees can be read on this system.
+     *
+     * @return {@code True} if {@code /proc} is available, {@code false} otherwise.
+     */
+    public static boolean isSupported() {
+        return new File("/proc/self/stat").canRead();
+    }
+
+    /**
+     * Kills all descendants of the given process, but not the process itself. The
+     * descendants are stopped with {@link ProcessUtils#SIG_STOP} first, in further rounds
+     * for processes that were forked meanwhile, since stopped processes can neither fork
+     * nor be reparented to {@code init} by killed parents before they are signaled. The
+     * stopped processes are then signaled, the deepest first, and continued again unless
+     * they were killed with {@link ProcessUtils#SIG_KILL}. Zombie descendants are ignored,
+     * since they terminated already.
+     *
+     * @param pid
+     *          The PID of the root process.
+     * @param signal
+     *          The signal to send, {@link ProcessUtils#SIG_TERM} or
+     *          {@link ProcessUtils#SIG_KILL}.
+     * @return The number of signaled processes.
+     * @throws ProcUtilException
+     *           If the process tree could not be read or a descendant did not terminate.
+     */
+    public static int killDescendants(final int pid, final int signal)
+    throws ProcUtilException {
+        final List<Integer> stopped = new ArrayList<>();
+        for (int round = 0; round < MAX_KILL_ROUNDS; round++) {
+            final List<Integer> descendants = snapshot().getRunningDescendants(pid);
+            descendants.removeAll(stopped);
+            if (descendants.isEmpty()) {
+                break;
+            }
+            ProcessUtils.signalAll(ProcessUtils.SIG_STOP, descendants);
+            stopped.addAll(descendants);
+        }
+        // children are listed after their parents
+        final List<Integer> signaled = new ArrayList<>();
+        for (int i = stopped.size() - 1; i >= 0; i--) {
+            if (ProcessUtils.signal(stopped.get(i), signal)) {
+                signaled.add(stopped.get(i));
+            }
+        }
+        if (signal != ProcessUtils.SIG_KILL) {
+            // pending signals are only delivered to continued processes
+            ProcessUtils.signalAll(ProcessUtils.SIG_CONT, signaled);
+        }
+        for (final int d : signaled) {
+            if (!ProcessUtils.awaitTermination(d, KILL_WAIT)
+                    && signal == ProcessUtils.SIG_KILL) {
+                throw new ProcUtilException(String.format(
+                                                "Descendant %d of process %d did not terminate", d, pid));
+            }
+        }
+        return signaled.size();
+    }
+
+    /**
+     * Reads the current process tree.
+     *
+     * @return The snapshot.
+     * @throws ProcUtilException
+     *           If {@code /proc} is not available.
+     */
+    public static ProcessTree snapshot() throws ProcUtilException {
+        final File[] entries = new File("/proc").listFiles();
+        if (entries == null) {
+            throw new ProcUtilException("Process tree not available: cannot list /proc");
+        }
+        final ProcessTree tree = new ProcessTree();
+        for (final File e : entries) {
+            final int pid;
+            try {
+                pid = Integer.parseInt(e.getName());
+            } catch (final NumberFormatException ex) {
+                continue;
+            }
+            final ProcStat stat = ProcStat.read(pid);
+            if (stat != null) {
+                tree.add(pid, stat);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Adds a process to this snapshot.
+     */
+    void add(final int pid, final ProcStat stat) {
+        stats.put(pid, stat);
+        List<Integer> c = children.get(stat.getPpid());
+        if (c == null) {
+            c = new ArrayList<>(2);
+            children.put(stat.getPpid(), c);
+        }
+        c.add(pid);
+    }
+
+    /**
+     * Retrieves the direct children of the given process.
+     *
+     * @param pid
+     *          The PID of the parent.
+     * @return The PIDs of the children, may be empty.
+     */
+    public List<Integer> getChildren(final int pid) {
+        final List<Integer> c = children.get(pid);
+        return c != null ? Collections.unmodifiableList(c) : Collections.<Integer> emptyList();
+    }
+
+    /**
+     * Retrieves all descendants of the given process in breadth-first order, i.e., parents
+     * before their children.
+     *
+     * @param pid
+     *          The PID of the root process, which is not included.
+     * @return The PIDs of the descendants, may be empty.
+     */
+    public List<Integer> getDescendants(final int pid) {
+        final List<Integer> result = new ArrayList<>();
+        final Deque<Integer> queue = new ArrayDeque<>(getChildren(pid));
+        while (!queue.isEmpty()) {
+            final int p = queue.poll();
+            result.add(p);
+            queue.addAll(getChildren(p));
+        }
+        return result;
+    }
+
+    private List<Integer> getRunningDescendants(final int pid) {
+        final List<Integer> result = new ArrayList<>();
+        for (final int d : getDescendants(pid)) {
+            if (stats.get(d).isRunning()) {
+                result.add(d);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the status of the given process at snapshot time.
+     *
+     * @param pid
+     *          The PID.
+     * @return The status or {@code null} if the process is not part of the snapshot.
+     */
+    public ProcStat getStat(final int pid) {
+        return stats.get(pid);
+    }
+}
@@ -1,10 +1,18 @@
 package de.grinder.android_fi;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Utilities for controlling processes through operating system facilities.
@@ -13,18 +21,41 @@ import java.util.Arrays;
  * the Java and JVM version. <b>This class may stop working correctly if OS, Java version
  * or JVM are changed!</b>Currently, only support Unix processes, i.e., Unix/Linux
  * operating systems, are supported.
+ * <p>
+ * Process states are read from the {@code /proc} file system if it is available, which
+ * costs a single file read instead of forking {@code ps}. Signals {@link #SIG_TERM} and
+ * {@link #SIG_KILL} are sent through {@code java.lang.ProcessHandle} if the JVM provides
+ * it (Java 9 and later). Otherwise, the {@code ps} and {@code kill} commands are used.
  */
 public class ProcessUtils {
 
     private static final String UNIX_PROCESS_CLASS_NAME = "java.lang.UNIXProcess";
 
+    /** Whether process states can be read from {@code /proc}. */
+    private static final boolean PROC_FS = new File("/proc/self/stat").canRead();
+
+    /**
+     * {@code ProcessHandle.of(long)} or {@code null} if the JVM does not provide
+     * {@code java.lang.ProcessHandle}.
+     */
+    private static final Method PROCESS_HANDLE_OF = findProcessHandleOf();
+
+    /** {@code Process.pid()} or {@code null} if the JVM does not provide it. */
+    private static final Method PROCESS_PID = findProcessPid();
+
+    /** Maximum time in milliseconds to wait for a signaled process to terminate. */
+    private static final long KILL_WAIT = 1000;
+
     public static final int SIG_KILL = 9;
     public static final int SIG_TERM = 15;
+    public static final int SIG_CONT = 18;
+    public static final int SIG_STOP = 19;
 
     /**
      * Retrieves the PID of the OS process that is represented by the given Java
-     * {@link Process} object. Note that this method only works for UNIX processes and uses
-     * unsafe techniques that may stop working in the future.
+     * {@link Process} object. On Java 9 and later, the PID is retrieved with
+     * {@code Process.pid()}. On older JVMs, this method only works for UNIX processes and
+     * uses unsafe techniques.
      *
      * @param proc
      *          The Java Process object that represents a running OS process.
@@ -34,6 +65,14 @@ public class ProcessUtils {
      *           Java reflection issues.
      */
     public static int getPid(final Process proc) throws ProcUtilException {
+        if (PROCESS_PID != null) {
+            try {
+                return (int) (long) (Long) PROCESS_PID.invoke(proc);
+            } catch (final ReflectiveOperationException e) {
+                throw new ProcUtilException(String.format("Failed to retrieve PID of %s: %s",
+                                                          proc, e.getMessage()), e);
+            }
+        }
         final String procClassName = proc.getClass().getName();
 
         // are we dealing with a UNIX process? we only support UNIX here
@@ -53,6 +92,46 @@ public class ProcessUtils {
         }
     }
 
+    private static Method findProcessPid() {
+        try {
+            return Process.class.getMethod("pid");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Method findProcessHandleOf() {
+        try {
+            return Class.forName("java.lang.ProcessHandle").getMethod("of", long.class);
+        } catch (final ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the {@code java.lang.ProcessHandle} of the given PID.
+     *
+     * @return The process handle or {@code null} if there is no such process or the JVM
+     *         does not provide process handles.
+     */
+    private static Object getProcessHandle(final int pid) {
+        if (PROCESS_HANDLE_OF == null || pid <= 0) {
+            return null;
+        }
+        try {
+            // returns java.util.Optional<ProcessHandle>
+            final Object opt = PROCESS_HANDLE_OF.invoke(null, (long) pid);
+            // methods of the public types, the implementation classes are not accessible
+            final Class<?> optional = Class.forName("java.util.Optional");
+            if (!(Boolean) optional.getMethod("isPresent").invoke(opt)) {
+                return null;
+            }
+            return optional.getMethod("get").invoke(opt);
+        } catch (final ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     /**
      * Retrieves the output (stdout) of the process represented by the given {@link Process}
      * object. This method blocks until the process is about to terminate and returns the
@@ -106,9 +185,10 @@ public class ProcessUtils {
     /**
      * Retrieves the process name/command for a given PID from the OS.
      * <p>
-     * Note that this method invokes an external OS command and parses its output. This
-     * method may not work correctly on all platforms. On Unix-like platforms, the
-     * {@code ps} command is invoked.
+     * The command line is read from {@code /proc} if it is available. Otherwise, this
+     * method invokes an external OS command and parses its output, which may not work
+     * correctly on all platforms. On Unix-like platforms, the {@code ps} command is
+     * invoked.
      *
      * @param pid
      *          The PID to find the process name for.
@@ -118,6 +198,9 @@ public class ProcessUtils {
      *           read.
      */
     public static String getProcNameNull(final int pid) throws ProcUtilException {
+        if (PROC_FS) {
+            return getProcNameProc(pid);
+        }
         // Unix command: ps -o cmd --no-headers -p <pid>
         final Process p = startProcessPipe("ps", "-o", "cmd", "--no-headers", "-p",
                                            String.valueOf(pid));
@@ -137,14 +220,57 @@ public class ProcessUtils {
         return pOut.trim();
     }
 
+    /**
+     * Reads the command line of the given process from {@code /proc}, like {@code ps -o
+     * cmd}. Kernel threads and zombies, which have no command line, are named by their
+     * bracketed executable name.
+     */
+    private static String getProcNameProc(final int pid) throws ProcUtilException {
+        if (pid <= 0) {
+            return null;
+        }
+        final byte[] cmdline;
+        try {
+            cmdline = Files.readAllBytes(Paths.get("/proc", String.valueOf(pid), "cmdline"));
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            throw new ProcUtilException(String.format(
+                                            "Failed to retrieve process name for PID %d: %s", pid, e.getMessage()), e);
+        }
+        final String cmd = new String(cmdline, StandardCharsets.UTF_8).replace('\0', ' ')
+                           .trim();
+        if (!cmd.isEmpty()) {
+            return cmd;
+        }
+        final ProcStat stat = ProcStat.read(pid);
+        return stat != null ? String.format("[%s]", stat.getName()) : null;
+    }
+
+    /**
+     * Retrieves the start time of the process with the given PID. Together with the PID, the
+     * start time identifies a process across PID reuse, see
+     * {@link #isRunning(int, long)}.
+     *
+     * @param pid
+     *          The PID.
+     * @return The start time in clock ticks since system boot or {@code -1} if there is no
+     *         such process or {@code /proc} is not available.
+     */
+    public static long getStartTime(final int pid) {
+        final ProcStat stat = PROC_FS ? ProcStat.read(pid) : null;
+        return stat != null ? stat.getStartTime() : -1;
+    }
+
     /**
      * Checks whether a process with the given PID is running. Note that this method checks
      * the existence of the process in the system, it does not check process properties such
-     * as aliveness or similar.
+     * as aliveness or similar. Zombie processes, i.e., terminated processes that were not
+     * reaped by their parent yet, are not considered running if {@code /proc} is
+     * available.
      * <p>
-     * Note that this method invokes an external OS command and parses its output. This
-     * method may not work correctly on all platforms. On Unix-like platforms, the
-     * {@code ps} command is invoked.
+     * If {@code /proc} is not available, this method uses {@code java.lang.ProcessHandle} or
+     * invokes the external {@code ps} command and parses its output.
      *
      * @param pid
      *          The PID to check.
@@ -154,9 +280,39 @@ public class ProcessUtils {
      *           If something went wrong.
      */
     public static boolean isRunning(final int pid) throws ProcUtilException {
+        if (PROC_FS) {
+            final ProcStat stat = ProcStat.read(pid);
+            return stat != null && stat.isRunning();
+        }
+        if (PROCESS_HANDLE_OF != null) {
+            return getProcessHandle(pid) != null;
+        }
         return getProcNameNull(pid) != null;
     }
 
+    /**
+     * Checks whether the process with the given PID and start time is running, i.e., it
+     * also detects that the PID was reused by another process. If the start time is
+     * unknown, this method is equivalent to {@link #isRunning(int)}.
+     *
+     * @param pid
+     *          The PID to check.
+     * @param startTime
+     *          The start time as retrieved by {@link #getStartTime(int)} or {@code -1} if
+     *          unknown.
+     * @return {@code True} if the process is running, {@code false} otherwise.
+     * @throws ProcUtilException
+     *           If something went wrong.
+     */
+    public static boolean isRunning(final int pid, final long startTime)
+    throws ProcUtilException {
+        if (PROC_FS && startTime >= 0) {
+            final ProcStat stat = ProcStat.read(pid);
+            return stat != null && stat.isRunning() && stat.getStartTime() == startTime;
+        }
+        return isRunning(pid);
+    }
+
     /**
      * Checks whether the process represented by the given {@link Process} object is
      * running. This method does not invoke external commands. Note that this method checks
@@ -180,14 +336,10 @@ public class ProcessUtils {
      * Kill the process with the given PID using the TERM signal (graceful kill). This
      * method is almost the same as {@link ProcessUtilsTest#kill(int, int)}.
      * <p>
-     * Note that this method invokes an external OS command and parses its output. This
-     * method may not work correctly on all platforms. On Unix-like platforms, the
-     * {@code kill} and {@code ps} commands are invoked.
+     * See {@link #kill(int, int)} for the OS facilities that are used.
      *
      * @param pid
      *          The PID of the process to kill.
-     * @param signal
-     *          The signal to send.
      * @throws ProcUtilException
      *           If something with the external commands goes wrong.
      */
@@ -202,9 +354,11 @@ public class ProcessUtils {
      * does not exist (or has already terminated), the method considers the killing an
      * success and does not signal any error.
      * <p>
-     * Note that this method invokes an external OS command. This method may not work
-     * correctly on all platforms. On Unix-like platforms, the {@code kill} and {@code ps}
-     * commands are invoked.
+     * {@link #SIG_TERM} and {@link #SIG_KILL} are sent through
+     * {@code java.lang.ProcessHandle} if the JVM provides it, and the termination is
+     * checked with {@link #isRunning(int)}. Otherwise, this method invokes an external OS
+     * command, which may not work correctly on all platforms. On Unix-like platforms, the
+     * {@code kill} command is invoked.
      * <p>
      * Note that this method is not interruptible.
      *
@@ -217,6 +371,10 @@ public class ProcessUtils {
      *           killed.
      */
     public static void kill(final int pid, final int signal) throws ProcUtilException {
+        if ((signal == SIG_TERM || signal == SIG_KILL) && PROCESS_HANDLE_OF != null) {
+            killHandle(pid, signal);
+            return;
+        }
         // Unix command: kill -s <signal> <pid>
         final Process p = startProcessInhIo("kill", "-s", String.valueOf(signal),
                                             String.valueOf(pid));
@@ -240,6 +398,140 @@ public class ProcessUtils {
         }
     }
 
+    /**
+     * Sends the signal through {@code java.lang.ProcessHandle} and waits up to
+     * {@link #KILL_WAIT} ms for the process to terminate.
+     */
+    private static void killHandle(final int pid, final int signal) throws ProcUtilException {
+        if (signalHandle(pid, signal)) {
+            // signals are delivered asynchronously, callers expect the process to be gone
+            awaitTermination(pid, KILL_WAIT);
+        }
+    }
+
+    /**
+     * Sends {@link #SIG_TERM} or {@link #SIG_KILL} to the given process without waiting for
+     * its termination. The signal is sent through {@code java.lang.ProcessHandle} if
+     * available, otherwise the {@code kill} command is used.
+     *
+     * @param pid
+     *          The PID of the process.
+     * @param signal
+     *          The signal to send.
+     * @return {@code True} if the signal was sent, {@code false} if the process does not
+     *         exist (anymore).
+     * @throws ProcUtilException
+     *           If the signal could not be sent.
+     */
+    static boolean signal(final int pid, final int signal) throws ProcUtilException {
+        if (PROCESS_HANDLE_OF == null) {
+            if (!isRunning(pid)) {
+                return false;
+            }
+            kill(pid, signal);
+            return true;
+        }
+        return signalHandle(pid, signal);
+    }
+
+    /**
+     * Sends a signal to the given processes with a single {@code kill} command, e.g.,
+     * {@link #SIG_STOP}, which cannot be sent through {@code java.lang.ProcessHandle}.
+     * Processes that do not exist (anymore) are ignored. Note that this method is not
+     * interruptible.
+     *
+     * @param signal
+     *          The signal to send.
+     * @param pids
+     *          The PIDs of the processes.
+     * @throws ProcUtilException
+     *           If the {@code kill} command could not be started.
+     */
+    static void signalAll(final int signal, final List<Integer> pids)
+    throws ProcUtilException {
+        if (pids.isEmpty()) {
+            return;
+        }
+        // Unix command: kill -s <signal> <pid>...
+        final List<String> cmd = new ArrayList<>(pids.size() + 3);
+        cmd.add("kill");
+        cmd.add("-s");
+        cmd.add(String.valueOf(signal));
+        for (final int pid : pids) {
+            cmd.add(String.valueOf(pid));
+        }
+        final Process p = startProcessInhIo(cmd.toArray(new String[cmd.size()]));
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                // a non-zero exit code only indicates that some processes terminated already
+                p.waitFor();
+                break;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+                // ignore, killing is too important and usually quick to allow interrupting
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean signalHandle(final int pid, final int signal)
+    throws ProcUtilException {
+        final Object handle = getProcessHandle(pid);
+        if (handle == null) {
+            // not existing (anymore), considered a success
+            return false;
+        }
+        final boolean sent;
+        try {
+            final String method = signal == SIG_KILL ? "destroyForcibly" : "destroy";
+            sent = (Boolean) PROCESS_HANDLE_OF.getDeclaringClass().getMethod(method)
+                   .invoke(handle);
+        } catch (final ReflectiveOperationException e) {
+            throw new ProcUtilException(String.format(
+                                            "Failed to kill process with PID %d using signal %d: %s", pid, signal,
+                                            e.getMessage()), e);
+        }
+        if (!sent && isRunning(pid)) {
+            throw new ProcUtilException(String.format(
+                                            "Failed to kill process with PID %d using signal %d.", pid, signal));
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the given process terminated or the timeout expired. Note that this
+     * method is not interruptible.
+     *
+     * @param pid
+     *          The PID of the process.
+     * @param timeout
+     *          The timeout in milliseconds.
+     * @return {@code True} if the process terminated, {@code false} otherwise.
+     * @throws ProcUtilException
+     *           If the process state could not be checked.
+     */
+    static boolean awaitTermination(final int pid, final long timeout)
+    throws ProcUtilException {
+        final long deadline = System.nanoTime() + timeout * 1000000L;
+        boolean interrupted = false;
+        while (isRunning(pid) && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (final InterruptedException e) {
+                interrupted = true;
+                // ignore, killing is too important and usually quick to allow interrupting
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return !isRunning(pid);
+    }
+
     public static void kill(final Process proc) throws ProcUtilException {
         kill(getPid(proc));
     }
@@ -310,6 +602,90 @@ public class ProcessUtils {
         return startProcess(true, cmd);
     }
 
+    /**
+     * Selected fields of {@code /proc/<pid>/stat}.
+     */
+    public static class ProcStat {
+        private final String name;
+        private final int ppid;
+        private final long startTime;
+        private final char state;
+
+        ProcStat(final String name, final char state, final int ppid, final long startTime) {
+            this.name = name;
+            this.state = state;
+            this.ppid = ppid;
+            this.startTime = startTime;
+        }
+
+        /**
+         * Parses the content of a {@code /proc/<pid>/stat} file.
+         *
+         * @param stat
+         *          The file content.
+         * @return The parsed fields or {@code null} if the content is malformed.
+         */
+        static ProcStat parse(final String stat) {
+            // the executable name may contain spaces and parentheses
+            final int open = stat.indexOf('(');
+            final int close = stat.lastIndexOf(')');
+            if (open < 0 || close < open) {
+                return null;
+            }
+            // fields after the name start with field 3 (state), start time is field 22
+            final String[] fields = stat.substring(close + 1).trim().split(" ");
+            if (fields.length < 20 || fields[0].isEmpty()) {
+                return null;
+            }
+            try {
+                return new ProcStat(stat.substring(open + 1, close), fields[0].charAt(0),
+                                    Integer.parseInt(fields[1]), Long.parseLong(fields[19]));
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Reads the status of the given process.
+         *
+         * @return The status or {@code null} if there is no such process.
+         */
+        static ProcStat read(final int pid) {
+            if (pid <= 0) {
+                return null;
+            }
+            try {
+                return parse(new String(Files.readAllBytes(Paths.get("/proc", String.valueOf(pid),
+                                                           "stat")), StandardCharsets.UTF_8));
+            } catch (final IOException e) {
+                // process has terminated meanwhile
+                return null;
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPpid() {
+            return ppid;
+        }
+
+        /** @return The start time in clock ticks since system boot. */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public char getState() {
+            return state;
+        }
+
+        /** @return {@code False} for zombie and dead processes, {@code true} otherwise. */
+        public boolean isRunning() {
+            return state != 'Z' && state != 'X' && state != 'x';
+        }
+    }
+
     /**
      * Exception class for signaling {@link ProcessUtils} related errors.
      */
@@ -0,0 +1,152 @@
+package de.grinder.android_fi;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide event loop that drives the readiness futures of all emulators, see
+ * {@link EventFuture}.
+ * <p>
+ * Readiness conditions without a push notification, e.g., the device state or a running
+ * service, are polled by periodic probes, and deadlines are timers that fail the awaited
+ * future. Both run on a small shared pool instead of a dedicated thread per wait, and are
+ * removed from the pool as soon as the future is done, e.g., because it was cancelled.
+ * Probes should be short; a probe that blocks in a slow ADB call delays other probes.
+ * <p>
+ * The threads are daemon threads and are never shut down, since the loop is shared by all
+ * emulators for the lifetime of the process.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public final class ReadinessLoop {
+
+    private static ScheduledThreadPoolExecutor executor = null;
+
+    private ReadinessLoop() {
+    }
+
+    /**
+     * Fails the given future with a {@link TimeoutException} unless it is done within the
+     * given time.
+     *
+     * @param future
+     *          The future to limit.
+     * @param timeout
+     *          The maximum time to wait.
+     * @param unit
+     *          The unit of the timeout.
+     * @param what
+     *          Description of the awaited event for the failure message.
+     * @return The given future.
+     */
+    public static <V> EventFuture<V> deadline(final EventFuture<V> future, final long timeout,
+            final TimeUnit unit, final String what) {
+        final ScheduledFuture<?> timer = getExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.fail(new TimeoutException(String.format("%s not ready within %d ms",
+                                                 what, unit.toMillis(timeout))));
+            }
+        }, timeout, unit);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ScheduledThreadPoolExecutor(Math.max(2, Runtime.getRuntime()
+                       .availableProcessors() / 2), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, String.format("readiness-%d",
+                                                count.incrementAndGet()));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Polls the given probe until it reports readiness. The first probe runs immediately.
+     *
+     * @param probe
+     *          Returns {@code true} once the condition holds. If it throws, the returned
+     *          future fails with the thrown exception.
+     * @param periodMillis
+     *          Delay in milliseconds between the end of a probe and the next one.
+     * @return The future of the condition. Cancelling it stops the polling.
+     */
+    public static EventFuture<Void> poll(final Callable<Boolean> probe,
+                                         final long periodMillis) {
+        final EventFuture<Void> ready = new EventFuture<>();
+        final ScheduledFuture<?> poller = getExecutor().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (ready.isDone()) {
+                    return;
+                }
+                try {
+                    if (probe.call()) {
+                        ready.complete(null);
+                    }
+                } catch (final Exception e) {
+                    ready.fail(e);
+                }
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+        ready.addListener(new Runnable() {
+            @Override
+            public void run() {
+                poller.cancel(false);
+            }
+        });
+        return ready;
+    }
+
+    /**
+     * Creates a future of the termination of the given process.
+     *
+     * @param process
+     *          The process to observe.
+     * @param periodMillis
+     *          Delay in milliseconds between checks of the process.
+     * @return The future of the exit value. Cancelling it does not destroy the process.
+     */
+    public static EventFuture<Integer> processExit(final Process process,
+            final long periodMillis) {
+        final EventFuture<Integer> exit = new EventFuture<>();
+        final EventFuture<Void> exited = poll(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    exit.complete(process.exitValue());
+                    return true;
+                } catch (final IllegalThreadStateException e) {
+                    return false;
+                }
+            }
+        }, periodMillis);
+        exit.addListener(new Runnable() {
+            @Override
+            public void run() {
+                exited.cancel(false);
+            }
+        });
+        return exit;
+    }
+}
@@ -0,0 +1,419 @@
+package de.grinder.android_fi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodic sampler for the resource usage of one emulator process.
+ * <p>
+ * While an emulator is running, its CPU time, resident set size and storage I/O are read
+ * from {@code /proc/<pid>/{stat,status,io}} with a configurable period (see
+ * {@link ExperimentSettings#RESOURCE_SAMPLE_PERIOD}). The run queue wait time and the
+ * context switches are only accounted per thread, so they are summed up over the
+ * {@code schedstat} and {@code status} files of all threads in {@code /proc/<pid>/task},
+ * which include the vCPU threads of QEMU. The samples form a compact time series
+ * that is sent along with the accounting data of the run (see {@link #toCsv()}), e.g., for
+ * correlating hang assumptions with host contention. At most {@link #MAX_SAMPLES} samples
+ * are kept, older samples are dropped.
+ * <p>
+ * All samplers share one daemon thread, since reading the files takes only microseconds.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class ResourceSampler {
+
+    /** Maximum number of kept samples per run. */
+    static final int MAX_SAMPLES = 3600;
+
+    /** Clock ticks per second of the CPU times in {@code /proc/<pid>/stat}. */
+    private static final long USER_HZ = 100;
+
+    /** The shared sampling thread, created on first use. */
+    private static ScheduledExecutorService executor = null;
+
+    private final Logger LOGGER;
+
+    private int dropped = 0;
+
+    private int pid = 0;
+
+    private final Deque<Sample> samples = new ArrayDeque<>();
+
+    private long startNanos;
+
+    /** The periodic sampling task or {@code null} if not sampling. */
+    private ScheduledFuture<?> task = null;
+
+    /**
+     * Creates a sampler.
+     *
+     * @param logId
+     *          The log ID of the sampled emulator.
+     */
+    public ResourceSampler(final String logId) {
+        LOGGER = LoggerFactory.getLogger(String.format("%s<%s>", ResourceSampler.class
+                                         .getName(), logId));
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "resource-sampler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Reads a file from {@code /proc/<pid>}.
+     *
+     * @return The content or {@code null} if the file cannot be read, e.g., because the
+     *         process terminated or the kernel does not provide the file.
+     */
+    private static String readProcFile(final int pid, final String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get("/proc", String.valueOf(pid), name)),
+                              StandardCharsets.US_ASCII);
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a file of each thread of a process from {@code /proc/<pid>/task/<tid>}.
+     *
+     * @return The contents of the readable files, empty if the threads cannot be listed.
+     */
+    private static List<String> readTaskFiles(final int pid, final String name) {
+        final List<String> contents = new ArrayList<>();
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(Paths.get("/proc",
+                                           String.valueOf(pid), "task"))) {
+            for (final Path task : tasks) {
+                final String content = readProcFile(pid, "task/" + task.getFileName() + "/"
+                                                    + name);
+                if (content != null) {
+                    contents.add(content);
+                }
+            }
+        } catch (final IOException e) {
+            // the process terminated
+        }
+        return contents;
+    }
+
+    /**
+     * Retrieves the samples of the current or last run.
+     *
+     * @return The samples in chronological order.
+     */
+    public synchronized List<Sample> getSamples() {
+        return new ArrayList<>(samples);
+    }
+
+    /**
+     * @return {@code True} if the sampler is running.
+     */
+    public synchronized boolean isSampling() {
+        return task != null;
+    }
+
+    /**
+     * Takes one sample. Samples are skipped while the process is not readable.
+     */
+    synchronized void sample() {
+        final long timeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        final Sample s = Sample.read(pid, timeMs);
+        if (s == null) {
+            return;
+        }
+        if (samples.size() >= MAX_SAMPLES) {
+            samples.removeFirst();
+            if (dropped++ == 0) {
+                LOGGER.warn(String.format("More than %d resource samples, dropping oldest",
+                                          MAX_SAMPLES));
+            }
+        }
+        samples.addLast(s);
+    }
+
+    /**
+     * Stops sampling and discards all samples, e.g., when the emulator is restarted.
+     */
+    public synchronized void reset() {
+        stop();
+        samples.clear();
+        dropped = 0;
+    }
+
+    /**
+     * Starts sampling the given process. Samples of the previous run are discarded. A
+     * running sampler is stopped first.
+     *
+     * @param pid
+     *          The PID of the emulator process.
+     * @param periodMillis
+     *          The sampling period in milliseconds.
+     */
+    public synchronized void start(final int pid, final long periodMillis) {
+        reset();
+        this.pid = pid;
+        startNanos = System.nanoTime();
+        task = getExecutor().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+        LOGGER.debug(String.format("Sampling resources of PID %d every %d ms", pid,
+                                   periodMillis));
+    }
+
+    /**
+     * Stops sampling. The samples are kept until the next start.
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+            LOGGER.debug(String.format("Stopped resource sampling of PID %d after %d samples",
+                                       pid, samples.size() + dropped));
+        }
+    }
+
+    /**
+     * Formats the samples as CSV document with the header {@link Sample#CSV_HEADER} and one
+     * line per sample.
+     *
+     * @return The CSV document without trailing line terminator.
+     */
+    public synchronized String toCsv() {
+        final StringBuilder sb = new StringBuilder(Sample.CSV_HEADER);
+        for (final Sample s : samples) {
+            sb.append('\n').append(s.toCsvLine());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resource usage of a process at one point in time. Values that are not provided by the
+     * kernel are {@code -1}. All values except the RSS are cumulative since process start.
+     */
+    public static class Sample {
+
+        /** CSV header matching {@link #toCsvLine()}. */
+        public static final String CSV_HEADER = "time_ms,cpu_ms,wait_ms,rss_kb,read_bytes,"
+                + "write_bytes,voluntary_context_switches,involuntary_context_switches";
+
+        private final long cpuMs;
+        private final long involuntarySwitches;
+        private final long readBytes;
+        private final long rssKb;
+        private final long timeMs;
+        private final long voluntarySwitches;
+        private final long waitMs;
+        private final long writeBytes;
+
+        Sample(final long timeMs, final long cpuMs, final long waitMs, final long rssKb,
+               final long readBytes, final long writeBytes, final long voluntarySwitches,
+               final long involuntarySwitches) {
+            this.timeMs = timeMs;
+            this.cpuMs = cpuMs;
+            this.waitMs = waitMs;
+            this.rssKb = rssKb;
+            this.readBytes = readBytes;
+            this.writeBytes = writeBytes;
+            this.voluntarySwitches = voluntarySwitches;
+            this.involuntarySwitches = involuntarySwitches;
+        }
+
+        /**
+         * Retrieves the value of a {@code name: value} line, as used in
+         * {@code /proc/<pid>/status} and {@code /proc/<pid>/io}.
+         *
+         * @return The first number of the value or {@code -1} if there is no such line.
+         */
+        static long getField(final String content, final String name) {
+            if (content == null) {
+                return -1;
+            }
+            for (final String line : content.split("\n")) {
+                if (line.startsWith(name) && line.length() > name.length()
+                        && line.charAt(name.length()) == ':') {
+                    final String[] value = line.substring(name.length() + 1).trim().split("\\s+");
+                    try {
+                        return Long.parseLong(value[0]);
+                    } catch (final NumberFormatException e) {
+                        return -1;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Sums up a field of the given {@code /proc/<pid>/task/<tid>/status} contents.
+         *
+         * @return The sum or {@code -1} if no content has the field.
+         */
+        private static long sumFields(final List<String> contents, final String name) {
+            long sum = -1;
+            for (final String content : contents) {
+                final long value = getField(content, name);
+                if (value >= 0) {
+                    sum = Math.max(sum, 0) + value;
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Sums up the run queue wait times of the given
+         * {@code /proc/<pid>/task/<tid>/schedstat} contents.
+         *
+         * @return The sum in milliseconds or {@code -1} if no content is valid.
+         */
+        private static long sumWaitMs(final List<String> schedstats) {
+            long sumNanos = -1;
+            for (final String schedstat : schedstats) {
+                // time on CPU, time waiting on a run queue in nanoseconds, time slices
+                final String[] sched = schedstat.trim().split(" ");
+                if (sched.length >= 2) {
+                    try {
+                        sumNanos = Math.max(sumNanos, 0) + Long.parseLong(sched[1]);
+                    } catch (final NumberFormatException e) {
+                        // skip the thread
+                    }
+                }
+            }
+            return sumNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(sumNanos);
+        }
+
+        /**
+         * Builds a sample from the contents of the process files. The CPU time is taken
+         * from {@code stat}, which covers all threads of the process, including terminated
+         * ones. The wait time and the context switches are summed up over the given thread
+         * files.
+         *
+         * @param timeMs
+         *          The sample time in milliseconds since sampling start.
+         * @param stat
+         *          Content of {@code /proc/<pid>/stat}.
+         * @param status
+         *          Content of {@code /proc/<pid>/status} or {@code null}.
+         * @param io
+         *          Content of {@code /proc/<pid>/io} or {@code null}.
+         * @param taskSchedstats
+         *          Contents of {@code /proc/<pid>/task/<tid>/schedstat} of all threads.
+         * @param taskStatuses
+         *          Contents of {@code /proc/<pid>/task/<tid>/status} of all threads.
+         * @return The sample or {@code null} if the stat content is malformed.
+         */
+        static Sample parse(final long timeMs, final String stat, final String status,
+                            final String io, final List<String> taskSchedstats,
+                            final List<String> taskStatuses) {
+            final int close = stat.lastIndexOf(')');
+            if (close < 0) {
+                return null;
+            }
+            // fields after the name start with field 3 (state), utime and stime are 14 and 15
+            final String[] fields = stat.substring(close + 1).trim().split(" ");
+            if (fields.length < 13) {
+                return null;
+            }
+            final long cpuMs;
+            try {
+                cpuMs = (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) * 1000 / USER_HZ;
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+            return new Sample(timeMs, cpuMs, sumWaitMs(taskSchedstats), getField(status,
+                              "VmRSS"), getField(io, "read_bytes"), getField(io, "write_bytes"),
+                              sumFields(taskStatuses, "voluntary_ctxt_switches"),
+                              sumFields(taskStatuses, "nonvoluntary_ctxt_switches"));
+        }
+
+        /**
+         * Samples the given process.
+         *
+         * @param pid
+         *          The PID of the process.
+         * @param timeMs
+         *          The sample time in milliseconds since sampling start.
+         * @return The sample or {@code null} if there is no such process.
+         */
+        static Sample read(final int pid, final long timeMs) {
+            final String stat = pid > 0 ? readProcFile(pid, "stat") : null;
+            if (stat == null) {
+                return null;
+            }
+            return parse(timeMs, stat, readProcFile(pid, "status"), readProcFile(pid, "io"),
+                         readTaskFiles(pid, "schedstat"), readTaskFiles(pid, "status"));
+        }
+
+        /** @return The CPU time in milliseconds. */
+        public long getCpuMs() {
+            return cpuMs;
+        }
+
+        public long getInvoluntarySwitches() {
+            return involuntarySwitches;
+        }
+
+        public long getReadBytes() {
+            return readBytes;
+        }
+
+        /** @return The resident set size in kB. */
+        public long getRssKb() {
+            return rssKb;
+        }
+
+        /** @return The sample time in milliseconds since sampling start. */
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        public long getVoluntarySwitches() {
+            return voluntarySwitches;
+        }
+
+        /** @return The time the threads spent waiting on a run queue in milliseconds. */
+        public long getWaitMs() {
+            return waitMs;
+        }
+
+        public long getWriteBytes() {
+            return writeBytes;
+        }
+
+        /**
+         * @return The sample as CSV line without line terminator, see {@link #CSV_HEADER}.
+         */
+        public String toCsvLine() {
+            return String.format("%d,%d,%d,%d,%d,%d,%d,%d", timeMs, cpuMs, waitMs, rssKb,
+                                 readBytes, writeBytes, voluntarySwitches, involuntarySwitches);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 
 import de.grinder.android_fi.AndroidDebuggingBridge;
 import de.grinder.android_fi.AndroidDebuggingBridge.AdbException;
+import de.grinder.android_fi.DeviceSetupScript;
 import de.grinder.android_fi.ExperimentSettings;
 
 public class CandeInterface {
@@ -21,6 +22,17 @@ public class CandeInterface {
         this.settings = settings;
     }
 
+    /**
+     * Retrieves the shell command that loads the heavy detector and starts the light
+     * detector in the background, e.g., for a {@link DeviceSetupScript} step.
+     *
+     * @return The shell command.
+     */
+    public String getStartCommand() {
+        return String.format("insmod %s && { PATH=%s:$PATH %s & }",
+                             settings.AVD_CANDE_HEAVY_LKM, settings.AVD_BIN_DIR, settings.AVD_CANDE_LIGHT);
+    }
+
     public void startCande() {
         try {
             LOGGER.info("Loading Cande Heavy-Detector");
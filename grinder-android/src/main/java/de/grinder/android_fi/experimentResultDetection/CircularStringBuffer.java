@@ -1,10 +1,19 @@
 package de.grinder.android_fi.experimentResultDetection;
 
-import java.util.Arrays;
-
 /**
- *
- *
+ * Fixed size character ring buffer that retains the most recently appended characters.
+ * <p>
+ * Characters are addressed by their absolute position, i.e., the number of characters
+ * appended to the buffer before them. Positions grow monotonically for the lifetime of
+ * the buffer and are not reset by {@link #clear()}. The buffer retains the characters
+ * from {@link #getStart()} (inclusive) to {@link #getEnd()} (exclusive). This allows
+ * readers to remember a position and to process only data that was appended afterwards
+ * (see {@link #viewSince(long)} and {@link MultiPatternMatcher.Cursor}).
+ * <p>
+ * Views returned by {@link #view()} and {@link #viewSince(long)} do not copy the buffer
+ * content. They cover a fixed range of absolute positions and read the characters from
+ * the buffer on access. Reading a character of a view that has been overwritten in the
+ * meantime throws an {@link IndexOutOfBoundsException}.
  * <p>
  * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
  * threads.
@@ -12,71 +21,227 @@ import java.util.Arrays;
 public class CircularStringBuffer {
     private final char[] buffer;
     private final int bufferSize;
-    private int currentBufferPos = 0;
+    /** Absolute position of the first retained character. */
+    private long start = 0;
+    /** Absolute position after the last appended character. */
+    private long end = 0;
 
     public CircularStringBuffer(final int size) {
         bufferSize = size;
         buffer = new char[size];
     }
 
-    private void append(final String value) {
-        for (int i = 0; i < value.length(); i++) {
-            buffer[i + currentBufferPos] = value.charAt(i);
-        }
-        currentBufferPos += value.length();
-    }
-
-    private void insertInto(final int index, final String value, final int offset,
-                            final int length) {
-        for (int i = 0; i < length; i++) {
-            buffer[index + i] = value.charAt(offset + i);
+    /**
+     * Retrieves the character at the given absolute position.
+     *
+     * @param pos
+     *          The absolute position.
+     * @return The character at the position.
+     * @throws IndexOutOfBoundsException
+     *           If the position is not retained (anymore).
+     */
+    public synchronized char charAt(final long pos) {
+        if (pos < start || pos >= end) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Position %d not in retained range [%d, %d)", pos, start, end));
         }
+        return buffer[(int) (pos % bufferSize)];
     }
 
+    /**
+     * Discards the retained content. Positions are not reset.
+     */
     public synchronized void clear() {
-        currentBufferPos = 0;
-        Arrays.fill(buffer, '\0');
+        start = end;
     }
 
+    /**
+     * Checks whether the retained content contains the given string.
+     *
+     * @param match
+     *          The string to search.
+     * @return {@code True} if the string is contained, {@code false} otherwise.
+     */
     public synchronized boolean contains(final String match) {
-        int matchPointer = 0;
-
-        // care for possible match beginning at the end of the buffer and
-        // continuing at it's beginning
-        for (int i = 0; i < bufferSize + match.length(); i++) {
-            if (buffer[i % bufferSize] == match.charAt(matchPointer)) {
-                matchPointer++;
-            } else {
-                matchPointer = 0;
-            }
+        return indexOf(match, start) >= 0;
+    }
+
+    /**
+     * Retrieves the absolute position after the last appended character.
+     *
+     * @return The end position.
+     */
+    public synchronized long getEnd() {
+        return end;
+    }
+
+    /**
+     * Retrieves the absolute position of the first retained character.
+     *
+     * @return The start position.
+     */
+    public synchronized long getStart() {
+        return start;
+    }
 
-            if (matchPointer == match.length()) {
-                return true;
+    /**
+     * Searches the given string in the retained content beginning at the given absolute
+     * position.
+     *
+     * @param match
+     *          The string to search.
+     * @param from
+     *          The absolute position to start searching at.
+     * @return The absolute position of the first occurrence or {@code -1} if the string is
+     *         not contained.
+     */
+    public synchronized long indexOf(final String match, final long from) {
+        final long last = end - match.length();
+        for (long pos = Math.max(from, start); pos <= last; pos++) {
+            int i = 0;
+            while (i < match.length() && buffer[(int) ((pos + i) % bufferSize)] == match
+                    .charAt(i)) {
+                i++;
+            }
+            if (i == match.length()) {
+                return pos;
             }
         }
+        return -1;
+    }
 
-        return false;
+    /**
+     * Retrieves the retained part of the line that contains the given absolute position,
+     * without line terminator.
+     *
+     * @param pos
+     *          The absolute position.
+     * @return The line or {@code null} if the position is not retained.
+     */
+    public synchronized String lineAround(final long pos) {
+        if (pos < start || pos >= end) {
+            return null;
+        }
+        long lineStart = pos;
+        while (lineStart > start && buffer[(int) ((lineStart - 1) % bufferSize)] != '\n') {
+            lineStart--;
+        }
+        long lineEnd = pos;
+        while (lineEnd < end && buffer[(int) (lineEnd % bufferSize)] != '\n') {
+            lineEnd++;
+        }
+        return substring(lineStart, lineEnd);
+    }
+
+    /**
+     * Retrieves the number of retained characters.
+     *
+     * @return The number of retained characters.
+     */
+    public synchronized int length() {
+        return (int) (end - start);
     }
 
     public synchronized void put(final String value) {
         final int valueSize = value.length();
+        // only the tail of values that exceed the buffer size is retained
+        final int offset = Math.max(0, valueSize - bufferSize);
+        int idx = (int) ((end + offset) % bufferSize);
+        for (int i = offset; i < valueSize; i++) {
+            buffer[idx] = value.charAt(i);
+            if (++idx == bufferSize) {
+                idx = 0;
+            }
+        }
+        end += valueSize;
+        start = Math.max(start, end - bufferSize);
+    }
 
-        if (currentBufferPos + valueSize <= bufferSize) {
-            append(value);
-        } else {
-            final int left = bufferSize - currentBufferPos;
-            final int overhead = valueSize - left;
-            insertInto(currentBufferPos, value, 0, left);
-            insertInto(0, value, left, overhead);
-            currentBufferPos = overhead;
+    private String substring(final long from, final long to) {
+        final StringBuilder sb = new StringBuilder((int) (to - from));
+        for (long pos = from; pos < to; pos++) {
+            sb.append(buffer[(int) (pos % bufferSize)]);
         }
+        return sb.toString();
     }
 
     @Override
     public synchronized String toString() {
-        final StringBuilder sb = new StringBuilder(bufferSize);
-        sb.append(buffer, currentBufferPos, bufferSize - currentBufferPos);
-        sb.append(buffer, 0, currentBufferPos);
-        return sb.toString();
+        return substring(start, end);
+    }
+
+    /**
+     * Retrieves a view of the currently retained content.
+     *
+     * @return The view.
+     */
+    public synchronized CharSequence view() {
+        return new View(start, end);
+    }
+
+    /**
+     * Retrieves a view of the content that was appended at or after the given absolute
+     * position and is still retained.
+     *
+     * @param pos
+     *          The absolute position.
+     * @return The view, which may be empty.
+     */
+    public synchronized CharSequence viewSince(final long pos) {
+        return new View(Math.min(Math.max(pos, start), end), end);
+    }
+
+    /**
+     * Zero-copy view of a range of absolute positions of the buffer.
+     */
+    public class View implements CharSequence {
+        private final long from;
+        private final long to;
+
+        private View(final long from, final long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return CircularStringBuffer.this.charAt(from + index);
+        }
+
+        /**
+         * Retrieves the absolute buffer position of the first character of this view.
+         *
+         * @return The absolute position.
+         */
+        public long getPosition() {
+            return from;
+        }
+
+        @Override
+        public int length() {
+            return (int) (to - from);
+        }
+
+        @Override
+        public CharSequence subSequence(final int startIdx, final int endIdx) {
+            if (startIdx < 0 || endIdx > length() || startIdx > endIdx) {
+                throw new IndexOutOfBoundsException(String.format("[%d, %d)", startIdx, endIdx));
+            }
+            return new View(from + startIdx, from + endIdx);
+        }
+
+        @Override
+        public String toString() {
+            synchronized (CircularStringBuffer.this) {
+                if (from < start) {
+                    throw new IndexOutOfBoundsException(String.format(
+                            "View start %d overwritten, retained start is %d", from, start));
+                }
+                return substring(from, to);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,264 @@
+package de.grinder.android_fi.experimentResultDetection;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Classifier for emulator console lines that are relevant for the experiment result.
+ * <p>
+ * The classifier is registered as {@link LineListener} with the console
+ * {@link InputStreamCapturer} and consumes each console line exactly once as it arrives.
+ * All known markers are searched in a single pass per line (see
+ * {@link MultiPatternMatcher}) and found markers are turned into typed
+ * {@link ConsoleEvent}s. Events are dispatched synchronously to the registered
+ * {@link ConsoleEventListener}s on the capturing thread, i.e., listeners must not block.
+ * <p>
+ * The first event of each type is kept until {@link #reset()} is called, so that
+ * detectors which are started after an event occurred still see it. Only the first kernel
+ * panic line is classified, since it decides whether the panic was caused by the hang
+ * detector ({@link EventType#HANG_PANIC}) or not ({@link EventType#KERNEL_PANIC}). A
+ * {@link EventType#MUTATION_STIMULATED} event is emitted once per distinct mutation.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class ConsoleClassifier implements LineListener {
+
+    /** Console output of the activity manager if the workload is not installed. */
+    static final String ACTIVITY_MISSING_LINE = "Error: Activity class "
+            + "{de.grinder.android_fi/de.grinder.android_fi.Workload} does not exist.";
+
+    private static final MultiPatternMatcher MARKERS = new MultiPatternMatcher(
+        "Kernel panic", "Hang detected", "qemu: fatal:", "Internal error: Oops:",
+        ACTIVITY_MISSING_LINE, "-fault injection (");
+    private static final int MARKER_KERNEL_PANIC = 0;
+    private static final int MARKER_HANG_DETECTED = 1;
+    private static final int MARKER_QEMU_FATAL = 2;
+    private static final int MARKER_OOPS = 3;
+    private static final int MARKER_ACTIVITY_MISSING = 4;
+    private static final int MARKER_FAULT_INJECTION = 5;
+
+    /** Kernel log line of an instrumented module that reached an injected fault. */
+    private static final Pattern MUTANT_PRINTK = Pattern
+            .compile("^(.+)-fault injection (\\(.*\\))$");
+
+    private final Map<EventType, ConsoleEvent> firstEvents = new EnumMap<>(EventType.class);
+
+    private final List<ConsoleEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Logger LOGGER;
+
+    private final Set<String> seenMutations = new TreeSet<>();
+
+    public ConsoleClassifier(final String logId) {
+        LOGGER = LoggerFactory.getLogger(String.format("%s<%s>",
+                                         ConsoleClassifier.class.getName(), logId));
+    }
+
+    public void addListener(final ConsoleEventListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Classifies the given line.
+     *
+     * @param line
+     *          The console line.
+     * @return The events of the line that were not seen before, may be empty.
+     */
+    private synchronized List<ConsoleEvent> classify(final String line) {
+        final List<ConsoleEvent> events = new ArrayList<>(1);
+        boolean panic = false;
+        boolean hang = false;
+        boolean faultInjection = false;
+        for (final MultiPatternMatcher.Match m : MARKERS.findAll(line)) {
+            switch (m.getPattern()) {
+            case MARKER_KERNEL_PANIC:
+                panic = true;
+                break;
+            case MARKER_HANG_DETECTED:
+                hang = true;
+                break;
+            case MARKER_QEMU_FATAL:
+                addFirst(events, new ConsoleEvent(EventType.QEMU_FATAL, line, null));
+                break;
+            case MARKER_OOPS:
+                addFirst(events, new ConsoleEvent(EventType.OOPS, line, null));
+                break;
+            case MARKER_ACTIVITY_MISSING:
+                addFirst(events, new ConsoleEvent(EventType.ACTIVITY_MISSING, line, null));
+                break;
+            case MARKER_FAULT_INJECTION:
+                faultInjection = true;
+                break;
+            default:
+                break;
+            }
+        }
+        if (panic && getFirstPanic() == null) {
+            addFirst(events, new ConsoleEvent(hang ? EventType.HANG_PANIC
+                                              : EventType.KERNEL_PANIC, line, null));
+        }
+        if (faultInjection) {
+            final Matcher match = MUTANT_PRINTK.matcher(line);
+            if (match.matches()) {
+                final String fault = match.group(2);
+                if (seenMutations.add(fault)) {
+                    final ConsoleEvent e = new ConsoleEvent(EventType.MUTATION_STIMULATED,
+                                                            line, fault);
+                    if (!firstEvents.containsKey(EventType.MUTATION_STIMULATED)) {
+                        firstEvents.put(EventType.MUTATION_STIMULATED, e);
+                    }
+                    events.add(e);
+                } else {
+                    LOGGER.debug(String.format("Saw mutation '%s' again.", fault));
+                }
+            }
+        }
+        return events;
+    }
+
+    private void addFirst(final List<ConsoleEvent> events, final ConsoleEvent event) {
+        if (!firstEvents.containsKey(event.getType())) {
+            firstEvents.put(event.getType(), event);
+            events.add(event);
+        }
+    }
+
+    /**
+     * Retrieves the first event of the given type since the last reset.
+     *
+     * @param type
+     *          The event type.
+     * @return The first event or {@code null} if no such event was seen.
+     */
+    public synchronized ConsoleEvent getFirst(final EventType type) {
+        return firstEvents.get(type);
+    }
+
+    /**
+     * Retrieves the first kernel panic event since the last reset, i.e., either a
+     * {@link EventType#KERNEL_PANIC} or a {@link EventType#HANG_PANIC} event.
+     *
+     * @return The first panic event or {@code null} if no panic was seen.
+     */
+    public synchronized ConsoleEvent getFirstPanic() {
+        final ConsoleEvent e = firstEvents.get(EventType.KERNEL_PANIC);
+        return e != null ? e : firstEvents.get(EventType.HANG_PANIC);
+    }
+
+    /**
+     * Retrieves the distinct mutations that were stimulated since the last reset.
+     *
+     * @return The sorted mutation identifiers.
+     */
+    public synchronized List<String> getStimulatedMutations() {
+        return new ArrayList<>(seenMutations);
+    }
+
+    public synchronized boolean hasSeen(final EventType type) {
+        return firstEvents.containsKey(type);
+    }
+
+    @Override
+    public boolean onLine(final String line) {
+        for (final ConsoleEvent e : classify(line)) {
+            LOGGER.debug("Console event: {}", e);
+            for (final ConsoleEventListener l : listeners) {
+                l.onConsoleEvent(e);
+            }
+        }
+        return true;
+    }
+
+    public void removeListener(final ConsoleEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Forgets all events and stimulated mutations, e.g., before a new experiment run.
+     */
+    public synchronized void reset() {
+        firstEvents.clear();
+        seenMutations.clear();
+    }
+
+    /**
+     * A classified console line.
+     */
+    public static class ConsoleEvent {
+        private final String detail;
+        private final String line;
+        private final EventType type;
+
+        ConsoleEvent(final EventType type, final String line, final String detail) {
+            this.type = type;
+            this.line = line;
+            this.detail = detail;
+        }
+
+        /**
+         * @return Event specific detail, i.e., the mutation identifier for
+         *         {@link EventType#MUTATION_STIMULATED} events, {@code null} otherwise.
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        /** @return The console line that caused the event. */
+        public String getLine() {
+            return line;
+        }
+
+        public EventType getType() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%s: %s", type, detail != null ? " " + detail : "", line);
+        }
+    }
+
+    /**
+     * Listener for {@link ConsoleEvent}s.
+     */
+    public interface ConsoleEventListener {
+
+        /**
+         * Invoked on the capturing thread for each new event. Must not block.
+         *
+         * @param event
+         *          The event.
+         */
+        void onConsoleEvent(ConsoleEvent event);
+    }
+
+    /**
+     * Types of classified console lines.
+     */
+    public enum EventType {
+        /** Kernel panic that was not caused by the hang detector. */
+        KERNEL_PANIC,
+        /** Kernel panic that was caused by the hang detector. */
+        HANG_PANIC,
+        /** Kernel oops. */
+        OOPS,
+        /** Fatal error of the emulator. */
+        QEMU_FATAL,
+        /** The workload activity is not installed. */
+        ACTIVITY_MISSING,
+        /** An instrumented module reached an injected fault. */
+        MUTATION_STIMULATED
+    }
+}
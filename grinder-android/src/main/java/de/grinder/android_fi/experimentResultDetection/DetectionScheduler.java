@@ -0,0 +1,248 @@
+package de.grinder.android_fi.experimentResultDetection;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.grinder.android_fi.ExperimentSettings;
+
+/**
+ * Process-wide, bounded scheduler for the detector tasks of all emulators.
+ * <p>
+ * Detector tasks are scheduled through {@link TaskGroup}s, typically one per emulator.
+ * A group limits the number of its tasks that run concurrently, so that an emulator whose
+ * tasks block in slow ADB calls cannot occupy all threads of the scheduler. A run that
+ * would exceed the limit is deferred by {@link #DEFER_DELAY} milliseconds until the group
+ * has room for it. The period of a periodic task is not shifted by a deferred run, and
+ * its runs that are due while a deferred run is pending are skipped, so that the task
+ * never runs concurrently with itself. {@link TaskGroup#cancelAll()} cancels all tasks of
+ * the group, including deferred runs, without affecting other groups.
+ * <p>
+ * The threads are daemon threads and are never shut down, since the scheduler is shared by
+ * all targets for the lifetime of the process.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class DetectionScheduler {
+
+    /** Delay in milliseconds after which a deferred run is retried. */
+    public static final long DEFER_DELAY = 100;
+
+    private static DetectionScheduler instance = null;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final int groupLimit;
+
+    /**
+     * Creates a scheduler. Targets share the scheduler that is retrieved with
+     * {@link #forSettings(ExperimentSettings)} instead.
+     *
+     * @param threads
+     *          The number of scheduler threads.
+     * @param groupLimit
+     *          The maximum number of concurrently running tasks per group.
+     */
+    public DetectionScheduler(final int threads, final int groupLimit) {
+        if (threads < 1 || groupLimit < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid detection scheduler bounds: %d threads, group limit %d", threads,
+                    groupLimit));
+        }
+        this.groupLimit = groupLimit;
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, String.format("detector-%d",
+                                            threadCount.incrementAndGet()));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Retrieves the shared scheduler, which is created with the bounds of the given
+     * settings on first use.
+     *
+     * @param settings
+     *          The experiment settings.
+     * @return The shared scheduler.
+     */
+    public static synchronized DetectionScheduler forSettings(final ExperimentSettings settings) {
+        if (instance == null) {
+            final int threads = settings.DETECTION_THREADS > 0 ? (int) settings.DETECTION_THREADS
+                                : 2 * Runtime.getRuntime().availableProcessors();
+            instance = new DetectionScheduler(threads, (int) settings.DETECTION_GROUP_LIMIT);
+        }
+        return instance;
+    }
+
+    public int getGroupLimit() {
+        return groupLimit;
+    }
+
+    public int getThreads() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Creates a new task group.
+     *
+     * @param name
+     *          The group name, e.g., the log ID of the emulator.
+     * @return The new group.
+     */
+    public TaskGroup newGroup(final String name) {
+        return new TaskGroup(name);
+    }
+
+    /**
+     * Tasks of one emulator that are limited and cancelled together.
+     */
+    public class TaskGroup {
+        /** Incremented on {@link #cancelAll()}, tasks of older generations do not run. */
+        private final AtomicInteger generation = new AtomicInteger();
+        private final String name;
+        private final AtomicInteger running = new AtomicInteger();
+
+        private TaskGroup(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Cancels all tasks that were scheduled in this group so far. Tasks that are
+         * currently running are not interrupted, but periodic tasks do not run again. Tasks
+         * that are scheduled afterwards are not affected.
+         */
+        public void cancelAll() {
+            generation.incrementAndGet();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The number of currently running tasks of this group.
+         */
+        public int getRunning() {
+            return running.get();
+        }
+
+        /**
+         * Schedules a one-shot task, see
+         * {@link java.util.concurrent.ScheduledExecutorService#schedule(Runnable, long, TimeUnit)}.
+         */
+        public ScheduledFuture<?> schedule(final Runnable task, final long delay,
+                                           final TimeUnit unit) {
+            return executor.schedule(new GroupTask(task, false), delay, unit);
+        }
+
+        /**
+         * Schedules a periodic task, see
+         * {@link java.util.concurrent.ScheduledExecutorService#scheduleWithFixedDelay(Runnable, long, long, TimeUnit)}.
+         */
+        public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable task,
+                final long initialDelay, final long delay, final TimeUnit unit) {
+            final GroupTask groupTask = new GroupTask(task, true);
+            groupTask.future = executor.scheduleWithFixedDelay(groupTask, initialDelay, delay,
+                               unit);
+            return groupTask.future;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("TaskGroup[%s, %d running]", name, running.get());
+        }
+
+        /**
+         * Wrapper that enforces the group limit and cancellation.
+         */
+        private class GroupTask implements Runnable {
+            /** Flag for a pending deferred run of a periodic task. */
+            private final AtomicBoolean deferred = new AtomicBoolean(false);
+            /** The future of a periodic task, its cancellation also drops deferred runs. */
+            private volatile ScheduledFuture<?> future = null;
+            private final int gen = generation.get();
+            private final boolean periodic;
+            private final Runnable task;
+
+            GroupTask(final Runnable task, final boolean periodic) {
+                this.task = task;
+                this.periodic = periodic;
+            }
+
+            @Override
+            public void run() {
+                if (gen != generation.get()) {
+                    if (periodic) {
+                        // ends the periodic execution
+                        throw new GroupCancelledException();
+                    }
+                    return;
+                }
+                if (!periodic) {
+                    if (!tryRun()) {
+                        executor.schedule(this, DEFER_DELAY, TimeUnit.MILLISECONDS);
+                    }
+                } else if (!deferred.get() && !tryRun() && deferred.compareAndSet(false, true)) {
+                    executor.schedule(new DeferredRun(), DEFER_DELAY, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            /**
+             * Runs the task unless the group limit is reached.
+             *
+             * @return True if the task was run, false if the run has to be deferred.
+             */
+            private boolean tryRun() {
+                if (running.incrementAndGet() > groupLimit) {
+                    running.decrementAndGet();
+                    return false;
+                }
+                try {
+                    task.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+                return true;
+            }
+
+            /**
+             * Deferred run of a periodic task that was due while the group limit was reached.
+             */
+            private class DeferredRun implements Runnable {
+                @Override
+                public void run() {
+                    boolean retry = false;
+                    try {
+                        if (gen == generation.get()
+                                && (future == null || !future.isCancelled())) {
+                            retry = !tryRun();
+                        }
+                    } finally {
+                        if (retry) {
+                            executor.schedule(this, DEFER_DELAY, TimeUnit.MILLISECONDS);
+                        } else {
+                            deferred.set(false);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends periodic tasks of cancelled groups.
+     */
+    private static class GroupCancelledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
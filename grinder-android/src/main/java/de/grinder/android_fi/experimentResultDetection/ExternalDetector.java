@@ -1,22 +1,11 @@
 package de.grinder.android_fi.experimentResultDetection;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
-import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,23 +14,39 @@ import de.grinder.android_fi.AndroidDebuggingBridge;
 import de.grinder.android_fi.AndroidDebuggingBridge.AdbException;
 import de.grinder.android_fi.Emulator;
 import de.grinder.android_fi.ExperimentSettings;
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier.ConsoleEvent;
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier.ConsoleEventListener;
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier.EventType;
+import de.grinder.android_fi.experimentResultDetection.WorkloadEventServer.WorkloadEvent;
+import de.grinder.android_fi.experimentResultDetection.WorkloadEventServer.WorkloadEventListener;
 import de.grinder.util.message.Proxy;
 
 public class ExternalDetector {
 
     private final AndroidDebuggingBridge adb;
-    private final InputStreamCapturer consoleOutput;
+    /** Flag for dispatching console events to the application detectors. */
+    private volatile boolean applicationDetectorsActive = false;
+    private final ConsoleClassifier classifier;
     private final List<ScheduledFuture<?>> detectors;
     private final Emulator emulator;
+    private final WorkloadFlagProbe flagProbe = new WorkloadFlagProbe();
     // private ScheduledFuture<?> applicationInstallationFailureDetector;
     /** Flag for preventing detector starts after a stop call was issued. */
     private volatile boolean isArmed = false;
     private final Logger LOGGER;
-    private MutationStimulatedDetector mutationDetector = null;
     private final Proxy proxy;
-    private final ScheduledExecutorService scheduler;
+    /** Flag for signaling at most one result per run, detectors may run concurrently. */
+    private final AtomicBoolean resultSignaled = new AtomicBoolean(false);
+    /** Detector tasks of this emulator in the shared detection scheduler. */
+    private final DetectionScheduler.TaskGroup scheduler;
     private final ExperimentSettings settings;
     private ScheduledFuture<?> sysinitDetector = null;
+    /** Flag for dispatching console events to the system detectors. */
+    private volatile boolean systemDetectorsActive = false;
+    /** Server for pushed workload events or {@code null} if disabled. */
+    private final WorkloadEventServer workloadEvents;
+    /** The pushed workload end event of the current run or {@code null}. */
+    private volatile WorkloadEvent workloadResult = null;
 
     /**
      * Checks target device for experiment results and signals them to the targetController
@@ -59,9 +64,39 @@ public class ExternalDetector {
         this.adb = emu.getAdb();
         this.settings = settings;
         this.proxy = proxy;
-        scheduler = Executors.newScheduledThreadPool(6);
-        consoleOutput = consoleCapturer;
+        scheduler = DetectionScheduler.forSettings(settings).newGroup(logId);
         detectors = new ArrayList<ScheduledFuture<?>>(8);
+        classifier = new ConsoleClassifier(logId);
+        classifier.addListener(new ConsoleEventDispatcher());
+        consoleCapturer.addLineListener(classifier);
+        if (settings.WORKLOAD_NOTIFY_PORT > 0) {
+            workloadEvents = new WorkloadEventServer(settings.WORKLOAD_NOTIFY_PORT
+                    + emu.getConfig().getId(), logId);
+            workloadEvents.addListener(new WorkloadEventDispatcher());
+        } else {
+            workloadEvents = null;
+        }
+    }
+
+    /**
+     * Stops accepting pushed workload events. Must be called when the detector is not used
+     * anymore.
+     */
+    public void close() {
+        if (workloadEvents != null) {
+            workloadEvents.close();
+        }
+    }
+
+    private static String joinStr(final String sep, final List<String> lst) {
+        final StringBuilder sb = new StringBuilder();
+        for (final String s : lst) {
+            if (sb.length() > 0) {
+                sb.append(sep);
+            }
+            sb.append(s);
+        }
+        return sb.toString();
     }
 
     private boolean isAccountingRunning() {
@@ -77,14 +112,14 @@ public class ExternalDetector {
     }
 
     private void signalResult(final ExperimentResult result) {
+        if (!resultSignaled.compareAndSet(false, true)) {
+            LOGGER.debug("Ignoring experiment result {}. Already signaled.", result);
+            return;
+        }
         stopAllDetectors();
         LOGGER.info("Detected experiment end with result: {}", result.toString());
         try {
-            String activated = "";
-            if (mutationDetector != null) {
-                mutationDetector.run();
-                activated = mutationDetector.mutationLogString();
-            }
+            final String activated = joinStr(",", classifier.getStimulatedMutations());
             proxy.sendExperimentFinished(result.getId(), activated);
         } catch (final IOException e) {
             LOGGER
@@ -99,35 +134,19 @@ public class ExternalDetector {
         }
     }
 
-    private boolean testWorkloadFlag(final String value) throws AdbException {
-        boolean result = false;
-        try {
-            final File flagFile = adb.pullFile(settings.AVD_WORKLOAD_FLAGFILE);
-            if (flagFile != null && flagFile.exists()) {
-                final BufferedReader reader = new BufferedReader(new FileReader(flagFile));
-                final String content = reader.readLine();
-                if (content != null) {
-                    result = content.equals(value);
-                }
-                try {
-                    reader.close();
-                } catch (final Exception e) {
-                    LOGGER.warn(
-                        String.format("Failed to properly close flag file reader: %s",
-                                      e.getMessage()), e);
-                }
+    /**
+     * Extracts the workload flag from the content of the flag file.
+     *
+     * @param raw
+     *          The flag file content or {@code null} if the file does not exist.
+     * @return The first line of the content or {@code null} if the file does not exist.
+     */
+    public static String parseWorkloadFlag(final String raw) {
+        return raw != null ? raw.split("\\r?\\n", 2)[0] : null;
+    }
 
-                try {
-                    Files.delete(flagFile.toPath());
-                } catch (final Exception e) {
-                    LOGGER.warn(
-                        String.format("Workload flag file was not deleted: %s", e.getMessage()), e);
-                }
-            }
-        } catch (final IOException e) {
-            LOGGER.error(String.format("Failed to test flag file: %s", e.getMessage()), e);
-        }
-        return result;
+    private boolean testWorkloadFlag(final String value) throws AdbException {
+        return value.equals(flagProbe.read());
     }
 
     public boolean isArmed() {
@@ -135,9 +154,33 @@ public class ExternalDetector {
     }
 
     public void rearm() {
+        classifier.reset();
+        flagProbe.reset();
+        workloadResult = null;
+        resultSignaled.set(false);
+        if (workloadEvents != null) {
+            try {
+                workloadEvents.start();
+            } catch (final IOException e) {
+                // the flag file is still polled
+                LOGGER.warn(String.format("Failed to start workload event server: %s",
+                                          e.getMessage()));
+            }
+        }
         isArmed = true;
     }
 
+    /**
+     * Runs the given detector once as soon as possible, unless the detectors were stopped.
+     */
+    private void runDetectorNow(final Runnable detector) {
+        synchronized (detectors) {
+            if (isArmed) {
+                detectors.add(scheduler.schedule(detector, 0, TimeUnit.SECONDS));
+            }
+        }
+    }
+
     public void signalDelayedExperimentFailure(final int timesPeriod) {
         synchronized (detectors) {
             if (isArmed) {
@@ -156,6 +199,7 @@ public class ExternalDetector {
         LOGGER.info("Starting application detectors");
         synchronized (detectors) {
             if (isArmed) {
+                applicationDetectorsActive = true;
                 detectors.add(scheduler.scheduleWithFixedDelay(new ApplicationFinishedDetector(),
                               settings.DETECTION_PERIOD, settings.DETECTION_PERIOD, TimeUnit.SECONDS));
                 detectors.add(scheduler.scheduleWithFixedDelay(new ApplicationFailureDetector(),
@@ -163,6 +207,10 @@ public class ExternalDetector {
                 detectors.add(scheduler.scheduleWithFixedDelay(new ApplicationHangAssumer(),
                               settings.APP_HANG_ASSUMPTION_DELAY, settings.APP_HANG_ASSUMPTION_DELAY,
                               TimeUnit.SECONDS));
+                if (workloadResult != null) {
+                    // the workload ended before the detectors were started
+                    runDetectorNow(new WorkloadResultNotifier());
+                }
             } else {
                 LOGGER.warn("Skipped application detectors start. Not armed.");
             }
@@ -171,11 +219,14 @@ public class ExternalDetector {
 
     public void startSysinitDetector() {
         LOGGER.info("Starting system init detector");
+        // resuming from a snapshot skips most of the boot process
+        final long delay = emulator.getConfig().usesSnapshot()
+                           ? settings.SNAPSHOT_SYSINIT_HANG_ASSUMPTION_DELAY
+                           : settings.SYSINIT_HANG_ASSUMPTION_DELAY;
         synchronized (detectors) {
             if (isArmed) {
                 sysinitDetector = scheduler.scheduleWithFixedDelay(new SysinitHangAssumer(),
-                                  settings.SYSINIT_HANG_ASSUMPTION_DELAY,
-                                  settings.SYSINIT_HANG_ASSUMPTION_DELAY, TimeUnit.SECONDS);
+                                  delay, delay, TimeUnit.SECONDS);
                 detectors.add(sysinitDetector);
             } else {
                 LOGGER.warn("Skipped sysinit detector start. Not armed.");
@@ -187,9 +238,7 @@ public class ExternalDetector {
         LOGGER.info("Starting system detectors");
         synchronized (detectors) {
             if (isArmed) {
-                mutationDetector = new MutationStimulatedDetector();
-                detectors.add(scheduler.scheduleWithFixedDelay(mutationDetector, 0,
-                              settings.DETECTION_PERIOD, TimeUnit.SECONDS));
+                systemDetectorsActive = true;
                 detectors.add(scheduler.scheduleWithFixedDelay(new SystemHangAndCrashDetector(),
                               settings.DETECTION_PERIOD, settings.DETECTION_PERIOD, TimeUnit.SECONDS));
                 detectors.add(scheduler.scheduleWithFixedDelay(new SystemHangAssumer(),
@@ -204,10 +253,14 @@ public class ExternalDetector {
     public void stopAllDetectors() {
         LOGGER.info("Stopping all detector");
         isArmed = false;
+        systemDetectorsActive = false;
+        applicationDetectorsActive = false;
         synchronized (detectors) {
             for (final ScheduledFuture<?> detector : detectors) {
                 stopDetector(detector);
             }
+            // also drops one-shot detectors that were deferred by the group limit
+            scheduler.cancelAll();
             sysinitDetector = null;
             detectors.clear();
         }
@@ -224,12 +277,105 @@ public class ExternalDetector {
         }
     }
 
+    /**
+     * Runs the matching detector as soon as a console event arrives, instead of waiting
+     * for the next detection period. Oopses are left to the periodic check, since a fatal
+     * oops is followed by a kernel panic, which must take precedence.
+     */
+    private class ConsoleEventDispatcher implements ConsoleEventListener {
+        @Override
+        public void onConsoleEvent(final ConsoleEvent event) {
+            switch (event.getType()) {
+            case KERNEL_PANIC:
+            case HANG_PANIC:
+            case QEMU_FATAL:
+                if (systemDetectorsActive) {
+                    runDetectorNow(new SystemHangAndCrashDetector());
+                }
+                break;
+            case ACTIVITY_MISSING:
+                if (applicationDetectorsActive) {
+                    runDetectorNow(new ApplicationFailureDetector());
+                }
+                break;
+            case MUTATION_STIMULATED:
+                LOGGER.info(String.format("Mutation '%s' was stimulated", event.getDetail()));
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads the workload flag file at most once per half detection period, so that the
+     * application detectors of one period share a single read. The flag file content is
+     * read into memory, see {@link AndroidDebuggingBridge#readFile(String)}.
+     */
+    private class WorkloadFlagProbe {
+        private String content = null;
+        private long readNanos = 0;
+        private boolean valid = false;
+
+        synchronized String read() throws AdbException {
+            final long now = System.nanoTime();
+            if (!valid || now - readNanos >= TimeUnit.SECONDS.toNanos(settings.DETECTION_PERIOD)
+                    / 2) {
+                content = parseWorkloadFlag(adb.readFile(settings.AVD_WORKLOAD_FLAGFILE));
+                readNanos = now;
+                valid = true;
+            }
+            return content;
+        }
+
+        synchronized void reset() {
+            valid = false;
+            content = null;
+        }
+    }
+
+    /**
+     * Signals the experiment result as soon as the workload pushes its end state, instead
+     * of waiting for the next flag file poll.
+     */
+    private class WorkloadEventDispatcher implements WorkloadEventListener {
+        @Override
+        public void onWorkloadEvent(final WorkloadEvent event) {
+            if (!isArmed) {
+                LOGGER.debug("Ignoring workload event {}. Not armed.", event);
+                return;
+            }
+            if (!event.getDetail().isEmpty()) {
+                LOGGER.info(String.format("Workload %s:%n%s", event.getState(),
+                                          event.getDetail()));
+            }
+            if (event.getState().equals("workload_finished")
+                    || event.getState().equals("workload_failed")) {
+                workloadResult = event;
+                if (applicationDetectorsActive) {
+                    runDetectorNow(new WorkloadResultNotifier());
+                }
+            }
+        }
+    }
+
+    private class WorkloadResultNotifier implements Runnable {
+        @Override
+        public void run() {
+            final WorkloadEvent event = workloadResult;
+            if (event != null && applicationDetectorsActive) {
+                signalResult(event.getState().equals("workload_finished")
+                             ? ExperimentResult.FINISHED
+                             : ExperimentResult.APPLICATION_FAULT_DETECTED);
+            }
+        }
+    }
+
     private class ApplicationFailureDetector implements Runnable {
         @Override
         public void run() {
             try {
-                if (consoleOutput
-                        .contains("Error: Activity class {de.grinder.android_fi/de.grinder.android_fi.Workload} does not exist.")
+                if (classifier.hasSeen(EventType.ACTIVITY_MISSING)
                         || testWorkloadFlag("workload_failed")) {
                     signalResult(ExperimentResult.APPLICATION_FAULT_DETECTED);
                 }
@@ -275,63 +421,6 @@ public class ExternalDetector {
         }
     }
 
-    private class MutationStimulatedDetector implements Runnable {
-        private final Set<String> seenMutations = new HashSet<>();
-        final Pattern mutantPrintk = Pattern.compile("^(.+)-fault injection (\\(.*\\))$");
-
-        public List<String> mutationList() {
-            List<String> lst;
-            synchronized (seenMutations) {
-                lst = new ArrayList<>(seenMutations);
-            }
-            Collections.sort(lst);
-            return lst;
-        }
-
-        public String mutationLogString() {
-            final List<String> mutList = mutationList();
-            if (mutList.size() == 0) {
-                return "";
-            } else {
-                final StringBuilder sb = new StringBuilder();
-                for (final String mut : mutList) {
-                    if (sb.length() > 0) {
-                        sb.append(",");
-                    }
-                    sb.append(mut);
-                }
-                return sb.toString();
-            }
-        }
-
-        @Override
-        public void run() {
-            final Scanner output = new Scanner(consoleOutput.getOutput());
-            while (output.hasNextLine()) {
-                final Matcher match = mutantPrintk.matcher(output.nextLine());
-                if (!match.matches()) {
-                    continue;
-                }
-
-                final String module = match.group(1);
-                /* TODO: sanity check for mutant printk line
-                if (!module.equals(grinder.getInstrumentedKernelModule().getName())) {
-                  continue;
-                } */
-                final String fault = match.group(2);
-                synchronized (seenMutations) {
-                    if (seenMutations.contains(fault)) {
-                        LOGGER.debug(String.format("Saw mutation '%s' again.", fault));
-                        continue;
-                    }
-                    seenMutations.add(fault);
-                }
-                LOGGER.info(String.format("Mutation '%s' was stimulated", fault));
-            }
-            output.close();
-        }
-    }
-
     private class SysinitHangAssumer implements Runnable {
         @Override
         public void run() {
@@ -361,13 +450,10 @@ public class ExternalDetector {
     private class SystemHangAndCrashDetector implements Runnable {
         @Override
         public void run() {
-            if (consoleOutput.contains("Kernel panic")) {
+            final ConsoleEvent panic = classifier.getFirstPanic();
+            if (panic != null) {
                 // this may be a simple kernel panic or a detected system hang
-                final String consoleOut = consoleOutput.getOutput();
-                final int startIdx = consoleOut.indexOf("Kernel panic");
-                final int endIdx = consoleOut.indexOf("\n", startIdx);
-                final String line = consoleOut.substring(startIdx, endIdx);
-                if (line.contains("Hang detected")) {
+                if (panic.getType() == EventType.HANG_PANIC) {
                     // first kernel panic caused by hang detector
                     signalResult(ExperimentResult.SYSTEM_HANG_DETECTED);
                 } else {
@@ -375,10 +461,10 @@ public class ExternalDetector {
                     LOGGER.debug("SYSTEM CRASH detected: kernel panic message");
                     signalResult(ExperimentResult.SYSTEM_CRASH_DETECTED);
                 }
-            } else if (!isEmulatorRunningEmu() || consoleOutput.contains("qemu: fatal:")) {
+            } else if (classifier.hasSeen(EventType.QEMU_FATAL) || !isEmulatorRunningEmu()) {
                 LOGGER.debug("SYSTEM CRASH detected: emu not running or QEMU error message");
                 signalResult(ExperimentResult.SYSTEM_CRASH_DETECTED);
-            } else if (consoleOutput.contains("Internal error: Oops:")) {
+            } else if (classifier.hasSeen(EventType.OOPS)) {
                 signalResult(ExperimentResult.SYSTEM_OOPS_DETECTED);
             }
         }
@@ -7,6 +7,7 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,8 @@ public class InputStreamCapturer {
     private Thread collectorThread;
     private final CircularStringBuffer consoleBuffer;
     private final List<PrintStream> forwardedWriters = new ArrayList<PrintStream>();
+    private final List<LineListener> lineListeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> endListeners = new CopyOnWriteArrayList<>();
 
     public InputStreamCapturer(final String logId) {
         this(DEFAULT_BUFFER_SIZE, logId);
@@ -89,6 +92,63 @@ public class InputStreamCapturer {
         return consoleBuffer.contains(match);
     }
 
+    /**
+     * Retrieves the buffer that holds the recently captured output, e.g., for incremental
+     * scanning with a {@link MultiPatternMatcher.Cursor}.
+     *
+     * @return The capture buffer.
+     */
+    public CircularStringBuffer getBuffer() {
+        return consoleBuffer;
+    }
+
+    /**
+     * Registers a listener that is notified about each line captured from now on. The
+     * listener stays registered across capturing restarts until it is removed or returns
+     * {@code false}.
+     *
+     * @param listener
+     *          The listener to register.
+     */
+    public void addLineListener(final LineListener listener) {
+        lineListeners.add(listener);
+    }
+
+    /**
+     * Unregisters the given listener.
+     *
+     * @param listener
+     *          The listener to unregister.
+     * @return {@code True} if the listener was registered, {@code false} otherwise.
+     */
+    public boolean removeLineListener(final LineListener listener) {
+        return lineListeners.remove(listener);
+    }
+
+    /**
+     * Registers a listener that is notified by the collector thread when a captured stream
+     * ends, e.g., because the process that wrote it terminated. The listener is not notified
+     * if the capturing is stopped before the end of the stream. It stays registered across
+     * capturing restarts until it is removed.
+     *
+     * @param listener
+     *          The listener to register.
+     */
+    public void addEndListener(final Runnable listener) {
+        endListeners.add(listener);
+    }
+
+    /**
+     * Unregisters the given end listener.
+     *
+     * @param listener
+     *          The listener to unregister.
+     * @return {@code True} if the listener was registered, {@code false} otherwise.
+     */
+    public boolean removeEndListener(final Runnable listener) {
+        return endListeners.remove(listener);
+    }
+
     public void forwardOutputTo(final PrintStream pw) {
         synchronized (forwardedWriters) {
             forwardedWriters.add(pw);
@@ -116,8 +176,34 @@ public class InputStreamCapturer {
         LOGGER.debug("Forwarded: " + value);
     }
 
+    private void notifyListeners(final String line) {
+        for (final LineListener l : lineListeners) {
+            try {
+                if (!l.onLine(line)) {
+                    lineListeners.remove(l);
+                }
+            } catch (final RuntimeException e) {
+                LOGGER.error(String.format("Line listener failed, removing it: %s",
+                                           e.getMessage()), e);
+                lineListeners.remove(l);
+            }
+        }
+    }
+
+    private void notifyEnd() {
+        for (final Runnable l : endListeners) {
+            try {
+                l.run();
+            } catch (final RuntimeException e) {
+                LOGGER.error(String.format("End listener failed: %s", e.getMessage()), e);
+            }
+        }
+    }
+
     private class OutputCollector implements Runnable {
 
+        private boolean ended = false;
+
         private boolean stopped = false;
 
         @Override
@@ -130,6 +216,11 @@ public class InputStreamCapturer {
                     while (!stopped && (line = reader.readLine()) != null) {
                         forwardLine(line);
                         consoleBuffer.put(line + "\n");
+                        notifyListeners(line);
+                    }
+                    if (!stopped && !ended) {
+                        ended = true;
+                        notifyEnd();
                     }
                     Thread.sleep(WAIT_FOR_INPUT_DELAY);
                 } catch (IOException | InterruptedException e) {
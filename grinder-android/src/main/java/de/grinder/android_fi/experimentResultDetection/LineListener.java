@@ -0,0 +1,20 @@
+package de.grinder.android_fi.experimentResultDetection;
+
+/**
+ * Listener for lines captured by an {@link InputStreamCapturer}.
+ * <p>
+ * Listeners are invoked by the collector thread of the capturer as soon as a line
+ * arrives, i.e., implementations must be fast and must not block. Implementations must be
+ * thread safe with respect to the state that is shared with other threads.
+ */
+public interface LineListener {
+
+    /**
+     * Invoked for each captured line.
+     *
+     * @param line
+     *          The captured line without line terminator.
+     * @return {@code True} to keep receiving lines, {@code false} to be unregistered.
+     */
+    boolean onLine(String line);
+}
@@ -0,0 +1,238 @@
+package de.grinder.android_fi.experimentResultDetection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton for searching a fixed set of strings simultaneously.
+ * <p>
+ * The automaton is built once from the patterns and is immutable afterwards. Text is
+ * scanned in a single pass, independent of the number of patterns. Since the automaton
+ * state carries partial matches, text can be scanned in chunks, e.g., incrementally over
+ * the data appended to a {@link CircularStringBuffer} (see {@link Cursor}).
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads. {@link Cursor} instances are not thread safe.
+ */
+public class MultiPatternMatcher {
+
+    /** Outgoing transitions per state, including failure transitions resolved lazily. */
+    private final List<Map<Character, Integer>> gotos = new ArrayList<>();
+
+    private final int[] failure;
+
+    /** Indices of the patterns that end in a state, including those via failure links. */
+    private final int[][] outputs;
+
+    private final String[] patterns;
+
+    /**
+     * Builds the automaton for the given patterns.
+     *
+     * @param patterns
+     *          The non-empty patterns to search.
+     */
+    public MultiPatternMatcher(final String... patterns) {
+        this.patterns = patterns.clone();
+        final List<List<Integer>> out = new ArrayList<>();
+        gotos.add(new HashMap<Character, Integer>());
+        out.add(new ArrayList<Integer>());
+
+        // trie
+        for (int p = 0; p < patterns.length; p++) {
+            if (patterns[p].isEmpty()) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+            int state = 0;
+            for (int i = 0; i < patterns[p].length(); i++) {
+                final char c = patterns[p].charAt(i);
+                Integer next = gotos.get(state).get(c);
+                if (next == null) {
+                    next = gotos.size();
+                    gotos.add(new HashMap<Character, Integer>());
+                    out.add(new ArrayList<Integer>());
+                    gotos.get(state).put(c, next);
+                }
+                state = next;
+            }
+            out.get(state).add(p);
+        }
+
+        // failure links, breadth first
+        failure = new int[gotos.size()];
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (final int s : gotos.get(0).values()) {
+            queue.add(s);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            for (final Map.Entry<Character, Integer> t : gotos.get(state).entrySet()) {
+                final int next = t.getValue();
+                queue.add(next);
+                int f = failure[state];
+                while (f != 0 && !gotos.get(f).containsKey(t.getKey())) {
+                    f = failure[f];
+                }
+                final Integer fNext = gotos.get(f).get(t.getKey());
+                failure[next] = fNext != null && fNext != next ? fNext : 0;
+                out.get(next).addAll(out.get(failure[next]));
+            }
+        }
+
+        outputs = new int[out.size()][];
+        for (int s = 0; s < outputs.length; s++) {
+            outputs[s] = new int[out.get(s).size()];
+            for (int i = 0; i < outputs[s].length; i++) {
+                outputs[s][i] = out.get(s).get(i);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the pattern with the given index.
+     *
+     * @param index
+     *          The pattern index as used in {@link Match}.
+     * @return The pattern.
+     */
+    public String getPattern(final int index) {
+        return patterns[index];
+    }
+
+    public List<String> getPatterns() {
+        return Arrays.asList(patterns);
+    }
+
+    /**
+     * Creates a new cursor for scanning a {@link CircularStringBuffer} incrementally.
+     *
+     * @return The new cursor, positioned at the start of the buffer.
+     */
+    public Cursor newCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Scans the given text starting at the given state and reports all matches.
+     *
+     * @param state
+     *          The automaton state to start at, {@code 0} for a fresh scan.
+     * @param text
+     *          The text to scan.
+     * @param position
+     *          The absolute position of the first character of the text.
+     * @param matches
+     *          The list to add found matches to.
+     * @return The automaton state after the scan.
+     */
+    int scan(int state, final CharSequence text, final long position,
+             final List<Match> matches) {
+        for (int i = 0; i < text.length(); i++) {
+            state = step(state, text.charAt(i));
+            for (final int p : outputs[state]) {
+                matches.add(new Match(p, position + i + 1 - patterns[p].length()));
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Scans the given text and reports all matches.
+     *
+     * @param text
+     *          The text to scan.
+     * @return The found matches, in the order of their end positions.
+     */
+    public List<Match> findAll(final CharSequence text) {
+        final List<Match> matches = new ArrayList<>();
+        scan(0, text, 0, matches);
+        return matches;
+    }
+
+    private int step(int state, final char c) {
+        Integer next;
+        while ((next = gotos.get(state).get(c)) == null && state != 0) {
+            state = failure[state];
+        }
+        return next != null ? next : 0;
+    }
+
+    /**
+     * Incremental scanner over a {@link CircularStringBuffer}. Each call of
+     * {@link #scan(CircularStringBuffer)} scans only data that was appended since the
+     * previous call. Matches that span the boundary between two calls are found.
+     */
+    public class Cursor {
+        private long position = 0;
+        private int state = 0;
+
+        private Cursor() {
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Scans the data that was appended to the buffer since the last scan. If data was
+         * overwritten or cleared before it was scanned, scanning resumes at the oldest
+         * retained character without partial matches.
+         *
+         * @param buffer
+         *          The buffer to scan.
+         * @return The found matches, in the order of their end positions.
+         */
+        public List<Match> scan(final CircularStringBuffer buffer) {
+            final List<Match> matches = new ArrayList<>();
+            while (true) {
+                final CharSequence view = buffer.viewSince(position);
+                final long viewStart = ((CircularStringBuffer.View) view).getPosition();
+                if (viewStart != position) {
+                    state = 0;
+                }
+                try {
+                    state = MultiPatternMatcher.this.scan(state, view, viewStart, matches);
+                    position = viewStart + view.length();
+                    return matches;
+                } catch (final IndexOutOfBoundsException e) {
+                    // overwritten while scanning, resume at the oldest retained data
+                    position = buffer.getStart();
+                    state = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * A match of a pattern at an absolute position.
+     */
+    public static class Match {
+        private final int pattern;
+        private final long position;
+
+        Match(final int pattern, final long position) {
+            this.pattern = pattern;
+            this.position = position;
+        }
+
+        /** @return The index of the matched pattern. */
+        public int getPattern() {
+            return pattern;
+        }
+
+        /** @return The absolute position of the first character of the match. */
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Match[%d@%d]", pattern, position);
+        }
+    }
+}
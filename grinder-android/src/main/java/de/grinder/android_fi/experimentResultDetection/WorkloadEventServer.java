@@ -0,0 +1,231 @@
+package de.grinder.android_fi.experimentResultDetection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Host endpoint for state notifications of the workload app.
+ * <p>
+ * The workload connects to the host via the emulator host alias {@code 10.0.2.2}, which
+ * is mapped to the host loopback interface, and writes one event per connection. The
+ * first line is {@code <state> <device time in ms>}, e.g., {@code workload_finished
+ * 1418212800000}. All further lines up to the end of the stream are event specific
+ * detail, e.g., the DriveSpeed results. The port is passed to the workload as system
+ * property {@value #PORT_PROPERTY}.
+ * <p>
+ * Events are dispatched to the registered {@link WorkloadEventListener}s on the accepting
+ * thread, i.e., listeners must not block.
+ * <p>
+ * This class is thread safe, i.e., it should be safe to invoke its methods from multiple
+ * threads.
+ */
+public class WorkloadEventServer {
+
+    /** Android system property that carries the notification port. */
+    public static final String PORT_PROPERTY = "afi.notify.port";
+
+    /** Timeout in milliseconds for reading an event from an accepted connection. */
+    private static final int READ_TIMEOUT = 2000;
+
+    private final List<WorkloadEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Logger LOGGER;
+
+    private final int port;
+
+    private ServerSocket server = null;
+
+    public WorkloadEventServer(final int port, final String logId) {
+        LOGGER = LoggerFactory.getLogger(String.format("%s<%s>",
+                                         WorkloadEventServer.class.getName(), logId));
+        this.port = port;
+    }
+
+    public void addListener(final WorkloadEventListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops accepting events.
+     */
+    public synchronized void close() {
+        if (server != null) {
+            try {
+                server.close();
+            } catch (final IOException e) {
+                LOGGER.warn(String.format("Failed to close server socket: %s", e.getMessage()));
+            }
+            server = null;
+        }
+    }
+
+    /**
+     * Retrieves the bound port, which differs from the configured port if it was {@code 0}.
+     *
+     * @return The bound port or {@code -1} if the server is not running.
+     */
+    public synchronized int getPort() {
+        return server != null ? server.getLocalPort() : -1;
+    }
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * Reads a single event from the given connection.
+     *
+     * @return The event or {@code null} if the connection did not carry a valid event.
+     */
+    private WorkloadEvent readEvent(final Socket s) throws IOException {
+        s.setSoTimeout(READ_TIMEOUT);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    s.getInputStream(), StandardCharsets.UTF_8));
+        final String head = reader.readLine();
+        if (head == null) {
+            return null;
+        }
+        final String[] fields = head.trim().split("\\s+");
+        long deviceTime = -1;
+        if (fields.length > 1) {
+            try {
+                deviceTime = Long.parseLong(fields[1]);
+            } catch (final NumberFormatException e) {
+                LOGGER.warn(String.format("Invalid event time: [%s]", head));
+            }
+        }
+        final StringBuilder detail = new StringBuilder();
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                detail.append(line).append('\n');
+            }
+        } catch (final IOException e) {
+            LOGGER.warn(String.format("Incomplete event detail for [%s]: %s", head,
+                                      e.getMessage()));
+        }
+        return new WorkloadEvent(fields[0], deviceTime, detail.toString());
+    }
+
+    public void removeListener(final WorkloadEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Binds the server socket on the loopback interface and starts accepting events. Does
+     * nothing if the server is already running.
+     *
+     * @throws IOException
+     *           If the port could not be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        final ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        try {
+            ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (final IOException e) {
+            ss.close();
+            throw e;
+        }
+        server = ss;
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!ss.isClosed()) {
+                    try (Socket s = ss.accept()) {
+                        final WorkloadEvent event = readEvent(s);
+                        if (event == null) {
+                            continue;
+                        }
+                        LOGGER.debug("Workload event: {}", event);
+                        for (final WorkloadEventListener l : listeners) {
+                            l.onWorkloadEvent(event);
+                        }
+                    } catch (final SocketException e) {
+                        // server socket closed
+                    } catch (final IOException e) {
+                        LOGGER.warn(String.format("Failed to receive workload event: %s",
+                                                  e.getMessage()));
+                    }
+                }
+            }
+        }, String.format("WorkloadEventServer-%d", ss.getLocalPort()));
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info(String.format("Accepting workload events on port %d", ss.getLocalPort()));
+    }
+
+    /**
+     * A state notification of the workload.
+     */
+    public static class WorkloadEvent {
+        private final String detail;
+        private final long deviceTime;
+        private final long receivedNanos;
+        private final String state;
+
+        WorkloadEvent(final String state, final long deviceTime, final String detail) {
+            this.state = state;
+            this.deviceTime = deviceTime;
+            this.detail = detail;
+            receivedNanos = System.nanoTime();
+        }
+
+        /** @return The event detail, may be empty. */
+        public String getDetail() {
+            return detail;
+        }
+
+        /** @return The device time in ms of the event or {@code -1} if unknown. */
+        public long getDeviceTime() {
+            return deviceTime;
+        }
+
+        /** @return The {@link System#nanoTime()} at which the event was received. */
+        public long getReceivedNanos() {
+            return receivedNanos;
+        }
+
+        /**
+         * @return The workload state, i.e., {@code workload_started},
+         *         {@code workload_finished} or {@code workload_failed}.
+         */
+        public String getState() {
+            return state;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%d", state, deviceTime);
+        }
+    }
+
+    /**
+     * Listener for {@link WorkloadEvent}s.
+     */
+    public interface WorkloadEventListener {
+
+        /**
+         * Invoked on the accepting thread for each event. Must not block.
+         *
+         * @param event
+         *          The event.
+         */
+        void onWorkloadEvent(WorkloadEvent event);
+    }
+}
@@ -0,0 +1,58 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class AccountingParserTest {
+
+    private static final String[] OUTPUT = { "Child pid: 4711",
+        "emulator: mapping 'system' NAND image to /tmp/android/emulator-x",
+        "TGID\t4711",
+        "(ac_etime: 9000;ac_utime: 800;ac_stime: 100;ac_minflt: 5;ac_majflt: 1;)",
+        "(cpu_count: 12;cpu_run_real_total: 3400;cpu_run_virtual_total: 3300;"
+        + "cpu_delay_total: 250;blkio_count: 3;blkio_delay_total: 170;)",
+        "(read_bytes: 4096;write_bytes: 8192;cancelled_write_bytes: 0;)",
+        "(voluntary_context_switches: 42;involuntary_context_switches: 7;)",
+        "emulator: unrelated output"
+    };
+
+    @Test
+    public void testParseRecord() {
+        final AccountingParser parser = new AccountingParser("test");
+        for (final String line : OUTPUT) {
+            parser.onLine(line);
+        }
+        final AccountingRecord r = parser.getRecord(4711);
+        assertEquals(4711, r.getPid());
+        assertEquals(250, r.getCpuDelayTotal());
+        assertEquals(170, r.getBlkioDelayTotal());
+        assertEquals(-1, r.getSwapinDelayTotal());
+        assertEquals(42, r.getVoluntaryContextSwitches());
+        assertEquals(7, r.getInvoluntaryContextSwitches());
+        assertEquals(4096, r.getReadBytes());
+        assertEquals(8192, r.getWriteBytes());
+        assertEquals(800, r.get("ac_utime"));
+        assertEquals(AccountingRecord.CSV_COLUMNS.length, r.toCsvLine().split(",", -1).length);
+        assertEquals(AccountingRecord.getCsvHeader() + "\n" + r.toCsvLine(), r.toCsv());
+        assertEquals("4711,9000,800,100,5,1,12,3400,3300,250,3,170,,,,,,,,,4096,8192,0,42,7",
+                     r.toCsvLine());
+    }
+
+    @Test
+    public void testRecordEndsAtInvalidLine() {
+        final AccountingParser parser = new AccountingParser("test");
+        parser.onLine("PID\t12");
+        parser.onLine("(cpu_count: 1;)");
+        parser.onLine("(cpu_count: x;)");
+        parser.onLine("(swapin_count: 2;)");
+        final AccountingRecord r = parser.getRecord(12);
+        assertEquals(1, r.get("cpu_count"));
+        assertEquals(-1, r.get("swapin_count"));
+        assertNull(parser.getRecord(4711));
+
+        parser.reset();
+        assertNull(parser.getRecord(12));
+    }
+}
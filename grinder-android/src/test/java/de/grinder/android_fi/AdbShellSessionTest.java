@@ -0,0 +1,90 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.grinder.android_fi.AdbShellSession.ShellResult;
+import de.grinder.android_fi.ProcessUtils.ProcUtilException;
+
+/**
+ * Tests the shell session protocol with a local shell in place of {@code adb shell}.
+ */
+public class AdbShellSessionTest {
+
+    private AdbShellSession session;
+
+    @Before
+    public void startSession() throws ProcUtilException {
+        session = new AdbShellSession(new String[] {"sh"}, "test");
+    }
+
+    @After
+    public void closeSession() {
+        session.close();
+    }
+
+    @Test
+    public void testExitCodesAndOutput() throws IOException {
+        ShellResult r = session.exec("echo hello; echo world");
+        assertEquals(0, r.getExitCode());
+        assertEquals("hello\nworld\n", r.getOutput());
+
+        r = session.exec("exit 3");
+        assertEquals(3, r.getExitCode());
+
+        r = session.exec("printf 'no newline'");
+        assertEquals(0, r.getExitCode());
+        assertEquals("no newline", r.getOutput());
+
+        r = session.exec("ls /nonexistent-afi-path");
+        assertTrue(r.getExitCode() != 0);
+    }
+
+    @Test
+    public void testCommandsDoNotConsumeInput() throws IOException {
+        assertEquals(0, session.exec("cat").getExitCode());
+        assertEquals("1\n", session.exec("echo 1").getOutput());
+    }
+
+    /**
+     * Runs an interactive shell on a pseudo terminal like {@code adb shell}, which echoes the
+     * prompt and the input lines.
+     */
+    @Test
+    public void testEchoingTerminal() throws IOException, ProcUtilException {
+        Assume.assumeTrue(new File("/usr/bin/script").canExecute());
+        final String[] shellCommand = {"/usr/bin/script", "-qfec", "sh -i", "/dev/null"};
+        final AdbShellSession tty = new AdbShellSession(shellCommand, "test-tty");
+        try {
+            for (int i = 0; i < 3; i++) {
+                final ShellResult r = tty.exec("echo workload_finished");
+                assertEquals(0, r.getExitCode());
+                assertEquals("workload_finished\n", r.getOutput());
+            }
+            assertEquals("no newline", tty.exec("printf 'no newline'").getOutput());
+            assertEquals(3, tty.exec("exit 3").getExitCode());
+        } finally {
+            tty.close();
+        }
+    }
+
+    @Test
+    public void testClosedSession() {
+        session.close();
+        try {
+            session.exec("true");
+            fail("Closed session must not execute commands");
+        } catch (final IOException e) {
+            assertTrue(session.isClosed());
+        }
+    }
+}
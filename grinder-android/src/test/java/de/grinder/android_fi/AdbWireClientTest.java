@@ -0,0 +1,142 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.grinder.android_fi.AdbShellSession.ShellResult;
+
+/**
+ * Tests the ADB wire protocol client against a minimal fake ADB server that knows a single
+ * device.
+ */
+public class AdbWireClientTest {
+
+    private static final String SERIAL = "emulator-5554";
+
+    private AdbWireClient client;
+
+    private ServerSocket server;
+
+    private Thread serverThread;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ServerSocket(0, 5, InetAddress.getLoopbackAddress());
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try (Socket s = server.accept()) {
+                        serve(s.getInputStream(), s.getOutputStream());
+                    } catch (final IOException e) {
+                        // server closed or client went away
+                    }
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        client = new AdbWireClient(server.getLocalPort());
+    }
+
+    @After
+    public void stopServer() throws IOException, InterruptedException {
+        server.close();
+        serverThread.join(5000);
+    }
+
+    private static String readRequest(final InputStream in) throws IOException {
+        final byte[] len = readFully(in, 4);
+        final int n = Integer.parseInt(new String(len, StandardCharsets.US_ASCII), 16);
+        return new String(readFully(in, n), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readFully(final InputStream in, final int len) throws IOException {
+        final byte[] buf = new byte[len];
+        int off = 0;
+        while (off < len) {
+            final int r = in.read(buf, off, len - off);
+            if (r < 0) {
+                throw new IOException("EOF");
+            }
+            off += r;
+        }
+        return buf;
+    }
+
+    private static void reply(final OutputStream out, final String status, final String msg)
+    throws IOException {
+        out.write(status.getBytes(StandardCharsets.US_ASCII));
+        if (msg != null) {
+            out.write(String.format("%04x%s", msg.length(), msg)
+                      .getBytes(StandardCharsets.US_ASCII));
+        }
+        out.flush();
+    }
+
+    /** Answers a single connection of the client. */
+    private static void serve(final InputStream in, final OutputStream out) throws IOException {
+        String req = readRequest(in);
+        if (req.equals("host-serial:" + SERIAL + ":get-state")) {
+            reply(out, "OKAY", "device");
+        } else if (req.equals("host:transport:" + SERIAL)) {
+            reply(out, "OKAY", null);
+            req = readRequest(in);
+            if (!req.startsWith("shell:")) {
+                reply(out, "FAIL", "unsupported: " + req);
+                return;
+            }
+            reply(out, "OKAY", null);
+            // exit code is the number of characters of the command, output echoes it
+            final String cmd = req.substring("shell:".length(), req.indexOf(';'));
+            out.write(String.format("%s\r\n__AFI_RC_%d\r\n", cmd, cmd.length())
+                      .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } else {
+            reply(out, "FAIL", "device '" + req + "' not found");
+        }
+    }
+
+    @Test
+    public void testExecShell() throws IOException {
+        final ShellResult r = client.execShell(SERIAL, "ls -l");
+        assertEquals(5, r.getExitCode());
+        assertEquals("ls -l\n", r.getOutput());
+    }
+
+    @Test
+    public void testGetState() throws IOException {
+        assertEquals("device", client.getState(SERIAL));
+        try {
+            client.getState("emulator-5556");
+            fail("Unknown device must fail");
+        } catch (final AdbWireClient.AdbFailException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testServerUnavailable() throws IOException, InterruptedException {
+        stopServer();
+        try {
+            client.getState(SERIAL);
+            fail("Missing server must fail");
+        } catch (final AdbWireClient.AdbFailException e) {
+            fail("Missing server must not be signaled as FAIL");
+        } catch (final IOException e) {
+            // expected, communication failure
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.AndroidDebuggingBridge.AdbException;
+import de.grinder.android_fi.BootProgressTracker.EventSource;
+import de.grinder.android_fi.BootProgressTracker.Milestone;
+
+public class BootProgressTrackerTest {
+
+    /**
+     * Subscriptions of the tracker by milestone, fails on the subscription of
+     * {@link #failOn}.
+     */
+    private final Map<Milestone, EventFuture<String>> events = new EnumMap<>(
+        Milestone.class);
+
+    private Milestone failOn = null;
+
+    private final EventSource source = new EventSource() {
+        @Override
+        public EventFuture<String> subscribe(final Milestone milestone) throws AdbException {
+            if (milestone == failOn) {
+                throw new AdbException("Emulator is not running");
+            }
+            final EventFuture<String> f = new EventFuture<>();
+            events.put(milestone, f);
+            return f;
+        }
+    };
+
+    private static void assertNotStarted(final BootProgressTracker tracker) {
+        try {
+            tracker.milestone(Milestone.START);
+            fail("Expected stopped tracker");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParseUptime() {
+        assertEquals(10433, BootProgressTracker.parseUptime(
+                         "I/boot_progress_ams_ready(   61): 10433"));
+        assertEquals(-1, BootProgressTracker.parseUptime("I/boot_progress_start(   33)"));
+        assertEquals(-1, BootProgressTracker.parseUptime("I/boot_progress_start(   33): x"));
+        assertEquals("boot_progress_pms_ready", Milestone.PMS_READY.getEvent());
+    }
+
+    @Test
+    public void testStartStop() throws AdbException {
+        final PhaseMetrics metrics = new PhaseMetrics();
+        final BootProgressTracker tracker = new BootProgressTracker(source, metrics, "test");
+        assertNotStarted(tracker);
+
+        tracker.start();
+        assertEquals(Milestone.values().length, events.size());
+        assertSame(events.get(Milestone.AMS_READY), tracker.milestone(Milestone.AMS_READY));
+        events.get(Milestone.START).complete("I/boot_progress_start(   33): 5210");
+        events.get(Milestone.AMS_READY).complete("I/boot_progress_ams_ready(   61): 10433");
+        // events without uptime are not recorded
+        events.get(Milestone.SYSTEM_RUN).complete("I/boot_progress_system_run(   61)");
+
+        tracker.stop();
+        assertNotStarted(tracker);
+        assertEquals(1, metrics.getHistogram(Milestone.START).getCount());
+        assertEquals(1, metrics.getHistogram(Milestone.AMS_READY).getCount());
+        assertEquals(0, metrics.getHistogram(Milestone.SYSTEM_RUN).getCount());
+        assertEquals(0, metrics.getHistogram(Milestone.ENABLE_SCREEN).getCount());
+        assertTrue(metrics.toText().contains("grinder_boot_milestone_uptime_seconds_sum{"
+                                             + "milestone=\"ams_ready\"} 10.433\n"));
+        // milestones that are not reached are not awaited anymore
+        assertTrue(events.get(Milestone.ENABLE_SCREEN).isCancelled());
+
+        // stopping twice records nothing
+        tracker.stop();
+        assertEquals(1, metrics.getHistogram(Milestone.START).getCount());
+    }
+
+    @Test
+    public void testFailedStart() {
+        final PhaseMetrics metrics = new PhaseMetrics();
+        final BootProgressTracker tracker = new BootProgressTracker(source, metrics, "test");
+        failOn = Milestone.PMS_READY;
+        try {
+            tracker.start();
+            fail("Expected failed subscription");
+        } catch (final AdbException e) {
+            // expected
+        }
+        assertNotStarted(tracker);
+        assertFalse(events.isEmpty());
+        for (final EventFuture<String> f : events.values()) {
+            assertTrue(f.isCancelled());
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package de.grinder.android_fi;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -52,4 +55,66 @@ public class CircularStringBufferTest {
         buffer.put(testString);
         assertEquals(true, buffer.contains(match));
     }
+
+    @Test
+    public void testContainsPartialMatchRestart() {
+        final CircularStringBuffer buffer = new CircularStringBuffer(16);
+        buffer.put("xaaab");
+        assertTrue(buffer.contains("aab"));
+        assertFalse(buffer.contains("aaaa"));
+    }
+
+    @Test
+    public void testContainsNotFilled() {
+        final CircularStringBuffer buffer = new CircularStringBuffer(64);
+        buffer.put("Kernel");
+        buffer.put(" panic\n");
+        assertTrue(buffer.contains("Kernel panic"));
+        assertEquals("Kernel panic\n", buffer.toString());
+    }
+
+    @Test
+    public void testOversizedPut() {
+        final CircularStringBuffer buffer = new CircularStringBuffer(8);
+        buffer.put("abc");
+        buffer.put(testString);
+        assertEquals(testString.substring(testString.length() - 8), buffer.toString());
+        assertEquals(testString.length() + 3, buffer.getEnd());
+        assertEquals(buffer.getEnd() - 8, buffer.getStart());
+    }
+
+    @Test
+    public void testViews() {
+        final CircularStringBuffer buffer = new CircularStringBuffer(10);
+        buffer.put("0123456789");
+        final long pos = buffer.getEnd();
+        buffer.put("abcd");
+        assertEquals("456789abcd", buffer.view().toString());
+        assertEquals("abcd", buffer.viewSince(pos).toString());
+        assertEquals("bc", buffer.viewSince(pos).subSequence(1, 3).toString());
+        assertEquals("456789abcd", buffer.viewSince(0).toString());
+
+        final CharSequence view = buffer.viewSince(pos);
+        buffer.put("0123456789");
+        try {
+            view.charAt(0);
+            assertTrue("overwritten view must not be readable", false);
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        buffer.clear();
+        assertEquals(0, buffer.length());
+        assertEquals("", buffer.viewSince(pos).toString());
+    }
+
+    @Test
+    public void testLineAround() {
+        final CircularStringBuffer buffer = new CircularStringBuffer(64);
+        buffer.put("first line\nKernel panic - not syncing: Hang detected\nlast");
+        final long pos = buffer.indexOf("panic", 0);
+        assertEquals("Kernel panic - not syncing: Hang detected", buffer.lineAround(pos));
+        assertEquals("last", buffer.lineAround(buffer.getEnd() - 1));
+        assertNull(buffer.lineAround(buffer.getEnd()));
+    }
 }
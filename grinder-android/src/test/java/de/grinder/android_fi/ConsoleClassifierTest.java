@@ -0,0 +1,77 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier;
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier.ConsoleEvent;
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier.ConsoleEventListener;
+import de.grinder.android_fi.experimentResultDetection.ConsoleClassifier.EventType;
+
+public class ConsoleClassifierTest {
+
+    private ConsoleClassifier classifier;
+    private final List<ConsoleEvent> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        classifier = new ConsoleClassifier("test");
+        events.clear();
+        classifier.addListener(new ConsoleEventListener() {
+            @Override
+            public void onConsoleEvent(final ConsoleEvent event) {
+                events.add(event);
+            }
+        });
+    }
+
+    @Test
+    public void testHangPanic() {
+        classifier.onLine("<6>[   12.000] init: starting service");
+        classifier.onLine("<0>[   42.000] Kernel panic - not syncing: Hang detected");
+        classifier.onLine("<0>[   42.001] Kernel panic - not syncing: Fatal exception");
+        assertEquals(1, events.size());
+        assertEquals(EventType.HANG_PANIC, events.get(0).getType());
+        assertEquals(EventType.HANG_PANIC, classifier.getFirstPanic().getType());
+        assertFalse(classifier.hasSeen(EventType.KERNEL_PANIC));
+    }
+
+    @Test
+    public void testStickyEventsAndReset() {
+        classifier.onLine("Unable to handle kernel NULL pointer dereference");
+        classifier.onLine("Internal error: Oops: 17 [#1] PREEMPT");
+        classifier.onLine("Internal error: Oops: 17 [#2] PREEMPT");
+        classifier.onLine("qemu: fatal: Trying to execute code outside RAM or ROM");
+        assertEquals(2, events.size());
+        assertTrue(classifier.hasSeen(EventType.OOPS));
+        assertTrue(classifier.hasSeen(EventType.QEMU_FATAL));
+        assertNull(classifier.getFirstPanic());
+
+        classifier.reset();
+        assertFalse(classifier.hasSeen(EventType.OOPS));
+        classifier.onLine("Error: Activity class {de.grinder.android_fi/"
+                          + "de.grinder.android_fi.Workload} does not exist.");
+        assertTrue(classifier.hasSeen(EventType.ACTIVITY_MISSING));
+    }
+
+    @Test
+    public void testMutations() {
+        classifier.onLine("ext4_mut-fault injection (ext4_mut.c:1234)");
+        classifier.onLine("ext4_mut-fault injection (ext4_mut.c:99)");
+        classifier.onLine("ext4_mut-fault injection (ext4_mut.c:1234)");
+        classifier.onLine("something -fault injection (x) trailing");
+        assertEquals(2, events.size());
+        assertEquals("(ext4_mut.c:1234)", events.get(0).getDetail());
+        assertEquals(Arrays.asList("(ext4_mut.c:1234)", "(ext4_mut.c:99)"),
+                     classifier.getStimulatedMutations());
+    }
+}
@@ -0,0 +1,110 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.experimentResultDetection.DetectionScheduler;
+import de.grinder.android_fi.experimentResultDetection.DetectionScheduler.TaskGroup;
+
+public class DetectionSchedulerTest {
+
+    @Test
+    public void testGroupLimitDefersOneShotTasks() throws InterruptedException {
+        final DetectionScheduler scheduler = new DetectionScheduler(4, 1);
+        final TaskGroup group = scheduler.newGroup("a");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                maxRunning.set(Math.max(maxRunning.get(), group.getRunning()));
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        group.schedule(task, 0, TimeUnit.SECONDS);
+        group.schedule(task, 0, TimeUnit.SECONDS);
+        Thread.sleep(3 * DetectionScheduler.DEFER_DELAY);
+        assertEquals(1, group.getRunning());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testGroupLimitDefersPeriodicTasks() throws InterruptedException {
+        final DetectionScheduler scheduler = new DetectionScheduler(4, 1);
+        final TaskGroup group = scheduler.newGroup("a");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch periodicRun = new CountDownLatch(1);
+        // saturates the group while the first run of the periodic task is due
+        group.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 0, TimeUnit.SECONDS);
+        Thread.sleep(DetectionScheduler.DEFER_DELAY);
+        group.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                periodicRun.countDown();
+            }
+        }, 0, 1, TimeUnit.HOURS);
+        Thread.sleep(3 * DetectionScheduler.DEFER_DELAY);
+        assertEquals(1, periodicRun.getCount());
+
+        // the skipped run is caught up instead of waiting for the next period
+        release.countDown();
+        assertTrue(periodicRun.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelAllOnlyAffectsGroup() throws InterruptedException {
+        final DetectionScheduler scheduler = new DetectionScheduler(2, 2);
+        final TaskGroup a = scheduler.newGroup("a");
+        final TaskGroup b = scheduler.newGroup("b");
+        final AtomicInteger runsA = new AtomicInteger();
+        final CountDownLatch runsB = new CountDownLatch(5);
+        a.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runsA.incrementAndGet();
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS);
+        b.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runsB.countDown();
+            }
+        }, 50, 10, TimeUnit.MILLISECONDS);
+        a.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runsA.addAndGet(1000);
+            }
+        }, 200, TimeUnit.MILLISECONDS);
+
+        a.cancelAll();
+        Thread.sleep(20);
+        final int cancelledRuns = runsA.get();
+        assertTrue(runsB.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        assertEquals(cancelledRuns, runsA.get());
+    }
+}
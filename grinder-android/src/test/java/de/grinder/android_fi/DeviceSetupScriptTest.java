@@ -0,0 +1,77 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.DeviceSetupScript.StepResult;
+
+public class DeviceSetupScriptTest {
+
+    /** Runs the script with the host shell and parses its output. */
+    private static List<StepResult> run(final DeviceSetupScript script) throws Exception {
+        final Process p = new ProcessBuilder("sh", "-c", script.toShell())
+        .redirectErrorStream(true).start();
+        final List<StepResult> results = new ArrayList<>();
+        boolean ended = false;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream(),
+                    StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                ended |= line.equals(DeviceSetupScript.END_MARKER);
+                final StepResult result = script.parseResult(line);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+        }
+        p.waitFor();
+        assertTrue(ended);
+        return results;
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        final DeviceSetupScript script = new DeviceSetupScript();
+        script.add("first", "echo output");
+        script.addUnchecked("unchecked", "false");
+        script.add("background", "true && { sleep 0 & }");
+        List<StepResult> results = run(script);
+        assertEquals(3, results.size());
+        assertEquals("first", results.get(0).getName());
+        assertEquals(0, results.get(0).getExitCode());
+        assertTrue(results.get(0).getNanos() >= 0);
+        assertEquals(1, results.get(1).getExitCode());
+        assertFalse(results.get(1).isFailed());
+        assertNull(DeviceSetupScript.getFailure(results));
+
+        // a failed checked step skips the remaining steps
+        script.add("failing", "exit_code() { return 3; }; exit_code");
+        script.add("skipped", "true");
+        results = run(script);
+        assertEquals(4, results.size());
+        assertEquals("failing", DeviceSetupScript.getFailure(results).getName());
+        assertEquals(3, DeviceSetupScript.getFailure(results).getExitCode());
+    }
+
+    @Test
+    public void testParseResult() {
+        final DeviceSetupScript script = new DeviceSetupScript().add("step", "true");
+        final StepResult r = script.parseResult(DeviceSetupScript.STEP_MARKER + " 0 0 12.30 "
+                                                + "12.50\r");
+        assertEquals(200000000, r.getNanos());
+        // unknown uptime, e.g., without /proc/uptime
+        assertEquals(-1, script.parseResult(DeviceSetupScript.STEP_MARKER + " 0 1").getNanos());
+        assertNull(script.parseResult(DeviceSetupScript.STEP_MARKER + " 1 0"));
+        assertNull(script.parseResult("step output"));
+    }
+}
@@ -0,0 +1,103 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.Emulator.EmulatorException;
+import de.grinder.android_fi.EmulatorFactory.EmulatorSlot;
+
+public class EmulatorFactoryTest {
+
+    @Test
+    public void testSlotRecycling() throws EmulatorException {
+        final EmulatorFactory factory = EmulatorFactory.getInstance();
+        final EmulatorSlot s0 = factory.leaseSlot();
+        final EmulatorSlot s1 = factory.leaseSlot();
+        try {
+            assertEquals(0, s0.getId());
+            assertEquals(1, s1.getId());
+            assertNotEquals(s0.getControlPort(), s1.getControlPort());
+            assertEquals(0, s0.getControlPort() % 2);
+
+            factory.releaseSlot(s0);
+            final EmulatorSlot s2 = factory.leaseSlot();
+            assertEquals(0, s2.getId());
+            assertEquals(s0.getControlPort(), s2.getControlPort());
+            factory.releaseSlot(s2);
+        } finally {
+            factory.releaseSlot(s1);
+        }
+        assertEquals(0, factory.getLeasedSlots());
+    }
+
+    @Test
+    public void testPortRange() throws EmulatorException {
+        final EmulatorFactory factory = EmulatorFactory.getInstance();
+        // a range beyond the ADB default range with room for two slots
+        final EmulatorSlot s0 = factory.leaseSlot(25600, 25603);
+        try {
+            final EmulatorSlot s1 = factory.leaseSlot(25600, 25603);
+            try {
+                assertEquals(25600, s0.getControlPort());
+                assertEquals(25602, s1.getControlPort());
+                factory.leaseSlot(25600, 25603);
+                fail("Expected exhausted port range");
+            } catch (final EmulatorException e) {
+                assertEquals(2, factory.getLeasedSlots());
+            } finally {
+                factory.releaseSlot(s1);
+            }
+        } finally {
+            factory.releaseSlot(s0);
+        }
+    }
+
+    @Test
+    public void testForeignPortSkipped() throws EmulatorException, IOException {
+        final EmulatorFactory factory = EmulatorFactory.getInstance();
+        final EmulatorSlot probe = factory.leaseSlot();
+        factory.releaseSlot(probe);
+
+        // a foreign emulator occupying the ADB port of the first free port pair
+        try (ServerSocket foreign = new ServerSocket()) {
+            foreign.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                               probe.getControlPort() + 1));
+            final EmulatorSlot slot = factory.leaseSlot();
+            try {
+                assertEquals(probe.getId(), slot.getId());
+                assertTrue(slot.getControlPort() > probe.getControlPort());
+            } finally {
+                factory.releaseSlot(slot);
+            }
+        }
+    }
+
+    @Test
+    public void testTimeWaitPortReused() throws EmulatorException, IOException {
+        final EmulatorFactory factory = EmulatorFactory.getInstance();
+        final InetAddress lo = InetAddress.getLoopbackAddress();
+        // a stopped emulator that closed its ADB connection first leaves it in TIME_WAIT
+        try (ServerSocket emulator = new ServerSocket()) {
+            emulator.bind(new InetSocketAddress(lo, 25700));
+            try (Socket client = new Socket(lo, 25700)) {
+                emulator.accept().close();
+            }
+        }
+        final EmulatorSlot slot = factory.leaseSlot(25700, 25703);
+        try {
+            assertEquals(25700, slot.getControlPort());
+        } finally {
+            factory.releaseSlot(slot);
+        }
+    }
+}
@@ -93,6 +93,14 @@ public class EmulatorTest {
         assertEquals("Wrong system image!",
                      String.format("/path/to/system/images/%s-system.img", prefix),
                      es.getSystemImage());
+
+        es.switchImageSet();
+        assertEquals("Wrong pre-staged SD image!",
+                     String.format("/path/to/sdcard/images/%s-b-sdcard.img", prefix),
+                     es.getSdCardImage());
+        assertEquals("Wrong pre-staged userdata image!",
+                     String.format("/path/to/userdata/images/%s-b-userdata.img", prefix),
+                     es.getUserdataImage());
     }
 
     @Test
@@ -0,0 +1,49 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import de.grinder.android_fi.AdbShellSession.ShellResult;
+import de.grinder.android_fi.ProcessUtils.ProcUtilException;
+import de.grinder.android_fi.experimentResultDetection.ExternalDetector;
+
+public class ExternalDetectorTest {
+
+    @Test
+    public void testParseWorkloadFlag() {
+        assertEquals("workload_finished", ExternalDetector.parseWorkloadFlag(
+                         "workload_finished\r\nmore details\n"));
+        assertEquals("workload_started", ExternalDetector.parseWorkloadFlag("workload_started"));
+        assertNull(ExternalDetector.parseWorkloadFlag(null));
+    }
+
+    /**
+     * Reads the flag file like the shell session of a device, i.e., with {@code cat} in an
+     * interactive shell on a pseudo terminal that echoes the prompt and the input lines.
+     */
+    @Test
+    public void testParseWorkloadFlagFromEchoingTerminal() throws IOException,
+        ProcUtilException {
+        Assume.assumeTrue(new File("/usr/bin/script").canExecute());
+        final Path flagFile = Files.createTempFile("workload", ".flag");
+        final String[] shellCommand = {"/usr/bin/script", "-qfec", "sh -i", "/dev/null"};
+        final AdbShellSession session = new AdbShellSession(shellCommand, "test-tty");
+        try {
+            Files.write(flagFile, "workload_finished\n".getBytes());
+            final ShellResult r = session.exec(String.format("cat %s 2>/dev/null", flagFile));
+            assertEquals(0, r.getExitCode());
+            assertEquals("workload_finished", ExternalDetector.parseWorkloadFlag(r.getOutput()));
+        } finally {
+            session.close();
+            Files.delete(flagFile);
+        }
+    }
+}
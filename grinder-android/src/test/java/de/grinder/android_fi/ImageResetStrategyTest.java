@@ -0,0 +1,68 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageResetStrategyTest {
+
+    private Path vanilla;
+    private Path target;
+
+    @Before
+    public void createImages() throws IOException {
+        vanilla = Files.createTempFile("vanilla", ".img");
+        target = Files.createTempFile("target", ".img");
+        // data, zero blocks and data again, followed by trailing zeros
+        final byte[] content = new byte[512 * 1024 + 123];
+        for (int i = 0; i < 1000; i++) {
+            content[i] = (byte) (i % 127 + 1);
+            content[200 * 1024 + i] = (byte) (i % 13 + 1);
+        }
+        Files.write(vanilla, content);
+        Files.write(target, "stale content of a previous run".getBytes());
+    }
+
+    @After
+    public void deleteImages() throws IOException {
+        Files.deleteIfExists(vanilla);
+        Files.deleteIfExists(target);
+    }
+
+    private void assertReset(final ImageResetStrategy strategy) throws IOException {
+        strategy.reset(vanilla, target);
+        assertEquals("Wrong image size!", Files.size(vanilla), Files.size(target));
+        assertArrayEquals("Wrong image content!", Files.readAllBytes(vanilla),
+                          Files.readAllBytes(target));
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        assertReset(ImageResetStrategy.COPY);
+    }
+
+    @Test
+    public void testSparse() throws IOException {
+        assertReset(ImageResetStrategy.SPARSE);
+    }
+
+    @Test
+    public void testReflinkOrFallback() throws IOException {
+        assertReset(ImageResetStrategy.REFLINK);
+    }
+
+    @Test
+    public void testFromName() {
+        assertEquals(ImageResetStrategy.REFLINK, ImageResetStrategy.fromName("reflink"));
+        assertEquals(ImageResetStrategy.SPARSE, ImageResetStrategy.fromName(" Sparse"));
+        assertNull(ImageResetStrategy.fromName("qcow2"));
+    }
+}
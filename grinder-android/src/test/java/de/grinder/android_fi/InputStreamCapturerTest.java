@@ -0,0 +1,75 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.experimentResultDetection.InputStreamCapturer;
+import de.grinder.android_fi.experimentResultDetection.LineListener;
+
+public class InputStreamCapturerTest {
+
+    private static final String OUTPUT = "Child pid: 4711\nemulator: mapping 'system' NAND "
+                                         + "image to /tmp/android-x/emulator-abc\nKernel command line: qemu=1\nPID\t4711\n";
+
+    @Test
+    public void testLineListeners() throws IOException, InterruptedException {
+        final InputStreamCapturer capturer = new InputStreamCapturer("test");
+        final List<String> all = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> first = Collections.synchronizedList(new ArrayList<String>());
+        capturer.addLineListener(new LineListener() {
+            @Override
+            public boolean onLine(final String line) {
+                all.add(line);
+                return true;
+            }
+        });
+        capturer.addLineListener(new LineListener() {
+            @Override
+            public boolean onLine(final String line) {
+                first.add(line);
+                return false;
+            }
+        });
+
+        capturer.startCapturing(new ByteArrayInputStream(OUTPUT.getBytes(
+                                    StandardCharsets.US_ASCII)));
+        for (int i = 0; i < 100 && all.size() < 4; i++) {
+            Thread.sleep(10);
+        }
+        capturer.stopCapturing();
+
+        assertEquals(4, all.size());
+        assertEquals("Child pid: 4711", all.get(0));
+        assertEquals("PID\t4711", all.get(3));
+        assertEquals(1, first.size());
+        assertTrue(capturer.contains("Kernel command line:"));
+    }
+
+    @Test
+    public void testEndListener() throws IOException, InterruptedException {
+        final InputStreamCapturer capturer = new InputStreamCapturer("test");
+        final EventFuture<Void> end = new EventFuture<>();
+        capturer.addEndListener(new Runnable() {
+            @Override
+            public void run() {
+                end.complete(null);
+            }
+        });
+        capturer.startCapturing(new ByteArrayInputStream(OUTPUT.getBytes(
+                                    StandardCharsets.US_ASCII)));
+        for (int i = 0; i < 100 && !end.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        capturer.stopCapturing();
+        assertTrue(end.isDone());
+    }
+}
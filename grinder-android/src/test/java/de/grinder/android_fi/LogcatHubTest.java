@@ -0,0 +1,181 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.AndroidDebuggingBridge.AdbException;
+import de.grinder.android_fi.LogcatHub.Filter;
+
+public class LogcatHubTest {
+
+    /**
+     * Opens piped streams that are fed by the test. Closing a stream ends it like a
+     * terminated logcat command, since closing a piped input stream does not unblock its
+     * reader.
+     */
+    private static class PipeOpener implements LogcatHub.StreamOpener {
+        private final Map<String, PipedOutputStream> outputs = new HashMap<>();
+        private int opened = 0;
+
+        @Override
+        public synchronized InputStream open(final String buffer) throws AdbException {
+            try {
+                final PipedInputStream in = new PipedInputStream();
+                final PipedOutputStream out = new PipedOutputStream(in);
+                outputs.put(buffer, out);
+                opened++;
+                return new FilterInputStream(in) {
+                    @Override
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            } catch (final IOException e) {
+                throw new AdbException(e);
+            }
+        }
+
+        synchronized void end(final String buffer) throws IOException {
+            outputs.get(buffer).close();
+        }
+
+        synchronized void write(final String buffer, final String line) throws IOException {
+            outputs.get(buffer).write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            outputs.get(buffer).flush();
+        }
+    }
+
+    @Test
+    public void testEventFuture() throws Exception {
+        final EventFuture<String> f = new EventFuture<>();
+        final int[] runs = new int[1];
+        f.addListener(new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        });
+        try {
+            f.get(10, TimeUnit.MILLISECONDS);
+            fail("Expected timeout");
+        } catch (final TimeoutException e) {
+            // expected
+        }
+        assertTrue(f.complete("a"));
+        assertFalse(f.fail(new IOException()));
+        assertFalse(f.cancel(false));
+        assertEquals("a", f.get());
+        assertEquals(1, runs[0]);
+
+        final EventFuture<String> failed = new EventFuture<>();
+        failed.fail(new AdbException("gone"));
+        try {
+            failed.get();
+            fail("Expected failure");
+        } catch (final ExecutionException e) {
+            assertEquals("gone", e.getCause().getMessage());
+        }
+        final EventFuture<String> cancelled = new EventFuture<>();
+        cancelled.cancel(true);
+        assertTrue(cancelled.isCancelled());
+        try {
+            cancelled.get();
+            fail("Expected cancellation");
+        } catch (final CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFilter() {
+        Filter f = Filter.parse("Workload:D");
+        assertTrue(f.accepts("D/Workload( 1234): workload_started"));
+        assertTrue(f.accepts("E/Workload( 1234): failure"));
+        assertFalse(f.accepts("V/Workload( 1234): verbose"));
+        assertFalse(f.accepts("I/ActivityManager(  61): Start proc"));
+        assertFalse(f.accepts("--------- beginning of /dev/log/main"));
+
+        f = Filter.parse("*:w", "ActivityManager:I");
+        assertTrue(f.accepts("W/dalvikvm(  61): warning"));
+        assertFalse(f.accepts("I/dalvikvm(  61): info"));
+        assertTrue(f.accepts("I/ActivityManager   (  61): Start proc"));
+
+        f = Filter.parse();
+        assertTrue(f.accepts("V/any( 1): x"));
+        assertTrue(f.accepts("--------- beginning of /dev/log/main"));
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        final PipeOpener opener = new PipeOpener();
+        final LogcatHub hub = new LogcatHub(opener, "test");
+        final EventFuture<String> started = hub.subscribe("main", "workload_started",
+                                            "Workload:D");
+        final EventFuture<String> finished = hub.subscribe("main",
+                                             "workload_finished|workload_failed", "Workload:D");
+        opener.write("main", "I/Other( 1): workload_started");
+        opener.write("main", "D/Workload( 1234): workload_started");
+        assertEquals("D/Workload( 1234): workload_started", started.get(5, TimeUnit.SECONDS));
+        assertFalse(finished.isDone());
+        // both subscriptions share one stream
+        assertEquals(1, opener.opened);
+
+        // lines read before the subscription are considered
+        final EventFuture<String> again = hub.subscribe("main", "workload_started",
+                                          "Workload:D");
+        assertTrue(again.isDone());
+
+        final EventFuture<String> ams = hub.subscribe("events", "", "boot_progress_ams_ready:I");
+        opener.write("events", "I/boot_progress_ams_ready(   61): 10433");
+        assertEquals("I/boot_progress_ams_ready(   61): 10433", ams.get(5, TimeUnit.SECONDS));
+        assertEquals(2, opener.opened);
+
+        // the end of the stream fails pending subscriptions, the next one reopens it
+        opener.end("main");
+        try {
+            finished.get(5, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof AdbException);
+        }
+        EventFuture<String> next = null;
+        for (int i = 0; i < 100 && opener.opened < 3; i++) {
+            try {
+                next = hub.subscribe("main", "workload_finished", "Workload:D");
+            } catch (final AdbException e) {
+                // the end is not yet processed
+                Thread.sleep(10);
+            }
+        }
+        assertEquals(3, opener.opened);
+        assertFalse(next.isDone());
+
+        // cancelled subscriptions are removed, reset fails the others
+        final EventFuture<String> cancelled = hub.subscribe("main", "never");
+        cancelled.cancel(false);
+        hub.reset();
+        try {
+            next.get(5, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof AdbException);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleCacheTest {
+
+    private Path manifest;
+    private Path mutant;
+
+    @Before
+    public void createFiles() throws IOException {
+        manifest = Files.createTempFile("userdata", ".modules");
+        mutant = Files.createTempFile("mutant", ".ko");
+        Files.write(mutant, "mutant content".getBytes());
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(manifest);
+        Files.deleteIfExists(mutant);
+    }
+
+    private void writeManifest(final String hash) throws IOException {
+        Files.write(manifest, String.format("# baked mutants\n%s  %s\n", hash, mutant
+                                            .getFileName()).getBytes());
+        // a changed manifest must be detected by its size or modification time
+        manifest.toFile().setLastModified(System.currentTimeMillis() + 2000);
+    }
+
+    @Test
+    public void testSha256() throws IOException {
+        Files.write(mutant, "abc".getBytes());
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                     ModuleCache.sha256(mutant.toFile()));
+    }
+
+    @Test
+    public void testBaked() throws IOException {
+        final ModuleCache cache = new ModuleCache(manifest.toFile());
+        writeManifest(ModuleCache.sha256(mutant.toFile()));
+        assertTrue(cache.isBaked(mutant.toFile()));
+
+        // a rebuilt mutant with the same name must be pushed
+        Files.write(mutant, "rebuilt mutant content".getBytes());
+        assertFalse(cache.isBaked(mutant.toFile()));
+
+        // baking the rebuilt mutant updates the manifest
+        writeManifest(ModuleCache.sha256(mutant.toFile()));
+        assertTrue(cache.isBaked(mutant.toFile()));
+
+        // mutants that are not listed must be pushed
+        final Path other = Files.createTempFile("other", ".ko");
+        try {
+            assertFalse(cache.isBaked(other.toFile()));
+        } finally {
+            Files.delete(other);
+        }
+    }
+
+    @Test
+    public void testNoManifest() throws IOException {
+        final ModuleCache cache = new ModuleCache(manifest.toFile());
+        writeManifest("0000");
+        assertFalse(cache.isBaked(mutant.toFile()));
+
+        // without manifest and for unknown files, mutants are assumed to be baked
+        Files.delete(manifest);
+        assertTrue(cache.isBaked(mutant.toFile()));
+        writeManifest("0000");
+        assertTrue(cache.isBaked(mutant.resolveSibling("missing.ko").toFile()));
+    }
+}
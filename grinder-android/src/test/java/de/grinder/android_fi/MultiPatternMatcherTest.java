@@ -0,0 +1,72 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.experimentResultDetection.CircularStringBuffer;
+import de.grinder.android_fi.experimentResultDetection.MultiPatternMatcher;
+import de.grinder.android_fi.experimentResultDetection.MultiPatternMatcher.Match;
+
+public class MultiPatternMatcherTest {
+
+    @Test
+    public void testOverlappingPatterns() {
+        final MultiPatternMatcher matcher = new MultiPatternMatcher("he", "she", "his",
+                "hers");
+        final List<Match> matches = matcher.findAll("ushers");
+        assertEquals(3, matches.size());
+        assertEquals("she", matcher.getPattern(matches.get(0).getPattern()));
+        assertEquals(1, matches.get(0).getPosition());
+        assertEquals("he", matcher.getPattern(matches.get(1).getPattern()));
+        assertEquals(2, matches.get(1).getPosition());
+        assertEquals("hers", matcher.getPattern(matches.get(2).getPattern()));
+        assertEquals(2, matches.get(2).getPosition());
+    }
+
+    @Test
+    public void testPartialMatchRestart() {
+        final MultiPatternMatcher matcher = new MultiPatternMatcher("aab");
+        final List<Match> matches = matcher.findAll("aaab");
+        assertEquals(1, matches.size());
+        assertEquals(1, matches.get(0).getPosition());
+    }
+
+    @Test
+    public void testIncrementalCursor() {
+        final MultiPatternMatcher matcher = new MultiPatternMatcher("Kernel panic",
+                "qemu: fatal:");
+        final CircularStringBuffer buffer = new CircularStringBuffer(32);
+        final MultiPatternMatcher.Cursor cursor = matcher.newCursor();
+
+        buffer.put("boot ok\nKernel pa");
+        assertEquals(0, cursor.scan(buffer).size());
+        buffer.put("nic - not syncing\n");
+        final List<Match> matches = cursor.scan(buffer);
+        assertEquals(1, matches.size());
+        assertEquals(8, matches.get(0).getPosition());
+        assertEquals("Kernel panic - not syncing", buffer.lineAround(matches.get(0)
+                     .getPosition()));
+
+        // already scanned data is not reported again
+        assertEquals(0, cursor.scan(buffer).size());
+        assertEquals(buffer.getEnd(), cursor.getPosition());
+    }
+
+    @Test
+    public void testCursorAfterOverwrite() {
+        final MultiPatternMatcher matcher = new MultiPatternMatcher("qemu: fatal:");
+        final CircularStringBuffer buffer = new CircularStringBuffer(16);
+        final MultiPatternMatcher.Cursor cursor = matcher.newCursor();
+
+        buffer.put("qemu: fa");
+        assertEquals(0, cursor.scan(buffer).size());
+        // partial match is overwritten before the next scan
+        buffer.put("xxxxxxxxxxxxxxxxxxxxxxxxtal: qemu: fatal:");
+        final List<Match> matches = cursor.scan(buffer);
+        assertEquals(1, matches.size());
+        assertEquals(buffer.getEnd() - 12, matches.get(0).getPosition());
+    }
+}
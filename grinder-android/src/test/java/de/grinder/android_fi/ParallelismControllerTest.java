@@ -0,0 +1,133 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ParallelismControllerTest {
+
+    private static ParallelismController newController() {
+        // min 1, max 4, steal 5%, iowait 20%, load 100%, sysinit envelope 100s
+        return new ParallelismController(true, 1, 4, 5, 20, 100, 100, 0);
+    }
+
+    private static Thread acquireAsync(final ParallelismController pc, final Object owner,
+                                       final CountDownLatch admitted) {
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pc.acquire(owner);
+                    admitted.countDown();
+                } catch (final InterruptedException e) {
+                    // test finished
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private static void awaitWaiting(final ParallelismController pc, final int n)
+    throws InterruptedException {
+        for (int i = 0; i < 100 && pc.getWaiting() < n; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, pc.getWaiting());
+    }
+
+    @Test
+    public void testIncreaseOnDemand() throws InterruptedException {
+        final ParallelismController pc = newController();
+        final Object a = new Object();
+        pc.acquire(a);
+        // no demand, no increase
+        assertEquals(1, pc.adjust(0, 0, 10));
+
+        final CountDownLatch admitted = new CountDownLatch(1);
+        final Thread t = acquireAsync(pc, new Object(), admitted);
+        awaitWaiting(pc, 1);
+        assertFalse(admitted.await(50, TimeUnit.MILLISECONDS));
+
+        assertEquals(2, pc.adjust(0, 0, 10));
+        assertTrue(admitted.await(1, TimeUnit.SECONDS));
+        assertEquals(2, pc.getActive());
+        assertEquals(1, pc.getIncreases());
+        t.interrupt();
+    }
+
+    @Test
+    public void testDecreaseOnLoadAndCooldown() throws InterruptedException {
+        final ParallelismController pc = newController();
+        final CountDownLatch admitted = new CountDownLatch(10);
+        pc.acquire(new Object());
+        for (int i = 0; i < 3; i++) {
+            acquireAsync(pc, new Object(), admitted);
+            awaitWaiting(pc, 1);
+            pc.adjust(0, 0, 10);
+            for (int j = 0; j < 100 && pc.getWaiting() > 0; j++) {
+                Thread.sleep(10);
+            }
+        }
+        assertEquals(4, pc.getLimit());
+
+        assertEquals(3, pc.adjust(10, 0, 10));
+        assertEquals(2, pc.adjust(0, 30, 10));
+        assertEquals(1, pc.adjust(0, 0, 200));
+        assertEquals(1, pc.adjust(0, 0, 200));
+        assertEquals(3, pc.getDecreases());
+
+        // cooldown suppresses increases
+        acquireAsync(pc, new Object(), admitted);
+        for (int i = 0; i < ParallelismController.COOLDOWN_PERIODS; i++) {
+            assertEquals(1, pc.adjust(0, 0, 10));
+        }
+        assertEquals(1, pc.getLimit());
+    }
+
+    @Test
+    public void testEnvelope() throws InterruptedException {
+        final ParallelismController pc = newController();
+        final Object a = new Object();
+        pc.acquire(a);
+        acquireAsync(pc, new Object(), new CountDownLatch(1));
+        awaitWaiting(pc, 1);
+        assertEquals(2, pc.adjust(0, 0, 10));
+
+        pc.reportSysinitDuration(90 * 1000);
+        pc.reportSysinitDuration(95 * 1000);
+        assertEquals(2, pc.adjust(0, 0, 10));
+        pc.reportSysinitDuration(150 * 1000);
+        assertEquals(1, pc.adjust(0, 0, 10));
+        assertEquals("decrease 2 -> 1: [sysinit p90 150s > 100s]", pc.getLastDecision());
+        // samples are discarded after a decrease
+        assertEquals(0, pc.getSysinitP90(), 0.0);
+    }
+
+    @Test
+    public void testIdempotentRelease() throws InterruptedException {
+        final ParallelismController pc = newController();
+        final Object a = new Object();
+        pc.acquire(a);
+        pc.acquire(a);
+        assertEquals(1, pc.getActive());
+        pc.release(a);
+        pc.release(a);
+        assertEquals(0, pc.getActive());
+    }
+
+    @Test
+    public void testDisabled() throws InterruptedException {
+        final ParallelismController pc = new ParallelismController(false, 1, 1, 5, 20, 100, 0,
+                0);
+        pc.acquire(new Object());
+        pc.acquire(new Object());
+        assertEquals(2, pc.getActive());
+    }
+}
@@ -0,0 +1,84 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.BootProgressTracker.Milestone;
+import de.grinder.android_fi.PhaseMetrics.Phase;
+import de.grinder.android_fi.PhaseMetrics.RunTimer;
+
+public class PhaseMetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        final LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileMillis(90), 0);
+        for (int i = 1; i <= 9; i++) {
+            h.record(TimeUnit.MILLISECONDS.toNanos(15));
+        }
+        h.record(TimeUnit.SECONDS.toNanos(7200));
+        assertEquals(10, h.getCount());
+        assertEquals(20, h.getPercentileMillis(50), 0);
+        assertEquals(20, h.getPercentileMillis(90), 0);
+        // the overflow bucket reports the maximum
+        assertEquals(7200000, h.getPercentileMillis(100), 0);
+        assertEquals(7200000, h.getMaxMillis(), 0);
+        assertEquals(1, h.getBucketCounts()[LatencyHistogram.BOUNDS.length]);
+
+        // bounds are inclusive at nanosecond precision
+        final LatencyHistogram bounds = new LatencyHistogram();
+        bounds.record(TimeUnit.MILLISECONDS.toNanos(10));
+        bounds.record(TimeUnit.MICROSECONDS.toNanos(10900));
+        assertEquals(1, bounds.getBucketCounts()[0]);
+        assertEquals(1, bounds.getBucketCounts()[1]);
+    }
+
+    @Test
+    public void testRunTimer() {
+        final PhaseMetrics metrics = new PhaseMetrics();
+        final RunTimer timer = metrics.newRun("emu-1");
+        timer.begin(Phase.EMULATOR_START);
+        timer.record(Phase.IMAGE_RESET, TimeUnit.MILLISECONDS.toNanos(250));
+        timer.begin(Phase.DEVICE_WAIT);
+        assertEquals(Phase.DEVICE_WAIT, timer.getCurrent());
+        timer.end();
+        timer.end();
+        assertNull(timer.getCurrent());
+
+        final String[] csv = timer.toCsv().split("\n");
+        assertEquals(4, csv.length);
+        assertEquals("phase,duration_ms", csv[0]);
+        assertEquals("image_reset,250.000", csv[1]);
+        assertTrue(csv[2].startsWith("emulator_start,"));
+        assertTrue(csv[3].startsWith("device_wait,"));
+
+        assertEquals(1, metrics.getCount("device_wait"));
+        assertEquals(0, metrics.getCount("module_load"));
+        assertEquals(1, metrics.getHistogram("emu-1", Phase.IMAGE_RESET).getCount());
+        assertNull(metrics.getHistogram("emu-2", Phase.IMAGE_RESET));
+        assertEquals("emu-1", metrics.getEmulators()[0]);
+
+        final String text = metrics.toText();
+        assertTrue(text.contains("grinder_phase_duration_seconds_bucket{phase=\"image_reset\","
+                                 + "le=\"0.5\"} 1\n"));
+        assertTrue(text.contains("grinder_emulator_phase_duration_seconds_count{emulator=\"emu-1\","
+                                 + "phase=\"device_wait\"} 1\n"));
+        assertTrue(text.contains("grinder_phase_duration_seconds_sum{phase=\"image_reset\"} 0.250\n"));
+    }
+
+    @Test
+    public void testBootMilestones() {
+        final PhaseMetrics metrics = new PhaseMetrics();
+        metrics.recordMilestone(Milestone.AMS_READY, 10433);
+        assertEquals(1, metrics.getHistogram(Milestone.AMS_READY).getCount());
+        assertEquals(0, metrics.getHistogram(Milestone.START).getCount());
+        assertTrue(metrics.toText().contains("grinder_boot_milestone_uptime_seconds_sum{"
+                                             + "milestone=\"ams_ready\"} 10.433\n"));
+        assertTrue(metrics.getReport().contains("boot ams_ready: "));
+    }
+}
@@ -0,0 +1,75 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.ProcessUtils.ProcUtilException;
+
+public class ProcessTreeTest {
+
+    /**
+     * Starts a shell with two children, like getdelays with the emulator and its helpers.
+     */
+    private Process startShellWithChildren() throws ProcUtilException, InterruptedException {
+        final Process p = ProcessUtils.startProcessPipe("sh", "-c",
+                          "sleep 60 & sleep 60 & wait; echo done");
+        final int pid = ProcessUtils.getPid(p);
+        for (int i = 0; i < 200; i++) {
+            if (ProcessTree.snapshot().getChildren(pid).size() == 2) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        return p;
+    }
+
+    @Test
+    public void testDescendants() throws ProcUtilException, InterruptedException {
+        final Process p = startShellWithChildren();
+        try {
+            final int pid = ProcessUtils.getPid(p);
+            final ProcessTree tree = ProcessTree.snapshot();
+            final List<Integer> children = tree.getChildren(pid);
+            assertEquals(2, children.size());
+            assertEquals(children, tree.getDescendants(pid));
+            assertEquals(pid, tree.getStat(children.get(0)).getPpid());
+        } finally {
+            p.destroy();
+        }
+    }
+
+    @Test
+    public void testKillDescendantsKeepsRoot() throws Exception {
+        final Process p = startShellWithChildren();
+        final int pid = ProcessUtils.getPid(p);
+        assertEquals(2, ProcessTree.killDescendants(pid, ProcessUtils.SIG_KILL));
+        // the root survives its children and terminates regularly
+        assertEquals("done\n", ProcessUtils.getProcessOutput(p));
+        assertEquals(0, p.waitFor());
+        assertEquals(0, ProcessTree.killDescendants(pid, ProcessUtils.SIG_KILL));
+    }
+
+    @Test
+    public void testTerminateDescendantsDeepestFirst() throws Exception {
+        final Process p = ProcessUtils.startProcessPipe("sh", "-c",
+                          "sh -c 'sleep 60 & wait' & sleep 60 & wait; echo done");
+        final int pid = ProcessUtils.getPid(p);
+        List<Integer> descendants = ProcessTree.snapshot().getDescendants(pid);
+        for (int i = 0; i < 200 && descendants.size() < 3; i++) {
+            Thread.sleep(10);
+            descendants = ProcessTree.snapshot().getDescendants(pid);
+        }
+        assertEquals(3, descendants.size());
+        // stopped descendants must be continued to handle SIG_TERM
+        assertEquals(3, ProcessTree.killDescendants(pid, ProcessUtils.SIG_TERM));
+        assertEquals("done\n", ProcessUtils.getProcessOutput(p));
+        assertEquals(0, p.waitFor());
+        for (final int d : descendants) {
+            assertFalse(ProcessUtils.isRunning(d));
+        }
+    }
+}
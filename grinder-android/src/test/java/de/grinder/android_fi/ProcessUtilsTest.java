@@ -12,6 +12,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
+import de.grinder.android_fi.ProcessUtils.ProcStat;
 import de.grinder.android_fi.ProcessUtils.ProcUtilException;
 
 public class ProcessUtilsTest {
@@ -126,6 +127,29 @@ public class ProcessUtilsTest {
         p.destroy();
     }
 
+    @Test
+    public void testParseProcStat() {
+        final String stat = "4242 (qemu (x) 1) Z 4200 4242 4200 0 -1 4194560 1 0 0 0 0 0 0 0 "
+                            + "20 0 1 0 987654 0 0 18446744073709551615";
+        final ProcStat ps = ProcStat.parse(stat);
+        assertEquals("qemu (x) 1", ps.getName());
+        assertEquals('Z', ps.getState());
+        assertEquals(4200, ps.getPpid());
+        assertEquals(987654, ps.getStartTime());
+        assertFalse(ps.isRunning());
+        assertNull(ProcStat.parse("4242 (cat) S 1"));
+    }
+
+    @Test
+    public void testIsRunningPidReuse() throws ProcUtilException {
+        // init always exists
+        final long start = ProcessUtils.getStartTime(1);
+        assertTrue(start >= 0);
+        assertTrue(ProcessUtils.isRunning(1, start));
+        assertFalse(ProcessUtils.isRunning(1, start + 1));
+        assertEquals(-1, ProcessUtils.getStartTime(-1));
+    }
+
     private void startKillCatWithSignal(final int signal) throws ProcUtilException {
         final Process p = ProcessUtils.startProcessPipe("cat");
         final int pid = ProcessUtils.getPid(p);
@@ -0,0 +1,131 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ReadinessLoopTest {
+
+    @Test
+    public void testAnyOf() throws Exception {
+        final EventFuture<String> online = new EventFuture<>();
+        final EventFuture<Void> termination = new EventFuture<>();
+        EventFuture<Object> any = EventFuture.anyOf(online, termination);
+        assertFalse(any.isDone());
+        online.complete("online");
+        assertEquals("online", any.get());
+
+        // the first failure is passed on, cancelling the result keeps the inputs
+        final EventFuture<String> event = new EventFuture<>();
+        any = EventFuture.anyOf(event, termination);
+        event.fail(new IOException("gone"));
+        try {
+            any.get();
+            fail("Expected failure");
+        } catch (final ExecutionException e) {
+            assertEquals("gone", e.getCause().getMessage());
+        }
+        any = EventFuture.anyOf(new EventFuture<String>(), termination);
+        any.cancel(false);
+        assertFalse(termination.isDone());
+
+        // done inputs complete the result immediately
+        termination.complete(null);
+        assertTrue(EventFuture.anyOf(new EventFuture<String>(), termination).isDone());
+    }
+
+    @Test
+    public void testAllOf() throws Exception {
+        final EventFuture<String> a = new EventFuture<>();
+        final EventFuture<Integer> b = new EventFuture<>();
+        final EventFuture<Void> all = EventFuture.allOf(a, b);
+        a.complete("a");
+        assertFalse(all.isDone());
+        b.complete(1);
+        assertTrue(all.isDone());
+        assertTrue(EventFuture.allOf().isDone());
+
+        final EventFuture<String> c = new EventFuture<>();
+        final EventFuture<Void> cancelled = EventFuture.allOf(EventFuture.completed("x"), c);
+        c.cancel(false);
+        assertTrue(cancelled.isCancelled());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        final EventFuture<String> late = ReadinessLoop.deadline(new EventFuture<String>(), 50,
+                                         TimeUnit.MILLISECONDS, "late");
+        try {
+            late.get(5, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        final EventFuture<String> early = ReadinessLoop.deadline(new EventFuture<String>(),
+                                          50, TimeUnit.MILLISECONDS, "early");
+        early.complete("early");
+        Thread.sleep(100);
+        assertEquals("early", early.get());
+    }
+
+    @Test
+    public void testPoll() throws Exception {
+        final AtomicInteger probes = new AtomicInteger();
+        final EventFuture<Void> ready = ReadinessLoop.poll(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return probes.incrementAndGet() == 3;
+            }
+        }, 10);
+        ready.get(5, TimeUnit.SECONDS);
+        Thread.sleep(50);
+        assertEquals(3, probes.get());
+
+        // a failing probe fails the future
+        final EventFuture<Void> failed = ReadinessLoop.poll(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                throw new IOException("broken");
+            }
+        }, 10);
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (final ExecutionException e) {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+
+        // cancellation stops the polling
+        final AtomicInteger cancelledProbes = new AtomicInteger();
+        final EventFuture<Void> cancelled = ReadinessLoop.poll(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                cancelledProbes.incrementAndGet();
+                return false;
+            }
+        }, 10);
+        cancelled.cancel(false);
+        Thread.sleep(30);
+        final int count = cancelledProbes.get();
+        Thread.sleep(50);
+        assertEquals(count, cancelledProbes.get());
+    }
+
+    @Test
+    public void testProcessExit() throws Exception {
+        final Process p = new ProcessBuilder("sh", "-c", "exit 3").start();
+        assertEquals(Integer.valueOf(3), ReadinessLoop.processExit(p, 10).get(5,
+                     TimeUnit.SECONDS));
+    }
+}
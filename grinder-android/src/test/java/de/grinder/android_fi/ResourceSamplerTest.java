@@ -0,0 +1,84 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.grinder.android_fi.ProcessUtils.ProcUtilException;
+import de.grinder.android_fi.ResourceSampler.Sample;
+
+public class ResourceSamplerTest {
+
+    private static final String STAT = "4711 (qemu-system-arm) S 4710 4711 4700 0 -1 4194560 "
+            + "9000 0 12 0 250 50 0 0 20 0 3 0 123456 1000000 2500 18446744073709551615";
+
+    private static final String STATUS = "Name:\tqemu-system-arm\nVmRSS:\t  524288 kB\n"
+            + "voluntary_ctxt_switches:\t42\nnonvoluntary_ctxt_switches:\t7\n";
+
+    /** Status of a vCPU thread. */
+    private static final String VCPU_STATUS = "Name:\tqemu-system-arm\n"
+            + "voluntary_ctxt_switches:\t100\nnonvoluntary_ctxt_switches:\t30\n";
+
+    private static final String IO = "rchar: 100\nwchar: 200\nread_bytes: 4096\n"
+            + "write_bytes: 8192\ncancelled_write_bytes: 0\n";
+
+    @Test
+    public void testParse() {
+        // the CPU time of all threads is taken from the clock ticks, wait time and context
+        // switches are summed up over the main and the vCPU thread
+        Sample s = Sample.parse(1000, STAT, STATUS, IO, Arrays.asList(
+                                    "100000000 50000000 17\n", "2900000000 150000000 40\n"),
+                                Arrays.asList(STATUS, VCPU_STATUS));
+        assertEquals(1000, s.getTimeMs());
+        assertEquals(3000, s.getCpuMs());
+        assertEquals(200, s.getWaitMs());
+        assertEquals(524288, s.getRssKb());
+        assertEquals(4096, s.getReadBytes());
+        assertEquals(8192, s.getWriteBytes());
+        assertEquals(142, s.getVoluntarySwitches());
+        assertEquals(37, s.getInvoluntarySwitches());
+        assertEquals("1000,3000,200,524288,4096,8192,142,37", s.toCsvLine());
+
+        // without thread files and io, the values are unknown
+        final List<String> none = Collections.emptyList();
+        s = Sample.parse(0, STAT, STATUS, null, none, none);
+        assertEquals(3000, s.getCpuMs());
+        assertEquals(-1, s.getWaitMs());
+        assertEquals(-1, s.getReadBytes());
+        assertEquals(-1, s.getVoluntarySwitches());
+
+        assertNull(Sample.parse(0, "4711 (qemu", null, null, none, none));
+    }
+
+    @Test
+    public void testSampleProcess() throws ProcUtilException, InterruptedException {
+        final Process p = ProcessUtils.startProcessPipe("sleep", "60");
+        final ResourceSampler sampler = new ResourceSampler("test");
+        try {
+            sampler.start(ProcessUtils.getPid(p), 10);
+            for (int i = 0; i < 200 && sampler.getSamples().size() < 3; i++) {
+                Thread.sleep(10);
+            }
+            sampler.stop();
+            assertFalse(sampler.isSampling());
+            final List<Sample> samples = sampler.getSamples();
+            assertTrue(samples.size() >= 3);
+            assertTrue(samples.get(0).getRssKb() > 0);
+            assertTrue(samples.get(0).getTimeMs() <= samples.get(samples.size() - 1)
+                       .getTimeMs());
+            assertEquals(samples.size() + 1, sampler.toCsv().split("\n").length);
+            assertTrue(sampler.toCsv().startsWith(Sample.CSV_HEADER + "\n"));
+        } finally {
+            p.destroy();
+        }
+        sampler.reset();
+        assertTrue(sampler.getSamples().isEmpty());
+    }
+}
@@ -0,0 +1,79 @@
+package de.grinder.android_fi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.grinder.android_fi.experimentResultDetection.WorkloadEventServer;
+import de.grinder.android_fi.experimentResultDetection.WorkloadEventServer.WorkloadEvent;
+import de.grinder.android_fi.experimentResultDetection.WorkloadEventServer.WorkloadEventListener;
+
+public class WorkloadEventServerTest {
+
+    private final BlockingQueue<WorkloadEvent> events = new LinkedBlockingQueue<>();
+
+    private WorkloadEventServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new WorkloadEventServer(0, "test");
+        server.addListener(new WorkloadEventListener() {
+            @Override
+            public void onWorkloadEvent(final WorkloadEvent event) {
+                events.add(event);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    private void send(final String data) throws IOException {
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            final OutputStream out = s.getOutputStream();
+            out.write(data.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    @Test
+    public void testEvents() throws IOException, InterruptedException {
+        send("workload_started 1000\n");
+        send("workload_finished 2000\n  MB    Write1\n   8      12\n");
+
+        WorkloadEvent e = events.poll(5, TimeUnit.SECONDS);
+        assertEquals("workload_started", e.getState());
+        assertEquals(1000, e.getDeviceTime());
+        assertEquals("", e.getDetail());
+
+        e = events.poll(5, TimeUnit.SECONDS);
+        assertEquals("workload_finished", e.getState());
+        assertEquals(2000, e.getDeviceTime());
+        assertEquals("  MB    Write1\n   8      12\n", e.getDetail());
+    }
+
+    @Test
+    public void testEmptyConnectionIgnored() throws IOException, InterruptedException {
+        send("");
+        send("workload_failed\n");
+        final WorkloadEvent e = events.poll(5, TimeUnit.SECONDS);
+        assertEquals("workload_failed", e.getState());
+        assertEquals(-1, e.getDeviceTime());
+        assertTrue(events.isEmpty());
+    }
+}
@@ -9,6 +9,9 @@
 #   <emulator device> is optional, when given it must be a valid emulator name
 #   <shell commands> valid shell commands
 #
+# Environment:
+#   AFI_ADB  adb executable to use (default: adb from the PATH)
+#
 
 # check script invocation - is an emulator device specified?
 if [[ "$1" == emulator-+([[:digit:]]) ]]
@@ -17,7 +20,7 @@ then
   shift
 fi
 
-ADB="adb"
+ADB="${AFI_ADB:-adb}"
 CMD_IN="$*"
 CMD_ADD="echo \$?"
 CMD="$CMD_IN; $CMD_ADD"
@@ -0,0 +1,84 @@
+#!/bin/bash
+#
+# Bakes mutants into the vanilla userdata image without regenerating it, so that the
+# experiments do not have to push them before loading them. The mutants are written to
+# the module directory of the ext4 image with debugfs, replacing mutants with the same
+# name, and their content hashes are recorded in the module manifest (see
+# module_manifest in grinder-afi.properties). Mutants that are not baked are pushed by
+# each of their experiment runs.
+#
+# Usage: bake-mutants.sh <mutant.ko>...
+#
+# REQUIRES
+#   - correct env setup (env.sh)
+#   - vanilla image generated by gen-userdata-image.sh
+#   - no running emulators that use the vanilla image
+#   - debugfs and fsck.ext4 (e2fsprogs)
+#
+# NOTE
+#   Snapshots in snapshot mode are captured from the vanilla image and are captured
+#   again by the next experiment run, since the vanilla image changed.
+#
+
+# little helper to script location
+THIS_SCRIPT="${BASH_SOURCE[0]}"
+THIS_SCRIPT_DIR="$(dirname $THIS_SCRIPT)"
+
+# check env setup
+[[ -z "$AFI_HOME" ]] && { \
+  . "$THIS_SCRIPT_DIR/../env.sh" || \
+    { echo "ERROR: Invalid environment setup."; exit 1; };
+}
+
+if [[ $# -eq 0 ]]; then
+  echo "Usage: $0 <mutant.ko>..."
+  exit 1
+fi
+
+pgrep -x emulator64-arm > /dev/null
+if [[ $? -eq 0 ]]; then
+  echo An emulator instance is already running, bailing out.
+  exit 1
+fi
+
+AFI_MODULE_MANIFEST="${AFI_MODULE_MANIFEST-"$AFI_VDATIMG.modules"}"
+
+# module directory relative to the userdata partition, which is mounted at /data
+IMG_MOD_DIR="${AFI_AVDSYS_MOD_DIR#/data}"
+
+if [[ ! -f "$AFI_VDATIMG" ]]; then
+  echo "ERROR: Vanilla image [$AFI_VDATIMG] does not exist."
+  exit 1
+fi
+
+echo "Vanilla image: $AFI_VDATIMG"
+echo "Module manifest: $AFI_MODULE_MANIFEST"
+echo "Baking [$#] mutants into [$IMG_MOD_DIR]..."
+
+touch "$AFI_MODULE_MANIFEST"
+for M in "$@"
+do
+  if [[ ! -f "$M" ]]; then
+    echo "ERROR: Mutant [$M] does not exist."
+    exit 1
+  fi
+  NAME="$(basename "$M")"
+  echo "MUT: $NAME"
+  # debugfs does not fail on failed requests, so check the written file
+  debugfs -w -R "rm $IMG_MOD_DIR/$NAME" "$AFI_VDATIMG" &> /dev/null
+  debugfs -w -R "write $M $IMG_MOD_DIR/$NAME" "$AFI_VDATIMG" &> /dev/null
+  debugfs -R "stat $IMG_MOD_DIR/$NAME" "$AFI_VDATIMG" 2> /dev/null | grep -q "Size: $(stat -c %s "$M")\b" || \
+    { echo "ERROR: Failed to write mutant [$NAME]."; exit 1; }
+  # the file name is the key of the manifest entry
+  grep -v "  $NAME\$" "$AFI_MODULE_MANIFEST" > "$AFI_MODULE_MANIFEST.tmp"
+  echo "$(sha256sum < "$M" | cut -d ' ' -f 1)  $NAME" >> "$AFI_MODULE_MANIFEST.tmp"
+  mv "$AFI_MODULE_MANIFEST.tmp" "$AFI_MODULE_MANIFEST"
+done
+
+echo "Fixing FS ..."
+echo "-----"
+fsck.ext4 -f -y "$AFI_VDATIMG"
+echo "-----"
+echo ""
+
+echo "Fin."
@@ -34,6 +34,7 @@ AFI_CANDE_LIGHT_DIR="${AFI_CANDE_LIGHT_DIR-"$AFI_CANDE_DIR/cande_light_detector"
 AFI_CANDE_HEAVY_DIR="${AFI_CANDE_HEAVY_DIR-"$AFI_CANDE_DIR/cande_heavy_detector"}"
 AFI_CANDE_LIGHT_NAME="${AFI_CANDE_LIGHT_NAME-"cande_light_detector"}"
 AFI_CANDE_HEAVY_NAME="${AFI_CANDE_HEAVY_NAME-"cande_heavy_detector"}"
+AFI_MODULE_MANIFEST="${AFI_MODULE_MANIFEST-"$AFI_VDATIMG.modules"}"
 
 # source userdata image from android SDKs
 SRC_IMG="$ANDROID_SYSIMG_DIR/android-${AFI_AVD_API}/default/$AFI_AVD_ABI/userdata.img"
@@ -219,6 +220,14 @@ echo "Creating vanilla image..."
 cp "$AFI_DATIMG" "$AFI_VDATIMG"
 ensure_file "$AFI_VDATIMG"
 
+# record the content hashes of the baked mutants, so that the experiments only push
+# mutants that are missing or differ (see module_manifest in grinder-afi.properties)
+echo "Writing module manifest [$AFI_MODULE_MANIFEST]..."
+for M in "${MUTANT_PATHS[@]}"
+do
+  echo "$(sha256sum < "$M" | cut -d ' ' -f 1)  $(basename "$M")"
+done > "$AFI_MODULE_MANIFEST"
+
 echo ""
 echo "Fin."
 
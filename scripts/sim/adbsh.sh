@@ -0,0 +1,9 @@
+#!/bin/bash
+#
+# ADB shell wrapper for the emulator simulator, see ../adbsh.sh.
+#
+# Invocation: adbsh.sh [<emulator device>] <shell commands ...>
+#
+
+THIS_SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+AFI_ADB="$THIS_SCRIPT_DIR/adb" exec "$THIS_SCRIPT_DIR/../adbsh.sh" "$@"
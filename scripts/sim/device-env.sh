@@ -0,0 +1,82 @@
+#!/bin/bash
+#
+# Shell environment of a simulated device, set as BASH_ENV by the simulated adb tool for
+# shell commands. The working directory is the root of the device file system and the
+# absolute paths of the commands are already rewritten to it.
+#
+# Provides the device commands used by the controller (insmod, rmmod, lsmod, am, service,
+# getprop, setprop, log). Other commands that are not found on the host succeed silently,
+# e.g., the CANDE detectors.
+#
+# Environment:
+#   AFI_SIM_DEVICE  the device directory, see sim-env.sh
+#
+
+. "$(dirname "${BASH_SOURCE[0]}")/sim-env.sh" || exit 1
+
+insmod() {
+  local name pattern
+  [[ ! -f "$1" ]] && \
+    echo "insmod: can't open '${1#$PWD}'" && \
+    return 1
+  name="$(basename "$1" .ko)"
+  grep -qx "$name" "$AFI_SIM_DEVICE/modules" 2>/dev/null && \
+    echo "insmod: init_module '${1#$PWD}' failed (File exists)" && \
+    return 255
+  for pattern in $SIM_SUPPORT_MODULES
+  do
+    [[ "$name" == $pattern ]] && { echo "$name" >> "$AFI_SIM_DEVICE/modules"; return 0; }
+  done
+  # module under test
+  [[ "$(< "$AFI_SIM_DEVICE/outcome")" == module_error ]] && \
+    echo "insmod: init_module '${1#$PWD}' failed (Invalid argument)" && \
+    return 255
+  echo "$name" >> "$AFI_SIM_DEVICE/modules"
+  local i
+  for (( i = 1; i <= SIM_ACTIVATIONS; i++ ))
+  do
+    sim_kmsg "$AFI_SIM_DEVICE" "$name-fault injection (sim_fault.i_1_$i)"
+  done
+  echo "$name" > "$AFI_SIM_DEVICE/test_module"
+}
+
+rmmod() {
+  local name="$(basename "$1" .ko)"
+  ! grep -qx "$name" "$AFI_SIM_DEVICE/modules" 2>/dev/null && \
+    echo "rmmod: delete_module '$name' failed (No such file or directory)" && \
+    return 255
+  sed -i "/^$name\$/d" "$AFI_SIM_DEVICE/modules"
+}
+
+lsmod() {
+  cat "$AFI_SIM_DEVICE/modules" 2>/dev/null
+}
+
+am() {
+  [[ "$1" == start ]] && echo "Starting: Intent { cmp=${@: -1} }"
+  return 0
+}
+
+service() {
+  [[ "$1" == check ]] && echo "Service $2: found"
+  return 0
+}
+
+getprop() {
+  [[ -n "$1" ]] && grep -s "^$1=" "$AFI_SIM_DEVICE/props" | cut -d= -f2-
+  return 0
+}
+
+setprop() {
+  echo "$1=$2" >> "$AFI_SIM_DEVICE/props"
+}
+
+log() {
+  local tag="log"
+  [[ "$1" == -t ]] && { tag="$2"; shift 2; }
+  sim_logcat "$AFI_SIM_DEVICE" main I "$tag" "$*"
+}
+
+command_not_found_handle() {
+  return 0
+}
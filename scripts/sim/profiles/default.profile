@@ -0,0 +1,37 @@
+#
+# Default simulator profile, loaded before every other profile. Durations are given in
+# milliseconds and vary by +/- SIM_JITTER percent.
+#
+
+# time from emulator start until the device is online
+SIM_BOOT_TIME=30000
+# time from device online until the activity manager is ready
+SIM_AMS_READY_TIME=5000
+# time from device online until the workload logs workload_started
+SIM_WORKLOAD_START_TIME=10000
+# workload run time from workload_started until its end state
+SIM_WORKLOAD_TIME=60000
+# time from loading the module under test until a fault outcome manifests
+SIM_FAULT_TIME=5000
+# additional latency of each adb invocation
+SIM_ADB_LATENCY=0
+# variation of all durations in percent
+SIM_JITTER=20
+
+# weighted outcomes of a run, one of
+#   finished     the workload finishes
+#   app_failure  the workload reports a failure
+#   panic        kernel panic, the device stops responding
+#   oops         kernel oops, the workload still finishes
+#   hang         the device stops responding without console output
+#   crash        the emulator process terminates with a qemu error
+#   boot_hang    the device never comes online
+#   module_error insmod of the module under test fails
+SIM_OUTCOMES="finished:1"
+
+# number of fault injection lines printed when the module under test is loaded
+SIM_ACTIVATIONS=2
+# name patterns of modules that are not the module under test
+SIM_SUPPORT_MODULES="grinder* cande* w_*"
+# workload flag file on the device
+SIM_FLAGFILE="${AFI_WL_FLAGFILE:-/data/data/de.grinder.android_fi/files/workload_state}"
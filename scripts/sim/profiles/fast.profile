@@ -0,0 +1,9 @@
+#
+# Short runs for CI and controller load tests: all runs finish within a few seconds.
+#
+
+SIM_BOOT_TIME=2000
+SIM_AMS_READY_TIME=500
+SIM_WORKLOAD_START_TIME=1000
+SIM_WORKLOAD_TIME=5000
+SIM_FAULT_TIME=1000
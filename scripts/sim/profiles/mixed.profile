@@ -0,0 +1,14 @@
+#
+# Short runs with a fault mix similar to an injection campaign, so that all result
+# detection paths are exercised.
+#
+
+SIM_BOOT_TIME=5000
+SIM_AMS_READY_TIME=1000
+SIM_WORKLOAD_START_TIME=2000
+SIM_WORKLOAD_TIME=15000
+SIM_FAULT_TIME=3000
+SIM_ADB_LATENCY=20
+SIM_JITTER=30
+
+SIM_OUTCOMES="finished:70 app_failure:8 panic:8 oops:4 hang:5 crash:2 boot_hang:2 module_error:1"
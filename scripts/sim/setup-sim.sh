@@ -0,0 +1,53 @@
+#!/bin/bash
+#
+# Prepares a directory for running GRINDER against the emulator simulator: creates empty
+# images, kernel and workload files and writes the properties that point GRINDER to them
+# and to the simulated tools. Append the properties to the grinder-afi.properties file in
+# GRINDER's working directory. Snapshots and the ADB wire protocol are not supported by
+# the simulator, so snapshot_mode and adb_wire_protocol must stay disabled.
+#
+# Invocation: setup-sim.sh <directory>
+#
+
+THIS_SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+
+[[ $# -ne 1 ]] && \
+  echo "Usage: $0 <directory>" && \
+  exit 1
+
+DIR="$(mkdir -p "$1" && cd "$1" && pwd)" || exit 1
+for FILE in zImage system.img system-vanilla.img userdata.img userdata-vanilla.img \
+  sdcard.img sdcard-vanilla.img workload.apk
+do
+  : > "$DIR/$FILE" || exit 1
+done
+
+cat > "$DIR/grinder-afi-sim.properties" <<PROPERTIES
+# emulator simulator, see $THIS_SCRIPT_DIR/sim-env.sh
+adb=$THIS_SCRIPT_DIR/adb
+adb_shell=$THIS_SCRIPT_DIR/adbsh.sh
+emulator=$THIS_SCRIPT_DIR/emulator
+getdelays=$THIS_SCRIPT_DIR/getdelays
+kernel_bimage=$DIR/zImage
+system_image=$DIR/system.img
+system_vanilla_image=$DIR/system-vanilla.img
+userdata_image=$DIR/userdata.img
+userdata_vanilla_image=$DIR/userdata-vanilla.img
+sdcard_image=$DIR/sdcard.img
+sdcard_vanilla_image=$DIR/sdcard-vanilla.img
+workload_apk=$DIR/workload.apk
+avd_bin_dir=/data/afi/bin
+avd_module_dir=/data/afi/modules
+grinder_lkm_name=grinder
+avd_name=afi-sim
+workload_activity=de.grinder.android_fi/.Workload
+cande_light_name=cande_light_detector
+cande_heavy_name=cande_heavy_detector
+avd_worload_flagfile=/data/data/de.grinder.android_fi/files/workload_state
+# simulated emulators bind no ports and the simulated adb finds them by name, so the
+# port range may exceed the ADB default range of 16 emulators, here 64 emulators
+emulator_first_port=5554
+emulator_last_port=5680
+PROPERTIES
+
+echo "Simulator properties written to [$DIR/grinder-afi-sim.properties]"
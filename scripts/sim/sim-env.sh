@@ -0,0 +1,96 @@
+#!/bin/bash
+#
+# Common settings and helpers of the emulator simulator. This file is sourced by the
+# simulated emulator, getdelays and adb tools in this directory.
+#
+# The simulated devices share a state directory, one sub directory per device named after
+# its ADB device name, i.e., emulator-<console port>. A device directory contains
+#   pid          PID of the simulated emulator process
+#   state        ADB device state: offline or device
+#   outcome      the outcome of the run, see SIM_OUTCOMES
+#   hung         exists if the device stopped responding
+#   modules      names of the loaded kernel modules
+#   kmsg         kernel messages, printed on the emulator console
+#   logcat-<b>   logcat buffer <b>, i.e., main, system or events
+#   fs/          root of the device file system
+#
+# Environment:
+#   AFI_SIM_DIR       state directory (default: ${TMPDIR:-/tmp}/afi-sim-$USER)
+#   AFI_SIM_PROFILE   timing and fault profile, either the name of a profile in the
+#                     profiles directory or the path of a profile file (default: default)
+#   AFI_SIM_OUTCOMES  overrides SIM_OUTCOMES of the profile, e.g., "panic:1"
+#   AFI_SIM_SEED      seed for reproducible outcomes and timings; the console port is
+#                     added, so that each device gets its own sequence
+#
+
+SIM_SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+SIM_DIR="${AFI_SIM_DIR:-${TMPDIR:-/tmp}/afi-sim-${USER:-$(id -u)}}"
+
+# load the default profile first so that profiles only need to set the differences
+. "$SIM_SCRIPT_DIR/profiles/default.profile" || exit 1
+SIM_PROFILE="${AFI_SIM_PROFILE:-default}"
+if [[ "$SIM_PROFILE" != */* ]]
+then
+  SIM_PROFILE="$SIM_SCRIPT_DIR/profiles/$SIM_PROFILE.profile"
+fi
+. "$SIM_PROFILE" || { echo "ERROR: Cannot load simulator profile [$SIM_PROFILE]."; exit 1; }
+SIM_OUTCOMES="${AFI_SIM_OUTCOMES:-$SIM_OUTCOMES}"
+
+# Prints the state directory of the given device.
+sim_device_dir() {
+  echo "$SIM_DIR/$1"
+}
+
+# Checks whether the simulated emulator of the given device directory is running.
+sim_device_alive() {
+  local pid
+  [[ -r "$1/pid" ]] && read -r pid < "$1/pid" && kill -0 "$pid" 2>/dev/null
+}
+
+# Prints the current time in milliseconds.
+sim_now_ms() {
+  date +%s%3N
+}
+
+# Prints the given duration in milliseconds with the jitter of the profile applied.
+sim_jitter_ms() {
+  local ms="$1"
+  if [[ "$SIM_JITTER" -gt 0 && "$ms" -gt 0 ]]
+  then
+    ms=$(( ms * (100 - SIM_JITTER + RANDOM % (2 * SIM_JITTER + 1)) / 100 ))
+  fi
+  echo "$ms"
+}
+
+# Sleeps for the given number of milliseconds.
+sim_sleep_ms() {
+  [[ "$1" -gt 0 ]] && sleep "$(( $1 / 1000 )).$(printf '%03d' $(( $1 % 1000 )))"
+}
+
+# Picks an outcome from the weighted list SIM_OUTCOMES, e.g., "finished:90 panic:10".
+sim_pick_outcome() {
+  local entry total=0 pick
+  for entry in $SIM_OUTCOMES
+  do
+    total=$(( total + ${entry#*:} ))
+  done
+  [[ $total -le 0 ]] && { echo "finished"; return; }
+  pick=$(( RANDOM % total ))
+  for entry in $SIM_OUTCOMES
+  do
+    pick=$(( pick - ${entry#*:} ))
+    [[ $pick -lt 0 ]] && { echo "${entry%%:*}"; return; }
+  done
+}
+
+# Appends a kernel message to the console of the given device directory.
+sim_kmsg() {
+  echo "$2" >> "$1/kmsg"
+}
+
+# Appends a message in logcat brief format to a logcat buffer of the given device
+# directory.
+# Invocation: sim_logcat <device dir> <buffer> <priority> <tag> <message>
+sim_logcat() {
+  printf '%s/%s(%5d): %s\n' "$3" "$4" "$$" "$5" >> "$1/logcat-$2"
+}
@@ -4,6 +4,9 @@ import static java.lang.Math.abs;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
@@ -59,6 +62,11 @@ public class Workload extends Activity {
 
     private static final String FLAGFILE = "workload_state";
 
+    // host side of the emulator network and system property with the notification port
+    private static final String NOTIFY_HOST = "10.0.2.2";
+    private static final String NOTIFY_PORT_PROPERTY = "afi.notify.port";
+    private static final int NOTIFY_TIMEOUT = 2000;
+
 
 
     //Channels all kinds of exceptions from runWorkload() into this
@@ -315,16 +323,64 @@ public class Workload extends Activity {
     private void notifyStart() throws FlagFileException {
         writeFlagFile("workload_started");
         Log.d(TAG, "workload_started");
+        notifyHost("workload_started", null);
     }
 
     private void notifySuccess() throws FlagFileException {
         writeFlagFile("workload_finished");
         Log.d(TAG, "workload_finished");
+        notifyHost("workload_finished", IO_results());
     }
 
     private void notifyFailed() throws FlagFileException {
         writeFlagFile("workload_failed");
         Log.d(TAG, "workload_failed");
+        notifyHost("workload_failed", IO_results());
+    }
+
+    // Reads the notification port set by the host with 'emulator -prop', -1 if not set
+    private static int getNotifyPort() {
+        try {
+            Class<?> props = Class.forName("android.os.SystemProperties");
+            String port = (String) props.getMethod("get", String.class)
+                          .invoke(null, NOTIFY_PORT_PROPERTY);
+            return port == null || port.isEmpty() ? -1 : Integer.parseInt(port.trim());
+        } catch (Throwable e) {
+            Log.w(TAG, "Reading notification port failed: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Pushes the state to the host in the background; the flag file remains the reference,
+    // so failures are only logged
+    private void notifyHost(final String state, final String detail) {
+        final int port = getNotifyPort();
+        if (port <= 0) {
+            return;
+        }
+        final long time = System.currentTimeMillis();
+        new Thread(new Runnable() {
+            public void run() {
+                Socket s = new Socket();
+                try {
+                    s.connect(new InetSocketAddress(NOTIFY_HOST, port), NOTIFY_TIMEOUT);
+                    OutputStream out = s.getOutputStream();
+                    out.write((state + " " + time + "\n").getBytes("UTF-8"));
+                    if (detail != null) {
+                        out.write(detail.getBytes("UTF-8"));
+                    }
+                    out.flush();
+                } catch (Throwable e) {
+                    Log.w(TAG, "Notifying host of " + state + " failed: " + e.getMessage());
+                } finally {
+                    try {
+                        s.close();
+                    } catch (Throwable e) {
+                        // ignore
+                    }
+                }
+            }
+        }).start();
     }
 
     private void writeFlagFile(String text) throws FlagFileException {
@@ -393,6 +449,16 @@ public class Workload extends Activity {
               IO_xout[15] + IO_xout[16]);
     }
 
+    private String IO_results()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= 16; i++)
+        {
+            if (IO_xout[i] != null) sb.append(IO_xout[i]);
+        }
+        return sb.toString();
+    }
+
     public native String IO_doIt(int size1, String path, int cacheIt, int driveToUse);
 
     ///////////////////////////////////////////////////////////////////